@@ -0,0 +1,107 @@
+package com.securefiletransfert.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Fichiers de test des benchmarks, générés par morceaux de 1 Mo
+ * (la mémoire utilisée ne dépend pas de la taille demandée)
+ */
+public final class BenchmarkFiles {
+
+    private static final int CHUNK = 1 << 20;
+
+    private BenchmarkFiles() {}
+
+    /**
+     * Contenu aléatoire (incompressible), reproductible à partir de seed
+     */
+    public static Path random(Path dir, String name, long size, long seed) throws IOException {
+        Random random = new Random(seed);
+        byte[] chunk = new byte[CHUNK];
+        Path file = dir.resolve(name);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long remaining = size; remaining > 0; remaining -= CHUNK) {
+                random.nextBytes(chunk);
+                out.write(chunk, 0, (int) Math.min(CHUNK, remaining));
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Texte tabulaire (CSV) qui se compresse environ au quart
+     */
+    public static Path csv(Path dir, String name, long size) throws IOException {
+        Random random = new Random(42);
+        StringBuilder lines = new StringBuilder(CHUNK + 128);
+        Path file = dir.resolve(name);
+        long written = 0;
+        long row = 0;
+        try (OutputStream out = Files.newOutputStream(file)) {
+            while (written < size) {
+                lines.setLength(0);
+                while (lines.length() < CHUNK) {
+                    lines.append(row++).append(",client-").append(random.nextInt(1000))
+                        .append(',').append(random.nextInt(100_000) / 100.0)
+                        .append(",2024-0").append(1 + random.nextInt(9)).append("-1")
+                        .append(random.nextInt(10)).append(",OK\n");
+                }
+                byte[] bytes = lines.toString().getBytes(StandardCharsets.US_ASCII);
+                int n = (int) Math.min(bytes.length, size - written);
+                out.write(bytes, 0, n);
+                written += n;
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Remplace les 8 premiers octets : le contenu devient unique et le
+     * serveur ne peut plus le dédupliquer
+     */
+    public static void stamp(Path file, long value) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer bytes = ByteBuffer.allocate(Long.BYTES).putLong(value).flip();
+            bytes.limit((int) Math.min(Long.BYTES, channel.size()));
+            channel.write(bytes, 0);
+        }
+    }
+
+    /**
+     * Copie de file où une fraction des blocs de blockSize octets est modifiée
+     */
+    public static Path modified(Path file, Path copy, double fraction, int blockSize)
+            throws IOException {
+        Files.copy(file, copy);
+        Random random = new Random(7);
+        long blocks = Files.size(file) / blockSize;
+        try (FileChannel channel = FileChannel.open(copy, StandardOpenOption.WRITE)) {
+            for (long i = 0; i < blocks; i++) {
+                if (random.nextDouble() < fraction) {
+                    channel.write(ByteBuffer.wrap(new byte[] {(byte) random.nextInt()}),
+                        i * blockSize + random.nextInt(blockSize));
+                }
+            }
+        }
+        return copy;
+    }
+
+    public static void deleteRecursively(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
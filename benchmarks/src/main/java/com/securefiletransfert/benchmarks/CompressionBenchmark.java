@@ -0,0 +1,81 @@
+package com.securefiletransfert.benchmarks;
+
+import com.securefiletransfert.client.CompressionEncoder;
+import com.securefiletransfert.client.FileProcessor;
+import com.securefiletransfert.common.CompressionCodecs;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.DataOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compression adaptative par morceaux avant chiffrement (mode --compress)
+ *
+ * csv se compresse, random non (les morceaux partent bruts après l'essai).
+ * Le compteur wireBytes donne les octets produits pour une opération.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dsft.log.level=warn")
+public class CompressionBenchmark {
+
+    @Param({"67108864"})
+    public long fileSize;
+
+    @Param({"csv", "random"})
+    public String content;
+
+    @Param({"deflate", "none"})
+    public String codec;
+
+    private Path dir;
+    private FileProcessor.StreamedFile file;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Wire {
+        public long wireBytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("sft-bench");
+        Path source = "csv".equals(content)
+            ? BenchmarkFiles.csv(dir, "source.csv", fileSize)
+            : BenchmarkFiles.random(dir, "source.bin", fileSize, 1);
+        file = FileProcessor.prepareFile(source.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkFiles.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public long encode(Wire wire) throws Exception {
+        DataOutputStream out = new DataOutputStream(OutputStream.nullOutputStream());
+        long sent = CompressionEncoder.encode(file, CompressionCodecs.create(codec), out);
+        wire.wireBytes = out.size();
+        return sent;
+    }
+}
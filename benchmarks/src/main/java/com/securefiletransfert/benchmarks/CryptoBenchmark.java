@@ -0,0 +1,96 @@
+package com.securefiletransfert.benchmarks;
+
+import com.securefiletransfert.common.ChunkCipher;
+import com.securefiletransfert.common.CryptoUtils;
+import com.securefiletransfert.common.ProtocolConstants;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Primitives cryptographiques sur un tableau en mémoire
+ *
+ * encrypt/decrypt/sha256 : API historique de CryptoUtils (AES, SHA-256).
+ * gcmEncrypt/gcmDecrypt : un morceau AES-GCM de 256 Ko ; lancé avec -t N,
+ * mesure le passage à l'échelle sur N threads (mode --gcm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dsft.log.level=warn", "-Xmx2g"})
+public class CryptoBenchmark {
+
+    @Param({"1024", "65536", "1048576", "67108864"})
+    public int size;
+
+    private byte[] plain;
+    private byte[] encrypted;
+
+    private ChunkCipher chunkCipher;
+    private byte[] chunk;
+    private byte[] sealedChunk;
+    private ByteBuffer sealed;
+    private ByteBuffer opened;
+    // Le morceau 0 est chiffré à la préparation : GCM refuse de réutiliser son nonce
+    private long chunkIndex = 1;
+
+    @Setup
+    public void setUp() throws Exception {
+        plain = new byte[size];
+        new Random(1).nextBytes(plain);
+        encrypted = CryptoUtils.encrypt(plain);
+
+        chunkCipher = new ChunkCipher(CryptoUtils.getSecretKey(), ChunkCipher.newSalt());
+        chunk = new byte[ProtocolConstants.GCM_CHUNK_SIZE];
+        new Random(2).nextBytes(chunk);
+        sealedChunk = new byte[chunk.length + ChunkCipher.TAG_SIZE];
+        chunkCipher.encrypt(0, chunk, 0, chunk.length, sealedChunk);
+        sealed = ByteBuffer.wrap(sealedChunk);
+        opened = ByteBuffer.allocateDirect(chunk.length);
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws Exception {
+        return CryptoUtils.encrypt(plain);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws Exception {
+        return CryptoUtils.decrypt(encrypted);
+    }
+
+    @Benchmark
+    public String sha256() throws Exception {
+        return CryptoUtils.calculateSHA256(plain);
+    }
+
+    /**
+     * Un nonce par morceau : l'index change à chaque appel
+     */
+    @Benchmark
+    public int gcmEncrypt() throws Exception {
+        return chunkCipher.encrypt(chunkIndex++, chunk, 0, chunk.length, sealedChunk);
+    }
+
+    @Benchmark
+    public int gcmDecrypt() throws Exception {
+        sealed.clear();
+        opened.clear();
+        return chunkCipher.decrypt(0, sealed, opened);
+    }
+}
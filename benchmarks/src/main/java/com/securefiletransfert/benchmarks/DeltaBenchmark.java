@@ -0,0 +1,98 @@
+package com.securefiletransfert.benchmarks;
+
+import com.securefiletransfert.client.DeltaEncoder;
+import com.securefiletransfert.client.FileProcessor;
+import com.securefiletransfert.common.BlockSignatures;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synchronisation différentielle : signatures de la version stockée (côté
+ * serveur) et encodage de la nouvelle version (côté client)
+ *
+ * Le compteur wireBytes donne les octets d'instructions produits pour une
+ * opération, à comparer à fileSize. 1 Go : -p fileSize=1073741824.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Dsft.log.level=warn", "-Xmx2g"})
+public class DeltaBenchmark {
+
+    @Param({"104857600"})
+    public long fileSize;
+
+    /**
+     * Fraction des blocs modifiés dans la nouvelle version
+     */
+    @Param({"0.01", "0.1"})
+    public double changed;
+
+    private Path dir;
+    private Path base;
+    private int blockSize;
+    private BlockSignatures signatures;
+    private FileProcessor.StreamedFile target;
+
+    /**
+     * Octets d'instructions de la dernière opération
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Wire {
+        public long wireBytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("sft-bench");
+        base = BenchmarkFiles.random(dir, "base.bin", fileSize, 1);
+        blockSize = BlockSignatures.chooseBlockSize(fileSize);
+        signatures = signatures();
+        Path modified = BenchmarkFiles.modified(base, dir.resolve("modified.bin"), changed,
+            blockSize);
+        target = FileProcessor.prepareFile(modified.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkFiles.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public BlockSignatures signatures() throws Exception {
+        try (InputStream in = Files.newInputStream(base)) {
+            return BlockSignatures.compute(in, fileSize, blockSize);
+        }
+    }
+
+    @Benchmark
+    public long encode(Wire wire) throws Exception {
+        DataOutputStream out = new DataOutputStream(OutputStream.nullOutputStream());
+        long literal = DeltaEncoder.encode(target, signatures, out);
+        wire.wireBytes = out.size();
+        return literal;
+    }
+}
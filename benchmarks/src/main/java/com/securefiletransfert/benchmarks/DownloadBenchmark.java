@@ -0,0 +1,148 @@
+package com.securefiletransfert.benchmarks;
+
+import com.securefiletransfert.client.SecureFileClient;
+import com.securefiletransfert.client.TransferResult;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Téléchargements (GET) simultanés sur l'interface de bouclage, depuis un
+ * SecureFileServer démarré dans la même JVM
+ *
+ * Une opération = clients sessions simultanées (threads virtuels), chacune
+ * téléchargeant files fois le même fichier stocké de fileSize octets dans
+ * son propre répertoire. Le fichier est envoyé une fois au démarrage ;
+ * downloadCache (Mo, 0 : désactivé) montre l'effet du cache des petits
+ * fichiers (DownloadCache côté serveur).
+ *
+ * Throughput donne le débit (le compteur bytes : octets de fichier reçus
+ * par seconde), SampleTime les percentiles de latence d'une opération.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Dsft.log.level=warn", "-Xmx2g"})
+public class DownloadBenchmark {
+
+    private static final String FILENAME = "download.bin";
+
+    @Param({"65536", "16777216"})
+    public long fileSize;
+
+    @Param({"1", "16", "64"})
+    public int clients;
+
+    @Param({"4"})
+    public int files;
+
+    @Param({"blocking", "nio"})
+    public String engine;
+
+    @Param({"64", "0"})
+    public int downloadCache;
+
+    private Path storage;
+    private Path sources;
+    private LoopbackServer server;
+    private ExecutorService executor;
+    private final List<Path> targets = new ArrayList<>();
+
+    /**
+     * Octets de fichier reçus, rapportés par seconde
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        storage = Files.createTempDirectory("sft-bench-store");
+        sources = Files.createTempDirectory("sft-bench-src");
+        server = LoopbackServer.start(storage, "65536", "--engine=" + engine,
+            "--download-cache=" + downloadCache);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+
+        Path file = BenchmarkFiles.random(sources, FILENAME, fileSize, 1);
+        SecureFileClient client = new SecureFileClient("localhost", server.getPort(),
+            "admin", "admin123", null);
+        for (TransferResult result : client.transferFiles(List.of(file.toString()), 1)) {
+            if (!result.isSuccess()) {
+                throw new IllegalStateException("Envoi échoué: " + result);
+            }
+        }
+        for (int i = 0; i < clients; i++) {
+            targets.add(Files.createDirectory(sources.resolve("client-" + i)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        server.close();
+        BenchmarkFiles.deleteRecursively(storage);
+        BenchmarkFiles.deleteRecursively(sources);
+    }
+
+    @Benchmark
+    public void download(Bytes counter) throws Exception {
+        if (clients == 1) {
+            receive(targets.get(0));
+        } else {
+            List<Future<?>> sessions = new ArrayList<>(clients);
+            for (Path target : targets) {
+                sessions.add(executor.submit(() -> {
+                    receive(target);
+                    return null;
+                }));
+            }
+            for (Future<?> session : sessions) {
+                session.get();
+            }
+        }
+        counter.bytes += fileSize * files * clients;
+    }
+
+    /**
+     * Les téléchargements d'une session se suivent : chacun remplace le
+     * fichier reçu précédemment
+     */
+    private void receive(Path directory) throws Exception {
+        SecureFileClient client = new SecureFileClient("localhost", server.getPort(),
+            "admin", "admin123", null);
+        List<String> names = new ArrayList<>(files);
+        for (int i = 0; i < files; i++) {
+            names.add(FILENAME);
+        }
+        for (TransferResult result : client.downloadFiles(names, directory, 16)) {
+            if (!result.isSuccess()) {
+                throw new IllegalStateException("Téléchargement échoué: " + result);
+            }
+        }
+    }
+}
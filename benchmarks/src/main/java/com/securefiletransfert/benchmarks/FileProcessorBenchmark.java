@@ -0,0 +1,105 @@
+package com.securefiletransfert.benchmarks;
+
+import com.securefiletransfert.client.FileProcessor;
+import com.securefiletransfert.common.ChunkCipher;
+import com.securefiletransfert.common.CryptoUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Préparation côté client d'un fichier sur disque (dans le cache des pages
+ * après le premier tour), sans réseau
+ *
+ * processFile charge tout le fichier : à 1 Go (-p fileSize=1073741824), il
+ * faut un tas de 4 Go (-jvmArgsAppend -Xmx4g). Les autres modes sont en
+ * streaming. prepareTree et encryptChunks utilisent tous les cœurs : pour
+ * mesurer le passage à l'échelle, -jvmArgsAppend -XX:ActiveProcessorCount=N.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Dsft.log.level=warn", "-Xmx2g"})
+public class FileProcessorBenchmark {
+
+    @Param({"1024", "1048576", "104857600"})
+    public long fileSize;
+
+    private Path dir;
+    private Path file;
+    private FileProcessor.StreamedFile streamed;
+    private ChunkCipher chunkCipher;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("sft-bench");
+        file = BenchmarkFiles.random(dir, "source.bin", fileSize, 1);
+        streamed = FileProcessor.prepareFile(file.toString());
+        chunkCipher = new ChunkCipher(CryptoUtils.getSecretKey(), ChunkCipher.newSalt());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkFiles.deleteRecursively(dir);
+    }
+
+    /**
+     * Chemin historique : lecture complète, hash et chiffrement en mémoire
+     */
+    @Benchmark
+    public FileProcessor.ProcessedFile processFile() throws Exception {
+        return FileProcessor.processFile(file.toString());
+    }
+
+    /**
+     * SHA-256 séquentiel en streaming (négociation des modes classiques)
+     */
+    @Benchmark
+    public FileProcessor.StreamedFile prepareFlat() throws Exception {
+        return FileProcessor.prepareFile(file.toString());
+    }
+
+    /**
+     * Arbre de Merkle, feuilles hachées en parallèle (mode --tree)
+     */
+    @Benchmark
+    public FileProcessor.StreamedFile prepareTree() throws Exception {
+        return FileProcessor.prepareTree(file.toString());
+    }
+
+    /**
+     * Chiffrement AES en streaming (mode par défaut), sans réseau
+     */
+    @Benchmark
+    public long encryptStream() throws Exception {
+        return FileProcessor.streamEncrypted(streamed, CryptoUtils.getSecretKey(),
+            OutputStream.nullOutputStream());
+    }
+
+    /**
+     * Chiffrement AES-GCM par morceaux en parallèle (mode --gcm), sans réseau
+     */
+    @Benchmark
+    public long encryptChunks() throws Exception {
+        return FileProcessor.streamEncryptedChunks(streamed, chunkCipher,
+            OutputStream.nullOutputStream());
+    }
+}
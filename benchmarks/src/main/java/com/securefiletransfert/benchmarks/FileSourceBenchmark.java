@@ -0,0 +1,119 @@
+package com.securefiletransfert.benchmarks;
+
+import com.securefiletransfert.common.CryptoUtils;
+import com.securefiletransfert.common.MappedInputStream;
+import com.securefiletransfert.common.ProtocolConstants;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lecture d'un fichier source par read() ou par projection en mémoire
+ * (MappedInputStream), suivie du SHA-256 ou du chiffrement AES de chaque
+ * morceau, fichier dans le cache des pages
+ *
+ * Sert à fixer MappedInputStream.MAP_THRESHOLD : la taille à partir de
+ * laquelle les méthodes mapped* passent devant les méthodes buffered*.
+ * Les projections ne sont libérées qu'au ramasse-miettes, forcé après chaque
+ * itération ; en dessous de 256 Ko, une itération en accumule assez pour
+ * épuiser les projections autorisées par le système.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Dsft.log.level=warn"})
+public class FileSourceBenchmark {
+
+    @Param({"262144", "1048576", "16777216", "268435456"})
+    public long fileSize;
+
+    private Path dir;
+    private Path file;
+    private Cipher cipher;
+    private final byte[] buffer = new byte[ProtocolConstants.STREAM_CHUNK_SIZE];
+    private byte[] encrypted;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("sft-bench");
+        file = BenchmarkFiles.random(dir, "source.bin", fileSize, 1);
+        cipher = CryptoUtils.createCipher(Cipher.ENCRYPT_MODE);
+        encrypted = new byte[cipher.getOutputSize(buffer.length)];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkFiles.deleteRecursively(dir);
+    }
+
+    @TearDown(Level.Iteration)
+    public void releaseMappings() {
+        System.gc();
+    }
+
+    @Benchmark
+    public byte[] hashBuffered() throws Exception {
+        try (InputStream in = Files.newInputStream(file)) {
+            return hash(in);
+        }
+    }
+
+    @Benchmark
+    public byte[] hashMapped() throws Exception {
+        try (InputStream in = new MappedInputStream(file, 0, fileSize)) {
+            return hash(in);
+        }
+    }
+
+    @Benchmark
+    public long encryptBuffered() throws Exception {
+        try (InputStream in = Files.newInputStream(file)) {
+            return encrypt(in);
+        }
+    }
+
+    @Benchmark
+    public long encryptMapped() throws Exception {
+        try (InputStream in = new MappedInputStream(file, 0, fileSize)) {
+            return encrypt(in);
+        }
+    }
+
+    private byte[] hash(InputStream in) throws Exception {
+        MessageDigest digest = CryptoUtils.createDigest();
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return digest.digest();
+    }
+
+    private long encrypt(InputStream in) throws Exception {
+        long written = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            written += cipher.update(buffer, 0, read, encrypted);
+        }
+        return written + cipher.doFinal(encrypted, 0);
+    }
+}
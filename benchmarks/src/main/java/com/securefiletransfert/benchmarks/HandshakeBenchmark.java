@@ -0,0 +1,94 @@
+package com.securefiletransfert.benchmarks;
+
+import com.securefiletransfert.client.ClientSession;
+import com.securefiletransfert.common.KeyExchange;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ouverture de session : accord de clés seul, et connexion complète
+ * (TCP, authentification, échange de clés, fermeture) sur l'interface de
+ * bouclage, avec (ticketTtl > 0) ou sans reprise de session
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dsft.log.level=warn")
+public class HandshakeBenchmark {
+
+    private final byte[] resumptionSecret = KeyExchange.newNonce();
+
+    /**
+     * Serveur de bouclage (seul connect() en dépend)
+     */
+    @State(Scope.Benchmark)
+    public static class Loopback {
+
+        @Param({"3600", "0"})
+        public int ticketTtl;
+
+        @Param({"blocking", "nio"})
+        public String engine;
+
+        private Path storage;
+        private LoopbackServer server;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            storage = Files.createTempDirectory("sft-bench-store");
+            server = LoopbackServer.start(storage, "--engine=" + engine,
+                "--ticket-ttl=" + ticketTtl);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            server.close();
+            BenchmarkFiles.deleteRecursively(storage);
+        }
+    }
+
+    /**
+     * Deux paires X25519 éphémères, deux accords et la dérivation HKDF
+     */
+    @Benchmark
+    public KeyExchange.SessionKeys ecdh() throws Exception {
+        KeyExchange client = new KeyExchange();
+        KeyExchange server = new KeyExchange();
+        server.agree(client.getPublicKey());
+        return KeyExchange.derive(client.agree(server.getPublicKey()),
+            KeyExchange.newNonce(), KeyExchange.newNonce());
+    }
+
+    /**
+     * Dérivation seule, à partir du secret d'un ticket
+     */
+    @Benchmark
+    public KeyExchange.SessionKeys resume() throws Exception {
+        return KeyExchange.derive(resumptionSecret, KeyExchange.newNonce(),
+            KeyExchange.newNonce());
+    }
+
+    @Benchmark
+    public void connect(Loopback loopback) throws Exception {
+        ClientSession.open("localhost", loopback.server.getPort(), "admin", "admin123", 1)
+            .close();
+    }
+}
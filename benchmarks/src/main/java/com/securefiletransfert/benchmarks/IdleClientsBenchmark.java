@@ -0,0 +1,131 @@
+package com.securefiletransfert.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coût côté serveur de clients connectés qui n'envoient rien
+ *
+ * Une opération ouvre clients connexions (sockets brutes, sans poignée de
+ * main : chaque session attend sa première trame), attend que le serveur
+ * les ait toutes acceptées puis relève, par rapport au serveur au repos :
+ * threads, threads plateforme vivants (ThreadMXBean, les threads virtuels
+ * n'y figurent pas) ; heapBytes, tas occupé après un GC. Le temps mesuré
+ * est celui de l'ouverture des connexions.
+ *
+ * model : virtual (un thread virtuel par session), pool (--executor=pool,
+ * les sessions au-delà de --pool-size attendent un thread) ou nio
+ * (réacteurs). Les compteurs incluent les sockets côté client, dans la
+ * même JVM, identiques pour les trois modèles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Dsft.log.level=warn", "-Xmx2g"})
+public class IdleClientsBenchmark {
+
+    private static final long ACCEPT_TIMEOUT_MILLIS = 60_000;
+
+    @Param({"5000"})
+    public int clients;
+
+    @Param({"virtual", "pool", "nio"})
+    public String model;
+
+    private Path storage;
+    private LoopbackServer server;
+    private final List<Socket> sockets = new ArrayList<>();
+    private int idleThreads;
+    private long idleHeap;
+
+    /**
+     * Ressources retenues par les connexions ouvertes, au-dessus du serveur au repos
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long threads;
+        public long heapBytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        storage = Files.createTempDirectory("sft-bench-store");
+        String options = "nio".equals(model) ? "--engine=nio" : "--executor=" + model;
+        server = LoopbackServer.start(storage, "65536", options);
+    }
+
+    @Setup(Level.Iteration)
+    public void measureIdle() {
+        idleThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        idleHeap = usedHeap();
+    }
+
+    @TearDown(Level.Iteration)
+    public void disconnect() throws Exception {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        sockets.clear();
+        long deadline = System.currentTimeMillis() + ACCEPT_TIMEOUT_MILLIS;
+        while (server.getServer().getActiveSessions() > 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.close();
+        BenchmarkFiles.deleteRecursively(storage);
+    }
+
+    @Benchmark
+    public void connect(Footprint footprint) throws Exception {
+        for (int i = 0; i < clients; i++) {
+            sockets.add(new Socket("localhost", server.getPort()));
+        }
+        long deadline = System.currentTimeMillis() + ACCEPT_TIMEOUT_MILLIS;
+        while (server.getServer().getActiveSessions() < clients) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("Sessions acceptées: " +
+                    server.getServer().getActiveSessions() + "/" + clients);
+            }
+            Thread.sleep(20);
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        footprint.threads = threads.getThreadCount() - idleThreads;
+        footprint.heapBytes = usedHeap() - idleHeap;
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        memory.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
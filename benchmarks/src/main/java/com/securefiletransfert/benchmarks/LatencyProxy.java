@@ -0,0 +1,183 @@
+package com.securefiletransfert.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Relais TCP local qui ajoute de la latence entre le client et le serveur
+ *
+ * Chaque sens d'une connexion retarde les octets de rttMillis / 2 et ne
+ * garde au plus que window octets en vol : une place ne se libère qu'un
+ * aller-retour après l'envoi, comme une fenêtre TCP qui attend l'ACK.
+ * Une connexion ne dépasse donc pas window / RTT octets par seconde, ce
+ * que plusieurs connexions parallèles permettent de dépasser.
+ */
+final class LatencyProxy implements AutoCloseable {
+
+    private static final int SEGMENT = 16 * 1024;
+
+    private final ServerSocket listener;
+    private final int targetPort;
+    private final long oneWayNanos;
+    private final int window;
+    private final ScheduledExecutorService acks =
+        Executors.newSingleThreadScheduledExecutor(daemon("sft-bench-ack"));
+    private final List<Socket> sockets = new ArrayList<>();
+
+    private LatencyProxy(int targetPort, long rttMillis, int window) throws IOException {
+        this.listener = new ServerSocket(0);
+        this.targetPort = targetPort;
+        this.oneWayNanos = TimeUnit.MILLISECONDS.toNanos(rttMillis) / 2;
+        this.window = window;
+    }
+
+    /**
+     * @param window octets en vol par sens et par connexion (au moins 16 Ko)
+     */
+    static LatencyProxy start(int targetPort, long rttMillis, int window) throws IOException {
+        LatencyProxy proxy = new LatencyProxy(targetPort, rttMillis, window);
+        daemon("sft-bench-proxy").newThread(proxy::accept).start();
+        return proxy;
+    }
+
+    int getPort() { return listener.getLocalPort(); }
+
+    @Override
+    public void close() throws IOException {
+        listener.close();
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+        acks.shutdownNow();
+    }
+
+    private void accept() {
+        while (!listener.isClosed()) {
+            try {
+                Socket client = listener.accept();
+                Socket server = new Socket("localhost", targetPort);
+                client.setTcpNoDelay(true);
+                server.setTcpNoDelay(true);
+                synchronized (sockets) {
+                    sockets.add(client);
+                    sockets.add(server);
+                }
+                relay(client, server);
+                relay(server, client);
+            } catch (IOException e) {
+                // relais fermé
+            }
+        }
+    }
+
+    /**
+     * Un thread lit et date les segments, un autre les écrit à échéance
+     */
+    private void relay(Socket from, Socket to) {
+        Semaphore inFlight = new Semaphore(window);
+        LinkedBlockingQueue<Segment> delayed = new LinkedBlockingQueue<>();
+        Thread reader = daemon("sft-bench-relay").newThread(() -> {
+            byte[] buffer = new byte[SEGMENT];
+            try {
+                InputStream in = from.getInputStream();
+                while (true) {
+                    inFlight.acquire(SEGMENT);
+                    int n = in.read(buffer);
+                    if (n < 0) {
+                        break;
+                    }
+                    inFlight.release(SEGMENT - n);
+                    byte[] data = new byte[n];
+                    System.arraycopy(buffer, 0, data, 0, n);
+                    delayed.add(new Segment(data, System.nanoTime() + oneWayNanos));
+                }
+                from.shutdownInput();
+                closeIfDone(from);
+            } catch (IOException | InterruptedException e) {
+                abort(from, to);
+            }
+            delayed.add(new Segment(null, System.nanoTime() + oneWayNanos));
+        });
+        Thread writer = daemon("sft-bench-relay").newThread(() -> {
+            try {
+                OutputStream out = to.getOutputStream();
+                while (true) {
+                    Segment segment = delayed.take();
+                    long wait = segment.due - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    if (segment.data == null) {
+                        to.shutdownOutput();
+                        closeIfDone(to);
+                        return;
+                    }
+                    out.write(segment.data);
+                    int length = segment.data.length;
+                    acks.schedule(() -> inFlight.release(length), oneWayNanos,
+                        TimeUnit.NANOSECONDS);
+                }
+            } catch (IOException | InterruptedException | RejectedExecutionException e) {
+                abort(from, to);
+            }
+        });
+        reader.start();
+        writer.start();
+    }
+
+    /**
+     * Ferme une socket dont les deux sens sont terminés
+     */
+    private void closeIfDone(Socket socket) throws IOException {
+        synchronized (sockets) {
+            if (socket.isInputShutdown() && socket.isOutputShutdown()) {
+                socket.close();
+                sockets.remove(socket);
+            }
+        }
+    }
+
+    /**
+     * Connexion interrompue d'un côté : les deux sockets sont fermées
+     */
+    private void abort(Socket from, Socket to) {
+        synchronized (sockets) {
+            for (Socket socket : List.of(from, to)) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // déjà fermée
+                }
+                sockets.remove(socket);
+            }
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return Thread.ofPlatform().name(name).daemon().factory();
+    }
+
+    private static final class Segment {
+        final byte[] data;
+        final long due;
+
+        Segment(byte[] data, long due) {
+            this.data = data;
+            this.due = due;
+        }
+    }
+}
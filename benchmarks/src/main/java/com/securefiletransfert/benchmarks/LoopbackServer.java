@@ -0,0 +1,68 @@
+package com.securefiletransfert.benchmarks;
+
+import com.securefiletransfert.server.SecureFileServer;
+import com.securefiletransfert.server.ServerConfig;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Serveur démarré dans la JVM du benchmark, sur un port libre de l'interface
+ * de bouclage
+ */
+final class LoopbackServer implements AutoCloseable {
+
+    private static final long START_TIMEOUT_MILLIS = 10_000;
+
+    private final SecureFileServer server;
+    private final int port;
+
+    private LoopbackServer(SecureFileServer server, int port) {
+        this.server = server;
+        this.port = port;
+    }
+
+    /**
+     * @param options options de ligne de commande du serveur (--engine=nio...)
+     */
+    static LoopbackServer start(Path storage, String... options) throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        List<String> args = new ArrayList<>(List.of(String.valueOf(port), storage.toString()));
+        args.addAll(Arrays.asList(options));
+        SecureFileServer server = new SecureFileServer(
+            ServerConfig.fromArgs(args.toArray(new String[0])));
+        Thread thread = new Thread(server::start, "sft-bench-server");
+        thread.setDaemon(true);
+        thread.start();
+
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+        while (true) {
+            try (Socket probe = new Socket("localhost", port)) {
+                return new LoopbackServer(server, port);
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    server.stop();
+                    throw new IOException("Le serveur n'a pas démarré sur le port " + port, e);
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    int getPort() { return port; }
+
+    SecureFileServer getServer() { return server; }
+
+    @Override
+    public void close() {
+        server.stop();
+    }
+}
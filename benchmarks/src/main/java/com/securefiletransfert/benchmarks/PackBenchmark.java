@@ -0,0 +1,127 @@
+package com.securefiletransfert.benchmarks;
+
+import com.securefiletransfert.client.ClientSession;
+import com.securefiletransfert.client.FileProcessor;
+import com.securefiletransfert.client.TransferResult;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Envoi de nombreux petits fichiers sur une session, regroupés en lots
+ * (setPacking, PACK_METADATA) ou annoncés un par un
+ *
+ * Une opération = files fichiers de fileSize octets sur une session
+ * ClientSession ; le compteur files donne les fichiers envoyés par seconde.
+ * Les fichiers sont marqués avant chaque opération pour que le serveur ne
+ * puisse pas les dédupliquer ; le stockage est vidé à chaque itération.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Dsft.log.level=warn", "-Xmx2g"})
+public class PackBenchmark {
+
+    @Param({"4096"})
+    public long fileSize;
+
+    @Param({"1000"})
+    public int files;
+
+    @Param({"true", "false"})
+    public boolean packing;
+
+    @Param({"blocking", "nio"})
+    public String engine;
+
+    private Path storage;
+    private Path sources;
+    private LoopbackServer server;
+    private final List<Path> paths = new ArrayList<>();
+    private long stamp = 0;
+
+    /**
+     * Fichiers envoyés, rapportés par seconde
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Sent {
+        public long files;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        storage = Files.createTempDirectory("sft-bench-store");
+        sources = Files.createTempDirectory("sft-bench-src");
+        server = LoopbackServer.start(storage, "65536", "--engine=" + engine);
+        for (int i = 0; i < files; i++) {
+            paths.add(BenchmarkFiles.random(sources, "small-" + i + ".bin", fileSize, i));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void stampFiles() throws Exception {
+        stamp++;
+        for (Path path : paths) {
+            BenchmarkFiles.stamp(path, stamp);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void clearStorage() throws Exception {
+        try (Stream<Path> stored = Files.list(storage)) {
+            for (Path path : (Iterable<Path>) stored::iterator) {
+                if (Files.isRegularFile(path)) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.close();
+        BenchmarkFiles.deleteRecursively(storage);
+        BenchmarkFiles.deleteRecursively(sources);
+    }
+
+    @Benchmark
+    public void upload(Sent counter) throws Exception {
+        List<CompletableFuture<TransferResult>> results = new ArrayList<>(files);
+        try (ClientSession session = ClientSession.open("localhost", server.getPort(),
+                "admin", "admin123", ClientSession.DEFAULT_MAX_IN_FLIGHT)) {
+            session.setPacking(packing);
+            for (Path path : paths) {
+                results.add(session.announce(FileProcessor.prepareFile(path.toString())));
+            }
+        }
+        for (CompletableFuture<TransferResult> result : results) {
+            if (!result.join().isSuccess()) {
+                throw new IllegalStateException("Transfert échoué: " + result.join());
+            }
+        }
+        counter.files += files;
+    }
+}
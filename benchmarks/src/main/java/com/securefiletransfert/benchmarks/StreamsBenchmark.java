@@ -0,0 +1,121 @@
+package com.securefiletransfert.benchmarks;
+
+import com.securefiletransfert.client.SecureFileClient;
+import com.securefiletransfert.client.TransferResult;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Envoi d'un fichier sur 1 à 8 connexions parallèles (transferFileParallel)
+ * à travers un relais qui ajoute rttMillis d'aller-retour (LatencyProxy)
+ *
+ * Chaque connexion du relais garde au plus window octets en vol, comme une
+ * fenêtre TCP : sur un lien lent à parcourir, une seule connexion plafonne
+ * à window / RTT et les connexions supplémentaires se partagent le lien.
+ * Le fichier est marqué avant chaque envoi pour ne pas être dédupliqué.
+ *
+ * Le compteur bytes donne le débit (octets de fichier envoyés par seconde).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Dsft.log.level=warn", "-Xmx2g"})
+public class StreamsBenchmark {
+
+    private static final String FILENAME = "streams.bin";
+
+    @Param({"16777216"})
+    public long fileSize;
+
+    @Param({"1", "2", "4", "8"})
+    public int streams;
+
+    @Param({"20", "100"})
+    public long rttMillis;
+
+    @Param({"262144"})
+    public int window;
+
+    @Param({"nio"})
+    public String engine;
+
+    private Path storage;
+    private Path sources;
+    private Path file;
+    private LoopbackServer server;
+    private LatencyProxy proxy;
+    private long stamp = 0;
+
+    /**
+     * Octets de fichier envoyés, rapportés par seconde
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        storage = Files.createTempDirectory("sft-bench-store");
+        sources = Files.createTempDirectory("sft-bench-src");
+        server = LoopbackServer.start(storage, "65536", "--engine=" + engine);
+        proxy = LatencyProxy.start(server.getPort(), rttMillis, window);
+        file = BenchmarkFiles.random(sources, FILENAME, fileSize, 1);
+    }
+
+    @Setup(Level.Invocation)
+    public void stampFile() throws Exception {
+        BenchmarkFiles.stamp(file, ++stamp);
+    }
+
+    @TearDown(Level.Iteration)
+    public void clearStorage() throws Exception {
+        try (Stream<Path> stored = Files.list(storage)) {
+            for (Path path : (Iterable<Path>) stored::iterator) {
+                if (Files.isRegularFile(path)) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        proxy.close();
+        server.close();
+        BenchmarkFiles.deleteRecursively(storage);
+        BenchmarkFiles.deleteRecursively(sources);
+    }
+
+    @Benchmark
+    public void upload(Bytes counter) throws Exception {
+        SecureFileClient client = new SecureFileClient("localhost", proxy.getPort(),
+            "admin", "admin123", null);
+        TransferResult result = client.transferFileParallel(file.toString(), streams);
+        if (!result.isSuccess()) {
+            throw new IllegalStateException("Transfert échoué: " + result);
+        }
+        counter.bytes += fileSize;
+    }
+}
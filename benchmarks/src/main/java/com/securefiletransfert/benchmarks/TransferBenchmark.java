@@ -0,0 +1,166 @@
+package com.securefiletransfert.benchmarks;
+
+import com.securefiletransfert.client.SecureFileClient;
+import com.securefiletransfert.client.TransferResult;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Transferts de bout en bout sur l'interface de bouclage : SecureFileClient
+ * vers un SecureFileServer démarré dans la même JVM
+ *
+ * Une opération = clients sessions simultanées (threads virtuels), chacune
+ * envoyant son propre fichier de fileSize octets. Les fichiers sont
+ * marqués avant chaque opération pour que le serveur ne puisse pas les
+ * dédupliquer ; le stockage est vidé à chaque itération.
+ *
+ * Throughput donne le débit (le compteur bytes : octets de fichier envoyés
+ * par seconde), SampleTime les percentiles de latence d'une opération.
+ * 2 Go et 1000 clients se demandent par -p fileSize=2147483648
+ * -p clients=1000.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Dsft.log.level=warn", "-Xmx2g"})
+public class TransferBenchmark {
+
+    @Param({"1024", "1048576", "104857600"})
+    public long fileSize;
+
+    @Param({"1", "10", "100"})
+    public int clients;
+
+    @Param({"blocking", "nio"})
+    public String engine;
+
+    /**
+     * stream (défaut du client), gcm (--gcm), tree (--tree) ou parallel
+     * (--streams=4, un seul fichier découpé en plages)
+     */
+    @Param({"stream", "gcm"})
+    public String mode;
+
+    private Path storage;
+    private Path sources;
+    private LoopbackServer server;
+    private ExecutorService executor;
+    private final List<Path> files = new ArrayList<>();
+    private long stamp = 0;
+
+    /**
+     * Octets de fichier envoyés, rapportés par seconde
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        storage = Files.createTempDirectory("sft-bench-store");
+        sources = Files.createTempDirectory("sft-bench-src");
+        server = LoopbackServer.start(storage, "65536", "--engine=" + engine);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        for (int i = 0; i < clients; i++) {
+            files.add(BenchmarkFiles.random(sources, "client-" + i + ".bin", fileSize, i));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void stampFiles() throws Exception {
+        stamp++;
+        for (Path file : files) {
+            BenchmarkFiles.stamp(file, stamp);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void clearStorage() throws Exception {
+        try (Stream<Path> stored = Files.list(storage)) {
+            for (Path path : (Iterable<Path>) stored::iterator) {
+                if (Files.isRegularFile(path)) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        server.close();
+        BenchmarkFiles.deleteRecursively(storage);
+        BenchmarkFiles.deleteRecursively(sources);
+    }
+
+    @Benchmark
+    public void transfer(Bytes counter) throws Exception {
+        if (clients == 1) {
+            send(files.get(0));
+        } else {
+            List<Future<?>> sessions = new ArrayList<>(clients);
+            for (Path file : files) {
+                sessions.add(executor.submit(() -> {
+                    send(file);
+                    return null;
+                }));
+            }
+            for (Future<?> session : sessions) {
+                session.get();
+            }
+        }
+        counter.bytes += fileSize * clients;
+    }
+
+    private void send(Path file) throws Exception {
+        SecureFileClient client = new SecureFileClient("localhost", server.getPort(),
+            "admin", "admin123", null);
+        List<String> paths = List.of(file.toString());
+        List<TransferResult> results;
+        switch (mode) {
+            case "gcm":
+                results = client.transferFilesChunked(paths, 16);
+                break;
+            case "tree":
+                results = client.transferFilesTree(paths);
+                break;
+            case "parallel":
+                results = List.of(client.transferFileParallel(file.toString(), 4));
+                break;
+            default:
+                results = client.transferFiles(paths, 16);
+        }
+        for (TransferResult result : results) {
+            if (!result.isSuccess()) {
+                throw new IllegalStateException("Transfert échoué: " + result);
+            }
+        }
+    }
+}
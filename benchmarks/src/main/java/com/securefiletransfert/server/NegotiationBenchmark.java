@@ -0,0 +1,110 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.FrameDecoder;
+import com.securefiletransfert.common.FrameEncoder;
+import com.securefiletransfert.common.PossessionProof;
+import com.securefiletransfert.common.ProtocolConstants;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Décodage des trames et négociation d'un fichier par ServerSession, sans
+ * réseau (même paquetage que la session, qui n'est pas publique)
+ *
+ * decodeMetadata : décodage d'une trame METADATA depuis un buffer.
+ * negotiate : session complète jusqu'à READY_FOR_TRANSFER (authentification
+ * en cache, passée par le pool d'authentification comme dans les moteurs,
+ * création du fichier partiel), puis abandon du transfert.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dsft.log.level=warn")
+public class NegotiationBenchmark {
+
+    private static final String HASH =
+        "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    private Path storage;
+    private ServerContext context;
+    private final FrameDecoder decoder = new FrameDecoder();
+    private byte[] authFrame;
+    private byte[] metadataFrame;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        storage = Files.createTempDirectory("sft-bench-store");
+        context = new ServerContext(new ServerConfig(ServerConfig.DEFAULT_PORT,
+            storage.toString(), ProtocolConstants.STREAM_CHUNK_SIZE));
+        FrameEncoder encoder = new FrameEncoder();
+        authFrame = toBytes(encoder.begin(ProtocolConstants.AUTH)
+            .putString("admin").putString("admin123").finish());
+        metadataFrame = toBytes(encoder.begin(ProtocolConstants.METADATA)
+            .putInt(1).putString("rapport-trimestriel.pdf").putLong(1_048_576)
+            .putString(HASH).putBytes(new byte[PossessionProof.SIZE], 0, PossessionProof.SIZE)
+            .finish());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        context.close();
+        try (Stream<Path> paths = Files.walk(storage)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void decodeMetadata(Blackhole blackhole) throws Exception {
+        decoder.decode(ByteBuffer.wrap(metadataFrame));
+        blackhole.consume(decoder.getType());
+        blackhole.consume(decoder.readInt());
+        blackhole.consume(decoder.readString());
+        blackhole.consume(decoder.readLong());
+        blackhole.consume(decoder.readString());
+    }
+
+    @Benchmark
+    public ServerSession.State negotiate(Blackhole blackhole) throws Exception {
+        Semaphore resumed = new Semaphore(0);
+        ServerSession session = new ServerSession(context, blackhole::consume,
+            resumed::release, "benchmark");
+        decoder.decode(ByteBuffer.wrap(authFrame));
+        session.onFrame(decoder);
+        while (session.isSuspended()) {
+            resumed.acquire();
+            session.resume();
+        }
+        decoder.decode(ByteBuffer.wrap(metadataFrame));
+        session.onFrame(decoder);
+        session.close();
+        return session.getState();
+    }
+
+    private static byte[] toBytes(ByteBuffer frame) {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,116 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.ProtocolConstants;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Écriture d'un fichier reçu sur disque, morceau par morceau (même
+ * paquetage que PartialFile et BufferPool, qui ne sont pas publics)
+ *
+ * filesWrite : le contenu est accumulé en mémoire puis écrit par
+ * Files.write, comme le faisait le serveur avant FileChannel.
+ * fileChannel : chaque morceau passe par un buffer direct du pool et est
+ * écrit à sa position dans un PartialFile, publié à la fin (chemin actuel).
+ * force (--force du serveur) ne concerne que fileChannel : Files.write ne
+ * force jamais.
+ *
+ * Le compteur bytes donne le débit d'écriture (octets par seconde) ;
+ * -prof gc montre ce que chaque chemin alloue par fichier.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Dsft.log.level=warn", "-Xmx2g"})
+public class PersistenceBenchmark {
+
+    private static final String FILENAME = "persistence.bin";
+
+    @Param({"1048576", "67108864"})
+    public long fileSize;
+
+    @Param({"never", "finish"})
+    public String force;
+
+    private Path storage;
+    private ServerConfig config;
+    private BufferPool pool;
+    private byte[] chunk;
+
+    /**
+     * Octets de fichier écrits, rapportés par seconde
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        storage = Files.createTempDirectory("sft-bench-persist");
+        config = new ServerConfig(ServerConfig.DEFAULT_PORT, storage.toString(),
+            ProtocolConstants.STREAM_CHUNK_SIZE);
+        config.setForcePolicy(ForcePolicy.parse(force));
+        pool = new BufferPool(config.getBufferSize(), 4);
+        chunk = new byte[config.getBufferSize()];
+        new Random(42).nextBytes(chunk);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(storage)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void filesWrite(Bytes counter) throws Exception {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (long position = 0; position < fileSize; position += chunk.length) {
+            content.write(chunk, 0, (int) Math.min(chunk.length, fileSize - position));
+        }
+        Files.write(storage.resolve(FILENAME), content.toByteArray());
+        counter.bytes += fileSize;
+    }
+
+    @Benchmark
+    public void fileChannel(Bytes counter) throws Exception {
+        PartialFile file = new PartialFile(config, FILENAME, fileSize);
+        for (long position = 0; position < fileSize; position += chunk.length) {
+            ByteBuffer buffer = pool.acquire();
+            try {
+                buffer.put(chunk, 0, (int) Math.min(chunk.length, fileSize - position)).flip();
+                file.write(buffer, position);
+            } finally {
+                pool.release(buffer);
+            }
+        }
+        file.publish(fileSize);
+        counter.bytes += fileSize;
+    }
+}
@@ -8,7 +8,7 @@ import com.securefiletransfert.server.SecureFileServer;
  * Permet de lancer soit le serveur soit le client
  * 
  * Usage:
- *   Serveur: java Main server [port] [storage_path]
+ *   Serveur: java Main server [port] [storage_path] [buffer_size] [--option=valeur ...]
  *   Client:  java Main client
  */
 public class Main {
@@ -37,11 +37,19 @@ public class Main {
     
     private static void printUsage() {
         System.out.println("Usage:");
-        System.out.println("  Serveur: java Main server [port] [storage_path]");
+        System.out.println("  Serveur: java Main server [port] [storage_path] [buffer_size] [--option=valeur ...]");
+        System.out.println("           options: --engine=blocking|nio --io-threads=N --executor=virtual|pool --pool-size=N --max-sessions=N --force=never|finish|every:N");
+        System.out.println("                    --layout=flat|sharded --write-behind");
+        System.out.println("                    --download-cache=M");
+        System.out.println("                    --ticket-ttl=S --max-tickets=N");
+        System.out.println("                    --users=FICHIER --auth-cache=N --auth-cache-ttl=S --max-logins=N");
+        System.out.println("                    --metrics-port=N --log-level=debug|info|warn|error|off");
+        System.out.println("                    --max-rate=K --user-rate=K --disk-rate=K --user-sessions=N");
         System.out.println("  Client:  java Main client");
         System.out.println();
         System.out.println("Exemples:");
         System.out.println("  java Main server 8888 server_storage");
+        System.out.println("  java Main server 8888 server_storage 65536 --executor=pool --max-sessions=500");
         System.out.println("  java Main client");
     }
 }
@@ -0,0 +1,943 @@
+package com.securefiletransfert.client;
+
+import com.securefiletransfert.common.BlockSignatures;
+import com.securefiletransfert.common.ChunkCipher;
+import com.securefiletransfert.common.CompressionCodecs;
+import com.securefiletransfert.common.CryptoEngine;
+import com.securefiletransfert.common.CryptoUtils;
+import com.securefiletransfert.common.DataFrameOutputStream;
+import com.securefiletransfert.common.FrameDecoder;
+import com.securefiletransfert.common.FrameEncoder;
+import com.securefiletransfert.common.KeyExchange;
+import com.securefiletransfert.common.Log;
+import com.securefiletransfert.common.MerkleTree;
+import com.securefiletransfert.common.PossessionProof;
+import com.securefiletransfert.common.ProtocolConstants;
+
+import javax.crypto.CipherOutputStream;
+import javax.crypto.SecretKey;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Connexion authentifiée réutilisée pour plusieurs fichiers
+ *
+ * Les fichiers sont annoncés à l'avance (métadonnées) puis leurs données
+ * envoyées à la suite, dès la réponse du serveur à la négociation, sans
+ * attendre l'acquittement du fichier précédent. Un thread lecteur reçoit les
+ * acquittements, qui portent le numéro du fichier, et complète le
+ * CompletableFuture correspondant. Le nombre de fichiers non acquittés
+ * est borné par maxInFlight.
+ * 
+ * Après l'authentification, un échange de clés éphémère (ECDH) fixe la
+ * clé AES de la session. Le serveur remet un ticket de reprise, gardé pour
+ * la prochaine connexion au même serveur avec le même compte : elle dérive
+ * sa clé du ticket sans nouvel accord de clés.
+ * 
+ * Avec setPacking(true), les petits fichiers annoncés à la suite sont
+ * regroupés en lots (PACK_METADATA) : un seul index, un seul flux chiffré
+ * et un seul acquittement par lot, chaque fichier gardant son résultat.
+ * 
+ * download() demande un fichier stocké sur le serveur ; le thread lecteur
+ * le déchiffre et le vérifie au fil de sa réception.
+ */
+public class ClientSession implements Closeable {
+    
+    public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+    
+    // Fichiers regroupés en lots (setPacking) : taille maximale d'un fichier et d'un lot
+    public static final long PACK_FILE_SIZE = 64 * 1024;
+    private static final long MAX_PACK_BYTES = 4 * 1024 * 1024;
+    
+    // Tickets de reprise par "utilisateur@serveur:port", utilisables une seule fois
+    private static final Map<String, SessionTicket> TICKETS = new ConcurrentHashMap<>();
+    
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final FrameEncoder encoder = new FrameEncoder();
+    private final Map<Integer, PendingUpload> pending = new ConcurrentHashMap<>();
+    private final Semaphore window;
+    private final int maxInFlight;
+    private final ArrayDeque<PendingUpload> announced = new ArrayDeque<>();
+    private int nextFileId = 1;
+    private Thread reader;
+    private volatile boolean closing = false;
+    private volatile boolean lost = false;
+    private String compression = null;
+    private boolean chunked = false;
+    private boolean packing = false;
+    private final List<FileProcessor.StreamedFile> packFiles = new ArrayList<>();
+    private final List<CompletableFuture<TransferResult>> packResults = new ArrayList<>();
+    private int packIndexBytes = 0;
+    private long packBytes = 0;
+    private SecretKey key = CryptoUtils.getSecretKey();
+    // Défi envoyé avec AUTH_OK : chaque annonce prouve la possession du contenu
+    private byte[] challenge;
+    
+    private ClientSession(Socket socket, int maxInFlight) throws IOException {
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = new BufferedOutputStream(socket.getOutputStream(),
+            ProtocolConstants.STREAM_CHUNK_SIZE + ProtocolConstants.FRAME_HEADER_SIZE + 4);
+        this.maxInFlight = Math.min(maxInFlight, ProtocolConstants.MAX_PENDING_FILES);
+        this.window = new Semaphore(this.maxInFlight);
+    }
+    
+    /**
+     * Ouvre une connexion et s'authentifie
+     * 
+     * @throws IOException si la connexion ou l'authentification échoue
+     */
+    public static ClientSession open(String serverAddress, int serverPort, 
+                                     String username, String password, 
+                                     int maxInFlight) throws IOException {
+        Socket socket = new Socket(serverAddress, serverPort);
+        try {
+            ClientSession session = new ClientSession(socket, maxInFlight);
+            Log.info("Connecté au serveur " + serverAddress + ":" + serverPort);
+            session.authenticate(username, password);
+            session.exchangeKeys(username + "@" + serverAddress + ":" + serverPort);
+            session.startReader();
+            return session;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+    
+    private void authenticate(String username, String password) throws IOException {
+        encoder.begin(ProtocolConstants.AUTH)
+            .putString(username)
+            .putString(password)
+            .writeTo(out);
+        out.flush();
+        
+        FrameDecoder decoder = new FrameDecoder();
+        if (!decoder.readFrom(in)) {
+            throw new EOFException("Connexion fermée par le serveur");
+        }
+        if (decoder.getType() != ProtocolConstants.AUTH_OK) {
+            throw new IOException("Authentification échouée: " + decoder.getType());
+        }
+        challenge = new byte[PossessionProof.CHALLENGE_SIZE];
+        decoder.readBytes(challenge);
+        Log.info("Authentification réussie");
+    }
+    
+    /**
+     * Preuve de possession du fichier pour le défi de la session : sans elle,
+     * le serveur ne l'enregistre pas sans transfert
+     */
+    private byte[] proofOf(FileProcessor.StreamedFile file) throws IOException {
+        return PossessionProof.compute(challenge, file.getPath(), file.getOriginalSize());
+    }
+    
+    /**
+     * Établit la clé de la session, par reprise si un ticket est disponible
+     */
+    private void exchangeKeys(String ticketKey) throws IOException {
+        SessionTicket ticket = TICKETS.remove(ticketKey);
+        if (ticket != null && ticket.expiresAt - System.nanoTime() <= 0) {
+            ticket = null;
+        }
+        byte[] ticketId = ticket != null ? ticket.id : new byte[0];
+        byte[] nonce = KeyExchange.newNonce();
+        try {
+            // La paire est nécessaire si le serveur refuse le ticket
+            KeyExchange exchange = new KeyExchange();
+            byte[] publicKey = exchange.getPublicKey();
+            encoder.begin(ProtocolConstants.KEY_EXCHANGE)
+                .putBytes(nonce, 0, nonce.length)
+                .putInt(ticketId.length)
+                .putBytes(ticketId, 0, ticketId.length)
+                .putInt(publicKey.length)
+                .putBytes(publicKey, 0, publicKey.length)
+                .writeTo(out);
+            out.flush();
+            
+            FrameDecoder decoder = new FrameDecoder();
+            if (!decoder.readFrom(in)) {
+                throw new EOFException("Connexion fermée par le serveur");
+            }
+            if (decoder.getType() != ProtocolConstants.KEY_EXCHANGE_REPLY) {
+                throw new ProtocolException("Échange de clés refusé: " + decoder.getType());
+            }
+            byte[] serverNonce = new byte[KeyExchange.NONCE_SIZE];
+            decoder.readBytes(serverNonce);
+            byte[] serverPublic = readKeyField(decoder);
+            byte[] newTicket = readKeyField(decoder);
+            int ttlSeconds = decoder.readInt();
+            
+            KeyExchange.SessionKeys keys;
+            if (serverPublic.length > 0) {
+                keys = KeyExchange.derive(exchange.agree(serverPublic), nonce, serverNonce);
+            } else if (ticket != null) {
+                keys = KeyExchange.derive(ticket.secret, nonce, serverNonce);
+            } else {
+                throw new ProtocolException("Clé publique du serveur manquante");
+            }
+            key = keys.getKey();
+            if (newTicket.length > 0 && ttlSeconds > 0) {
+                TICKETS.put(ticketKey, new SessionTicket(newTicket,
+                    keys.getResumptionSecret(),
+                    System.nanoTime() + ttlSeconds * 1_000_000_000L));
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Échange de clés impossible: " + e.getMessage(), e);
+        }
+    }
+    
+    private static byte[] readKeyField(FrameDecoder decoder) throws ProtocolException {
+        int length = decoder.readInt();
+        if (length < 0 || length > ProtocolConstants.MAX_KEY_FIELD) {
+            throw new ProtocolException("Champ d'échange de clés invalide: " + length);
+        }
+        byte[] field = new byte[length];
+        decoder.readBytes(field);
+        return field;
+    }
+    
+    /**
+     * Active la compression des fichiers envoyés par upload() et announce()
+     * Le serveur peut la refuser ("none") : les morceaux partent alors bruts.
+     * 
+     * @param codec algorithme demandé (voir CompressionCodecs), null pour désactiver
+     */
+    public synchronized void setCompression(String codec) {
+        this.compression = codec;
+    }
+    
+    /**
+     * Active le chiffrement AES-GCM par morceaux des fichiers envoyés par
+     * upload() et announce() : les morceaux sont chiffrés sur tous les cœurs
+     * et le serveur les authentifie un par un. Prioritaire sur la compression.
+     */
+    public synchronized void setChunkedEncryption(boolean chunked) {
+        this.chunked = chunked;
+    }
+    
+    /**
+     * Regroupe en lots les fichiers d'au plus PACK_FILE_SIZE octets envoyés
+     * par upload() et announce() (sans effet en AES-GCM ou avec compression)
+     */
+    public synchronized void setPacking(boolean packing) {
+        this.packing = packing;
+    }
+    
+    /**
+     * Envoie un fichier sur la session sans attendre son acquittement
+     * Les données ne partent qu'après la réponse du serveur à la négociation :
+     * rien n'est envoyé si le serveur possède déjà le contenu (ALREADY_HAVE).
+     * 
+     * @return le résultat, complété à la réception de l'acquittement
+     */
+    public synchronized CompletableFuture<TransferResult> upload(
+            FileProcessor.StreamedFile file) throws Exception {
+        CompletableFuture<TransferResult> result = announce(file);
+        sendAnnounced();
+        return result;
+    }
+    
+    /**
+     * Annonce un fichier (métadonnées seules) sans envoyer ses données
+     * 
+     * Plusieurs fichiers peuvent être annoncés d'avance : les réponses du
+     * serveur arrivent pendant l'envoi des fichiers précédents et un
+     * aller-retour n'est pas payé par fichier. Les données des fichiers
+     * annoncés partent dans l'ordre, au plus tard à sendAnnounced() ou close().
+     * 
+     * @return le résultat, complété à la réception de l'acquittement
+     */
+    public synchronized CompletableFuture<TransferResult> announce(
+            FileProcessor.StreamedFile file) throws Exception {
+        if (packing && !chunked && compression == null
+                && file.getOriginalSize() <= PACK_FILE_SIZE) {
+            return addToPack(file);
+        }
+        // Les fichiers partent dans l'ordre des annonces
+        flushPack();
+        reserveAnnouncement();
+        PendingUpload upload = register(file.getFilename());
+        upload.file = file;
+        try {
+            byte[] proof = proofOf(file);
+            if (chunked) {
+                byte[] salt = ChunkCipher.newSalt();
+                upload.chunkCipher = new ChunkCipher(key, salt);
+                encoder.begin(ProtocolConstants.GCM_METADATA)
+                    .putInt(upload.fileId)
+                    .putString(file.getFilename())
+                    .putLong(file.getOriginalSize())
+                    .putString(file.getHash())
+                    .putBytes(salt, 0, salt.length);
+            } else if (compression != null) {
+                encoder.begin(ProtocolConstants.COMPRESSED_METADATA)
+                    .putInt(upload.fileId)
+                    .putString(file.getFilename())
+                    .putLong(file.getOriginalSize())
+                    .putString(file.getHash())
+                    .putString(compression);
+            } else {
+                encoder.begin(ProtocolConstants.METADATA)
+                    .putInt(upload.fileId)
+                    .putString(file.getFilename())
+                    .putLong(file.getEncryptedSize())
+                    .putString(file.getHash());
+            }
+            encoder.putBytes(proof, 0, proof.length).writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            fail(upload.fileId, e.getMessage());
+            throw e;
+        }
+        announced.add(upload);
+        return upload.result;
+    }
+    
+    /**
+     * Garde une place dans la fenêtre pour un fichier déjà envoyé
+     */
+    private void reserveAnnouncement() throws Exception {
+        while (announced.size() >= Math.max(1, maxInFlight - 1)) {
+            sendNext();
+        }
+    }
+    
+    /**
+     * Ajoute un petit fichier au lot en cours ; le lot est annoncé quand il
+     * est plein, puis au plus tard à sendAnnounced() ou close()
+     */
+    private CompletableFuture<TransferResult> addToPack(FileProcessor.StreamedFile file)
+            throws Exception {
+        // Entrée d'index : nom (2 + n), taille (8), hash (2 + 64), preuve (32)
+        int entryBytes = 76 + PossessionProof.SIZE
+            + file.getFilename().getBytes(StandardCharsets.UTF_8).length;
+        if (packFiles.size() == ProtocolConstants.MAX_PACK_FILES
+                || packIndexBytes + entryBytes > ProtocolConstants.MAX_FRAME_PAYLOAD - 8
+                || packBytes + file.getOriginalSize() > MAX_PACK_BYTES) {
+            flushPack();
+        }
+        CompletableFuture<TransferResult> result = new CompletableFuture<>();
+        packFiles.add(file);
+        packResults.add(result);
+        packIndexBytes += entryBytes;
+        packBytes += file.getOriginalSize();
+        return result;
+    }
+    
+    /**
+     * Annonce le lot en cours (index seul), comme un fichier
+     */
+    private void flushPack() throws Exception {
+        if (packFiles.isEmpty()) {
+            return;
+        }
+        reserveAnnouncement();
+        PendingUpload upload = register("lot de " + packFiles.size() + " fichiers");
+        upload.packFiles = new ArrayList<>(packFiles);
+        upload.packResults = new ArrayList<>(packResults);
+        packFiles.clear();
+        packResults.clear();
+        packIndexBytes = 0;
+        packBytes = 0;
+        try {
+            // Encodeur dédié : l'index peut approcher la taille maximale d'une trame
+            FrameEncoder index = new FrameEncoder(upload.packFiles.size() * 128);
+            index.begin(ProtocolConstants.PACK_METADATA)
+                .putInt(upload.fileId)
+                .putInt(upload.packFiles.size());
+            for (FileProcessor.StreamedFile file : upload.packFiles) {
+                byte[] proof = proofOf(file);
+                index.putString(file.getFilename())
+                    .putLong(file.getOriginalSize())
+                    .putString(file.getHash())
+                    .putBytes(proof, 0, proof.length);
+            }
+            index.writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            fail(upload.fileId, e.getMessage());
+            throw e;
+        }
+        announced.add(upload);
+    }
+    
+    /**
+     * Envoie les données de tous les fichiers annoncés
+     */
+    public synchronized void sendAnnounced() throws Exception {
+        flushPack();
+        while (!announced.isEmpty()) {
+            sendNext();
+        }
+    }
+    
+    /**
+     * Attend la réponse du serveur pour le plus ancien fichier annoncé,
+     * puis envoie ses données s'il les attend
+     */
+    private void sendNext() throws Exception {
+        PendingUpload upload = announced.poll();
+        
+        // ALREADY_HAVE ou refus : le résultat est complété sans READY_FOR_TRANSFER
+        CompletableFuture.anyOf(upload.ready, upload.result).join();
+        if (upload.result.isDone()) {
+            return;
+        }
+        try {
+            String codec = upload.ready.join();
+            if (upload.packFiles != null) {
+                sendPack(upload);
+            } else if (upload.chunkCipher != null) {
+                // Un morceau par trame : le serveur les déchiffre indépendamment
+                FileProcessor.streamEncryptedChunks(upload.file, upload.chunkCipher,
+                    new DataFrameOutputStream(out, upload.fileId,
+                        ProtocolConstants.GCM_CHUNK_SIZE + ChunkCipher.TAG_SIZE));
+            } else if (codec == null) {
+                FileProcessor.streamEncrypted(upload.file, key,
+                    new DataFrameOutputStream(out, upload.fileId));
+            } else {
+                sendCompressed(upload, codec);
+            }
+        } catch (Exception e) {
+            fail(upload.fileId, e.getMessage());
+            throw e;
+        }
+    }
+    
+    /**
+     * Fichiers du lot que le serveur ne possède pas, en un seul flux chiffré
+     * terminé par DATA_END
+     */
+    private void sendPack(PendingUpload upload) throws Exception {
+        List<FileProcessor.StreamedFile> files = new ArrayList<>();
+        for (int i = 0; i < upload.packFiles.size(); i++) {
+            if (!upload.packPresent[i]) {
+                files.add(upload.packFiles.get(i));
+            }
+        }
+        FileProcessor.streamPack(files, key, new DataFrameOutputStream(out, upload.fileId));
+        encoder.begin(ProtocolConstants.DATA_END).putInt(upload.fileId).writeTo(out);
+        out.flush();
+    }
+    
+    /**
+     * Morceaux compressés avec l'algorithme retenu par le serveur, chiffrés
+     * en un seul flux terminé par DATA_END
+     */
+    private void sendCompressed(PendingUpload upload, String codec) throws Exception {
+        CryptoEngine engine = CryptoEngine.acquire(key);
+        try (DataOutputStream chunks = new DataOutputStream(new BufferedOutputStream(
+                new CipherOutputStream(new DataFrameOutputStream(out, upload.fileId),
+                    engine.encryptor()),
+                ProtocolConstants.STREAM_CHUNK_SIZE))) {
+            CompressionEncoder.encode(upload.file, CompressionCodecs.create(codec), chunks);
+        } finally {
+            engine.release();
+        }
+        encoder.begin(ProtocolConstants.DATA_END).putInt(upload.fileId).writeTo(out);
+        out.flush();
+    }
+    
+    /**
+     * Envoie une plage d'un fichier transféré sur plusieurs connexions
+     * Le serveur assemble les plages partageant le même transferId.
+     * 
+     * @return le résultat de la plage ; le dernier acquittement n'arrive
+     *         qu'une fois le fichier entier vérifié
+     */
+    public synchronized CompletableFuture<TransferResult> uploadRange(
+            FileProcessor.StreamedFile file, String transferId, 
+            long offset, long length) throws Exception {
+        sendAnnounced();
+        PendingUpload upload = register(file.getFilename());
+        int fileId = upload.fileId;
+        try {
+            encoder.begin(ProtocolConstants.RANGE_METADATA)
+                .putInt(fileId)
+                .putString(transferId)
+                .putString(file.getFilename())
+                .putLong(file.getOriginalSize())
+                .putString(file.getHash())
+                .putLong(offset)
+                .putLong(length)
+                .writeTo(out);
+            FileProcessor.streamEncrypted(file, key, offset, length,
+                new DataFrameOutputStream(out, fileId));
+        } catch (Exception e) {
+            fail(fileId, e.getMessage());
+            throw e;
+        }
+        return upload.result;
+    }
+    
+    /**
+     * Envoie un fichier en reprenant là où un transfert précédent s'est arrêté
+     * 
+     * Le serveur indique d'abord la position de son dernier point de reprise
+     * (0 pour un nouveau transfert) ; seule la suite du fichier est envoyée.
+     * Contrairement à upload(), attend cette réponse avant d'envoyer les données.
+     * 
+     * @param uploadId identifiant stable du transfert d'une tentative à l'autre
+     */
+    public synchronized CompletableFuture<TransferResult> uploadResumable(
+            FileProcessor.StreamedFile file, String uploadId) throws Exception {
+        sendAnnounced();
+        PendingUpload upload = register(file.getFilename());
+        int fileId = upload.fileId;
+        try {
+            byte[] proof = proofOf(file);
+            encoder.begin(ProtocolConstants.RESUME_METADATA)
+                .putInt(fileId)
+                .putString(uploadId)
+                .putString(file.getFilename())
+                .putLong(file.getOriginalSize())
+                .putString(file.getHash())
+                .putBytes(proof, 0, proof.length)
+                .writeTo(out);
+            out.flush();
+            
+            // ALREADY_HAVE ou refus : le résultat est complété sans position de reprise
+            CompletableFuture.anyOf(upload.offset, upload.result).join();
+            if (upload.result.isDone()) {
+                return upload.result;
+            }
+            long offset = upload.offset.join();
+            if (offset > 0) {
+                Log.info("Reprise du transfert à l'octet " + offset);
+            }
+            FileProcessor.streamEncrypted(file, key, offset, file.getOriginalSize() - offset,
+                new DataFrameOutputStream(out, fileId));
+        } catch (Exception e) {
+            fail(fileId, e.getMessage());
+            throw e;
+        }
+        return upload.result;
+    }
+    
+    /**
+     * Synchronisation différentielle : si le serveur possède une version de
+     * ce fichier, seuls les blocs modifiés sont envoyés (les autres sont
+     * désignés par leur numéro dans la version stockée). Sinon, le fichier
+     * est envoyé en entier.
+     */
+    public synchronized CompletableFuture<TransferResult> uploadDelta(
+            FileProcessor.StreamedFile file) throws Exception {
+        sendAnnounced();
+        PendingUpload upload = register(file.getFilename());
+        int fileId = upload.fileId;
+        try {
+            byte[] proof = proofOf(file);
+            encoder.begin(ProtocolConstants.DELTA_METADATA)
+                .putInt(fileId)
+                .putString(file.getFilename())
+                .putLong(file.getOriginalSize())
+                .putString(file.getHash())
+                .putBytes(proof, 0, proof.length)
+                .writeTo(out);
+            out.flush();
+            
+            // READY_FOR_TRANSFER : pas de version stockée, transfert complet
+            CompletableFuture.anyOf(upload.signatures, upload.ready, upload.result).join();
+            if (upload.result.isDone()) {
+                return upload.result;
+            }
+            if (!upload.signatures.isDone()) {
+                FileProcessor.streamEncrypted(file, key, new DataFrameOutputStream(out, fileId));
+                return upload.result;
+            }
+            
+            CryptoEngine engine = CryptoEngine.acquire(key);
+            try (DataOutputStream delta = new DataOutputStream(new BufferedOutputStream(
+                    new CipherOutputStream(new DataFrameOutputStream(out, fileId),
+                        engine.encryptor()),
+                    ProtocolConstants.STREAM_CHUNK_SIZE))) {
+                DeltaEncoder.encode(file, upload.signatures.join(), delta);
+            } finally {
+                engine.release();
+            }
+            encoder.begin(ProtocolConstants.DATA_END).putInt(fileId).writeTo(out);
+            out.flush();
+        } catch (Exception e) {
+            fail(fileId, e.getMessage());
+            throw e;
+        }
+        return upload.result;
+    }
+    
+    /**
+     * Transfert vérifié par arbre de Merkle (fichier préparé par prepareTree)
+     * 
+     * Le serveur vérifie chaque feuille à son arrivée ; à la fin d'un tour,
+     * il redemande les seules feuilles invalides (RETRANSMIT).
+     */
+    public synchronized CompletableFuture<TransferResult> uploadTree(
+            FileProcessor.StreamedFile file) throws Exception {
+        MerkleTree tree = file.getTree();
+        if (tree == null) {
+            throw new IllegalArgumentException("Fichier préparé sans arbre de hachage");
+        }
+        sendAnnounced();
+        PendingUpload upload = register(file.getFilename());
+        int fileId = upload.fileId;
+        try {
+            // Encodeur dédié : la trame porte tous les hash de feuilles
+            byte[] leaves = tree.getLeaves();
+            byte[] proof = proofOf(file);
+            new FrameEncoder().begin(ProtocolConstants.TREE_METADATA)
+                .putInt(fileId)
+                .putString(file.getFilename())
+                .putLong(file.getOriginalSize())
+                .putString(tree.getRootHex())
+                .putInt(tree.getLeafSize())
+                .putInt(tree.getLeafCount())
+                .putBytes(leaves, 0, leaves.length)
+                .putBytes(proof, 0, proof.length)
+                .writeTo(out);
+            out.flush();
+            
+            CompletableFuture.anyOf(upload.ready, upload.result).join();
+            int[] toSend = null;
+            while (!upload.result.isDone()) {
+                CompletableFuture<int[]> retransmit = new CompletableFuture<>();
+                upload.retransmit = retransmit;
+                sendLeaves(file, tree, fileId, toSend);
+                
+                CompletableFuture.anyOf(retransmit, upload.result).join();
+                if (upload.result.isDone()) {
+                    break;
+                }
+                toSend = retransmit.join();
+                Log.info("Renvoi de " + toSend.length + " feuilles invalides");
+            }
+        } catch (Exception e) {
+            fail(fileId, e.getMessage());
+            throw e;
+        }
+        return upload.result;
+    }
+    
+    /**
+     * Envoie les feuilles indiquées (toutes si indices est null), chacune
+     * chiffrée indépendamment
+     */
+    private void sendLeaves(FileProcessor.StreamedFile file, MerkleTree tree, int fileId,
+                            int[] indices) throws Exception {
+        int count = indices == null ? tree.getLeafCount() : indices.length;
+        for (int i = 0; i < count; i++) {
+            int index = indices == null ? i : indices[i];
+            FileProcessor.streamEncrypted(file, key, tree.getLeafOffset(index),
+                tree.getLeafLength(index), new DataFrameOutputStream(out, fileId));
+        }
+    }
+    
+    /**
+     * Télécharge un fichier stocké sur le serveur sans attendre la fin du
+     * précédent ; les fichiers annoncés auparavant partent d'abord
+     * 
+     * Le fichier est reçu dans target.part, puis renommé en target une fois
+     * sa taille et son hash vérifiés.
+     * 
+     * @param filename nom du fichier sur le serveur
+     * @return le résultat, complété à la fin de la réception
+     */
+    public synchronized CompletableFuture<TransferResult> download(String filename, Path target)
+            throws Exception {
+        sendAnnounced();
+        PendingUpload upload = register(filename);
+        upload.download = new DownloadReceiver(target, key);
+        try {
+            encoder.begin(ProtocolConstants.GET)
+                .putInt(upload.fileId)
+                .putString(filename)
+                .writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            fail(upload.fileId, e.getMessage());
+            throw e;
+        }
+        return upload.result;
+    }
+    
+    /**
+     * Vrai si la connexion a été perdue avant sa fermeture par le client
+     * (les transferts en cours ont échoué pour cette raison)
+     */
+    public boolean isLost() {
+        return lost;
+    }
+    
+    /**
+     * Envoie les fichiers annoncés restants, attend les acquittements en
+     * cours puis ferme la connexion
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            sendAnnounced();
+            for (PendingUpload upload : pending.values()) {
+                upload.result.exceptionally(e -> null).join();
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            closing = true;
+            socket.close();
+            if (reader != null) {
+                try {
+                    reader.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Réserve une place dans la fenêtre et un numéro pour un nouveau fichier
+     * Bloque si maxInFlight fichiers attendent déjà leur acquittement.
+     */
+    private PendingUpload register(String filename) throws InterruptedException {
+        window.acquire();
+        PendingUpload upload = new PendingUpload(nextFileId++, filename);
+        pending.put(upload.fileId, upload);
+        upload.result.whenComplete((r, e) -> window.release());
+        return upload;
+    }
+    
+    private void startReader() {
+        reader = Thread.ofPlatform().daemon().name("ack-reader").start(this::readAcknowledgements);
+    }
+    
+    /**
+     * Boucle du thread lecteur : dispatch des réponses par numéro de fichier
+     */
+    private void readAcknowledgements() {
+        FrameDecoder decoder = new FrameDecoder();
+        try {
+            while (decoder.readFrom(in)) {
+                byte type = decoder.getType();
+                int fileId = decoder.readInt();
+                if (type == ProtocolConstants.RESUME_OFFSET) {
+                    PendingUpload upload = pending.get(fileId);
+                    if (upload != null) {
+                        upload.offset.complete(decoder.readLong());
+                    }
+                } else if (type == ProtocolConstants.READY_FOR_TRANSFER) {
+                    PendingUpload upload = pending.get(fileId);
+                    if (upload != null) {
+                        // Transfert compressé : algorithme retenu par le serveur
+                        upload.ready.complete(decoder.getPayload().hasRemaining() ?
+                            decoder.readString() : null);
+                    }
+                } else if (type == ProtocolConstants.SIGNATURES) {
+                    PendingUpload upload = pending.get(fileId);
+                    if (upload != null) {
+                        upload.addSignatures(decoder);
+                    }
+                } else if (type == ProtocolConstants.RETRANSMIT) {
+                    PendingUpload upload = pending.get(fileId);
+                    int count = decoder.readInt();
+                    if (count <= 0 || count > MerkleTree.MAX_LEAVES) {
+                        throw new ProtocolException("Liste de feuilles invalide");
+                    }
+                    int[] leaves = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        leaves[i] = decoder.readInt();
+                    }
+                    if (upload != null && upload.retransmit != null) {
+                        upload.retransmit.complete(leaves);
+                    }
+                } else if (type == ProtocolConstants.PACK_READY) {
+                    PendingUpload upload = pending.get(fileId);
+                    int count = decoder.readInt();
+                    if (upload != null && upload.packFiles != null) {
+                        boolean[] present = new boolean[upload.packFiles.size()];
+                        for (int i = 0; i < count; i++) {
+                            int index = decoder.readInt();
+                            if (index < 0 || index >= present.length) {
+                                throw new ProtocolException("Index de lot invalide: " + index);
+                            }
+                            present[index] = true;
+                        }
+                        upload.packPresent = present;
+                        upload.ready.complete(null);
+                    }
+                } else if (type == ProtocolConstants.FILE_INFO
+                        || type == ProtocolConstants.DATA
+                        || type == ProtocolConstants.DATA_END) {
+                    receive(fileId, type, decoder);
+                } else if (type == ProtocolConstants.PACK_RESULT) {
+                    completePack(fileId, decoder);
+                } else if (type == ProtocolConstants.ALREADY_HAVE) {
+                    complete(fileId, true, "Contenu déjà présent sur le serveur");
+                } else if (type == ProtocolConstants.TRANSFER_SUCCESS) {
+                    complete(fileId, true, null);
+                } else if (type == ProtocolConstants.TRANSFER_FAIL) {
+                    complete(fileId, false, decoder.readString());
+                }
+            }
+            lost = true;
+            failAll("Connexion fermée par le serveur");
+        } catch (IOException e) {
+            lost = !closing;
+            failAll(closing ? "Session fermée" : e.getMessage());
+        }
+    }
+    
+    /**
+     * Trame d'un fichier téléchargé (thread lecteur) ; une erreur ne fait
+     * échouer que ce fichier
+     */
+    private void receive(int fileId, byte type, FrameDecoder decoder) {
+        PendingUpload upload = pending.get(fileId);
+        if (upload == null || upload.download == null) {
+            return;
+        }
+        try {
+            if (type == ProtocolConstants.FILE_INFO) {
+                upload.download.begin(decoder.readLong(), decoder.readString());
+            } else if (type == ProtocolConstants.DATA) {
+                upload.download.write(decoder.getPayload());
+            } else {
+                String error = upload.download.finish();
+                complete(fileId, error == null, error);
+            }
+        } catch (IOException e) {
+            fail(fileId, e.getMessage());
+        }
+    }
+    
+    private void complete(int fileId, boolean success, String message) {
+        PendingUpload upload = pending.remove(fileId);
+        if (upload != null) {
+            if (upload.download != null && !success) {
+                upload.download.abort();
+            }
+            // Lot refusé ou perdu : chaque fichier reçoit le même résultat
+            if (upload.packResults != null) {
+                for (int i = 0; i < upload.packResults.size(); i++) {
+                    upload.packResults.get(i).complete(new TransferResult(fileId,
+                        upload.packFiles.get(i).getFilename(), success, message));
+                }
+            }
+            upload.result.complete(new TransferResult(fileId, upload.filename, success, message));
+        }
+    }
+    
+    /**
+     * Résultat de chaque fichier d'un lot (thread lecteur)
+     */
+    private void completePack(int fileId, FrameDecoder decoder) throws ProtocolException {
+        PendingUpload upload = pending.get(fileId);
+        int count = decoder.readInt();
+        if (upload == null || upload.packFiles == null) {
+            return;
+        }
+        if (count != upload.packFiles.size()) {
+            throw new ProtocolException("Résultat de lot invalide: " + count + " fichiers");
+        }
+        byte[] status = new byte[count];
+        decoder.readBytes(status);
+        for (int i = 0; i < count; i++) {
+            String message = status[i] == ProtocolConstants.PACK_PRESENT
+                ? "Contenu déjà présent sur le serveur"
+                : status[i] == ProtocolConstants.PACK_FAILED ? "Hash SHA-256 différent" : null;
+            upload.packResults.get(i).complete(new TransferResult(fileId,
+                upload.packFiles.get(i).getFilename(),
+                status[i] != ProtocolConstants.PACK_FAILED, message));
+        }
+        complete(fileId, true, null);
+    }
+    
+    private void fail(int fileId, String message) {
+        complete(fileId, false, message);
+    }
+    
+    private void failAll(String message) {
+        for (Integer fileId : pending.keySet()) {
+            fail(fileId, message);
+        }
+    }
+    
+    private static class PendingUpload {
+        private final int fileId;
+        private final String filename;
+        private final CompletableFuture<TransferResult> result = new CompletableFuture<>();
+        private final CompletableFuture<Long> offset = new CompletableFuture<>();
+        private final CompletableFuture<String> ready = new CompletableFuture<>();
+        private final CompletableFuture<BlockSignatures> signatures = new CompletableFuture<>();
+        private FileProcessor.StreamedFile file;
+        private ChunkCipher chunkCipher;
+        private List<FileProcessor.StreamedFile> packFiles;
+        private List<CompletableFuture<TransferResult>> packResults;
+        private volatile boolean[] packPresent;
+        private volatile CompletableFuture<int[]> retransmit;
+        private volatile DownloadReceiver download;
+        private BlockSignatures received;
+        private int receivedBlocks = 0;
+        
+        PendingUpload(int fileId, String filename) {
+            this.fileId = fileId;
+            this.filename = filename;
+        }
+        
+        /**
+         * Accumule une trame SIGNATURES (thread lecteur)
+         */
+        void addSignatures(FrameDecoder frame) throws ProtocolException {
+            int blockSize = frame.readInt();
+            long storedSize = frame.readLong();
+            int first = frame.readInt();
+            int count = frame.readInt();
+            if (received == null) {
+                if (blockSize <= 0 || storedSize < 0) {
+                    throw new ProtocolException("Signatures invalides");
+                }
+                received = new BlockSignatures(blockSize, storedSize);
+            }
+            if (first < 0 || count < 0 || first + count > received.getCount()) {
+                throw new ProtocolException("Signatures invalides");
+            }
+            byte[] strong = new byte[BlockSignatures.STRONG_HASH_SIZE];
+            for (int i = first; i < first + count; i++) {
+                int weak = frame.readInt();
+                frame.readBytes(strong);
+                received.set(i, weak, strong, 0);
+            }
+            receivedBlocks += count;
+            if (receivedBlocks >= received.getCount()) {
+                signatures.complete(received);
+            }
+        }
+    }
+    
+    /**
+     * Ticket de reprise remis par le serveur avec le secret associé
+     */
+    private static class SessionTicket {
+        private final byte[] id;
+        private final byte[] secret;
+        private final long expiresAt;
+        
+        SessionTicket(byte[] id, byte[] secret, long expiresAt) {
+            this.id = id;
+            this.secret = secret;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
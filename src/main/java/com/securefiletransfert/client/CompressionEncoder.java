@@ -0,0 +1,118 @@
+package com.securefiletransfert.client;
+
+import com.securefiletransfert.common.CompressionCodec;
+import com.securefiletransfert.common.Log;
+import com.securefiletransfert.common.MappedInputStream;
+import com.securefiletransfert.common.ProtocolConstants;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Découpe un fichier en morceaux compressés avant chiffrement
+ *
+ * Chaque morceau de STREAM_CHUNK_SIZE octets est compressé séparément ;
+ * s'il ne rétrécit pas (données déjà compressées ou aléatoires), il part
+ * brut : un fichier incompressible ne coûte que les en-têtes de morceaux.
+ * Après un échec, les morceaux suivants partent bruts sans essai (1, 2,
+ * 4... jusqu'à MAX_SKIPPED_CHUNKS) : une zone incompressible ne coûte
+ * presque plus de CPU, et la compression reprend dès qu'un essai réussit.
+ */
+public class CompressionEncoder {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final int MAX_SKIPPED_CHUNKS = 16;
+
+    private final CompressionCodec codec;
+    private final DataOutputStream out;
+
+    private long plainBytes = 0;
+    private long sentBytes = 0;
+    private long compressedChunks = 0;
+    private long chunks = 0;
+    private long cpuNanos = 0;
+    private int skip = 0;
+    private int toSkip = 0;
+
+    private CompressionEncoder(CompressionCodec codec, DataOutputStream out) {
+        this.codec = codec;
+        this.out = out;
+    }
+
+    /**
+     * Écrit les morceaux de file dans out
+     *
+     * @param codec null pour n'envoyer que des morceaux bruts
+     * @return nombre d'octets envoyés (hors en-têtes de morceaux)
+     */
+    public static long encode(FileProcessor.StreamedFile file, CompressionCodec codec,
+                              DataOutputStream out) throws Exception {
+        CompressionEncoder encoder = new CompressionEncoder(codec, out);
+        try (InputStream in = MappedInputStream.open(file.getPath(), 0,
+                file.getOriginalSize())) {
+            encoder.scan(in, file.getOriginalSize(), file.getFilename());
+        }
+        double ratio = encoder.plainBytes == 0 ? 1 :
+            (double) encoder.sentBytes / encoder.plainBytes;
+        Log.info(String.format("Compression (%s): %d -> %d bytes (%.1f %%), " +
+                "%d/%d morceaux compressés, %d ms CPU",
+            codec != null ? codec.getName() : "none", encoder.plainBytes, encoder.sentBytes,
+            ratio * 100, encoder.compressedChunks, encoder.chunks,
+            encoder.cpuNanos / 1_000_000));
+        return encoder.sentBytes;
+    }
+
+    private void scan(InputStream in, long size, String filename) throws Exception {
+        byte[] plain = new byte[ProtocolConstants.STREAM_CHUNK_SIZE];
+        byte[] compressed = new byte[ProtocolConstants.STREAM_CHUNK_SIZE];
+        long unread = size;
+        while (unread > 0) {
+            int length = in.readNBytes(plain, 0, (int) Math.min(plain.length, unread));
+            if (length == 0) {
+                throw new IOException("Le fichier a changé pendant l'envoi: " + filename);
+            }
+            unread -= length;
+            writeChunk(plain, length, compressed);
+        }
+        out.flush();
+    }
+
+    private void writeChunk(byte[] plain, int length, byte[] compressed) throws IOException {
+        int stored = -1;
+        if (codec != null && toSkip > 0) {
+            toSkip--;
+        } else if (codec != null) {
+            long start = THREADS.getCurrentThreadCpuTime();
+            // Le tampon de sortie a la taille du morceau : la compression
+            // s'arrête dès qu'elle ne peut plus rien faire gagner
+            stored = codec.compress(plain, 0, length, compressed);
+            cpuNanos += THREADS.getCurrentThreadCpuTime() - start;
+            if (stored > 0 && stored < length) {
+                skip = 0;
+            } else {
+                skip = Math.min(Math.max(1, skip * 2), MAX_SKIPPED_CHUNKS);
+                toSkip = skip;
+            }
+        }
+
+        chunks++;
+        plainBytes += length;
+        if (stored > 0 && stored < length) {
+            out.writeByte(ProtocolConstants.CHUNK_COMPRESSED);
+            out.writeInt(length);
+            out.writeInt(stored);
+            out.write(compressed, 0, stored);
+            sentBytes += stored;
+            compressedChunks++;
+        } else {
+            out.writeByte(ProtocolConstants.CHUNK_RAW);
+            out.writeInt(length);
+            out.writeInt(length);
+            out.write(plain, 0, length);
+            sentBytes += length;
+        }
+    }
+}
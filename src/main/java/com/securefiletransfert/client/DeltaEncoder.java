@@ -0,0 +1,199 @@
+package com.securefiletransfert.client;
+
+import com.securefiletransfert.common.BlockSignatures;
+import com.securefiletransfert.common.CryptoUtils;
+import com.securefiletransfert.common.Log;
+import com.securefiletransfert.common.MappedInputStream;
+import com.securefiletransfert.common.ProtocolConstants;
+import com.securefiletransfert.common.RollingChecksum;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Calcul du flux différentiel (à la rsync) d'un fichier par rapport à la
+ * version stockée sur le serveur, décrite par ses signatures de blocs
+ *
+ * Une fenêtre de la taille d'un bloc glisse sur le nouveau fichier : sa
+ * somme faible est mise à jour en O(1) à chaque octet et comparée aux
+ * blocs connus, le hash fort ne départageant que les candidats. Un bloc
+ * retrouvé devient une instruction DELTA_COPY (les blocs consécutifs sont
+ * regroupés), les octets entre deux blocs retrouvés une instruction
+ * DELTA_LITERAL.
+ */
+public class DeltaEncoder {
+
+    private final BlockSignatures signatures;
+    private final int blockSize;
+    private final Map<Integer, List<Integer>> blocksByWeak = new HashMap<>();
+    private final MessageDigest digest;
+    private final DataOutputStream out;
+
+    private int copyFirst = -1;
+    private int copyCount = 0;
+    private long literalBytes = 0;
+    private long copiedBlocks = 0;
+
+    private DeltaEncoder(BlockSignatures signatures, DataOutputStream out) throws Exception {
+        this.signatures = signatures;
+        this.blockSize = signatures.getBlockSize();
+        this.digest = CryptoUtils.createDigest();
+        this.out = out;
+
+        // Seuls les blocs complets peuvent correspondre à une fenêtre glissante
+        for (int i = 0; i < signatures.getCount(); i++) {
+            if (signatures.getBlockLength(i) == blockSize) {
+                blocksByWeak.computeIfAbsent(signatures.getWeak(i), k -> new ArrayList<>()).add(i);
+            }
+        }
+    }
+
+    /**
+     * Écrit les instructions reconstruisant file à partir de la version stockée
+     *
+     * @return nombre d'octets envoyés tels quels (hors blocs réutilisés)
+     */
+    public static long encode(FileProcessor.StreamedFile file, BlockSignatures signatures,
+                              DataOutputStream out) throws Exception {
+        DeltaEncoder encoder = new DeltaEncoder(signatures, out);
+        try (InputStream in = MappedInputStream.open(file.getPath(), 0,
+                file.getOriginalSize())) {
+            encoder.scan(in, file.getOriginalSize(), file.getFilename());
+        }
+        Log.info("Synchronisation différentielle: " + encoder.copiedBlocks +
+            " blocs réutilisés, " + encoder.literalBytes + " octets modifiés");
+        return encoder.literalBytes;
+    }
+
+    private void scan(InputStream in, long size, String filename) throws Exception {
+        byte[] buf = new byte[Math.max(4 * blockSize, ProtocolConstants.STREAM_CHUNK_SIZE * 4)];
+        RollingChecksum checksum = new RollingChecksum(blockSize);
+        long unread = size;
+        int literalStart = 0;
+        int pos = 0;
+        int limit = 0;
+        boolean rolling = false;
+
+        while (true) {
+            // La fenêtre et l'octet suivant doivent être dans le buffer
+            if (limit - pos <= blockSize && unread > 0) {
+                if (literalStart == 0 && limit == buf.length) {
+                    writeLiteral(buf, literalStart, pos);
+                    literalStart = pos;
+                }
+                if (literalStart > 0) {
+                    System.arraycopy(buf, literalStart, buf, 0, limit - literalStart);
+                    pos -= literalStart;
+                    limit -= literalStart;
+                    literalStart = 0;
+                }
+                int n = in.read(buf, limit, (int) Math.min(buf.length - limit, unread));
+                if (n == -1) {
+                    throw new IOException("Le fichier a changé pendant l'envoi: " + filename);
+                }
+                limit += n;
+                unread -= n;
+                continue;
+            }
+            if (limit - pos < blockSize) {
+                break;
+            }
+
+            if (!rolling) {
+                checksum.reset(buf, pos);
+                rolling = true;
+            }
+            int match = find(checksum.getValue(), buf, pos, blockSize);
+            if (match >= 0) {
+                writeLiteral(buf, literalStart, pos);
+                writeCopy(match);
+                pos += blockSize;
+                literalStart = pos;
+                rolling = false;
+                continue;
+            }
+            if (limit - pos == blockSize) {
+                break;
+            }
+            checksum.roll(buf[pos], buf[pos + blockSize]);
+            pos++;
+        }
+
+        // Fin du fichier : elle peut correspondre au dernier bloc, plus court
+        int last = signatures.getCount() - 1;
+        int tail = limit - pos;
+        if (last >= 0 && tail > 0 && tail < blockSize && signatures.getBlockLength(last) == tail &&
+                RollingChecksum.of(buf, pos, tail) == signatures.getWeak(last) &&
+                signatures.strongMatches(last,
+                    BlockSignatures.strongHash(digest, buf, pos, tail))) {
+            writeLiteral(buf, literalStart, pos);
+            writeCopy(last);
+            literalStart = limit;
+        }
+        writeLiteral(buf, literalStart, limit);
+        flushCopy();
+        out.flush();
+    }
+
+    /**
+     * Bloc stocké identique à buf[offset, offset + length[, ou -1
+     * Le bloc qui suit la dernière copie est préféré (copies regroupées).
+     */
+    private int find(int weak, byte[] buf, int offset, int length) {
+        List<Integer> candidates = blocksByWeak.get(weak);
+        if (candidates == null) {
+            return -1;
+        }
+        byte[] strong = BlockSignatures.strongHash(digest, buf, offset, length);
+        int next = copyFirst + copyCount;
+        int found = -1;
+        for (int index : candidates) {
+            if (signatures.strongMatches(index, strong)) {
+                if (index == next) {
+                    return index;
+                }
+                if (found < 0) {
+                    found = index;
+                }
+            }
+        }
+        return found;
+    }
+
+    private void writeCopy(int index) throws IOException {
+        if (copyCount > 0 && index == copyFirst + copyCount) {
+            copyCount++;
+        } else {
+            flushCopy();
+            copyFirst = index;
+            copyCount = 1;
+        }
+        copiedBlocks++;
+    }
+
+    private void flushCopy() throws IOException {
+        if (copyCount > 0) {
+            out.writeByte(ProtocolConstants.DELTA_COPY);
+            out.writeInt(copyFirst);
+            out.writeInt(copyCount);
+            copyCount = 0;
+        }
+    }
+
+    private void writeLiteral(byte[] buf, int from, int to) throws IOException {
+        if (to <= from) {
+            return;
+        }
+        flushCopy();
+        out.writeByte(ProtocolConstants.DELTA_LITERAL);
+        out.writeInt(to - from);
+        out.write(buf, from, to - from);
+        literalBytes += to - from;
+    }
+}
@@ -0,0 +1,339 @@
+package com.securefiletransfert.client;
+
+import com.securefiletransfert.common.Log;
+import com.securefiletransfert.common.ProtocolConstants;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Envoi d'arborescences complètes sur plusieurs sessions en parallèle
+ *
+ * Les fichiers sont répartis en tâches : un gros fichier forme une tâche à
+ * lui seul, les petits sont regroupés en lots annoncés à la suite sur la
+ * même session (un aller-retour par lot, pas par fichier) ; ceux d'au plus
+ * ClientSession.PACK_FILE_SIZE octets partent en un seul flux (PACK_METADATA).
+ * Les tâches sont distribuées de la plus grosse à la plus petite dans la
+ * file de chaque worker ; un worker qui a vidé la sienne vole les plus petites tâches à la
+ * fin de la file des autres. Chaque worker garde sa session jusqu'au bout.
+ */
+public class DirectoryUploader {
+
+    public static final int DEFAULT_SESSIONS = 4;
+
+    // Au-delà, un fichier est envoyé seul ; en deçà, il rejoint un lot
+    static final long LARGE_FILE_SIZE = 4L * 1024 * 1024;
+    static final int BATCH_FILES = ProtocolConstants.MAX_PACK_FILES;
+    static final long BATCH_BYTES = 8L * 1024 * 1024;
+
+    private final String serverAddress;
+    private final int serverPort;
+    private final String username;
+    private final String password;
+    private final int sessions;
+
+    public DirectoryUploader(String serverAddress, int serverPort,
+                             String username, String password, int sessions) {
+        this.serverAddress = serverAddress;
+        this.serverPort = serverPort;
+        this.username = username;
+        this.password = password;
+        this.sessions = Math.max(1, sessions);
+    }
+
+    /**
+     * Envoie les fichiers donnés et le contenu des répertoires donnés
+     * (sous-répertoires compris). Le serveur range chaque fichier sous son
+     * seul nom : deux fichiers de même nom dans des répertoires différents
+     * sont signalés.
+     */
+    public Report upload(List<Path> roots) throws IOException {
+        List<Entry> entries = walk(roots);
+        List<Task> tasks = plan(entries);
+        long start = System.nanoTime();
+
+        // Distribution en tourniquet, les plus grosses tâches en tête de file
+        int workers = Math.min(sessions, Math.max(1, tasks.size()));
+        List<ConcurrentLinkedDeque<Task>> queues = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            queues.add(new ConcurrentLinkedDeque<>());
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+            queues.get(i % workers).add(tasks.get(i));
+        }
+
+        Map<Entry, CompletableFuture<TransferResult>> results = new HashMap<>();
+        for (Entry entry : entries) {
+            results.put(entry, new CompletableFuture<>());
+        }
+
+        // Threads plateforme : l'envoi se fait dans un bloc synchronized
+        // (ClientSession) qui bloquerait le thread porteur d'un thread virtuel
+        String[] lastError = {null};
+        try (ExecutorService executor = Executors.newFixedThreadPool(workers)) {
+            for (int i = 0; i < workers; i++) {
+                int index = i;
+                executor.submit(() -> {
+                    String error = work(index, queues, results);
+                    if (error != null) {
+                        lastError[0] = error;
+                    }
+                });
+            }
+        }
+
+        // Tâches restées en file : aucune session n'a pu les prendre
+        for (ConcurrentLinkedDeque<Task> queue : queues) {
+            for (Task task : queue) {
+                for (Entry entry : task.entries) {
+                    results.get(entry).complete(new TransferResult(0, entry.name, false,
+                        lastError[0] != null ? lastError[0] : "Aucune session disponible"));
+                }
+            }
+        }
+
+        List<FileResult> files = new ArrayList<>();
+        for (Entry entry : entries) {
+            TransferResult result;
+            try {
+                result = results.get(entry).join();
+            } catch (Exception e) {
+                result = new TransferResult(0, entry.name, false, e.getMessage());
+            }
+            files.add(new FileResult(entry.relativePath, entry.size, result));
+        }
+        files.sort(Comparator.comparing(FileResult::getPath));
+        return new Report(files, System.nanoTime() - start);
+    }
+
+    /**
+     * Boucle d'un worker : sa propre file par le début, puis vol par la fin
+     *
+     * @return l'erreur qui a interrompu le worker, ou null
+     */
+    private String work(int index, List<ConcurrentLinkedDeque<Task>> queues,
+                        Map<Entry, CompletableFuture<TransferResult>> results) {
+        ClientSession session;
+        try {
+            session = ClientSession.open(serverAddress, serverPort, username, password,
+                ClientSession.DEFAULT_MAX_IN_FLIGHT);
+        } catch (IOException e) {
+            // Les autres workers prendront ses tâches
+            Log.warn("Session " + index + " impossible: " + e.getMessage());
+            return e.getMessage();
+        }
+        try (session) {
+            session.setPacking(true);
+            Task task;
+            while ((task = next(index, queues)) != null) {
+                for (Entry entry : task.entries) {
+                    CompletableFuture<TransferResult> result = results.get(entry);
+                    try {
+                        session.announce(FileProcessor.prepareFile(entry.path.toString()))
+                            .whenComplete((r, e) -> {
+                                if (e != null) {
+                                    result.complete(new TransferResult(0, entry.name,
+                                        false, e.getMessage()));
+                                } else {
+                                    result.complete(r);
+                                }
+                            });
+                    } catch (IOException e) {
+                        // Connexion perdue : le reste de la tâche repart dans la file
+                        queues.get(index).addFirst(task.remaining(entry, results));
+                        result.complete(new TransferResult(0, entry.name, false,
+                            e.getMessage()));
+                        return e.getMessage();
+                    } catch (Exception e) {
+                        result.complete(new TransferResult(0, entry.name, false,
+                            e.getMessage()));
+                    }
+                }
+                // Données de la tâche envoyées avant d'en prendre une autre :
+                // un worker ne garde pas de travail que d'autres pourraient voler
+                session.sendAnnounced();
+            }
+        } catch (Exception e) {
+            Log.warn("Session " + index + " interrompue: " + e.getMessage());
+            return e.getMessage();
+        }
+        return null;
+    }
+
+    private static Task next(int index, List<ConcurrentLinkedDeque<Task>> queues) {
+        Task task = queues.get(index).pollFirst();
+        for (int i = 1; task == null && i < queues.size(); i++) {
+            task = queues.get((index + i) % queues.size()).pollLast();
+        }
+        return task;
+    }
+
+    private static List<Entry> walk(List<Path> roots) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (Path root : roots) {
+            if (!Files.isDirectory(root)) {
+                entries.add(new Entry(root, root.getFileName().toString(),
+                    Files.exists(root) ? Files.size(root) : 0));
+                continue;
+            }
+            Path base = root.toAbsolutePath().getParent();
+            try (Stream<Path> paths = Files.walk(root)) {
+                for (Path path : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                    Path relative = base == null ? path : base.relativize(path.toAbsolutePath());
+                    entries.add(new Entry(path, relative.toString(), Files.size(path)));
+                }
+            }
+        }
+        for (Entry entry : entries) {
+            if (!names.add(entry.name)) {
+                Log.warn("Nom en double, une seule version sera gardée: " + entry.relativePath);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Gros fichiers seuls, petits fichiers en lots ; plus grosses tâches d'abord
+     */
+    private static List<Task> plan(List<Entry> entries) {
+        List<Entry> bySize = new ArrayList<>(entries);
+        bySize.sort(Comparator.comparingLong((Entry e) -> e.size).reversed());
+
+        List<Task> tasks = new ArrayList<>();
+        Task batch = null;
+        for (Entry entry : bySize) {
+            if (entry.size >= LARGE_FILE_SIZE) {
+                tasks.add(new Task(List.of(entry)));
+                continue;
+            }
+            if (batch == null || batch.entries.size() >= BATCH_FILES
+                    || batch.bytes + entry.size > BATCH_BYTES) {
+                batch = new Task(new ArrayList<>());
+                tasks.add(batch);
+            }
+            batch.add(entry);
+        }
+        tasks.sort(Comparator.comparingLong((Task t) -> t.bytes).reversed());
+        return tasks;
+    }
+
+    private static class Entry {
+        final Path path;
+        final String relativePath;
+        final String name;
+        final long size;
+
+        Entry(Path path, String relativePath, long size) {
+            this.path = path;
+            this.relativePath = relativePath;
+            this.name = path.getFileName().toString();
+            this.size = size;
+        }
+    }
+
+    private static class Task {
+        final List<Entry> entries;
+        long bytes;
+
+        Task(List<Entry> entries) {
+            this.entries = entries;
+            for (Entry entry : entries) {
+                bytes += entry.size;
+            }
+        }
+
+        void add(Entry entry) {
+            entries.add(entry);
+            bytes += entry.size;
+        }
+
+        /**
+         * Fichiers de la tâche qui suivent failed et n'ont pas encore de résultat
+         */
+        Task remaining(Entry failed, Map<Entry, CompletableFuture<TransferResult>> results) {
+            List<Entry> rest = new ArrayList<>();
+            for (Entry entry : entries.subList(entries.indexOf(failed) + 1, entries.size())) {
+                if (!results.get(entry).isDone()) {
+                    rest.add(entry);
+                }
+            }
+            return new Task(rest);
+        }
+    }
+
+    /**
+     * Résultat d'un fichier de l'arborescence
+     */
+    public static class FileResult {
+        private final String path;
+        private final long size;
+        private final TransferResult result;
+
+        FileResult(String path, long size, TransferResult result) {
+            this.path = path;
+            this.size = size;
+            this.result = result;
+        }
+
+        public String getPath() { return path; }
+        public long getSize() { return size; }
+        public TransferResult getResult() { return result; }
+
+        @Override
+        public String toString() {
+            return path + ": " + (result.isSuccess() ? "OK" : "ÉCHEC (" + result.getMessage() + ")");
+        }
+    }
+
+    /**
+     * Bilan d'un envoi : résultats par fichier (triés par chemin) et débit global
+     */
+    public static class Report {
+        private final List<FileResult> files;
+        private final long elapsedNanos;
+
+        Report(List<FileResult> files, long elapsedNanos) {
+            this.files = files;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public List<FileResult> getFiles() { return files; }
+        public long getElapsedNanos() { return elapsedNanos; }
+
+        public long getSucceeded() {
+            return files.stream().filter(f -> f.getResult().isSuccess()).count();
+        }
+
+        /**
+         * Octets des fichiers acceptés par le serveur (envoyés ou déjà présents)
+         */
+        public long getBytes() {
+            return files.stream().filter(f -> f.getResult().isSuccess())
+                .mapToLong(FileResult::getSize).sum();
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format("%d/%d fichiers transférés, %.1f Mo en %.2f s " +
+                    "(%.1f Mo/s, %.0f fichiers/s)",
+                getSucceeded(), files.size(), getBytes() / 1048576.0, seconds,
+                seconds > 0 ? getBytes() / 1048576.0 / seconds : 0.0,
+                seconds > 0 ? getSucceeded() / seconds : 0.0);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.securefiletransfert.client;
+
+import com.securefiletransfert.common.CryptoEngine;
+import com.securefiletransfert.common.ProtocolConstants;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * Fichier téléchargé (GET), reçu par le thread lecteur de ClientSession
+ *
+ * Le contenu est déchiffré au fil des trames DATA et écrit dans
+ * target.part, renommé en target seulement si la taille et le SHA-256
+ * annoncés par FILE_INFO correspondent.
+ */
+class DownloadReceiver {
+
+    private final Path target;
+    private final Path temp;
+    private final SecretKey key;
+    private ByteBuffer plain = ByteBuffer.allocate(ProtocolConstants.STREAM_CHUNK_SIZE + 16);
+    private CryptoEngine engine;
+    private Cipher cipher;
+    private MessageDigest digest;
+    private FileChannel channel;
+    private long size = -1;
+    private String hash;
+    private long received = 0;
+
+    DownloadReceiver(Path target, SecretKey key) {
+        this.target = target;
+        this.temp = target.resolveSibling(target.getFileName() + ".part");
+        this.key = key;
+    }
+
+    /**
+     * FILE_INFO : taille en clair et hash du fichier qui va suivre
+     */
+    synchronized void begin(long size, String hash) throws IOException {
+        if (size < 0 || channel != null) {
+            throw new ProtocolException("Annonce de fichier invalide");
+        }
+        this.size = size;
+        this.hash = hash;
+        try {
+            engine = CryptoEngine.acquire(key);
+            cipher = engine.decryptor();
+            digest = engine.digest();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Déchiffrement indisponible: " + e.getMessage(), e);
+        }
+        channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Contenu chiffré d'une trame DATA
+     */
+    synchronized void write(ByteBuffer encrypted) throws IOException {
+        if (channel == null) {
+            throw new ProtocolException("Données reçues avant FILE_INFO");
+        }
+        try {
+            ensureCapacity(cipher.getOutputSize(encrypted.remaining()));
+            cipher.update(encrypted, plain);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Déchiffrement impossible: " + e.getMessage(), e);
+        }
+        drain();
+    }
+
+    /**
+     * DATA_END : vérifie le fichier et le met en place
+     *
+     * @return null si le fichier est valide, sinon la raison du rejet
+     */
+    synchronized String finish() throws IOException {
+        if (channel == null) {
+            throw new ProtocolException("Fin de fichier reçue avant FILE_INFO");
+        }
+        try {
+            ensureCapacity(cipher.getOutputSize(0));
+            cipher.doFinal(ByteBuffer.allocate(0), plain);
+        } catch (GeneralSecurityException e) {
+            abort();
+            return "Déchiffrement impossible: " + e.getMessage();
+        }
+        drain();
+        channel.close();
+        channel = null;
+        String actual = engine.hexDigest();
+        release();
+        if (received != size || !actual.equals(hash)) {
+            Files.deleteIfExists(temp);
+            return received != size ? "Taille différente: " + received + " bytes"
+                : "Hash SHA-256 différent";
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return null;
+    }
+
+    /**
+     * Abandonne la réception : le fichier partiel est supprimé
+     */
+    synchronized void abort() {
+        release();
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+            Files.deleteIfExists(temp);
+        } catch (IOException e) {
+            // fichier partiel laissé en place
+        }
+    }
+
+    /**
+     * Écrit le contenu déchiffré accumulé dans plain
+     */
+    private void drain() throws IOException {
+        plain.flip();
+        received += plain.remaining();
+        if (received > size) {
+            throw new ProtocolException("Contenu plus long que la taille annoncée");
+        }
+        digest.update(plain.duplicate());
+        while (plain.hasRemaining()) {
+            channel.write(plain);
+        }
+        plain.clear();
+    }
+
+    private void ensureCapacity(int needed) {
+        if (plain.capacity() < needed) {
+            plain = ByteBuffer.allocate(needed);
+        }
+    }
+
+    private void release() {
+        if (engine != null) {
+            engine.release();
+            engine = null;
+            cipher = null;
+            digest = null;
+        }
+    }
+}
@@ -1,14 +1,36 @@
 package com.securefiletransfert.client;
 
+import com.securefiletransfert.common.ChunkCipher;
+import com.securefiletransfert.common.CryptoEngine;
 import com.securefiletransfert.common.CryptoUtils;
+import com.securefiletransfert.common.Log;
+import com.securefiletransfert.common.MappedInputStream;
+import com.securefiletransfert.common.MerkleTree;
+import com.securefiletransfert.common.ProtocolConstants;
 
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class FileProcessor {
     
+    // Chiffrement des morceaux AES-GCM et hash des feuilles sur tous les cœurs
+    private static final ForkJoinPool CHUNK_POOL = new ForkJoinPool(
+        Runtime.getRuntime().availableProcessors());
+    
 
     public static ProcessedFile processFile(String filePath) throws Exception {
         Path path = Paths.get(filePath);
@@ -18,19 +40,214 @@ public class FileProcessor {
         }
         
         byte[] fileContent = Files.readAllBytes(path);
-        System.out.println("Fichier lu: " + fileContent.length + " bytes");
+        Log.info("Fichier lu: " + fileContent.length + " bytes");
         
         String hash = CryptoUtils.calculateFileHash(fileContent);
-        System.out.println("Hash SHA-256 calculé: " + hash);
+        Log.info("Hash SHA-256 calculé: " + hash);
 
         byte[] encryptedContent = CryptoUtils.encrypt(fileContent);
-        System.out.println("Fichier chiffré: " + encryptedContent.length + " bytes");
+        Log.info("Fichier chiffré: " + encryptedContent.length + " bytes");
 
         String filename = path.getFileName().toString();
         
         return new ProcessedFile(filename, encryptedContent, hash, fileContent.length);
     }
 
+    /**
+     * Mode streaming, étape 1 : calcule le hash par morceaux sans charger
+     * le fichier (le hash doit être connu dès la négociation)
+     */
+    public static StreamedFile prepareFile(String filePath) throws Exception {
+        Path path = Paths.get(filePath);
+        
+        if (!Files.isRegularFile(path)) {
+            throw new IOException("Le fichier n'existe pas: " + filePath);
+        }
+        
+        long size = Files.size(path);
+        Log.info("Fichier à envoyer: " + size + " bytes");
+        
+        String hash = CryptoUtils.calculateFileHash(path, ProtocolConstants.STREAM_CHUNK_SIZE);
+        Log.info("Hash SHA-256 calculé: " + hash);
+        
+        return new StreamedFile(path, hash, size);
+    }
+    
+    /**
+     * Mode vérifié : calcule en parallèle l'arbre de Merkle du fichier au
+     * lieu du SHA-256 séquentiel ; sa racine sert de hash
+     */
+    public static StreamedFile prepareTree(String filePath) throws Exception {
+        Path path = Paths.get(filePath);
+        
+        if (!Files.isRegularFile(path)) {
+            throw new IOException("Le fichier n'existe pas: " + filePath);
+        }
+        
+        long size = Files.size(path);
+        Log.info("Fichier à envoyer: " + size + " bytes");
+        
+        MerkleTree tree = MerkleTree.compute(path, size, MerkleTree.chooseLeafSize(size),
+            CHUNK_POOL);
+        Log.info("Racine de l'arbre de hachage (" + tree.getLeafCount() + 
+            " feuilles): " + tree.getRootHex());
+        
+        return new StreamedFile(path, tree.getRootHex(), size, tree);
+    }
+    
+    /**
+     * Mode streaming, étape 2 : lit, chiffre (Cipher.update) et écrit chaque
+     * morceau immédiatement. La mémoire utilisée ne dépend pas de la taille du fichier.
+     * 
+     * @return nombre d'octets chiffrés écrits
+     */
+    public static long streamEncrypted(StreamedFile file, SecretKey key, OutputStream out)
+            throws Exception {
+        return streamEncrypted(file, key, 0, file.getOriginalSize(), out);
+    }
+    
+    /**
+     * Chiffre et écrit une plage du fichier, chiffrée indépendamment du reste
+     * (transfert d'un même fichier sur plusieurs connexions en parallèle)
+     * 
+     * @param key clé AES de la session (voir ClientSession)
+     * @return nombre d'octets chiffrés écrits
+     */
+    public static long streamEncrypted(StreamedFile file, SecretKey key, long offset,
+                                       long length, OutputStream out) throws Exception {
+        CryptoEngine engine = CryptoEngine.acquire(key);
+        try {
+            Cipher cipher = engine.encryptor();
+            byte[] buffer = new byte[ProtocolConstants.STREAM_CHUNK_SIZE];
+            byte[] encrypted = new byte[cipher.getOutputSize(buffer.length)];
+            long written = encryptPart(file, offset, length, cipher, buffer, encrypted, out);
+            int n = cipher.doFinal(encrypted, 0);
+            out.write(encrypted, 0, n);
+            written += n;
+            out.flush();
+            
+            return written;
+        } finally {
+            engine.release();
+        }
+    }
+    
+    /**
+     * Lot de petits fichiers : leurs contenus concaténés forment un seul flux
+     * chiffré (une seule initialisation du chiffrement et un seul padding
+     * pour tout le lot)
+     * 
+     * @return nombre d'octets chiffrés écrits
+     */
+    public static long streamPack(List<StreamedFile> files, SecretKey key, OutputStream out)
+            throws Exception {
+        CryptoEngine engine = CryptoEngine.acquire(key);
+        try {
+            Cipher cipher = engine.encryptor();
+            byte[] buffer = new byte[ProtocolConstants.STREAM_CHUNK_SIZE];
+            byte[] encrypted = new byte[cipher.getOutputSize(buffer.length)];
+            long written = 0;
+            for (StreamedFile file : files) {
+                written += encryptPart(file, 0, file.getOriginalSize(), cipher, buffer,
+                    encrypted, out);
+            }
+            int n = cipher.doFinal(encrypted, 0);
+            out.write(encrypted, 0, n);
+            written += n;
+            out.flush();
+            
+            return written;
+        } finally {
+            engine.release();
+        }
+    }
+    
+    /**
+     * Chiffre (Cipher.update) et écrit length octets du fichier à partir de offset
+     */
+    private static long encryptPart(StreamedFile file, long offset, long length, Cipher cipher,
+                                    byte[] buffer, byte[] encrypted, OutputStream out)
+            throws IOException, GeneralSecurityException {
+        long written = 0;
+        long remaining = length;
+        
+        // On n'envoie jamais plus que la taille annoncée dans la négociation
+        try (InputStream in = MappedInputStream.open(file.getPath(), offset, length)) {
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    throw new IOException("Le fichier a changé pendant l'envoi: " + 
+                        file.getFilename());
+                }
+                int n = cipher.update(buffer, 0, read, encrypted);
+                out.write(encrypted, 0, n);
+                written += n;
+                remaining -= read;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Chiffre le fichier en morceaux AES-GCM indépendants, en parallèle, et
+     * les écrit dans l'ordre (un appel à out.write par morceau)
+     * 
+     * Au plus deux morceaux par thread du pool sont chiffrés d'avance : la
+     * mémoire reste bornée quand la connexion est plus lente que le chiffrement.
+     * 
+     * @return nombre d'octets écrits (contenu et tags)
+     */
+    public static long streamEncryptedChunks(StreamedFile file, ChunkCipher cipher,
+                                             OutputStream out) throws Exception {
+        int chunkSize = ProtocolConstants.GCM_CHUNK_SIZE;
+        long count = ChunkCipher.chunkCount(file.getOriginalSize(), chunkSize);
+        int window = 2 * CHUNK_POOL.getParallelism();
+        ArrayDeque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+        long written = 0;
+        
+        try (FileChannel channel = FileChannel.open(file.getPath())) {
+            long next = 0;
+            while (next < count || !pending.isEmpty()) {
+                while (next < count && pending.size() < window) {
+                    long index = next++;
+                    pending.add(CHUNK_POOL.submit(() -> 
+                        encryptChunk(channel, file, cipher, index, chunkSize)));
+                }
+                byte[] encrypted;
+                try {
+                    encrypted = pending.poll().get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+                out.write(encrypted);
+                written += encrypted.length;
+            }
+        } finally {
+            for (ForkJoinTask<byte[]> task : pending) {
+                task.cancel(false);
+            }
+        }
+        out.flush();
+        return written;
+    }
+    
+    private static byte[] encryptChunk(FileChannel channel, StreamedFile file,
+                                       ChunkCipher cipher, long index, int chunkSize)
+            throws Exception {
+        long position = index * chunkSize;
+        int length = (int) Math.min(chunkSize, file.getOriginalSize() - position);
+        ByteBuffer plain = ByteBuffer.allocate(length);
+        while (plain.hasRemaining()) {
+            if (channel.read(plain, position + plain.position()) < 0) {
+                throw new IOException("Le fichier a changé pendant l'envoi: " +
+                    file.getFilename());
+            }
+        }
+        byte[] encrypted = new byte[length + ChunkCipher.TAG_SIZE];
+        cipher.encrypt(index, plain.array(), 0, length, encrypted);
+        return encrypted;
+    }
+
     public static class ProcessedFile {
         private final String filename;
         private final byte[] encryptedContent;
@@ -51,5 +268,37 @@ public class FileProcessor {
         public long getOriginalSize() { return originalSize; }
         public int getEncryptedSize() { return encryptedContent.length; }
     }
+    
+    /**
+     * Fichier préparé pour le mode streaming : seules les métadonnées sont
+     * en mémoire, le contenu est relu et chiffré au moment de l'envoi
+     */
+    public static class StreamedFile {
+        private final Path path;
+        private final String hash;
+        private final long originalSize;
+        private final MerkleTree tree;
+        
+        public StreamedFile(Path path, String hash, long originalSize) {
+            this(path, hash, originalSize, null);
+        }
+        
+        public StreamedFile(Path path, String hash, long originalSize, MerkleTree tree) {
+            this.path = path;
+            this.hash = hash;
+            this.originalSize = originalSize;
+            this.tree = tree;
+        }
+        
+        public Path getPath() { return path; }
+        public String getFilename() { return path.getFileName().toString(); }
+        public String getHash() { return hash; }
+        public long getOriginalSize() { return originalSize; }
+        public long getEncryptedSize() { return CryptoUtils.getEncryptedSize(originalSize); }
+        
+        /**
+         * Arbre de Merkle (prepareTree), null si le hash est un SHA-256 simple
+         */
+        public MerkleTree getTree() { return tree; }
+    }
 }
-
@@ -1,13 +1,30 @@
 package com.securefiletransfert.client;
 
+import com.securefiletransfert.common.CompressionCodecs;
+import com.securefiletransfert.common.DeflateCodec;
+import com.securefiletransfert.common.Log;
 import com.securefiletransfert.common.ProtocolConstants;
 
-import java.io.*;
-import java.net.Socket;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SecureFileClient {
     
+    // Transferts reprenables : tentatives de reconnexion après une coupure
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long RETRY_DELAY_MS = 1000;
+    
     private String serverAddress;
     private int serverPort;
     private String username;
@@ -24,108 +41,280 @@ public class SecureFileClient {
     }
     
 
+    /**
+     * Envoie le fichier filePath sur une nouvelle session
+     * En cas de coupure, se reconnecte et reprend au dernier point de reprise.
+     */
     public void transferFile() {
-        try (Socket socket = new Socket(serverAddress, serverPort);
-             BufferedReader in = new BufferedReader(
-                 new InputStreamReader(socket.getInputStream()));
-             PrintWriter out = new PrintWriter(
-                 socket.getOutputStream(), true);
-             DataOutputStream dataOut = new DataOutputStream(
-                 socket.getOutputStream())) {
+        try {
+            Log.info("Traitement du fichier...");
+            FileProcessor.StreamedFile processedFile = FileProcessor.prepareFile(filePath);
             
-            System.out.println("Connecté au serveur " + serverAddress + ":" + serverPort);
-
-            if (!handleAuthentication(in, out)) {
-                System.err.println("Échec de l'authentification");
-                return;
-            }
+            Log.info("Envoi du fichier chiffré:");
+            Log.info("  - Nom: " + processedFile.getFilename());
+            Log.info("  - Taille: " + processedFile.getEncryptedSize() + " bytes");
+            Log.info("  - Hash: " + processedFile.getHash());
             
-            System.out.println("Traitement du fichier...");
-            FileProcessor.ProcessedFile processedFile = FileProcessor.processFile(filePath);
-
-            if (!handleNegotiation(in, out, processedFile)) {
-                System.err.println("Échec de la négociation");
-                return;
+            TransferResult result = transferFileResumable(processedFile, MAX_ATTEMPTS);
+            if (result.isSuccess()) {
+                Log.info("Transfert confirmé par le serveur");
+                Log.info("Transfert réussi!");
+            } else {
+                Log.warn("Échec du transfert: " + result.getMessage());
             }
-
-            if (!handleTransfer(dataOut, in, processedFile)) {
-                System.err.println("Échec du transfert");
-                return;
-            }
-            
-            System.out.println("Transfert réussi!");
             
         } catch (Exception e) {
-            System.err.println("Erreur lors du transfert: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Erreur lors du transfert: " + e.getMessage(), e);
         }
     }
     
-    private boolean handleAuthentication(BufferedReader in, PrintWriter out) 
-            throws IOException {
-        String authData = username + ProtocolConstants.AUTH_SEPARATOR + password;
-        out.println(authData);
-        out.flush(); // S'assurer que l'authentification est envoyée
-        String response = in.readLine();
-        if (ProtocolConstants.AUTH_OK.equals(response)) {
-            System.out.println("Authentification réussie");
-            return true;
-        } else {
-            System.err.println("Authentification échouée: " + response);
-            return false;
+    /**
+     * Envoie un fichier en transfert reprenable : après une coupure de
+     * connexion, le client se reconnecte et le serveur indique à partir de
+     * quelle position reprendre. L'identifiant du transfert est le hash du
+     * fichier, ce qui permet aussi de reprendre après un redémarrage du client.
+     * 
+     * @param maxAttempts nombre maximal de connexions successives
+     */
+    public TransferResult transferFileResumable(FileProcessor.StreamedFile file, 
+                                                int maxAttempts) throws InterruptedException {
+        TransferResult result = null;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            boolean lost;
+            try (ClientSession session = ClientSession.open(serverAddress, serverPort,
+                    username, password, 1)) {
+                result = session.uploadResumable(file, file.getHash()).get();
+                lost = session.isLost();
+            } catch (Exception e) {
+                result = new TransferResult(0, file.getFilename(), false, e.getMessage());
+                lost = true;
+            }
+            if (result.isSuccess() || !lost || attempt == maxAttempts) {
+                break;
+            }
+            Log.warn("Connexion perdue (" + result.getMessage() + 
+                "), nouvelle tentative " + (attempt + 1) + "/" + maxAttempts);
+            Thread.sleep(RETRY_DELAY_MS * attempt);
         }
+        return result;
     }
     
-
-    private boolean handleNegotiation(BufferedReader in, PrintWriter out, 
-                                     FileProcessor.ProcessedFile processedFile) 
+    /**
+     * Mode batch : une seule authentification, puis les fichiers sont envoyés
+     * à la suite sur la même connexion sans attendre chaque acquittement.
+     * Les fichiers dont le serveur possède déjà le contenu ne sont pas envoyés.
+     * 
+     * @return un résultat par fichier, dans l'ordre des chemins
+     */
+    public List<TransferResult> transferFiles(List<String> filePaths, int maxInFlight) 
             throws IOException {
-        String metadata = processedFile.getFilename() + 
-            ProtocolConstants.FIELD_SEPARATOR + 
-            processedFile.getEncryptedSize() + 
-            ProtocolConstants.FIELD_SEPARATOR + 
-            processedFile.getHash();
-        
-        out.println(metadata);
-        out.flush(); // S'assurer que les métadonnées sont envoyées avant de lire la réponse
-        System.out.println("Métadonnées envoyées:");
-        System.out.println("  - Nom: " + processedFile.getFilename());
-        System.out.println("  - Taille: " + processedFile.getEncryptedSize() + " bytes");
-        System.out.println("  - Hash: " + processedFile.getHash());
-        
-        String response = in.readLine();
-        if (ProtocolConstants.READY_FOR_TRANSFER.equals(response)) {
-            System.out.println("Serveur prêt pour le transfert");
-            return true;
-        } else {
-            System.err.println("Serveur non prêt: " + response);
-            return false;
-        }
+        return transferFiles(filePaths, maxInFlight, null);
     }
     
-
-    private boolean handleTransfer(DataOutputStream dataOut, BufferedReader in, 
-                                  FileProcessor.ProcessedFile processedFile) 
+    /**
+     * Mode batch avec compression des données avant chiffrement
+     * 
+     * @param compression algorithme demandé au serveur (null : pas de compression)
+     * @return un résultat par fichier, dans l'ordre des chemins
+     */
+    public List<TransferResult> transferFiles(List<String> filePaths, int maxInFlight,
+                                              String compression) throws IOException {
+        return transferAll(filePaths, maxInFlight, compression, false);
+    }
+    
+    /**
+     * Mode batch en chiffrement AES-GCM par morceaux : chaque fichier est
+     * chiffré sur tous les cœurs du client et déchiffré sur tous ceux du
+     * serveur ; un morceau altéré est détecté dès sa réception
+     * 
+     * @return un résultat par fichier, dans l'ordre des chemins
+     */
+    public List<TransferResult> transferFilesChunked(List<String> filePaths, int maxInFlight)
             throws IOException {
-        System.out.println("Envoi du fichier chiffré...");
-
-        dataOut.write(processedFile.getEncryptedContent());
-        dataOut.flush();
+        return transferAll(filePaths, maxInFlight, null, true);
+    }
+    
+    private List<TransferResult> transferAll(List<String> filePaths, int maxInFlight,
+                                             String compression, boolean chunked)
+            throws IOException {
+        List<CompletableFuture<TransferResult>> futures = new ArrayList<>();
         
-        System.out.println("Fichier envoyé: " + processedFile.getEncryptedSize() + " bytes");
-
-        String response = in.readLine();
-        if (ProtocolConstants.TRANSFER_SUCCESS.equals(response)) {
-            System.out.println("Transfert confirmé par le serveur");
-            return true;
-        } else {
-            System.err.println("Échec du transfert: " + response);
-            return false;
+        try (ClientSession session = ClientSession.open(serverAddress, serverPort,
+                username, password, maxInFlight)) {
+            session.setCompression(compression);
+            session.setChunkedEncryption(chunked);
+            // Petits fichiers regroupés en lots (sauf GCM ou compression)
+            session.setPacking(true);
+            for (String path : filePaths) {
+                try {
+                    futures.add(session.announce(FileProcessor.prepareFile(path)));
+                } catch (Exception e) {
+                    futures.add(CompletableFuture.completedFuture(
+                        new TransferResult(0, path, false, e.getMessage())));
+                }
+            }
+        }
+        
+        List<TransferResult> results = new ArrayList<>();
+        for (CompletableFuture<TransferResult> future : futures) {
+            results.add(future.join());
         }
+        return results;
+    }
+    
+    /**
+     * Télécharge des fichiers stockés sur le serveur, sur une seule session :
+     * les demandes partent à la suite, sans attendre la fin de chaque fichier
+     * 
+     * @param directory répertoire où chaque fichier est écrit sous son nom
+     * @return un résultat par fichier, dans l'ordre des noms
+     */
+    public List<TransferResult> downloadFiles(List<String> filenames, Path directory,
+                                              int maxInFlight) throws IOException {
+        List<CompletableFuture<TransferResult>> futures = new ArrayList<>();
+        try (ClientSession session = ClientSession.open(serverAddress, serverPort,
+                username, password, maxInFlight)) {
+            for (String filename : filenames) {
+                try {
+                    futures.add(session.download(filename,
+                        directory.resolve(Paths.get(filename).getFileName())));
+                } catch (Exception e) {
+                    futures.add(CompletableFuture.completedFuture(
+                        new TransferResult(0, filename, false, e.getMessage())));
+                }
+            }
+        }
+        
+        List<TransferResult> results = new ArrayList<>();
+        for (CompletableFuture<TransferResult> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+    
+    /**
+     * Synchronisation différentielle sur une seule session : pour chaque
+     * fichier dont le serveur a une version, seuls les blocs modifiés partent
+     * 
+     * @return un résultat par fichier, dans l'ordre des chemins
+     */
+    public List<TransferResult> transferFilesDelta(List<String> filePaths) throws IOException {
+        List<TransferResult> results = new ArrayList<>();
+        try (ClientSession session = ClientSession.open(serverAddress, serverPort,
+                username, password, 1)) {
+            for (String path : filePaths) {
+                try {
+                    results.add(session.uploadDelta(FileProcessor.prepareFile(path)).get());
+                } catch (Exception e) {
+                    results.add(new TransferResult(0, path, false, e.getMessage()));
+                }
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Transferts vérifiés par arbre de Merkle sur une seule session : une
+     * feuille altérée en route est seule renvoyée, pas le fichier entier
+     * 
+     * @return un résultat par fichier, dans l'ordre des chemins
+     */
+    public List<TransferResult> transferFilesTree(List<String> filePaths) throws IOException {
+        List<TransferResult> results = new ArrayList<>();
+        try (ClientSession session = ClientSession.open(serverAddress, serverPort,
+                username, password, 1)) {
+            for (String path : filePaths) {
+                try {
+                    results.add(session.uploadTree(FileProcessor.prepareTree(path)).get());
+                } catch (Exception e) {
+                    results.add(new TransferResult(0, path, false, e.getMessage()));
+                }
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Envoie un seul fichier sur plusieurs connexions en parallèle
+     * 
+     * Le fichier est découpé en plages contiguës (alignées sur
+     * STREAM_CHUNK_SIZE), chacune chiffrée et envoyée sur sa propre session.
+     * Le serveur écrit chaque plage à sa position et vérifie le hash global
+     * quand le fichier est complet. Utile quand une seule connexion TCP ne
+     * remplit pas le lien (latence élevée).
+     * 
+     * @param streams nombre maximal de connexions simultanées
+     */
+    public TransferResult transferFileParallel(String path, int streams) throws Exception {
+        FileProcessor.StreamedFile file = FileProcessor.prepareFile(path);
+        long size = file.getOriginalSize();
+        long chunk = ProtocolConstants.STREAM_CHUNK_SIZE;
+        long chunks = (size + chunk - 1) / chunk;
+        
+        if (streams <= 1 || chunks <= 1) {
+            try (ClientSession session = ClientSession.open(serverAddress, serverPort,
+                    username, password, 1)) {
+                return session.upload(file).get();
+            }
+        }
+        
+        int count = (int) Math.min(streams, chunks);
+        long rangeSize = (chunks + count - 1) / count * chunk;
+        String transferId = UUID.randomUUID().toString();
+        Log.info("Envoi de " + file.getFilename() + " sur " + count + 
+            " connexions (plages de " + rangeSize + " bytes)");
+        
+        // Threads plateforme : l'envoi se fait dans un bloc synchronized
+        // (ClientSession) qui bloquerait le thread porteur d'un thread virtuel
+        List<Future<TransferResult>> ranges = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(count)) {
+            for (long offset = 0; offset < size; offset += rangeSize) {
+                long start = offset;
+                long length = Math.min(rangeSize, size - offset);
+                ranges.add(executor.submit(() -> {
+                    try (ClientSession session = ClientSession.open(serverAddress, 
+                            serverPort, username, password, 1)) {
+                        return session.uploadRange(file, transferId, start, length).get();
+                    }
+                }));
+            }
+        }
+        
+        // Le fichier n'est valide que si toutes les plages ont été acceptées
+        for (Future<TransferResult> range : ranges) {
+            TransferResult result;
+            try {
+                result = range.get();
+            } catch (Exception e) {
+                return new TransferResult(0, file.getFilename(), false, e.getMessage());
+            }
+            if (!result.isSuccess()) {
+                return new TransferResult(0, file.getFilename(), false, result.getMessage());
+            }
+        }
+        return new TransferResult(0, file.getFilename(), true, null);
     }
     
 
+    /**
+     * Sans argument : mode interactif pour un fichier
+     * Avec arguments : mode batch non interactif
+     *   SecureFileClient adresse port login mot_de_passe [options] fichier...
+     * --streams=N envoie chaque fichier sur N connexions en parallèle
+     * --resume    transferts reprenables, avec reconnexion après une coupure
+     * --delta     n'envoie que les blocs modifiés depuis la version stockée
+     * --compress[=algo] compresse les données avant chiffrement (deflate par défaut)
+     * --gcm       chiffrement AES-GCM par morceaux, en parallèle sur tous les cœurs
+     * --tree      intégrité vérifiée par arbre de Merkle, seules les feuilles altérées sont renvoyées
+     * --sessions=N répertoires : arborescences envoyées sur N sessions en parallèle
+     * --get[=rép] télécharge les fichiers nommés depuis le serveur (répertoire courant par défaut)
+     */
     public static void main(String[] args) {
+        if (args.length >= 5) {
+            runBatch(args);
+            return;
+        }
+        
         Scanner scanner = new Scanner(System.in);
         
         System.out.println("=== Client de Transfert de Fichiers Sécurisé ===\n");
@@ -162,5 +351,135 @@ public class SecureFileClient {
             serverAddress, serverPort, username, password, filePath);
         client.transferFile();
     }
+    
+    private static void runBatch(String[] args) {
+        int serverPort;
+        try {
+            serverPort = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+            System.err.println("Port invalide: " + args[1]);
+            return;
+        }
+        int first = 4;
+        int streams = 1;
+        boolean resume = false;
+        boolean delta = false;
+        String compression = null;
+        boolean gcm = false;
+        boolean tree = false;
+        int sessions = DirectoryUploader.DEFAULT_SESSIONS;
+        Path downloadDir = null;
+        for (; first < args.length && args[first].startsWith("--"); first++) {
+            if (args[first].equals("--resume")) {
+                resume = true;
+            } else if (args[first].equals("--delta")) {
+                delta = true;
+            } else if (args[first].equals("--gcm")) {
+                gcm = true;
+            } else if (args[first].equals("--tree")) {
+                tree = true;
+            } else if (args[first].equals("--get")) {
+                downloadDir = Paths.get(".");
+            } else if (args[first].startsWith("--get=")) {
+                downloadDir = Paths.get(args[first].substring("--get=".length()));
+            } else if (args[first].equals("--compress")) {
+                compression = DeflateCodec.NAME;
+            } else if (args[first].startsWith("--compress=")) {
+                compression = args[first].substring("--compress=".length());
+                if (!CompressionCodecs.isSupported(compression)) {
+                    System.err.println("Algorithme de compression inconnu: " + compression);
+                    return;
+                }
+            } else if (args[first].startsWith("--streams=")) {
+                try {
+                    streams = Integer.parseInt(args[first].substring("--streams=".length()));
+                } catch (NumberFormatException e) {
+                    System.err.println("Nombre de connexions invalide: " + args[first]);
+                    return;
+                }
+            } else if (args[first].startsWith("--sessions=")) {
+                try {
+                    sessions = Integer.parseInt(args[first].substring("--sessions=".length()));
+                } catch (NumberFormatException e) {
+                    System.err.println("Nombre de sessions invalide: " + args[first]);
+                    return;
+                }
+            } else {
+                System.err.println("Option inconnue: " + args[first]);
+                return;
+            }
+        }
+        List<String> files = Arrays.asList(args).subList(first, args.length);
+        
+        if (downloadDir == null && files.stream().anyMatch(file -> Files.isDirectory(Paths.get(file)))) {
+            runDirectories(args[0], serverPort, args[2], args[3], files, sessions);
+            return;
+        }
+        
+        SecureFileClient client = new SecureFileClient(
+            args[0], serverPort, args[2], args[3], null);
+        try {
+            List<TransferResult> results;
+            if (downloadDir != null) {
+                results = client.downloadFiles(files, downloadDir,
+                    ClientSession.DEFAULT_MAX_IN_FLIGHT);
+            } else if (streams > 1) {
+                results = new ArrayList<>();
+                for (String file : files) {
+                    results.add(client.transferFileParallel(file, streams));
+                }
+            } else if (delta) {
+                results = client.transferFilesDelta(files);
+            } else if (tree) {
+                results = client.transferFilesTree(files);
+            } else if (gcm) {
+                results = client.transferFilesChunked(files, ClientSession.DEFAULT_MAX_IN_FLIGHT);
+            } else if (resume) {
+                results = new ArrayList<>();
+                for (String file : files) {
+                    results.add(client.transferFileResumable(
+                        FileProcessor.prepareFile(file), MAX_ATTEMPTS));
+                }
+            } else {
+                results = client.transferFiles(files, ClientSession.DEFAULT_MAX_IN_FLIGHT,
+                    compression);
+            }
+            long succeeded = results.stream().filter(TransferResult::isSuccess).count();
+            // Le bilan s'affiche après les messages du journal encore en file
+            Log.flush();
+            for (TransferResult result : results) {
+                System.out.println(result);
+            }
+            System.out.println(succeeded + "/" + results.size() + " fichiers transférés");
+        } catch (Exception e) {
+            Log.error("Erreur lors du transfert: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Envoi d'arborescences : seuls les avertissements sont journalisés
+     * pendant l'envoi, le bilan par fichier et le débit global s'affichent
+     * à la fin
+     */
+    private static void runDirectories(String serverAddress, int serverPort, String username,
+                                       String password, List<String> roots, int sessions) {
+        if (System.getProperty("sft.log.level") == null) {
+            Log.setLevel(Log.Level.WARN);
+        }
+        List<Path> paths = new ArrayList<>();
+        for (String root : roots) {
+            paths.add(Paths.get(root));
+        }
+        try {
+            DirectoryUploader.Report report = new DirectoryUploader(
+                serverAddress, serverPort, username, password, sessions).upload(paths);
+            Log.flush();
+            for (DirectoryUploader.FileResult file : report.getFiles()) {
+                System.out.println(file);
+            }
+            System.out.println(report);
+        } catch (IOException e) {
+            Log.error("Erreur lors du parcours: " + e.getMessage());
+        }
+    }
 }
-
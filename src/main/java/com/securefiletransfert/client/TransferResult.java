@@ -0,0 +1,29 @@
+package com.securefiletransfert.client;
+
+/**
+ * Résultat d'un fichier envoyé, acquitté par le serveur
+ */
+public class TransferResult {
+    
+    private final int fileId;
+    private final String filename;
+    private final boolean success;
+    private final String message;
+    
+    public TransferResult(int fileId, String filename, boolean success, String message) {
+        this.fileId = fileId;
+        this.filename = filename;
+        this.success = success;
+        this.message = message;
+    }
+    
+    public int getFileId() { return fileId; }
+    public String getFilename() { return filename; }
+    public boolean isSuccess() { return success; }
+    public String getMessage() { return message; }
+    
+    @Override
+    public String toString() {
+        return "[" + fileId + "] " + filename + ": " + (success ? "OK" : "ÉCHEC (" + message + ")");
+    }
+}
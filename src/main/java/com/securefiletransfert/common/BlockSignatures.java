@@ -0,0 +1,109 @@
+package com.securefiletransfert.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Signatures des blocs d'un fichier pour la synchronisation différentielle
+ *
+ * Pour chaque bloc de blockSize octets (le dernier peut être plus court) :
+ * une somme glissante faible (RollingChecksum) et un hash fort (les
+ * STRONG_HASH_SIZE premiers octets du SHA-256). Le serveur les calcule sur
+ * la version qu'il possède ; le client y cherche les blocs inchangés de
+ * la nouvelle version.
+ */
+public class BlockSignatures {
+
+    public static final int STRONG_HASH_SIZE = 16;
+
+    private static final int MIN_BLOCK_SIZE = 2048;
+    private static final int MAX_BLOCK_SIZE = 128 * 1024;
+
+    private final int blockSize;
+    private final long fileSize;
+    private final int[] weak;
+    private final byte[] strong;
+
+    public BlockSignatures(int blockSize, long fileSize) {
+        this.blockSize = blockSize;
+        this.fileSize = fileSize;
+        int count = (int) ((fileSize + blockSize - 1) / blockSize);
+        this.weak = new int[count];
+        this.strong = new byte[count * STRONG_HASH_SIZE];
+    }
+
+    /**
+     * Taille de bloc proche de la racine carrée de la taille du fichier
+     * (compromis entre volume des signatures et finesse des différences)
+     */
+    public static int chooseBlockSize(long fileSize) {
+        int size = (int) Math.min(MAX_BLOCK_SIZE, (long) Math.sqrt((double) fileSize));
+        size = Math.max(MIN_BLOCK_SIZE, size);
+        return Integer.highestOneBit(size);
+    }
+
+    /**
+     * Lit size octets bloc par bloc et calcule leurs signatures
+     * (le flux n'est pas fermé)
+     */
+    public static BlockSignatures compute(InputStream in, long size, int blockSize)
+            throws Exception {
+        BlockSignatures signatures = new BlockSignatures(blockSize, size);
+        MessageDigest digest = CryptoUtils.createDigest();
+        byte[] block = new byte[blockSize];
+
+        for (int i = 0; i < signatures.getCount(); i++) {
+            int n = in.readNBytes(block, 0, signatures.getBlockLength(i));
+            if (n != signatures.getBlockLength(i)) {
+                throw new IOException("Fichier tronqué pendant le calcul des signatures");
+            }
+            signatures.weak[i] = RollingChecksum.of(block, 0, n);
+            signatures.setStrong(i, strongHash(digest, block, 0, n), 0);
+        }
+        return signatures;
+    }
+
+    /**
+     * Hash fort d'un bloc (SHA-256 tronqué)
+     */
+    public static byte[] strongHash(MessageDigest digest, byte[] data, int offset, int length) {
+        digest.update(data, offset, length);
+        return Arrays.copyOf(digest.digest(), STRONG_HASH_SIZE);
+    }
+
+    public void set(int index, int weakValue, byte[] strongHash, int offset) {
+        weak[index] = weakValue;
+        setStrong(index, strongHash, offset);
+    }
+
+    public boolean strongMatches(int index, byte[] strongHash) {
+        return Arrays.equals(strong, index * STRONG_HASH_SIZE,
+            (index + 1) * STRONG_HASH_SIZE, strongHash, 0, STRONG_HASH_SIZE);
+    }
+
+    public int getBlockSize() { return blockSize; }
+
+    public long getFileSize() { return fileSize; }
+
+    public int getCount() { return weak.length; }
+
+    public int getWeak(int index) { return weak[index]; }
+
+    /**
+     * Hashs forts concaténés (STRONG_HASH_SIZE octets par bloc)
+     */
+    public byte[] getStrong() { return strong; }
+
+    /**
+     * Longueur du bloc index (le dernier bloc peut être plus court)
+     */
+    public int getBlockLength(int index) {
+        return (int) Math.min(blockSize, fileSize - (long) index * blockSize);
+    }
+
+    private void setStrong(int index, byte[] hash, int offset) {
+        System.arraycopy(hash, offset, strong, index * STRONG_HASH_SIZE, STRONG_HASH_SIZE);
+    }
+}
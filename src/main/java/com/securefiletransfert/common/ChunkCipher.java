@@ -0,0 +1,106 @@
+package com.securefiletransfert.common;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Chiffrement authentifié AES-GCM par morceaux indépendants
+ *
+ * Chaque transfert a sa propre clé, dérivée de la clé de session et d'un sel
+ * aléatoire choisi par le client (HMAC-SHA256). Le nonce d'un morceau est
+ * son numéro : dans un même transfert, il n'est jamais réutilisé, et un
+ * morceau déplacé ou rejoué ne s'authentifie pas à une autre position.
+ *
+ * Les morceaux se chiffrent et se déchiffrent dans n'importe quel ordre,
+ * sur plusieurs threads ; une instance peut être partagée entre threads.
+ * Un morceau altéré est rejeté dès son déchiffrement (AEADBadTagException).
+ */
+public class ChunkCipher {
+
+    public static final int SALT_SIZE = 16;
+    public static final int TAG_SIZE = 16;
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final String KDF_ALGORITHM = "HmacSHA256";
+    private static final byte[] KDF_LABEL = "sft-gcm-chunks".getBytes(StandardCharsets.US_ASCII);
+    private static final int KEY_SIZE = 16;
+    private static final int NONCE_SIZE = 12;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Les morceaux sont traités par les threads d'un ForkJoinPool (threads
+    // plateforme, peu nombreux) : un Cipher par thread évite getInstance
+    private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final SecretKey key;
+
+    /**
+     * @param sessionKey clé AES de la session (voir KeyExchange)
+     * @param salt       sel du transfert (SALT_SIZE octets, voir newSalt())
+     */
+    public ChunkCipher(SecretKey sessionKey, byte[] salt) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(KDF_ALGORITHM);
+        mac.init(new SecretKeySpec(sessionKey.getEncoded(), KDF_ALGORITHM));
+        mac.update(KDF_LABEL);
+        mac.update(salt);
+        this.key = new SecretKeySpec(Arrays.copyOf(mac.doFinal(), KEY_SIZE), "AES");
+    }
+
+    public static byte[] newSalt() {
+        byte[] salt = new byte[SALT_SIZE];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * Nombre de morceaux d'un fichier (un morceau vide pour un fichier vide,
+     * afin que son contenu soit lui aussi authentifié)
+     */
+    public static long chunkCount(long plainSize, int chunkSize) {
+        return Math.max(1, (plainSize + chunkSize - 1) / chunkSize);
+    }
+
+    /**
+     * Chiffre in[offset, offset + length[ vers out (length + TAG_SIZE octets)
+     *
+     * @return nombre d'octets écrits dans out
+     */
+    public int encrypt(long index, byte[] in, int offset, int length, byte[] out)
+            throws GeneralSecurityException {
+        Cipher cipher = CIPHERS.get();
+        cipher.init(Cipher.ENCRYPT_MODE, key, nonce(index));
+        return cipher.doFinal(in, offset, length, out, 0);
+    }
+
+    /**
+     * Déchiffre et authentifie un morceau vers out
+     *
+     * @return nombre d'octets en clair écrits dans out
+     * @throws javax.crypto.AEADBadTagException si le morceau a été altéré
+     */
+    public int decrypt(long index, ByteBuffer in, ByteBuffer out)
+            throws GeneralSecurityException {
+        Cipher cipher = CIPHERS.get();
+        cipher.init(Cipher.DECRYPT_MODE, key, nonce(index));
+        return cipher.doFinal(in, out);
+    }
+
+    private static GCMParameterSpec nonce(long index) {
+        byte[] nonce = new byte[NONCE_SIZE];
+        ByteBuffer.wrap(nonce).putLong(NONCE_SIZE - Long.BYTES, index);
+        return new GCMParameterSpec(TAG_SIZE * 8, nonce);
+    }
+}
@@ -0,0 +1,34 @@
+package com.securefiletransfert.common;
+
+import java.io.IOException;
+
+/**
+ * Algorithme de compression appliqué morceau par morceau avant le chiffrement
+ *
+ * Une instance n'est utilisée que par un seul flux à la fois (elle peut
+ * garder un état réutilisable, comme un Deflater). Les implémentations
+ * sont enregistrées par nom dans CompressionCodecs.
+ */
+public interface CompressionCodec {
+
+    /**
+     * Nom échangé pendant la négociation
+     */
+    String getName();
+
+    /**
+     * Compresse in[offset, offset + length[ dans out
+     *
+     * @return taille compressée, ou -1 si le résultat ne tient pas dans out
+     *         (le morceau est alors envoyé tel quel)
+     */
+    int compress(byte[] in, int offset, int length, byte[] out);
+
+    /**
+     * Décompresse exactement plainLength octets dans out
+     *
+     * @throws IOException si les données sont invalides ou de taille différente
+     */
+    void decompress(byte[] in, int offset, int length, byte[] out, int plainLength)
+        throws IOException;
+}
@@ -0,0 +1,45 @@
+package com.securefiletransfert.common;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+
+/**
+ * Registre des algorithmes de compression disponibles, par nom
+ *
+ * "deflate" est toujours disponible ; d'autres algorithmes peuvent être
+ * ajoutés avec register() (des deux côtés : le serveur n'accepte que les
+ * noms qu'il connaît et répond "none" sinon).
+ */
+public class CompressionCodecs {
+
+    // Pas de compression : tous les morceaux sont envoyés tels quels
+    public static final String NONE = "none";
+
+    private static final Map<String, Supplier<CompressionCodec>> CODECS =
+        new ConcurrentHashMap<>();
+
+    static {
+        // Compression en ligne : le débit compte plus que le dernier pourcent gagné
+        register(DeflateCodec.NAME, () -> new DeflateCodec(Deflater.BEST_SPEED));
+    }
+
+    private CompressionCodecs() {}
+
+    public static void register(String name, Supplier<CompressionCodec> factory) {
+        CODECS.put(name, factory);
+    }
+
+    public static boolean isSupported(String name) {
+        return CODECS.containsKey(name);
+    }
+
+    /**
+     * Nouvelle instance de l'algorithme, ou null pour "none" ou un nom inconnu
+     */
+    public static CompressionCodec create(String name) {
+        Supplier<CompressionCodec> factory = CODECS.get(name);
+        return factory == null ? null : factory.get();
+    }
+}
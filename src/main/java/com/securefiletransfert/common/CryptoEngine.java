@@ -0,0 +1,139 @@
+package com.securefiletransfert.common;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cipher AES et MessageDigest SHA-256 initialisés, réutilisés d'un fichier à l'autre
+ *
+ * Cipher.getInstance et MessageDigest.getInstance parcourent la liste des
+ * providers à chaque appel ; pour de petits fichiers, ce coût dépasse celui
+ * du chiffrement lui-même. acquire() fournit un moteur pris dans un pool
+ * partagé, release() l'y remet réinitialisé.
+ *
+ * Pool plutôt que ThreadLocal : le moteur bloquant crée un thread virtuel
+ * par connexion et le moteur NIO fait avancer des milliers de flux sur un
+ * même thread ; dans les deux cas un cache par thread ne servirait à rien.
+ *
+ * Un moteur n'est utilisé que par un flux à la fois et ne doit plus être
+ * touché après release(). Il chiffre avec la clé donnée à acquire() (clé
+ * de session) ; les Cipher ne sont réinitialisés que si elle change. Le
+ * Cipher et le MessageDigest acceptent des ByteBuffer (update) : un flux
+ * peut être traité morceau par morceau.
+ */
+public class CryptoEngine {
+
+    private static final int MAX_POOLED = 256;
+    private static final ConcurrentLinkedQueue<CryptoEngine> FREE = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+
+    private final MessageDigest digest;
+    private SecretKey key;
+    private Cipher encryptor;
+    private Cipher decryptor;
+    private SecretKey encryptorKey;
+    private SecretKey decryptorKey;
+    private boolean encryptorUsed = false;
+    private boolean decryptorUsed = false;
+
+    private CryptoEngine() throws GeneralSecurityException {
+        this.digest = CryptoUtils.newDigest();
+    }
+
+    /**
+     * Fournit un moteur prêt à l'emploi avec la clé partagée
+     */
+    public static CryptoEngine acquire() throws GeneralSecurityException {
+        return acquire(CryptoUtils.getSecretKey());
+    }
+
+    /**
+     * Fournit un moteur prêt à l'emploi (chiffrement et hash au départ)
+     *
+     * @param key clé AES des Cipher fournis par encryptor() et decryptor()
+     */
+    public static CryptoEngine acquire(SecretKey key) throws GeneralSecurityException {
+        CryptoEngine engine = FREE.poll();
+        if (engine == null) {
+            engine = new CryptoEngine();
+        } else {
+            POOLED.decrementAndGet();
+        }
+        engine.key = key;
+        return engine;
+    }
+
+    /**
+     * Rend le moteur au pool ; un flux abandonné en cours de route est
+     * remis à zéro (le Cipher peut retenir un bloc partiel)
+     */
+    public void release() {
+        try {
+            if (encryptorUsed) {
+                encryptor.init(Cipher.ENCRYPT_MODE, encryptorKey);
+                encryptorUsed = false;
+            }
+            if (decryptorUsed) {
+                decryptor.init(Cipher.DECRYPT_MODE, decryptorKey);
+                decryptorUsed = false;
+            }
+        } catch (GeneralSecurityException e) {
+            // Moteur inutilisable : il n'est pas remis dans le pool
+            return;
+        }
+        digest.reset();
+        if (POOLED.incrementAndGet() <= MAX_POOLED) {
+            FREE.offer(this);
+        } else {
+            POOLED.decrementAndGet();
+        }
+    }
+
+    /**
+     * Cipher de chiffrement au début d'un flux (update... puis doFinal)
+     */
+    public Cipher encryptor() throws GeneralSecurityException {
+        if (encryptor == null) {
+            encryptor = CryptoUtils.createCipher(Cipher.ENCRYPT_MODE, key);
+            encryptorKey = key;
+        } else if (encryptorKey != key) {
+            encryptor.init(Cipher.ENCRYPT_MODE, key);
+            encryptorKey = key;
+        }
+        encryptorUsed = true;
+        return encryptor;
+    }
+
+    /**
+     * Cipher de déchiffrement au début d'un flux (update... puis doFinal)
+     */
+    public Cipher decryptor() throws GeneralSecurityException {
+        if (decryptor == null) {
+            decryptor = CryptoUtils.createCipher(Cipher.DECRYPT_MODE, key);
+            decryptorKey = key;
+        } else if (decryptorKey != key) {
+            decryptor.init(Cipher.DECRYPT_MODE, key);
+            decryptorKey = key;
+        }
+        decryptorUsed = true;
+        return decryptor;
+    }
+
+    /**
+     * SHA-256 vide (digest() le remet à zéro après chaque hash)
+     */
+    public MessageDigest digest() {
+        return digest;
+    }
+
+    /**
+     * Termine le hash en cours et l'encode en hexadécimal
+     */
+    public String hexDigest() {
+        return CryptoUtils.toHex(digest.digest());
+    }
+}
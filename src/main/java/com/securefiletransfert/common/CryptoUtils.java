@@ -4,10 +4,15 @@ import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.util.Base64;
+import java.util.HexFormat;
 
 
 public class CryptoUtils {
@@ -15,43 +20,116 @@ public class CryptoUtils {
     private static final String ALGORITHM = "AES";
     private static final String TRANSFORMATION = "AES/ECB/PKCS5Padding";
     private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int BLOCK_SIZE = 16;
     
     private static final String SECRET_KEY_STRING = "MySecretKey12345"; // 16 caractères = 128 bits
+    private static final SecretKey SECRET_KEY = new SecretKeySpec(
+        SECRET_KEY_STRING.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    private static final HexFormat HEX = HexFormat.of();
     
     public static SecretKey getSecretKey() {
-        byte[] keyBytes = SECRET_KEY_STRING.getBytes(StandardCharsets.UTF_8);
-        return new SecretKeySpec(keyBytes, ALGORITHM);
+        return SECRET_KEY;
     }
 
-    public static byte[] encrypt(byte[] data) throws Exception {
+    /**
+     * Crée un Cipher initialisé pour un chiffrement/déchiffrement incrémental
+     * (Cipher.update par morceaux puis doFinal)
+     * Pour un flux de courte durée, CryptoEngine évite la recherche du provider.
+     */
+    public static Cipher createCipher(int mode) throws GeneralSecurityException {
+        return createCipher(mode, SECRET_KEY);
+    }
+
+    /**
+     * @param key clé AES (clé partagée ou clé de session, voir KeyExchange)
+     */
+    public static Cipher createCipher(int mode, SecretKey key) throws GeneralSecurityException {
         Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-        cipher.init(Cipher.ENCRYPT_MODE, getSecretKey());
-        return cipher.doFinal(data);
+        cipher.init(mode, key);
+        return cipher;
+    }
+
+    /**
+     * Taille exacte du contenu chiffré (padding PKCS5 : toujours 1 à 16 octets ajoutés)
+     */
+    public static long getEncryptedSize(long plainSize) {
+        return (plainSize / BLOCK_SIZE + 1) * BLOCK_SIZE;
+    }
+
+    /**
+     * SHA-256 indépendant, pour un hash conservé au-delà d'un flux
+     * (reprise, clonage) ; sinon CryptoEngine.digest()
+     */
+    public static MessageDigest createDigest() throws Exception {
+        return newDigest();
+    }
+
+    static MessageDigest newDigest() throws GeneralSecurityException {
+        return MessageDigest.getInstance(HASH_ALGORITHM);
+    }
+
+    public static byte[] encrypt(byte[] data) throws Exception {
+        CryptoEngine engine = CryptoEngine.acquire();
+        try {
+            return engine.encryptor().doFinal(data);
+        } finally {
+            engine.release();
+        }
     }
     
     public static byte[] decrypt(byte[] encryptedData) throws Exception {
-        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-        cipher.init(Cipher.DECRYPT_MODE, getSecretKey());
-        return cipher.doFinal(encryptedData);
+        CryptoEngine engine = CryptoEngine.acquire();
+        try {
+            return engine.decryptor().doFinal(encryptedData);
+        } finally {
+            engine.release();
+        }
     }
 
     public static String calculateSHA256(byte[] data) throws Exception {
-        MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
-        byte[] hash = digest.digest(data);
-
-        StringBuilder hexString = new StringBuilder();
-        for (byte b : hash) {
-            String hex = Integer.toHexString(0xff & b);
-            if (hex.length() == 1) {
-                hexString.append('0');
-            }
-            hexString.append(hex);
+        CryptoEngine engine = CryptoEngine.acquire();
+        try {
+            engine.digest().update(data);
+            return engine.hexDigest();
+        } finally {
+            engine.release();
         }
-        return hexString.toString();
+    }
+
+    public static String toHex(byte[] hash) {
+        return HEX.formatHex(hash);
+    }
+
+    /**
+     * @throws IllegalArgumentException si la chaîne n'est pas hexadécimale
+     */
+    public static byte[] fromHex(String hex) {
+        return HEX.parseHex(hex);
     }
 
     public static String calculateFileHash(byte[] fileContent) throws Exception {
         return calculateSHA256(fileContent);
     }
+
+    /**
+     * Calcule le hash d'un fichier par morceaux, sans le charger en mémoire
+     * (fichier projeté en mémoire au-delà de MappedInputStream.MAP_THRESHOLD)
+     */
+    public static String calculateFileHash(Path path, int chunkSize) throws Exception {
+        CryptoEngine engine = CryptoEngine.acquire();
+        try {
+            MessageDigest digest = engine.digest();
+            byte[] buffer = new byte[chunkSize];
+            try (InputStream in = MappedInputStream.open(path, 0, Files.size(path))) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            return engine.hexDigest();
+        } finally {
+            engine.release();
+        }
+    }
 }
 
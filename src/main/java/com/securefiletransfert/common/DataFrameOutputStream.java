@@ -0,0 +1,61 @@
+package com.securefiletransfert.common;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Flux qui découpe tout ce qui y est écrit en trames DATA d'un fichier
+ * Permet de brancher un pipeline de chiffrement en streaming sur une
+ * connexion tramée sans le lier au protocole.
+ */
+public class DataFrameOutputStream extends FilterOutputStream {
+
+    // Numéro du fichier en tête de chaque trame DATA
+    private static final int FILE_ID_SIZE = 4;
+
+    private final int fileId;
+    private final int maxPayload;
+
+    public DataFrameOutputStream(OutputStream out, int fileId) {
+        this(out, fileId, ProtocolConstants.STREAM_CHUNK_SIZE);
+    }
+
+    public DataFrameOutputStream(OutputStream out, int fileId, int maxPayload) {
+        super(out);
+        this.fileId = fileId;
+        this.maxPayload = maxPayload;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            int n = Math.min(length, maxPayload);
+            FrameEncoder.writeHeader(out, ProtocolConstants.DATA, FILE_ID_SIZE + n);
+            writeInt(fileId);
+            out.write(data, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /**
+     * Ne ferme pas la connexion sous-jacente
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+}
@@ -0,0 +1,60 @@
+package com.securefiletransfert.common;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression DEFLATE du JDK (sans en-tête zlib), Deflater et Inflater réutilisés
+ */
+public class DeflateCodec implements CompressionCodec {
+
+    public static final String NAME = "deflate";
+
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater(true);
+
+    /**
+     * @param level niveau de Deflater (1 = le plus rapide, 9 = le plus compact)
+     */
+    public DeflateCodec(int level) {
+        this.deflater = new Deflater(level, true);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public int compress(byte[] in, int offset, int length, byte[] out) {
+        deflater.reset();
+        deflater.setInput(in, offset, length);
+        deflater.finish();
+        int n = deflater.deflate(out, 0, out.length);
+        return deflater.finished() ? n : -1;
+    }
+
+    @Override
+    public void decompress(byte[] in, int offset, int length, byte[] out, int plainLength)
+            throws IOException {
+        inflater.reset();
+        inflater.setInput(in, offset, length);
+        try {
+            int n = 0;
+            while (n < plainLength && !inflater.finished()) {
+                int inflated = inflater.inflate(out, n, plainLength - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflated;
+            }
+            if (n != plainLength || !inflater.finished()) {
+                throw new IOException("Morceau compressé invalide");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Morceau compressé invalide: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.securefiletransfert.common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Décodeur de trames réutilisable : [type:1][longueur:4][contenu]
+ *
+ * Deux sources possibles :
+ *   decode(ByteBuffer)   : incrémental, pour le moteur NIO
+ *   readFrom(InputStream): bloquant, pour le client et le moteur bloquant
+ *
+ * Aucune allocation par trame : le contenu est exposé soit directement dans
+ * le buffer d'entrée (trame complète déjà reçue), soit dans un buffer
+ * d'accumulation réutilisé qui ne grandit que jusqu'à maxPayload.
+ * Le contenu n'est valide que jusqu'au prochain appel au décodeur.
+ */
+public class FrameDecoder {
+
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final int maxPayload;
+    private final byte[] headerBytes = new byte[ProtocolConstants.FRAME_HEADER_SIZE];
+    private final ByteBuffer header = ByteBuffer.wrap(headerBytes);
+    private ByteBuffer accumulator = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+    private byte type;
+    private int expected = -1;
+    private ByteBuffer payload;
+
+    // Trame exposée directement dans le buffer d'entrée : limite à restaurer
+    private ByteBuffer borrowed;
+    private int borrowedLimit;
+
+    public FrameDecoder() {
+        this(ProtocolConstants.MAX_FRAME_PAYLOAD);
+    }
+
+    public FrameDecoder(int maxPayload) {
+        this.maxPayload = maxPayload;
+    }
+
+    /**
+     * Consomme des octets de in jusqu'à obtenir une trame complète
+     * À appeler en boucle tant qu'il retourne true, en traitant chaque trame
+     * avant l'appel suivant.
+     *
+     * @return true si une trame complète est disponible
+     */
+    public boolean decode(ByteBuffer in) throws ProtocolException {
+        releaseBorrowed();
+
+        if (expected < 0) {
+            while (header.hasRemaining() && in.hasRemaining()) {
+                header.put(in.get());
+            }
+            if (header.hasRemaining()) {
+                return false;
+            }
+            startFrame();
+        }
+
+        // Trame entièrement présente dans le buffer d'entrée : pas de copie
+        if (accumulator.position() == 0 && in.remaining() >= expected) {
+            borrowed = in;
+            borrowedLimit = in.limit();
+            in.limit(in.position() + expected);
+            payload = in;
+            expected = -1;
+            return true;
+        }
+
+        int n = Math.min(in.remaining(), expected - accumulator.position());
+        int limit = in.limit();
+        in.limit(in.position() + n);
+        accumulator.put(in);
+        in.limit(limit);
+
+        if (accumulator.position() < expected) {
+            return false;
+        }
+        payload = accumulator.flip();
+        expected = -1;
+        return true;
+    }
+
+    /**
+     * Lit une trame complète depuis un flux bloquant
+     *
+     * @return false si le flux se termine proprement entre deux trames
+     */
+    public boolean readFrom(InputStream in) throws IOException {
+        releaseBorrowed();
+
+        int first = in.read();
+        if (first == -1) {
+            return false;
+        }
+        headerBytes[0] = (byte) first;
+        readFully(in, headerBytes, 1, headerBytes.length - 1);
+        header.position(headerBytes.length);
+        startFrame();
+
+        readFully(in, accumulator.array(), 0, expected);
+        payload = accumulator.limit(expected);
+        expected = -1;
+        return true;
+    }
+
+    /**
+     * Rend au buffer d'entrée les octets qui suivent la trame courante, sans
+     * décoder la suivante : à appeler avant de garder ce reste pour plus tard
+     */
+    public void release() {
+        releaseBorrowed();
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    /**
+     * Contenu de la trame courante (position = prochain champ à lire)
+     */
+    public ByteBuffer getPayload() {
+        return payload;
+    }
+
+    public String readString() throws ProtocolException {
+        try {
+            int length = payload.getShort() & 0xFFFF;
+            if (length > payload.remaining()) {
+                throw new ProtocolException("Trame tronquée");
+            }
+            if (payload.hasArray()) {
+                String value = new String(payload.array(),
+                    payload.arrayOffset() + payload.position(), length, StandardCharsets.UTF_8);
+                payload.position(payload.position() + length);
+                return value;
+            }
+            byte[] bytes = new byte[length];
+            payload.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new ProtocolException("Trame tronquée");
+        }
+    }
+
+    public long readLong() throws ProtocolException {
+        try {
+            return payload.getLong();
+        } catch (BufferUnderflowException e) {
+            throw new ProtocolException("Trame tronquée");
+        }
+    }
+
+    public int readInt() throws ProtocolException {
+        try {
+            return payload.getInt();
+        } catch (BufferUnderflowException e) {
+            throw new ProtocolException("Trame tronquée");
+        }
+    }
+
+    public void readBytes(byte[] dest) throws ProtocolException {
+        try {
+            payload.get(dest);
+        } catch (BufferUnderflowException e) {
+            throw new ProtocolException("Trame tronquée");
+        }
+    }
+
+    private void startFrame() throws ProtocolException {
+        header.flip();
+        type = header.get();
+        expected = header.getInt();
+        header.clear();
+
+        if (expected < 0 || expected > maxPayload) {
+            throw new ProtocolException("Taille de trame invalide: " + expected);
+        }
+        accumulator.clear();
+        if (accumulator.capacity() < expected) {
+            int capacity = Math.min(maxPayload, Math.max(expected, accumulator.capacity() * 2));
+            accumulator = ByteBuffer.allocate(capacity);
+        }
+    }
+
+    private void releaseBorrowed() {
+        if (borrowed != null) {
+            borrowed.position(borrowed.limit()).limit(borrowedLimit);
+            borrowed = null;
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int offset, int length)
+            throws IOException {
+        while (length > 0) {
+            int n = in.read(buffer, offset, length);
+            if (n == -1) {
+                throw new EOFException("Connexion fermée prématurément");
+            }
+            offset += n;
+            length -= n;
+        }
+    }
+}
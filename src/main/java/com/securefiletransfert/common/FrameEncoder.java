@@ -0,0 +1,108 @@
+package com.securefiletransfert.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Construction de trames dans un buffer réutilisable
+ *
+ * Usage : encoder.begin(type).putString(...).putLong(...).writeTo(out)
+ * Les chaînes sont encodées en UTF-8 précédées de leur longueur (2 octets).
+ */
+public class FrameEncoder {
+
+    private ByteBuffer buffer;
+
+    public FrameEncoder() {
+        this(256);
+    }
+
+    public FrameEncoder(int initialCapacity) {
+        this.buffer = ByteBuffer.allocate(initialCapacity);
+    }
+
+    /**
+     * Commence une nouvelle trame (la précédente est abandonnée)
+     */
+    public FrameEncoder begin(byte type) {
+        buffer.clear();
+        buffer.put(type);
+        buffer.putInt(0);
+        return this;
+    }
+
+    public FrameEncoder putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Champ trop long: " + bytes.length + " octets");
+        }
+        ensureCapacity(2 + bytes.length);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+        return this;
+    }
+
+    public FrameEncoder putLong(long value) {
+        ensureCapacity(8);
+        buffer.putLong(value);
+        return this;
+    }
+
+    public FrameEncoder putInt(int value) {
+        ensureCapacity(4);
+        buffer.putInt(value);
+        return this;
+    }
+
+    public FrameEncoder putBytes(byte[] data, int offset, int length) {
+        ensureCapacity(length);
+        buffer.put(data, offset, length);
+        return this;
+    }
+
+    /**
+     * Termine la trame et retourne une vue prête à être écrite
+     * La vue reste valide jusqu'au prochain begin().
+     */
+    public ByteBuffer finish() {
+        int payloadLength = buffer.position() - ProtocolConstants.FRAME_HEADER_SIZE;
+        if (payloadLength > ProtocolConstants.MAX_FRAME_PAYLOAD) {
+            throw new IllegalStateException("Trame trop longue: " + payloadLength + " octets");
+        }
+        buffer.putInt(1, payloadLength);
+        return buffer.duplicate().flip();
+    }
+
+    /**
+     * Termine la trame et l'écrit sur le flux (sans flush)
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        ByteBuffer frame = finish();
+        out.write(frame.array(), frame.arrayOffset(), frame.remaining());
+    }
+
+    /**
+     * Écrit seulement l'en-tête d'une trame dont le contenu suit directement
+     * sur le flux (évite de recopier les données dans le buffer)
+     */
+    public static void writeHeader(OutputStream out, byte type, int payloadLength)
+            throws IOException {
+        out.write(type);
+        out.write(payloadLength >>> 24);
+        out.write(payloadLength >>> 16);
+        out.write(payloadLength >>> 8);
+        out.write(payloadLength);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (buffer.remaining() < extra) {
+            int needed = buffer.position() + extra;
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, buffer.capacity() * 2));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.securefiletransfert.common;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+
+/**
+ * Échange de clés éphémère (ECDH sur X25519) et dérivation des clés de session
+ *
+ * Après l'authentification, client et serveur génèrent chacun une paire de
+ * clés jetable et échangent leurs clés publiques. Le secret partagé, mélangé
+ * aux nonces des deux côtés, donne par HKDF-SHA256 (RFC 5869) la clé AES de
+ * la session et un secret de reprise.
+ *
+ * Le serveur associe le secret de reprise à un ticket : à la reconnexion,
+ * le client présente le ticket et les deux côtés dérivent une nouvelle clé
+ * de ce secret et de nonces frais, sans nouvel accord de clés.
+ */
+public class KeyExchange {
+
+    public static final int NONCE_SIZE = 16;
+
+    private static final String ALGORITHM = "X25519";
+    private static final String KDF_ALGORITHM = "HmacSHA256";
+    private static final byte[] KEY_LABEL = "sft-session-key".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RESUMPTION_LABEL =
+        "sft-resumption".getBytes(StandardCharsets.US_ASCII);
+    private static final int KEY_SIZE = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final KeyPair keyPair;
+
+    /**
+     * Génère une paire de clés éphémère, utilisée pour un seul échange
+     */
+    public KeyExchange() throws GeneralSecurityException {
+        this.keyPair = KeyPairGenerator.getInstance(ALGORITHM).generateKeyPair();
+    }
+
+    /**
+     * Clé publique à envoyer à l'autre côté (encodage X.509)
+     */
+    public byte[] getPublicKey() {
+        return keyPair.getPublic().getEncoded();
+    }
+
+    /**
+     * Calcule le secret partagé avec la clé publique reçue
+     *
+     * @throws GeneralSecurityException si la clé reçue est invalide
+     */
+    public byte[] agree(byte[] peerPublicKey) throws GeneralSecurityException {
+        PublicKey peer = KeyFactory.getInstance(ALGORITHM)
+            .generatePublic(new X509EncodedKeySpec(peerPublicKey));
+        KeyAgreement agreement = KeyAgreement.getInstance(ALGORITHM);
+        agreement.init(keyPair.getPrivate());
+        agreement.doPhase(peer, true);
+        return agreement.generateSecret();
+    }
+
+    public static byte[] newNonce() {
+        byte[] nonce = new byte[NONCE_SIZE];
+        RANDOM.nextBytes(nonce);
+        return nonce;
+    }
+
+    /**
+     * Dérive les clés d'une session (HKDF-SHA256)
+     *
+     * @param secret secret partagé (agree()) ou secret de reprise d'un ticket
+     */
+    public static SessionKeys derive(byte[] secret, byte[] clientNonce, byte[] serverNonce)
+            throws GeneralSecurityException {
+        // Extraction : les deux nonces servent de sel
+        Mac mac = Mac.getInstance(KDF_ALGORITHM);
+        byte[] salt = new byte[clientNonce.length + serverNonce.length];
+        System.arraycopy(clientNonce, 0, salt, 0, clientNonce.length);
+        System.arraycopy(serverNonce, 0, salt, clientNonce.length, serverNonce.length);
+        mac.init(new SecretKeySpec(salt, KDF_ALGORITHM));
+        byte[] prk = mac.doFinal(secret);
+
+        // Expansion : un bloc par clé, chacune avec son libellé
+        mac.init(new SecretKeySpec(prk, KDF_ALGORITHM));
+        byte[] key = expand(mac, KEY_LABEL);
+        byte[] resumption = expand(mac, RESUMPTION_LABEL);
+        return new SessionKeys(new SecretKeySpec(Arrays.copyOf(key, KEY_SIZE), "AES"),
+            resumption);
+    }
+
+    private static byte[] expand(Mac mac, byte[] label) {
+        mac.update(label);
+        mac.update((byte) 1);
+        return mac.doFinal();
+    }
+
+    /**
+     * Clés dérivées pour une session
+     */
+    public static class SessionKeys {
+        private final SecretKey key;
+        private final byte[] resumptionSecret;
+
+        public SessionKeys(SecretKey key, byte[] resumptionSecret) {
+            this.key = key;
+            this.resumptionSecret = resumptionSecret;
+        }
+
+        /**
+         * Clé AES de la session (données des fichiers)
+         */
+        public SecretKey getKey() { return key; }
+
+        /**
+         * Secret associé au ticket de reprise de la session
+         */
+        public byte[] getResumptionSecret() { return resumptionSecret; }
+    }
+}
@@ -0,0 +1,164 @@
+package com.securefiletransfert.common;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Journal asynchrone à niveaux
+ *
+ * Les messages sont déposés dans une file bornée et écrits sur la console
+ * par un thread dédié : une session ne bloque jamais sur stdout. Si la
+ * file est pleine, le message est abandonné ; le nombre de messages perdus
+ * est signalé dès que le thread d'écriture reprend la main.
+ *
+ * Le niveau (propriété système sft.log.level ou setLevel(), INFO par défaut)
+ * filtre avant la mise en file. DEBUG et INFO vont sur stdout, WARN et
+ * ERROR sur stderr, dans l'ordre d'émission.
+ */
+public final class Log {
+
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    private static final int QUEUE_SIZE = 8192;
+    private static final long FLUSH_TIMEOUT_MILLIS = 2000;
+
+    private static final BlockingQueue<Entry> QUEUE = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final AtomicLong QUEUED = new AtomicLong();
+    private static final AtomicLong WRITTEN = new AtomicLong();
+    private static volatile Level level = parseLevel(System.getProperty("sft.log.level"), Level.INFO);
+
+    static {
+        Thread writer = new Thread(Log::drain, "sft-log");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "sft-log-flush"));
+    }
+
+    private Log() {}
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Vrai si un message de ce niveau serait écrit (à tester avant de
+     * construire un message coûteux)
+     */
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel != Level.OFF && messageLevel.compareTo(level) >= 0;
+    }
+
+    /**
+     * @return le niveau correspondant (insensible à la casse), ou defaultLevel
+     */
+    public static Level parseLevel(String name, Level defaultLevel) {
+        if (name == null) {
+            return defaultLevel;
+        }
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return defaultLevel;
+        }
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message, null);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message, null);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message, null);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message, null);
+    }
+
+    /**
+     * Message d'erreur suivi de la pile d'appels de l'exception
+     */
+    public static void error(String message, Throwable error) {
+        log(Level.ERROR, message, error);
+    }
+
+    /**
+     * Attend que les messages déjà déposés soient écrits (avant d'afficher
+     * un résultat directement sur la console, ou à l'arrêt)
+     */
+    public static void flush() {
+        long target = QUEUED.get();
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT_MILLIS;
+        while (WRITTEN.get() < target && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static void log(Level messageLevel, String message, Throwable error) {
+        if (!isEnabled(messageLevel)) {
+            return;
+        }
+        if (QUEUE.offer(new Entry(messageLevel, message, error))) {
+            QUEUED.incrementAndGet();
+        } else {
+            DROPPED.incrementAndGet();
+        }
+    }
+
+    private static void drain() {
+        List<Entry> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(QUEUE.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            QUEUE.drainTo(batch);
+            long dropped = DROPPED.getAndSet(0);
+            if (dropped > 0) {
+                System.err.println(dropped + " messages du journal perdus (file pleine)");
+            }
+            for (Entry entry : batch) {
+                PrintStream stream = entry.level.compareTo(Level.WARN) >= 0
+                    ? System.err : System.out;
+                stream.println(entry.message);
+                if (entry.error != null) {
+                    entry.error.printStackTrace(stream);
+                }
+            }
+            System.out.flush();
+            System.err.flush();
+            WRITTEN.addAndGet(batch.size());
+            batch.clear();
+        }
+    }
+
+    private static class Entry {
+        private final Level level;
+        private final String message;
+        private final Throwable error;
+
+        Entry(Level level, String message, Throwable error) {
+            this.level = level;
+            this.message = message;
+            this.error = error;
+        }
+    }
+}
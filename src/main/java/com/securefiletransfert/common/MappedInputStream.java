@@ -0,0 +1,168 @@
+package com.securefiletransfert.common;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Lecture d'une plage de fichier projetée en mémoire (FileChannel.map) par
+ * fenêtres de MAP_WINDOW octets
+ *
+ * Pas d'appel système read() par morceau : les octets sont copiés depuis le
+ * cache des pages directement dans le buffer de l'appelant, et le système
+ * anticipe la lecture des pages suivantes. Les buffers projetés ne sont
+ * pas passés tels quels à Cipher.update : le JCE recopie un buffer direct
+ * par petits blocs, ce qui est plus lent que cette copie unique
+ * (FileSourceBenchmark).
+ *
+ * Une projection n'est libérée qu'au ramasse-miettes : en dessous de
+ * MAP_THRESHOLD, open() retourne un flux de lecture classique.
+ */
+public class MappedInputStream extends InputStream {
+
+    /**
+     * Taille à partir de laquelle la projection est plus rapide que read()
+     * (FileSourceBenchmark : équivalent jusqu'à 256 Ko, +20 à 30 % sur le
+     * chiffrement au-delà de 1 Mo)
+     */
+    public static final long MAP_THRESHOLD = 1024 * 1024;
+
+    static final long MAP_WINDOW = 64L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private long position;
+    private final long end;
+    private MappedByteBuffer window;
+
+    /**
+     * Lit [offset, offset + length[ de path
+     */
+    public MappedInputStream(Path path, long offset, long length) throws IOException {
+        this.channel = FileChannel.open(path);
+        this.position = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * Flux sur [offset, offset + length[ de path : projeté en mémoire à
+     * partir de MAP_THRESHOLD octets, lecture classique en deçà
+     */
+    public static InputStream open(Path path, long offset, long length) throws IOException {
+        if (length >= MAP_THRESHOLD) {
+            return new MappedInputStream(path, offset, length);
+        }
+        return new BoundedInputStream(
+            Channels.newInputStream(Files.newByteChannel(path).position(offset)), length);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextWindow()) {
+            return -1;
+        }
+        position++;
+        return window.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!nextWindow()) {
+            return -1;
+        }
+        int n = Math.min(length, window.remaining());
+        window.get(buffer, offset, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return window == null ? 0 : window.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    /**
+     * Projette la fenêtre suivante si la fenêtre en cours est épuisée
+     *
+     * @return false à la fin de la plage, ou si le fichier a été tronqué
+     */
+    private boolean nextWindow() throws IOException {
+        if (window != null && window.hasRemaining()) {
+            return true;
+        }
+        window = null;
+        // Une page projetée au-delà de la fin du fichier ne peut pas être lue
+        long limit = Math.min(end, channel.size());
+        if (position >= limit) {
+            return false;
+        }
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+            Math.min(MAP_WINDOW, limit - position));
+        return true;
+    }
+
+    /**
+     * Flux limité aux length premiers octets du flux sous-jacent
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.securefiletransfert.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Arbre de hachage (Merkle) d'un fichier découpé en feuilles de taille fixe
+ *
+ *   feuille = SHA-256(0x00 || contenu de la feuille)
+ *   nœud    = SHA-256(0x01 || gauche || droite)
+ *
+ * Un nœud sans voisin à droite remonte tel quel au niveau supérieur. Les
+ * préfixes distinguent feuilles et nœuds (une feuille ne peut pas se faire
+ * passer pour un nœud). Un fichier vide a une seule feuille, vide.
+ *
+ * Les feuilles se hachent indépendamment, donc en parallèle ; le récepteur
+ * vérifie chaque feuille à son arrivée et désigne précisément les plages
+ * corrompues. La racine est un hash de contenu au même titre que le
+ * SHA-256 du fichier, mais leurs valeurs diffèrent.
+ */
+public class MerkleTree {
+
+    public static final int HASH_SIZE = 32;
+    public static final int MIN_LEAF_SIZE = 1024 * 1024;
+
+    // Les hash des feuilles partent dans la trame de négociation
+    public static final int MAX_LEAVES = 16384;
+
+    private static final byte LEAF_PREFIX = 0;
+    private static final byte NODE_PREFIX = 1;
+
+    private final int leafSize;
+    private final long fileSize;
+    private final byte[] leaves;
+    private final byte[] root;
+
+    /**
+     * @param leaves hash des feuilles mis bout à bout (HASH_SIZE octets chacun)
+     */
+    public MerkleTree(int leafSize, long fileSize, byte[] leaves) throws Exception {
+        if (leafSize <= 0 || fileSize < 0 ||
+                leaves.length != leafCount(fileSize, leafSize) * HASH_SIZE) {
+            throw new IllegalArgumentException("Arbre de hachage invalide");
+        }
+        this.leafSize = leafSize;
+        this.fileSize = fileSize;
+        this.leaves = leaves;
+        this.root = computeRoot(leaves);
+    }
+
+    /**
+     * Taille de feuille : MIN_LEAF_SIZE, doublée jusqu'à tenir en MAX_LEAVES feuilles
+     */
+    public static int chooseLeafSize(long fileSize) {
+        long leafSize = MIN_LEAF_SIZE;
+        while (leafCount(fileSize, leafSize) > MAX_LEAVES) {
+            leafSize *= 2;
+        }
+        return (int) Math.min(leafSize, Integer.MAX_VALUE / 2 + 1);
+    }
+
+    public static int leafCount(long fileSize, long leafSize) {
+        return (int) Math.max(1, (fileSize + leafSize - 1) / leafSize);
+    }
+
+    /**
+     * Hache les feuilles d'un fichier en parallèle (lectures positionnelles)
+     */
+    public static MerkleTree compute(Path path, long fileSize, int leafSize, ForkJoinPool pool)
+            throws Exception {
+        int count = leafCount(fileSize, leafSize);
+        byte[] leaves = new byte[count * HASH_SIZE];
+        try (FileChannel channel = FileChannel.open(path)) {
+            List<Future<?>> tasks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int index = i;
+                tasks.add(pool.submit(() -> {
+                    hashLeaf(channel, fileSize, leafSize, index, leaves);
+                    return null;
+                }));
+            }
+            try {
+                for (Future<?> task : tasks) {
+                    task.get();
+                }
+            } catch (ExecutionException e) {
+                for (Future<?> task : tasks) {
+                    task.cancel(false);
+                }
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        return new MerkleTree(leafSize, fileSize, leaves);
+    }
+
+    /**
+     * Prépare un digest pour le hash d'une feuille (à alimenter avec son contenu)
+     */
+    public static void beginLeaf(MessageDigest digest) {
+        digest.reset();
+        digest.update(LEAF_PREFIX);
+    }
+
+    public int getLeafSize() { return leafSize; }
+    public long getFileSize() { return fileSize; }
+    public int getLeafCount() { return leaves.length / HASH_SIZE; }
+
+    /**
+     * Hash des feuilles mis bout à bout
+     */
+    public byte[] getLeaves() { return leaves; }
+
+    public String getRootHex() { return CryptoUtils.toHex(root); }
+
+    public long getLeafOffset(int index) {
+        return (long) index * leafSize;
+    }
+
+    public int getLeafLength(int index) {
+        return (int) Math.min(leafSize, fileSize - getLeafOffset(index));
+    }
+
+    public boolean leafMatches(int index, byte[] hash) {
+        return Arrays.equals(leaves, index * HASH_SIZE, (index + 1) * HASH_SIZE,
+            hash, 0, HASH_SIZE);
+    }
+
+    private static void hashLeaf(FileChannel channel, long fileSize, int leafSize, int index,
+                                 byte[] leaves) throws Exception {
+        CryptoEngine engine = CryptoEngine.acquire();
+        try {
+            MessageDigest digest = engine.digest();
+            beginLeaf(digest);
+            ByteBuffer buffer = ByteBuffer.allocate(ProtocolConstants.STREAM_CHUNK_SIZE * 4);
+            long position = (long) index * leafSize;
+            long end = Math.min(fileSize, position + leafSize);
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    throw new IOException("Le fichier a changé pendant le calcul du hash");
+                }
+                digest.update(buffer.flip());
+                position += n;
+            }
+            digest.digest(leaves, index * HASH_SIZE, HASH_SIZE);
+        } finally {
+            engine.release();
+        }
+    }
+
+    private static byte[] computeRoot(byte[] leaves) throws Exception {
+        MessageDigest digest = CryptoUtils.createDigest();
+        byte[] level = leaves;
+        while (level.length > HASH_SIZE) {
+            int count = level.length / HASH_SIZE;
+            byte[] next = new byte[(count + 1) / 2 * HASH_SIZE];
+            for (int i = 0; i < count; i += 2) {
+                if (i + 1 == count) {
+                    System.arraycopy(level, i * HASH_SIZE, next, i / 2 * HASH_SIZE, HASH_SIZE);
+                    continue;
+                }
+                digest.update(NODE_PREFIX);
+                digest.update(level, i * HASH_SIZE, 2 * HASH_SIZE);
+                digest.digest(next, i / 2 * HASH_SIZE, HASH_SIZE);
+            }
+            level = next;
+        }
+        return level;
+    }
+}
@@ -0,0 +1,124 @@
+package com.securefiletransfert.common;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Preuve de possession d'un contenu, exigée avant une déduplication
+ *
+ * Le hash d'un fichier ne suffit pas à l'obtenir : le serveur choisit un
+ * défi aléatoire par session (envoyé avec AUTH_OK) et le client répond,
+ * pour chaque fichier qu'il annonce, par un HMAC-SHA256 sous ce défi de la
+ * taille et de SAMPLES plages de SAMPLE_SIZE octets du contenu en clair,
+ * placées selon le défi. Le serveur refait le calcul sur le contenu qu'il
+ * possède. Un fichier d'au plus SAMPLES * SAMPLE_SIZE octets est lu en
+ * entier.
+ */
+public class PossessionProof {
+
+    public static final int CHALLENGE_SIZE = 16;
+    public static final int SIZE = 32;
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int SAMPLES = 4;
+    private static final int SAMPLE_SIZE = 4096;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Défi d'une session (CHALLENGE_SIZE octets aléatoires)
+     */
+    public static byte[] newChallenge() {
+        byte[] challenge = new byte[CHALLENGE_SIZE];
+        RANDOM.nextBytes(challenge);
+        return challenge;
+    }
+
+    /**
+     * Preuve pour les size premiers octets du fichier
+     *
+     * @throws EOFException si le fichier est plus court que size
+     */
+    public static byte[] compute(byte[] challenge, Path path, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path)) {
+            return compute(challenge, channel, size);
+        }
+    }
+
+    /**
+     * Preuve pour les size premiers octets du canal (lecture positionnelle :
+     * la position du canal n'est pas modifiée)
+     */
+    public static byte[] compute(byte[] challenge, FileChannel channel, long size)
+            throws IOException {
+        Mac mac = newMac(challenge);
+        mac.update(ByteBuffer.allocate(Long.BYTES).putLong(0, size));
+        ByteBuffer sample = ByteBuffer.allocate(SAMPLE_SIZE);
+        if (size <= (long) SAMPLES * SAMPLE_SIZE) {
+            for (long position = 0; position < size; position += SAMPLE_SIZE) {
+                mac.update(read(channel, sample, position, (int) Math.min(SAMPLE_SIZE,
+                    size - position)));
+            }
+        } else {
+            for (int i = 0; i < SAMPLES; i++) {
+                mac.update(read(channel, sample, sampleOffset(challenge, i, size),
+                    SAMPLE_SIZE));
+            }
+        }
+        return mac.doFinal();
+    }
+
+    /**
+     * Compare une preuve reçue à celle du contenu possédé (temps constant)
+     */
+    public static boolean verify(byte[] challenge, Path path, long size, byte[] proof)
+            throws IOException {
+        return MessageDigest.isEqual(compute(challenge, path, size), proof);
+    }
+
+    /**
+     * Position de la plage i, imprévisible sans le défi
+     */
+    private static long sampleOffset(byte[] challenge, int i, long size) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(challenge);
+        digest.update((byte) i);
+        long value = ByteBuffer.wrap(digest.digest()).getLong();
+        return Math.floorMod(value, size - SAMPLE_SIZE + 1);
+    }
+
+    private static ByteBuffer read(FileChannel channel, ByteBuffer buffer, long position,
+                                   int length) throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Fichier tronqué pendant le calcul de la preuve");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static Mac newMac(byte[] challenge) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(challenge, ALGORITHM));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            // HmacSHA256 fait partie des algorithmes que toute JVM doit fournir
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,26 +1,182 @@
 package com.securefiletransfert.common;
 
 
+/**
+ * Constantes du protocole
+ *
+ * Chaque message est une trame binaire : [type:1][longueur:4][contenu]
+ * (voir FrameEncoder / FrameDecoder). Les trames d'en-tête (authentification,
+ * métadonnées) contiennent des champs typés, les trames DATA le contenu chiffré.
+ *
+ * Juste après AUTH_OK, le client établit les clés de la session :
+ *   KEY_EXCHANGE       [nonce:16][ticket:4+n][clé publique X25519:4+n]
+ *   KEY_EXCHANGE_REPLY [nonce:16][clé publique:4+n][nouveau ticket:4+n]
+ *                      [validité du ticket en secondes:4]
+ * Les champs 4+n sont une longueur suivie des octets (n = 0 : absent). Si le
+ * ticket est accepté, le serveur ne renvoie pas de clé publique : la clé de
+ * session est dérivée du secret de reprise (voir KeyExchange). Les données
+ * des fichiers sont ensuite chiffrées avec la clé de session ; un client qui
+ * n'envoie pas KEY_EXCHANGE utilise la clé partagée.
+ *
+ * Après l'authentification, chaque fichier est désigné par un numéro choisi
+ * par le client : METADATA, READY_FOR_TRANSFER, DATA, TRANSFER_SUCCESS et
+ * TRANSFER_FAIL commencent tous par ce numéro (int), ce qui permet d'envoyer
+ * plusieurs fichiers à la suite sans attendre les acquittements.
+ *
+ * RANGE_METADATA remplace METADATA pour une plage d'un fichier envoyé sur
+ * plusieurs connexions en parallèle :
+ *   [numéro][identifiant du transfert][nom][taille en clair][hash global]
+ *   [position de la plage][longueur de la plage]
+ * La plage est chiffrée indépendamment ; le serveur assemble les plages
+ * et vérifie le hash global quand le fichier est complet.
+ *
+ * RESUME_METADATA remplace METADATA pour un transfert reprenable :
+ *   [numéro][identifiant du transfert][nom][taille en clair][hash][preuve]
+ * Le serveur répond RESUME_OFFSET [numéro][position] au lieu de
+ * READY_FOR_TRANSFER ; le client attend cette réponse puis n'envoie que
+ * la suite du fichier, chiffrée à partir de cette position.
+ *
+ * En réponse à METADATA ou RESUME_METADATA, ALREADY_HAVE [numéro] indique
+ * que le serveur possède déjà ce contenu (même SHA-256) : le fichier est
+ * enregistré sans transfert et le client n'envoie pas les données.
+ *
+ * Preuve de possession : AUTH_OK porte un défi [défi:16] propre à la
+ * session. Les trames METADATA, RESUME_METADATA, DELTA_METADATA,
+ * COMPRESSED_METADATA, GCM_METADATA et TREE_METADATA se terminent par
+ * [preuve:32], calculée sur le contenu annoncé (voir PossessionProof) ;
+ * dans PACK_METADATA, chaque fichier a la sienne. Le serveur n'enregistre
+ * un fichier sans transfert (ALREADY_HAVE, PACK_PRESENT) que si la preuve
+ * correspond au contenu qu'il possède : connaître le hash ne suffit pas.
+ *
+ * Synchronisation différentielle : DELTA_METADATA [numéro][nom][taille en
+ * clair][hash][preuve]. Si le serveur possède une version de ce fichier, il répond
+ * par une ou plusieurs trames SIGNATURES [numéro][taille de bloc][taille de
+ * la version stockée][premier bloc][nombre] puis, par bloc, [somme faible:4]
+ * [hash fort:16] (voir BlockSignatures). Sinon il répond READY_FOR_TRANSFER
+ * et le transfert est complet. Le client envoie alors en trames DATA une
+ * suite d'instructions chiffrée, terminée par DATA_END [numéro] :
+ *   DELTA_COPY    [1][premier bloc:4][nombre de blocs:4]
+ *   DELTA_LITERAL [2][longueur:4][octets]
+ *
+ * Transfert compressé : COMPRESSED_METADATA [numéro][nom][taille en clair]
+ * [hash][algorithme][preuve]. Le serveur répond READY_FOR_TRANSFER [numéro]
+ * [algorithme retenu] ("none" s'il ne connaît pas celui demandé). Le client
+ * envoie en trames DATA une suite chiffrée de morceaux, terminée par DATA_END :
+ *   [CHUNK_RAW ou CHUNK_COMPRESSED:1][taille en clair:4][taille envoyée:4][octets]
+ * Un morceau que la compression ne réduit pas est envoyé tel quel.
+ *
+ * Chiffrement authentifié par morceaux : GCM_METADATA [numéro][nom][taille
+ * en clair][hash][sel:16][preuve]. Après READY_FOR_TRANSFER, chaque trame
+ * DATA contient un morceau de GCM_CHUNK_SIZE octets (le dernier est plus
+ * court, un fichier vide en a un vide) chiffré en AES-GCM suivi de son tag
+ * de 16 octets (voir ChunkCipher). Le nombre de morceaux découle de la taille.
+ *
+ * Vérification par arbre de Merkle : TREE_METADATA [numéro][nom][taille en
+ * clair][racine][taille de feuille:4][nombre de feuilles:4][hash des
+ * feuilles:32 chacun][preuve] (voir MerkleTree). Après READY_FOR_TRANSFER,
+ * chaque feuille est envoyée chiffrée indépendamment, dans l'ordre. Si des feuilles
+ * sont invalides, le serveur répond RETRANSMIT [numéro][nombre][feuille:4...]
+ * et le client renvoie ces seules feuilles ; le tour se répète au plus
+ * MAX_TREE_ROUNDS fois avant TRANSFER_FAIL. La racine sert de hash de contenu.
+ *
+ * Lot de petits fichiers : PACK_METADATA [numéro][nombre:4] puis, par
+ * fichier, [nom][taille en clair][hash][preuve] (au plus MAX_PACK_FILES). Le
+ * serveur enregistre ceux dont il possède déjà le contenu et répond PACK_READY
+ * [numéro][nombre:4][index:4...] avec l'index des fichiers déjà présents.
+ * Le client envoie en trames DATA un seul flux chiffré, concaténation des
+ * autres fichiers dans l'ordre, terminé par DATA_END. Le serveur répond
+ * PACK_RESULT [numéro][nombre:4][PACK_STORED, PACK_PRESENT ou PACK_FAILED:1
+ * par fichier], ou TRANSFER_FAIL si le lot entier est refusé. Si tous les
+ * fichiers sont présents, PACK_RESULT remplace PACK_READY.
+ *
+ * Téléchargement : GET [numéro][nom]. Le serveur répond FILE_INFO [numéro]
+ * [taille en clair][hash] puis envoie en trames DATA le contenu chiffré
+ * avec la clé de la session (comme un envoi METADATA), terminé par DATA_END
+ * [numéro]. TRANSFER_FAIL [numéro][raison] remplace FILE_INFO si le fichier
+ * est inconnu, ou DATA_END si sa lecture échoue en cours de route. Le
+ * client vérifie la taille et le hash avant de garder le fichier.
+ */
 public class ProtocolConstants {
     
-    // Messages d'authentification
-    public static final String AUTH_OK = "AUTH_OK";
-    public static final String AUTH_FAIL = "AUTH_FAIL";
+    // Trames d'authentification
+    public static final byte AUTH = 1;
+    public static final byte AUTH_OK = 2;
+    public static final byte AUTH_FAIL = 3;
     
-    // Messages de négociation
-    public static final String READY_FOR_TRANSFER = "READY_FOR_TRANSFER";
+    // Échange de clés de session (ECDH éphémère ou reprise par ticket)
+    public static final byte KEY_EXCHANGE = 20;
+    public static final byte KEY_EXCHANGE_REPLY = 21;
+    public static final int MAX_KEY_FIELD = 256;
     
-    // Messages de transfert
-    public static final String TRANSFER_SUCCESS = "TRANSFER_SUCCESS";
-    public static final String TRANSFER_FAIL = "TRANSFER_FAIL";
+    // Trames de négociation
+    public static final byte METADATA = 4;
+    public static final byte READY_FOR_TRANSFER = 5;
+    public static final byte RANGE_METADATA = 9;
+    public static final byte RESUME_METADATA = 10;
+    public static final byte RESUME_OFFSET = 11;
+    public static final byte ALREADY_HAVE = 12;
     
-    // Séparateurs
-    public static final String FIELD_SEPARATOR = "|";
-    public static final String AUTH_SEPARATOR = ":";
+    // Trames de synchronisation différentielle
+    public static final byte DELTA_METADATA = 13;
+    public static final byte SIGNATURES = 14;
+    public static final byte DATA_END = 15;
+    
+    // Transfert compressé
+    public static final byte COMPRESSED_METADATA = 16;
+    
+    // Chiffrement authentifié par morceaux (AES-GCM)
+    public static final byte GCM_METADATA = 17;
+    public static final int GCM_CHUNK_SIZE = 256 * 1024;
+    
+    // Vérification par arbre de Merkle
+    public static final byte TREE_METADATA = 18;
+    public static final byte RETRANSMIT = 19;
+    public static final int MAX_TREE_ROUNDS = 3;
+    
+    // Lots de petits fichiers dans un seul flux chiffré
+    public static final byte PACK_METADATA = 22;
+    public static final byte PACK_READY = 23;
+    public static final byte PACK_RESULT = 24;
+    public static final int MAX_PACK_FILES = 256;
+    public static final byte PACK_STORED = 0;
+    public static final byte PACK_PRESENT = 1;
+    public static final byte PACK_FAILED = 2;
+    
+    // Téléchargement d'un fichier stocké
+    public static final byte GET = 25;
+    public static final byte FILE_INFO = 26;
+    
+    // Instructions d'un flux différentiel
+    public static final byte DELTA_COPY = 1;
+    public static final byte DELTA_LITERAL = 2;
+    
+    // Morceaux d'un flux compressé
+    public static final byte CHUNK_RAW = 0;
+    public static final byte CHUNK_COMPRESSED = 1;
+    public static final int MAX_CHUNK_SIZE = 1024 * 1024;
+    
+    // Signatures de blocs par trame SIGNATURES (20 octets chacune)
+    public static final int SIGNATURES_PER_FRAME = 32768;
+    
+    // Trames de transfert
+    public static final byte DATA = 6;
+    public static final byte TRANSFER_SUCCESS = 7;
+    public static final byte TRANSFER_FAIL = 8;
+    
+    // En-tête de trame : type (1 octet) + longueur du contenu (4 octets)
+    public static final int FRAME_HEADER_SIZE = 5;
+    
+    // Taille maximale du contenu d'une trame
+    public static final int MAX_FRAME_PAYLOAD = 1024 * 1024;
+    
+    // Fichiers en cours de réception simultanément sur une même session
+    public static final int MAX_PENDING_FILES = 64;
     
     // Taille du buffer pour le transfert
     public static final int BUFFER_SIZE = 8192;
     
+    // Taille des morceaux lus/chiffrés/envoyés en mode streaming
+    public static final int STREAM_CHUNK_SIZE = 64 * 1024;
+    
     private ProtocolConstants() {}
 }
-
@@ -0,0 +1,57 @@
+package com.securefiletransfert.common;
+
+/**
+ * Somme de contrôle glissante de rsync (faible, 32 bits)
+ *
+ *   a = somme des octets                  (mod 2^16)
+ *   b = somme des (n - i) * octet_i        (mod 2^16)
+ *   valeur = a | b << 16
+ *
+ * roll() décale la fenêtre d'un octet en O(1), ce qui permet de chercher
+ * un bloc connu à toutes les positions d'un fichier.
+ */
+public class RollingChecksum {
+
+    private final int length;
+    private int a;
+    private int b;
+
+    public RollingChecksum(int length) {
+        this.length = length;
+    }
+
+    /**
+     * Initialise la fenêtre sur data[offset, offset + length[
+     */
+    public void reset(byte[] data, int offset) {
+        a = 0;
+        b = 0;
+        for (int i = 0; i < length; i++) {
+            int x = data[offset + i] & 0xFF;
+            a += x;
+            b += (length - i) * x;
+        }
+    }
+
+    /**
+     * Retire l'octet out (début de fenêtre) et ajoute l'octet in (fin de fenêtre)
+     */
+    public void roll(byte out, byte in) {
+        int x = out & 0xFF;
+        a += (in & 0xFF) - x;
+        b += a - length * x;
+    }
+
+    public int getValue() {
+        return (a & 0xFFFF) | (b << 16);
+    }
+
+    /**
+     * Somme de contrôle d'un bloc complet (data[offset, offset + length[)
+     */
+    public static int of(byte[] data, int offset, int length) {
+        RollingChecksum checksum = new RollingChecksum(length);
+        checksum.reset(data, offset);
+        return checksum.getValue();
+    }
+}
@@ -1,26 +1,361 @@
 package com.securefiletransfert.server;
 
+import com.securefiletransfert.common.Log;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 
+/**
+ * Comptes utilisateurs, mots de passe hachés par PBKDF2-HMAC-SHA256
+ *
+ * Les comptes viennent d'un fichier (une ligne par compte) :
+ *   login:pbkdf2-sha256:itérations:sel base64:hash base64
+ * Sans fichier, seuls les comptes de test intégrés existent.
+ *
+ * PBKDF2 est lent par construction (plusieurs centaines de millisecondes).
+ * Les vérifications réussies récentes sont gardées dans un cache borné :
+ * une reconnexion avec le même mot de passe n'est vérifiée que par un HMAC
+ * (clé aléatoire propre au processus, le mot de passe n'est pas conservé).
+ * Les échecs ne sont jamais mis en cache.
+ *
+ * Les lectures ne prennent aucun verrou : les comptes sont un instantané
+ * immuable, remplacé d'un bloc quand le fichier change (vérifié au plus
+ * toutes les RELOAD_CHECK_MILLIS, par une seule session à la fois).
+ */
 public class AuthenticationManager {
-    
-    private static final Map<String, String> credentials = new HashMap<>();
-    
-    static {
-        credentials.put("admin", "admin123");
-        credentials.put("user1", "password1");
-        credentials.put("test", "test123");
-    }
-    
-    public static boolean authenticate(String username, String password) {
-        String storedPassword = credentials.get(username);
-        return storedPassword != null && storedPassword.equals(password);
-    }
-    
-    public static void addUser(String username, String password) {
-        credentials.put(username, password);
+
+    public static final int DEFAULT_ITERATIONS = 310_000;
+    public static final int DEFAULT_CACHE_SIZE = 10_000;
+    public static final int DEFAULT_CACHE_TTL = 300;
+
+    private static final String KDF_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String SCHEME = "pbkdf2-sha256";
+    private static final String CACHE_MAC = "HmacSHA256";
+    private static final int SALT_SIZE = 16;
+    private static final int HASH_BITS = 256;
+    private static final long RELOAD_CHECK_MILLIS = 2000;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Base64.Encoder BASE64 = Base64.getEncoder().withoutPadding();
+
+    // Comptes de test (admin123, password1, test123), utilisés sans fichier
+    private static final String[] TEST_ACCOUNTS = {
+        "admin:pbkdf2-sha256:310000:botKW21ZD2h5j1r8lUur1w:" +
+            "cJ5ZkPRIZmIS3Ln7Sw5p6tZ8DEkEW2oirsgfDXlZCp0",
+        "user1:pbkdf2-sha256:310000:kKPYrnzfCAxA/YQbcNfhww:" +
+            "4/LHgEoY531DS9QZH3fu80CE7wNww0HaYUhP/vv8W14",
+        "test:pbkdf2-sha256:310000:4WN650yTXNQHrXwVfBUBsg:" +
+            "mYTx4OnJIWLcKWsrPPTTmUj+RpHSMjm5P8xNkZstyBI",
+    };
+
+    // Vérifié quand le compte n'existe pas : même durée qu'un mauvais mot de passe
+    private static final Credential UNKNOWN_USER = Credential.parse(
+        "pbkdf2-sha256:310000:AAAAAAAAAAAAAAAAAAAAAA:" +
+            "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA");
+
+    private final Path usersFile;
+    private final int maxCached;
+    private final long cacheTtlNanos;
+    private final byte[] cacheKey = new byte[32];
+    private final ConcurrentHashMap<String, Verified> verified = new ConcurrentHashMap<>();
+    private final AtomicLong nextReloadCheck = new AtomicLong();
+    private volatile Map<String, Credential> credentials;
+    private FileTime loadedTime;
+
+    /**
+     * Comptes de test intégrés, cache par défaut
+     */
+    public AuthenticationManager() {
+        this(null, DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL);
+    }
+
+    /**
+     * @param usersFile       fichier des comptes (null : comptes de test)
+     * @param maxCached       vérifications réussies gardées en cache
+     * @param cacheTtlSeconds durée de validité d'une vérification en cache
+     */
+    public AuthenticationManager(Path usersFile, int maxCached, int cacheTtlSeconds) {
+        this.usersFile = usersFile;
+        this.maxCached = maxCached;
+        this.cacheTtlNanos = cacheTtlSeconds * 1_000_000_000L;
+        RANDOM.nextBytes(cacheKey);
+        if (usersFile == null) {
+            Map<String, Credential> accounts = new HashMap<>();
+            for (String line : TEST_ACCOUNTS) {
+                accounts.put(line.substring(0, line.indexOf(':')),
+                    Credential.parse(line.substring(line.indexOf(':') + 1)));
+            }
+            this.credentials = Map.copyOf(accounts);
+        } else {
+            this.credentials = Map.of();
+            reload();
+        }
     }
-}
 
+    public boolean authenticate(String username, String password) {
+        reloadIfChanged();
+        Credential credential = credentials.get(username);
+        if (credential == null) {
+            UNKNOWN_USER.matches(password);
+            return false;
+        }
+
+        byte[] proof = proof(username, password);
+        Verified cached = verified.get(username);
+        if (cached != null && cached.credential == credential &&
+                cached.expiresAt - System.nanoTime() > 0 &&
+                MessageDigest.isEqual(cached.proof, proof)) {
+            return true;
+        }
+        if (!credential.matches(password)) {
+            return false;
+        }
+        if (verified.size() >= maxCached) {
+            evict();
+        }
+        verified.put(username, new Verified(credential, proof,
+            System.nanoTime() + cacheTtlNanos));
+        return true;
+    }
+
+    /**
+     * Ajoute ou remplace un compte (enregistré dans le fichier s'il y en a un)
+     */
+    public void addUser(String username, String password) throws IOException {
+        if (username.isEmpty() || username.indexOf(':') >= 0 || username.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("Login invalide: " + username);
+        }
+        // Le hachage (lent) se fait hors du verrou
+        Credential credential = Credential.create(password, DEFAULT_ITERATIONS);
+        synchronized (this) {
+            if (usersFile != null) {
+                try (BufferedWriter writer = Files.newBufferedWriter(usersFile,
+                        StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND)) {
+                    writer.write(username + ":" + credential.encoded + "\n");
+                }
+                loadedTime = Files.getLastModifiedTime(usersFile);
+            }
+            Map<String, Credential> accounts = new HashMap<>(credentials);
+            accounts.put(username, credential);
+            credentials = Map.copyOf(accounts);
+        }
+    }
+
+    /**
+     * Nombre de comptes actuellement chargés
+     */
+    public int getUserCount() {
+        return credentials.size();
+    }
+
+    /**
+     * Relit le fichier s'il a changé ; une seule session vérifie, les
+     * autres continuent avec l'instantané courant
+     */
+    private void reloadIfChanged() {
+        long now = System.currentTimeMillis();
+        long next = nextReloadCheck.get();
+        if (usersFile == null || now < next ||
+                !nextReloadCheck.compareAndSet(next, now + RELOAD_CHECK_MILLIS)) {
+            return;
+        }
+        reload();
+    }
+
+    private synchronized void reload() {
+        try {
+            FileTime modified = Files.getLastModifiedTime(usersFile);
+            if (modified.equals(loadedTime)) {
+                return;
+            }
+            List<String> lines = Files.readAllLines(usersFile, StandardCharsets.UTF_8);
+            Map<String, Credential> accounts = new HashMap<>();
+            for (String line : lines) {
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int colon = line.indexOf(':');
+                try {
+                    if (colon <= 0) {
+                        throw new IllegalArgumentException("login manquant");
+                    }
+                    String username = line.substring(0, colon);
+                    Credential credential = Credential.parse(line.substring(colon + 1));
+                    // Un compte inchangé garde ses vérifications en cache
+                    Credential current = credentials.get(username);
+                    accounts.put(username, credential.equals(current) ? current : credential);
+                } catch (IllegalArgumentException e) {
+                    Log.warn("Compte ignoré dans " + usersFile + ": " +
+                        e.getMessage());
+                }
+            }
+            credentials = Map.copyOf(accounts);
+            loadedTime = modified;
+            Log.info("Comptes chargés depuis " + usersFile + ": " + accounts.size());
+        } catch (NoSuchFileException e) {
+            Log.warn("Fichier des comptes introuvable: " + usersFile);
+        } catch (IOException e) {
+            Log.warn("Fichier des comptes illisible: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Libère de la place : les entrées expirées, puis une entrée sur deux
+     * (éviction approximative, sans verrou ni ordre d'accès à maintenir)
+     */
+    private void evict() {
+        long now = System.nanoTime();
+        verified.values().removeIf(v -> v.expiresAt - now <= 0);
+        Iterator<Verified> it = verified.values().iterator();
+        boolean drop = true;
+        while (verified.size() >= maxCached && it.hasNext()) {
+            it.next();
+            if (drop) {
+                it.remove();
+            }
+            drop = !drop;
+        }
+    }
+
+    /**
+     * Empreinte d'une vérification réussie, comparée au lieu de PBKDF2
+     */
+    private byte[] proof(String username, String password) {
+        try {
+            Mac mac = Mac.getInstance(CACHE_MAC);
+            mac.init(new SecretKeySpec(cacheKey, CACHE_MAC));
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Ajoute un compte au fichier :
+     *   AuthenticationManager fichier login mot_de_passe
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: AuthenticationManager fichier login mot_de_passe");
+            return;
+        }
+        Path file = Paths.get(args[0]);
+        if (!Files.exists(file)) {
+            Files.createFile(file);
+        }
+        AuthenticationManager manager = new AuthenticationManager(file, 1, 1);
+        manager.addUser(args[1], args[2]);
+        System.out.println("Compte enregistré: " + args[1]);
+    }
+
+    /**
+     * Mot de passe haché : paramètres PBKDF2, sel et hash
+     */
+    private static class Credential {
+        private final String encoded;
+        private final int iterations;
+        private final byte[] salt;
+        private final byte[] hash;
+
+        private Credential(String encoded, int iterations, byte[] salt, byte[] hash) {
+            this.encoded = encoded;
+            this.iterations = iterations;
+            this.salt = salt;
+            this.hash = hash;
+        }
+
+        static Credential create(String password, int iterations) {
+            byte[] salt = new byte[SALT_SIZE];
+            RANDOM.nextBytes(salt);
+            byte[] hash = derive(password, salt, iterations);
+            return new Credential(SCHEME + ":" + iterations + ":" +
+                BASE64.encodeToString(salt) + ":" + BASE64.encodeToString(hash),
+                iterations, salt, hash);
+        }
+
+        /**
+         * @throws IllegalArgumentException si la chaîne n'est pas un hash reconnu
+         */
+        static Credential parse(String encoded) {
+            String[] parts = encoded.split(":");
+            if (parts.length != 4 || !parts[0].equals(SCHEME)) {
+                throw new IllegalArgumentException("format de mot de passe inconnu");
+            }
+            int iterations;
+            try {
+                iterations = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("nombre d'itérations invalide");
+            }
+            if (iterations <= 0) {
+                throw new IllegalArgumentException("nombre d'itérations invalide");
+            }
+            return new Credential(encoded, iterations, Base64.getDecoder().decode(parts[2]),
+                Base64.getDecoder().decode(parts[3]));
+        }
+
+        boolean matches(String password) {
+            return MessageDigest.isEqual(hash, derive(password, salt, iterations));
+        }
+
+        private static byte[] derive(String password, byte[] salt, int iterations) {
+            PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations,
+                HASH_BITS);
+            try {
+                return SecretKeyFactory.getInstance(KDF_ALGORITHM).generateSecret(spec)
+                    .getEncoded();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                spec.clearPassword();
+            }
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Credential && encoded.equals(((Credential) other).encoded);
+        }
+
+        @Override
+        public int hashCode() {
+            return encoded.hashCode();
+        }
+    }
+
+    private static class Verified {
+        private final Credential credential;
+        private final byte[] proof;
+        private final long expiresAt;
+
+        Verified(Credential credential, byte[] proof, long expiresAt) {
+            this.credential = credential;
+            this.proof = proof;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
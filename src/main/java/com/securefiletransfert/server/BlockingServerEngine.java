@@ -0,0 +1,71 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.Log;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Moteur bloquant : ServerSocket + une session ClientTransferHandler par
+ * connexion, exécutée par le SessionExecutor
+ */
+class BlockingServerEngine implements ServerEngine {
+
+    private final ServerContext context;
+    private final ServerConfig config;
+    private final SessionExecutor sessionExecutor;
+    private volatile ServerSocket serverSocket;
+    private volatile boolean running = false;
+
+    BlockingServerEngine(ServerContext context) {
+        this.context = context;
+        this.config = context.getConfig();
+        this.sessionExecutor = new SessionExecutor(config);
+    }
+
+    @Override
+    public void serve() throws IOException, InterruptedException {
+        serverSocket = new ServerSocket(config.getPort());
+        running = true;
+        Log.info("Exécution des sessions: " + config.getExecutorMode() +
+            " (max " + config.getMaxSessions() + " sessions simultanées)");
+
+        try {
+            while (running) {
+                // Backpressure : pas d'accept() tant que la limite de sessions est atteinte
+                sessionExecutor.acquireSlot();
+                Socket clientSocket;
+                try {
+                    clientSocket = serverSocket.accept();
+                } catch (IOException e) {
+                    sessionExecutor.releaseSlot();
+                    throw e;
+                }
+
+                ClientTransferHandler handler = new ClientTransferHandler(
+                    clientSocket, context);
+                sessionExecutor.submit(handler);
+            }
+        } finally {
+            sessionExecutor.shutdown();
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            if (serverSocket != null && !serverSocket.isClosed()) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            Log.error("Erreur lors de l'arrêt du serveur: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public int getActiveSessions() {
+        return sessionExecutor.getActiveSessions();
+    }
+}
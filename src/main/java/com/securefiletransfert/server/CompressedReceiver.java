@@ -0,0 +1,131 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.CompressionCodec;
+import com.securefiletransfert.common.Log;
+import com.securefiletransfert.common.ProtocolConstants;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reconstruction d'un fichier envoyé en morceaux compressés
+ *
+ * Chaque morceau est [CHUNK_RAW ou CHUNK_COMPRESSED][taille en clair]
+ * [taille envoyée][octets] (voir ProtocolConstants). Les morceaux bruts
+ * sont écrits directement ; les autres sont accumulés puis décompressés.
+ */
+class CompressedReceiver extends EncryptedStreamReceiver {
+
+    private static final int HEADER_SIZE = 9;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final CompressionCodec codec;
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    private byte[] stored = new byte[0];
+    private byte[] plainChunk = new byte[0];
+    private boolean compressed;
+    private int plainLength;
+    private int storedLength;
+    private int storedReceived;
+    private boolean inChunk = false;
+
+    // Octets reçus après compression (hors en-têtes) et temps CPU de décompression
+    private long receivedBytes = 0;
+    private long cpuNanos = 0;
+
+    /**
+     * @param codec null si aucun morceau ne doit être compressé ("none")
+     */
+    CompressedReceiver(PartialFile output, long expectedSize, String expectedHash,
+                       SecretKey key, CompressionCodec codec, ServerMetrics metrics)
+            throws Exception {
+        super(output, expectedSize, expectedHash, key, metrics);
+        this.codec = codec;
+    }
+
+    @Override
+    protected void logCompleted() {
+        Log.info("Décompression: " + receivedBytes + " -> " + getExpectedSize() +
+            " bytes, " + cpuNanos / 1_000_000 + " ms CPU");
+    }
+
+    @Override
+    protected boolean isAtBoundary() {
+        return !inChunk && header.position() == 0;
+    }
+
+    @Override
+    protected void apply(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            if (inChunk) {
+                readChunk(in);
+                continue;
+            }
+            header.put(in.get());
+            if (header.hasRemaining()) {
+                continue;
+            }
+            header.flip();
+            startChunk(header.get(), header.getInt(), header.getInt());
+            header.clear();
+        }
+    }
+
+    private void startChunk(byte type, int plain, int length) throws ProtocolException {
+        if (plain <= 0 || plain > ProtocolConstants.MAX_CHUNK_SIZE || length <= 0) {
+            throw new ProtocolException("Morceau invalide: " + plain + "/" + length);
+        }
+        if (type == ProtocolConstants.CHUNK_RAW) {
+            if (length != plain) {
+                throw new ProtocolException("Morceau brut de taille incohérente");
+            }
+            compressed = false;
+        } else if (type == ProtocolConstants.CHUNK_COMPRESSED && codec != null) {
+            if (length >= plain) {
+                throw new ProtocolException("Morceau compressé plus grand que l'original");
+            }
+            compressed = true;
+            if (stored.length < length) {
+                stored = new byte[Math.max(length, ProtocolConstants.STREAM_CHUNK_SIZE)];
+            }
+            if (plainChunk.length < plain) {
+                plainChunk = new byte[Math.max(plain, ProtocolConstants.STREAM_CHUNK_SIZE)];
+            }
+        } else {
+            throw new ProtocolException("Type de morceau inconnu: " + type);
+        }
+        plainLength = plain;
+        storedLength = length;
+        storedReceived = 0;
+        inChunk = true;
+    }
+
+    private void readChunk(ByteBuffer in) throws IOException {
+        int n = Math.min(in.remaining(), storedLength - storedReceived);
+        if (!compressed) {
+            // Morceau brut : écrit au fil de l'eau, sans copie intermédiaire
+            ByteBuffer raw = in.slice(in.position(), n);
+            in.position(in.position() + n);
+            emit(raw);
+        } else {
+            in.get(stored, storedReceived, n);
+        }
+        storedReceived += n;
+        receivedBytes += n;
+        if (storedReceived < storedLength) {
+            return;
+        }
+
+        inChunk = false;
+        if (compressed) {
+            long start = THREADS.getCurrentThreadCpuTime();
+            codec.decompress(stored, 0, storedLength, plainChunk, plainLength);
+            cpuNanos += THREADS.getCurrentThreadCpuTime() - start;
+            emit(ByteBuffer.wrap(plainChunk, 0, plainLength));
+        }
+    }
+}
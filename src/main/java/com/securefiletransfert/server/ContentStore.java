@@ -0,0 +1,514 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.CryptoUtils;
+import com.securefiletransfert.common.Log;
+import com.securefiletransfert.common.PossessionProof;
+import com.securefiletransfert.common.ProtocolConstants;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Stockage adressé par contenu (déduplication par SHA-256)
+ *
+ * Chaque fichier publié est aussi enregistré sous son hash dans
+ * server_storage/.blobs/xx/hash (lien physique : pas de copie). Un index
+ * (server_storage/.index, une ligne par publication, la dernière l'emporte)
+ * garde pour chaque fichier nommé son hash, sa taille, son propriétaire et
+ * sa date de publication. L'emplacement des fichiers nommés dépend de
+ * l'organisation choisie (voir StorageLayout).
+ *
+ * Quand un client annonce un hash déjà présent, le fichier nommé est créé
+ * par un lien vers le blob et le serveur répond ALREADY_HAVE : le contenu
+ * n'est pas retransmis.
+ *
+ * Deux publications du même nom sont sérialisées : la dernière remplace le
+ * fichier et l'index décrit toujours le fichier présent sur disque.
+ *
+ * Les fichiers du répertoire de stockage partagent leur contenu avec les
+ * blobs : ils ne doivent pas être modifiés sur place.
+ */
+class ContentStore {
+
+    static final String BLOB_DIR = ".blobs";
+    static final String INDEX_FILE = ".index";
+
+    // Le hash vient du client : il sert de nom de fichier, il est donc validé
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
+    private static final int NAME_LOCKS = 64;
+    private static final int MAX_NAME_BYTES = 255;
+
+    /**
+     * Entrée de l'index : dernière version publiée d'un fichier nommé
+     */
+    static class StoredFile {
+        final String hash;
+        final long size;
+        final String owner;
+        final long publishedAt;
+
+        StoredFile(String hash, long size, String owner, long publishedAt) {
+            this.hash = hash;
+            this.size = size;
+            this.owner = owner;
+            this.publishedAt = publishedAt;
+        }
+    }
+
+    private final Path storageDir;
+    private final Path blobDir;
+    private final Path indexFile;
+    private final StorageLayout layout;
+    private final ConcurrentHashMap<String, StoredFile> index = new ConcurrentHashMap<>();
+    private final ReentrantLock[] nameLocks = new ReentrantLock[NAME_LOCKS];
+    private final WriteBehind writeBehind;
+    private BufferedWriter indexWriter;
+
+    ContentStore(ServerConfig config) {
+        this.storageDir = Paths.get(config.getStoragePath());
+        this.blobDir = storageDir.resolve(BLOB_DIR);
+        this.indexFile = storageDir.resolve(INDEX_FILE);
+        this.layout = config.getStorageLayout();
+        for (int i = 0; i < NAME_LOCKS; i++) {
+            nameLocks[i] = new ReentrantLock();
+        }
+        loadIndex();
+        if (layout == StorageLayout.SHARDED) {
+            migrateFlatFiles();
+        }
+        this.writeBehind = config.isWriteBehind()
+            ? new WriteBehind(storageDir, this)
+            : null;
+    }
+
+    /**
+     * Emplacement du fichier publié sous ce nom
+     */
+    Path pathOf(String filename) {
+        return layout.resolve(storageDir, filename);
+    }
+
+    /**
+     * Dernière version publiée sous ce nom (null si inconnue)
+     */
+    StoredFile lookup(String filename) {
+        return isValidName(filename) ? index.get(filename) : null;
+    }
+
+    /**
+     * Dernière version publiée sous ce nom par cet utilisateur : null si le
+     * nom est inconnu ou appartient à un autre utilisateur
+     */
+    StoredFile lookup(String filename, String owner) {
+        StoredFile stored = lookup(filename);
+        return stored != null && owner.equals(stored.owner) ? stored : null;
+    }
+
+    /**
+     * Nom qu'un client peut publier ou demander : un seul composant de
+     * chemin, sans caractère de contrôle (l'index est un fichier texte) et
+     * sans point initial. Les noms en point sont réservés au serveur (.index,
+     * .blobs, .staging, .resume, .upload-*.part...) et ignorés par la
+     * réorganisation du stockage ; ".", ".." et "" sont refusés du même coup.
+     */
+    static boolean isValidName(String filename) {
+        if (filename.isEmpty() || filename.charAt(0) == '.' ||
+                filename.getBytes(StandardCharsets.UTF_8).length > MAX_NAME_BYTES) {
+            return false;
+        }
+        for (int i = 0; i < filename.length(); i++) {
+            char c = filename.charAt(i);
+            if (c < 0x20 || c == 0x7f || c == '/' || c == '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Contenu stocké sous ce hash (null s'il n'est pas enregistré)
+     * Un blob n'est jamais modifié : il peut être lu pendant qu'une autre
+     * version est publiée sous le même nom.
+     */
+    Path blobOf(String hash) {
+        Path blob = blobPath(hash);
+        return blob != null && Files.isRegularFile(blob) ? blob : null;
+    }
+
+    /**
+     * Crée le fichier nommé à partir d'un contenu déjà stocké
+     *
+     * Le hash ne suffit pas : le client doit prouver qu'il possède le
+     * contenu (voir PossessionProof), sans quoi il obtiendrait un fichier
+     * qu'il pourrait ensuite télécharger.
+     *
+     * @param encryptedSize taille chiffrée annoncée, comparée à celle du blob
+     * @param owner         utilisateur qui publie le fichier
+     * @param challenge     défi de la session du client
+     * @param proof         preuve envoyée par le client pour ce contenu
+     * @return true si le contenu était présent et la preuve valide (le
+     *         fichier nommé existe désormais)
+     */
+    boolean linkExisting(String filename, String hash, long encryptedSize, String owner,
+                         byte[] challenge, byte[] proof) {
+        Path blob = blobPath(hash);
+        if (blob == null || !Files.isRegularFile(blob)) {
+            return false;
+        }
+        try {
+            long size = Files.size(blob);
+            if (CryptoUtils.getEncryptedSize(size) != encryptedSize) {
+                return false;
+            }
+            if (!PossessionProof.verify(challenge, blob, size, proof)) {
+                Log.warn("Preuve de possession invalide pour " + filename + " (" + owner + ")");
+                return false;
+            }
+
+            Path target = pathOf(filename);
+            ReentrantLock lock = lockFor(target);
+            lock.lock();
+            try {
+                if (!Files.exists(target) || !Files.isSameFile(target, blob)) {
+                    Path temp = storageDir.resolve(".link-" + System.nanoTime() + "-" +
+                        Thread.currentThread().threadId() + ".part");
+                    try {
+                        linkOrCopy(blob, temp);
+                        moveIntoPlace(temp, target);
+                    } finally {
+                        Files.deleteIfExists(temp);
+                    }
+                }
+                recordName(target.getFileName().toString(), new StoredFile(hash, size, owner,
+                    System.currentTimeMillis()));
+            } finally {
+                lock.unlock();
+            }
+            return true;
+        } catch (IOException e) {
+            Log.warn("Déduplication impossible pour " + filename + ": " +
+                e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Publie un fichier reçu et vérifié, puis enregistre son contenu
+     *
+     * En écriture différée (--write-behind), le fichier est seulement forcé
+     * selon la politique de force() et inscrit au journal de WriteBehind :
+     * il apparaît sous son nom un peu plus tard.
+     */
+    void publish(PartialFile file, long size, String hash, String owner) throws IOException {
+        publishDeferred(file, size, hash, owner);
+        sync();
+    }
+
+    /**
+     * Comme publish, sans attendre que le journal d'écriture différée soit
+     * forcé : l'appelant publie plusieurs fichiers puis appelle sync() une
+     * fois avant d'acquitter (lot de petits fichiers)
+     */
+    void publishDeferred(PartialFile file, long size, String hash, String owner)
+            throws IOException {
+        try {
+            // Hors verrou : force() peut être long
+            file.seal(size);
+        } catch (IOException e) {
+            file.abort();
+            throw e;
+        }
+        if (writeBehind != null) {
+            writeBehind.stage(file, size, hash, owner);
+        } else {
+            materialize(file, size, hash, owner);
+        }
+    }
+
+    /**
+     * Rend durables les publications différées faites jusqu'ici
+     */
+    void sync() throws IOException {
+        if (writeBehind != null) {
+            writeBehind.sync();
+        }
+    }
+
+    /**
+     * Publie sous son nom un fichier déjà forcé (voir publish) et l'enregistre
+     */
+    void materialize(PartialFile file, long size, String hash, String owner) throws IOException {
+        ReentrantLock lock = lockFor(file.getTarget());
+        lock.lock();
+        try {
+            file.publish(size);
+            add(file.getTarget(), new StoredFile(hash, size, owner, System.currentTimeMillis()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Publie un fichier temporaire laissé dans le journal d'écriture différée
+     * par un arrêt du serveur (voir WriteBehind), si son contenu correspond
+     * encore à la taille et au hash inscrits
+     */
+    void recover(Path tempFile, String filename, long size, String hash, String owner)
+            throws IOException {
+        Path target = pathOf(filename);
+        StoredFile stored = new StoredFile(hash, size, owner, System.currentTimeMillis());
+        if (hasContent(tempFile, size, hash)) {
+            moveIntoPlace(tempFile, target);
+            add(target, stored);
+        } else if (hasContent(target, size, hash)) {
+            // Renommé avant l'arrêt, peut-être sans être enregistré
+            Files.deleteIfExists(tempFile);
+            add(target, stored);
+        } else {
+            Files.deleteIfExists(tempFile);
+            throw new IOException("Contenu absent ou différent du hash inscrit");
+        }
+    }
+
+    private static boolean hasContent(Path path, long size, String hash) throws IOException {
+        if (!Files.isRegularFile(path) || Files.size(path) != size) {
+            return false;
+        }
+        try {
+            return hash.equalsIgnoreCase(
+                CryptoUtils.calculateFileHash(path, ProtocolConstants.STREAM_CHUNK_SIZE));
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Vérification du hash impossible", e);
+        }
+    }
+
+    /**
+     * Termine les publications différées en attente
+     */
+    void close() {
+        if (writeBehind != null) {
+            writeBehind.close();
+        }
+        synchronized (this) {
+            if (indexWriter != null) {
+                try {
+                    indexWriter.close();
+                } catch (IOException e) {
+                    Log.warn("Fermeture de l'index du stockage: " + e.getMessage());
+                }
+                indexWriter = null;
+            }
+        }
+    }
+
+    /**
+     * Enregistre un fichier qui vient d'être publié
+     * Si son contenu est déjà stocké, le fichier est remplacé par un lien
+     * vers le blob existant (une seule copie sur disque).
+     */
+    private void add(Path published, StoredFile stored) {
+        Path blob = blobPath(stored.hash);
+        if (blob == null) {
+            return;
+        }
+        try {
+            if (Files.isRegularFile(blob)) {
+                if (!Files.isSameFile(blob, published)) {
+                    Path temp = published.resolveSibling(".link-" + System.nanoTime() +
+                        "-" + Thread.currentThread().threadId() + ".part");
+                    try {
+                        linkOrCopy(blob, temp);
+                        moveIntoPlace(temp, published);
+                    } finally {
+                        Files.deleteIfExists(temp);
+                    }
+                }
+            } else {
+                Files.createDirectories(blob.getParent());
+                try {
+                    linkOrCopy(published, blob);
+                } catch (FileAlreadyExistsException e) {
+                    // même contenu enregistré au même moment par une autre session
+                }
+            }
+            recordName(published.getFileName().toString(), stored);
+        } catch (IOException e) {
+            // La déduplication est une optimisation : le fichier publié reste valide
+            Log.warn("Impossible d'enregistrer le contenu de " + published +
+                ": " + e.getMessage());
+        }
+    }
+
+    private ReentrantLock lockFor(Path target) {
+        return nameLocks[Math.floorMod(target.getFileName().hashCode(), NAME_LOCKS)];
+    }
+
+    private Path blobPath(String hash) {
+        if (hash == null || !SHA256_HEX.matcher(hash).matches()) {
+            return null;
+        }
+        return blobDir.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private void recordName(String filename, StoredFile stored) throws IOException {
+        StoredFile previous = index.put(filename, stored);
+        if (previous != null && previous.hash.equals(stored.hash) &&
+                previous.owner.equals(stored.owner)) {
+            return;
+        }
+        if (!isRecordable(filename) || !isRecordable(stored.owner)) {
+            return;
+        }
+        synchronized (this) {
+            if (indexWriter == null) {
+                Files.createDirectories(storageDir);
+                indexWriter = Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            indexWriter.write(format(filename, stored));
+            indexWriter.flush();
+        }
+    }
+
+    static boolean isRecordable(String field) {
+        return field.indexOf('\n') < 0 && field.indexOf('\t') < 0;
+    }
+
+    /**
+     * Ligne d'index : hash, taille, propriétaire, date (ms) et nom séparés par
+     * des tabulations ; le nom est le dernier champ
+     */
+    private static String format(String filename, StoredFile stored) {
+        return stored.hash + "\t" + stored.size + "\t" + stored.owner + "\t" +
+            stored.publishedAt + "\t" + filename + "\n";
+    }
+
+    private void loadIndex() {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(indexFile, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            Log.warn("Index du stockage illisible: " + e.getMessage());
+            return;
+        }
+        for (String line : lines) {
+            String[] fields = line.split("\t", 5);
+            if (fields.length == 5) {
+                try {
+                    index.put(fields[4], new StoredFile(fields[0], Long.parseLong(fields[1]),
+                        fields[2], Long.parseLong(fields[3])));
+                    continue;
+                } catch (NumberFormatException e) {
+                    // ligne ignorée ci-dessous
+                }
+            }
+            Log.warn("Ligne d'index ignorée: " + line);
+        }
+        if (lines.size() > 2 * index.size() + 1000) {
+            compactIndex();
+        }
+    }
+
+    /**
+     * Réécrit l'index avec une seule ligne par nom (remplacement atomique)
+     */
+    private void compactIndex() {
+        Path temp = storageDir.resolve(INDEX_FILE + ".compact");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (var entry : index.entrySet()) {
+                if (isRecordable(entry.getKey()) && isRecordable(entry.getValue().owner)) {
+                    writer.write(format(entry.getKey(), entry.getValue()));
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("Compactage de l'index impossible: " + e.getMessage());
+            return;
+        }
+        try {
+            moveIntoPlace(temp, indexFile);
+            Log.info("Index du stockage compacté: " + index.size() + " fichiers");
+        } catch (IOException e) {
+            Log.warn("Compactage de l'index impossible: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Passage de l'organisation à plat à l'organisation répartie : les
+     * fichiers nommés restés à la racine sont déplacés dans leur répertoire
+     */
+    private void migrateFlatFiles() {
+        int moved = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(storageDir,
+                path -> isValidName(path.getFileName().toString()) &&
+                    Files.isRegularFile(path))) {
+            for (Path file : files) {
+                moveIntoPlace(file, pathOf(file.getFileName().toString()));
+                moved++;
+            }
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            Log.warn("Réorganisation du stockage interrompue: " + e.getMessage());
+        }
+        if (moved > 0) {
+            Log.info("Stockage réorganisé: " + moved + " fichiers déplacés");
+        }
+    }
+
+    /**
+     * Lien physique, ou copie si le système de fichiers ne le permet pas
+     */
+    private static void linkOrCopy(Path existing, Path link) throws IOException {
+        try {
+            Files.createLink(link, existing);
+        } catch (NoSuchFileException | FileAlreadyExistsException e) {
+            throw e;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            Files.copy(existing, link);
+        }
+    }
+
+    /**
+     * Renommage atomique qui remplace la cible ; le répertoire de la cible
+     * n'est créé que s'il manque (premier fichier d'un répertoire réparti)
+     */
+    static void moveIntoPlace(Path source, Path target) throws IOException {
+        try {
+            move(source, target);
+        } catch (NoSuchFileException e) {
+            if (!Files.exists(source)) {
+                throw e;
+            }
+            Files.createDirectories(target.getParent());
+            move(source, target);
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.CryptoEngine;
+import com.securefiletransfert.common.CryptoUtils;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * Déchiffrement en streaming d'un flux chiffré vers un PartialFile
+ *
+ * Chaque morceau chiffré est déchiffré dans un ByteBuffer direct emprunté au
+ * pool, éventuellement haché, puis écrit à sa position dans le fichier
+ * (sans copie vers un byte[] du tas). Un flux couvre soit le fichier
+ * entier, soit une plage qui commence à baseOffset.
+ *
+ * La mémoire utilisée est bornée par la taille des buffers du pool,
+ * quelle que soit la taille du fichier. Les durées de déchiffrement, de
+ * hachage et d'écriture de chaque morceau sont relevées dans ServerMetrics.
+ */
+class DecryptingWriter {
+
+    // Le déchiffrement retient jusqu'à un bloc entre deux appels à update()
+    private static final int CIPHER_HEADROOM = 32;
+
+    private final PartialFile file;
+    private final long baseOffset;
+    private final BufferPool buffers;
+    private final int chunkSize;
+    private final Cipher cipher;
+    private final MessageDigest digest;
+    private final ServerMetrics metrics;
+    private CryptoEngine engine;
+    private ByteBuffer plainBuffer;
+    private long plainSize = 0;
+    private long limit = Long.MAX_VALUE;
+    private String hash;
+
+    /**
+     * @param key    clé AES de la session qui envoie le flux
+     * @param hashed vrai pour hacher le contenu déchiffré (getHash())
+     */
+    DecryptingWriter(PartialFile file, long baseOffset, BufferPool buffers, SecretKey key,
+                     boolean hashed, ServerMetrics metrics) throws Exception {
+        this(file, baseOffset, buffers, CryptoEngine.acquire(key), hashed, null, metrics);
+    }
+
+    /**
+     * @param digest reçoit le contenu déchiffré au passage ; il contient
+     *               déjà le début du fichier (reprise)
+     */
+    DecryptingWriter(PartialFile file, long baseOffset, BufferPool buffers, SecretKey key,
+                     MessageDigest digest, ServerMetrics metrics) throws Exception {
+        this(file, baseOffset, buffers, CryptoEngine.acquire(key), false, digest, metrics);
+    }
+
+    private DecryptingWriter(PartialFile file, long baseOffset, BufferPool buffers,
+                             CryptoEngine engine, boolean hashed, MessageDigest digest,
+                             ServerMetrics metrics) throws Exception {
+        this.file = file;
+        this.baseOffset = baseOffset;
+        this.buffers = buffers;
+        this.chunkSize = buffers.getBufferSize() - CIPHER_HEADROOM;
+        this.engine = engine;
+        this.cipher = engine.decryptor();
+        this.digest = hashed ? engine.digest() : digest;
+        this.metrics = metrics;
+        this.plainBuffer = buffers.acquire();
+    }
+
+    /**
+     * Pool de buffers directs adapté aux fichiers reçus avec cette configuration
+     */
+    static BufferPool createBufferPool(ServerConfig config, int maxPooled) {
+        return new BufferPool(config.getBufferSize() + CIPHER_HEADROOM, maxPooled);
+    }
+
+    /**
+     * Déchiffre, hache et écrit un morceau de données chiffrées
+     * Le buffer (tas ou direct) est entièrement consommé.
+     */
+    void write(ByteBuffer data) throws Exception {
+        while (data.hasRemaining()) {
+            int n = Math.min(data.remaining(), chunkSize);
+            ByteBuffer chunk = data.slice(data.position(), n);
+            data.position(data.position() + n);
+            plainBuffer.clear();
+            long start = System.nanoTime();
+            cipher.update(chunk, plainBuffer);
+            metrics.record(ServerMetrics.Phase.DECRYPT, start);
+            consume();
+        }
+    }
+
+    /**
+     * Termine le déchiffrement (padding) et calcule le hash
+     * Le buffer et le moteur sont libérés.
+     *
+     * @return nombre d'octets déchiffrés écrits dans le fichier
+     */
+    long finish() throws Exception {
+        try {
+            plainBuffer.clear();
+            cipher.doFinal(ByteBuffer.allocate(0), plainBuffer);
+            consume();
+            if (digest != null) {
+                hash = CryptoUtils.toHex(digest.digest());
+            }
+            return plainSize;
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Hash du contenu déchiffré (après finish(), si le flux est haché)
+     */
+    String getHash() {
+        return hash;
+    }
+
+    /**
+     * Rend le buffer et le moteur à leur pool (abandon du flux)
+     */
+    void release() {
+        if (plainBuffer != null) {
+            buffers.release(plainBuffer);
+            plainBuffer = null;
+        }
+        if (engine != null) {
+            engine.release();
+            engine = null;
+        }
+    }
+
+    long getPlainSize() { return plainSize; }
+
+    /**
+     * Aucun octet n'est écrit au-delà de maxPlainSize (un contenu altéré
+     * peut se déchiffrer en quelques octets de plus que prévu) ; getPlainSize()
+     * compte tout de même l'excédent
+     */
+    void setLimit(long maxPlainSize) {
+        this.limit = maxPlainSize;
+    }
+
+    /**
+     * Hache puis écrit à sa position le contenu déchiffré de plainBuffer
+     */
+    private void consume() throws IOException {
+        plainBuffer.flip();
+        int length = plainBuffer.remaining();
+        if (length == 0) {
+            return;
+        }
+        if (digest != null) {
+            long start = System.nanoTime();
+            digest.update(plainBuffer.duplicate());
+            metrics.record(ServerMetrics.Phase.HASH, start);
+        }
+        if (plainSize + length > limit) {
+            plainBuffer.limit(plainBuffer.position() + (int) Math.max(0, limit - plainSize));
+        }
+        int writable = plainBuffer.remaining();
+        long start = System.nanoTime();
+        file.write(plainBuffer, baseOffset + plainSize);
+        metrics.record(ServerMetrics.Phase.WRITE, start);
+        metrics.addFileBytesWritten(writable);
+        plainSize += length;
+    }
+}
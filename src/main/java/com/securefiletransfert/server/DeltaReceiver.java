@@ -0,0 +1,122 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.ProtocolConstants;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reconstruction d'un fichier à partir d'un flux différentiel chiffré
+ *
+ * Le flux déchiffré est une suite d'instructions (voir ProtocolConstants) :
+ * DELTA_COPY recopie des blocs de la version déjà stockée, DELTA_LITERAL
+ * apporte les octets modifiés. Les instructions peuvent être coupées
+ * n'importe où entre deux trames DATA.
+ */
+class DeltaReceiver extends EncryptedStreamReceiver {
+
+    private static final int COPY_HEADER_SIZE = 9;
+    private static final int LITERAL_HEADER_SIZE = 5;
+
+    private final FileChannel base;
+    private final int blockSize;
+    private final long baseSize;
+    private final ByteBuffer header = ByteBuffer.allocate(COPY_HEADER_SIZE);
+    private final ByteBuffer copyBuffer = ByteBuffer.allocate(ProtocolConstants.STREAM_CHUNK_SIZE);
+    private long literalRemaining = 0;
+
+    /**
+     * @param base         version stockée, ouverte avant le calcul des signatures
+     * @param expectedSize taille en clair annoncée du nouveau fichier
+     * @param expectedHash SHA-256 annoncé du nouveau fichier
+     */
+    DeltaReceiver(PartialFile output, FileChannel base, int blockSize, long baseSize,
+                  long expectedSize, String expectedHash, SecretKey key,
+                  ServerMetrics metrics) throws Exception {
+        super(output, expectedSize, expectedHash, key, metrics);
+        this.base = base;
+        this.blockSize = blockSize;
+        this.baseSize = baseSize;
+    }
+
+    /**
+     * Ferme la version stockée
+     */
+    @Override
+    void close() {
+        super.close();
+        try {
+            base.close();
+        } catch (IOException e) {
+            // lecture seule : rien à perdre
+        }
+    }
+
+    @Override
+    protected boolean isAtBoundary() {
+        return header.position() == 0 && literalRemaining == 0;
+    }
+
+    @Override
+    protected void apply(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            if (literalRemaining > 0) {
+                int n = (int) Math.min(in.remaining(), literalRemaining);
+                ByteBuffer literal = in.slice(in.position(), n);
+                in.position(in.position() + n);
+                literalRemaining -= n;
+                emit(literal);
+                continue;
+            }
+
+            header.put(in.get());
+            byte op = header.get(0);
+            int needed;
+            if (op == ProtocolConstants.DELTA_COPY) {
+                needed = COPY_HEADER_SIZE;
+            } else if (op == ProtocolConstants.DELTA_LITERAL) {
+                needed = LITERAL_HEADER_SIZE;
+            } else {
+                throw new ProtocolException("Instruction différentielle inconnue: " + op);
+            }
+            if (header.position() < needed) {
+                continue;
+            }
+
+            header.flip();
+            header.get();
+            if (op == ProtocolConstants.DELTA_COPY) {
+                copy(header.getInt(), header.getInt());
+            } else {
+                literalRemaining = header.getInt();
+                if (literalRemaining <= 0) {
+                    throw new ProtocolException("Longueur littérale invalide: " + literalRemaining);
+                }
+            }
+            header.clear();
+        }
+    }
+
+    /**
+     * Recopie count blocs de la version stockée à partir du bloc first
+     */
+    private void copy(int first, int count) throws IOException {
+        long start = (long) first * blockSize;
+        long end = Math.min(start + (long) count * blockSize, baseSize);
+        if (first < 0 || count <= 0 || start >= baseSize) {
+            throw new ProtocolException("Blocs invalides: " + first + "+" + count);
+        }
+        for (long position = start; position < end; ) {
+            copyBuffer.clear().limit((int) Math.min(copyBuffer.capacity(), end - position));
+            int n = base.read(copyBuffer, position);
+            if (n < 0) {
+                throw new IOException("Version stockée tronquée");
+            }
+            position += n;
+            emit(copyBuffer.flip());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.MappedInputStream;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Contenu des petits fichiers téléchargés récemment, par hash (LRU)
+ *
+ * Un contenu est désigné par son SHA-256 : une entrée n'est jamais périmée,
+ * republier un nom change seulement le hash que l'index lui associe. Seuls
+ * les fichiers de moins de MAX_ENTRY octets sont gardés (au-delà, la lecture
+ * par projection en mémoire est déjà rapide), dans la limite de maxBytes
+ * au total ; le contenu téléchargé le moins récemment est retiré d'abord.
+ *
+ * Le cache est partagé entre utilisateurs et ne connaît pas les
+ * propriétaires : il n'est consulté qu'avec le hash d'une entrée que la
+ * session a obtenue par ContentStore.lookup(nom, utilisateur), après le
+ * contrôle du propriétaire.
+ */
+class DownloadCache {
+
+    static final long MAX_ENTRY = MappedInputStream.MAP_THRESHOLD;
+
+    private final long maxBytes;
+    // Ordre d'accès : le premier élément est le moins récemment téléchargé
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+
+    /**
+     * @param maxBytes taille totale des contenus gardés, 0 pour désactiver le cache
+     */
+    DownloadCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Vrai si un contenu de cette taille peut être gardé
+     */
+    boolean accepts(long size) {
+        return maxBytes > 0 && size >= 0 && size < MAX_ENTRY && size <= maxBytes;
+    }
+
+    /**
+     * @return le contenu de ce hash, null s'il n'est pas en cache
+     */
+    synchronized byte[] get(String hash) {
+        return entries.get(hash);
+    }
+
+    /**
+     * Garde un contenu qui vient d'être lu, en retirant les moins récents
+     */
+    synchronized void put(String hash, byte[] content) {
+        if (!accepts(content.length)) {
+            return;
+        }
+        byte[] previous = entries.put(hash, content);
+        bytes += content.length - (previous == null ? 0 : previous.length);
+        Iterator<Map.Entry<String, byte[]>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.CryptoEngine;
+import com.securefiletransfert.common.Log;
+import com.securefiletransfert.common.ProtocolConstants;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * Réception d'un flux chiffré de taille inconnue (terminé par DATA_END)
+ * dont le contenu déchiffré est un format à interpréter
+ *
+ * Chaque morceau est déchiffré puis confié à apply(), qui doit accepter un
+ * découpage quelconque entre deux trames DATA. Les sous-classes écrivent
+ * le fichier reconstruit par emit(), qui vérifie la taille annoncée et
+ * calcule le hash au passage. Les durées de chaque étape sont relevées
+ * dans ServerMetrics.
+ *
+ * À la trame DATA_END, le fichier reconstruit est publié si sa taille et
+ * son SHA-256 correspondent à ceux annoncés.
+ */
+abstract class EncryptedStreamReceiver implements Receiver {
+
+    // Le déchiffrement retient jusqu'à un bloc entre deux appels à update()
+    private static final int CIPHER_HEADROOM = 32;
+
+    private final PartialFile output;
+    private final long expectedSize;
+    private final String expectedHash;
+    private final Cipher cipher;
+    private final MessageDigest digest;
+    private final ServerMetrics metrics;
+    private CryptoEngine engine;
+    private String hash;
+    private final ByteBuffer plain = ByteBuffer.allocate(
+        ProtocolConstants.STREAM_CHUNK_SIZE + CIPHER_HEADROOM);
+    private long written = 0;
+
+    /**
+     * @param expectedSize taille en clair annoncée du fichier reconstruit
+     * @param expectedHash SHA-256 annoncé du fichier reconstruit
+     * @param key          clé AES de la session qui envoie le flux
+     */
+    EncryptedStreamReceiver(PartialFile output, long expectedSize, String expectedHash,
+                            SecretKey key, ServerMetrics metrics) throws Exception {
+        this.output = output;
+        this.expectedSize = expectedSize;
+        this.expectedHash = expectedHash;
+        this.engine = CryptoEngine.acquire(key);
+        this.cipher = engine.decryptor();
+        this.digest = engine.digest();
+        this.metrics = metrics;
+    }
+
+    @Override
+    public long getExpectedBytes() {
+        return STREAMED;
+    }
+
+    /**
+     * Déchiffre un morceau du flux et l'interprète
+     */
+    @Override
+    public void write(ByteBuffer data) throws Exception {
+        while (data.hasRemaining()) {
+            int n = Math.min(data.remaining(), ProtocolConstants.STREAM_CHUNK_SIZE);
+            ByteBuffer chunk = data.slice(data.position(), n);
+            data.position(data.position() + n);
+            plain.clear();
+            long start = System.nanoTime();
+            cipher.update(chunk, plain);
+            metrics.record(ServerMetrics.Phase.DECRYPT, start);
+            apply(plain.flip());
+        }
+    }
+
+    /**
+     * Termine le déchiffrement, vérifie que le flux est complet et calcule le hash
+     *
+     * @return taille du fichier reconstruit
+     */
+    long finish() throws Exception {
+        plain.clear();
+        cipher.doFinal(ByteBuffer.allocate(0), plain);
+        apply(plain.flip());
+        if (!isAtBoundary()) {
+            throw new ProtocolException("Flux tronqué");
+        }
+        hash = engine.hexDigest();
+        return written;
+    }
+
+    /**
+     * Taille en clair annoncée du fichier reconstruit
+     */
+    long getExpectedSize() {
+        return expectedSize;
+    }
+
+    /**
+     * Hash du fichier reconstruit (après finish())
+     */
+    String getHash() {
+        return hash;
+    }
+
+    /**
+     * Fin du flux (DATA_END) : reconstruction terminée, vérification
+     */
+    @Override
+    public boolean complete(Completion completion) throws Exception {
+        long plainSize = finish();
+        close();
+        if (plainSize != expectedSize || !hash.equals(expectedHash)) {
+            Log.warn("Hash mismatch! Attendu: " + expectedHash + ", Reçu: " + hash);
+            output.abort();
+            completion.fail("Hash SHA-256 différent");
+            return true;
+        }
+        completion.getStore().publish(output, plainSize, hash, completion.getOwner());
+
+        logCompleted();
+        Log.info("Fichier reconstruit: " + expectedSize + " bytes");
+        Log.info("Fichier sauvegardé: " + output.getTarget());
+        completion.succeed();
+        return true;
+    }
+
+    @Override
+    public void abort() {
+        close();
+        output.abort();
+    }
+
+    /**
+     * Libère le moteur de chiffrement et les ressources propres au format
+     * (le PartialFile reste à la charge de l'appelant)
+     */
+    void close() {
+        if (engine != null) {
+            engine.release();
+            engine = null;
+        }
+    }
+
+    /**
+     * Statistiques propres au format, journalisées à la publication
+     */
+    protected void logCompleted() {
+    }
+
+    /**
+     * Interprète des octets déchiffrés (le buffer est entièrement consommé)
+     */
+    protected abstract void apply(ByteBuffer in) throws IOException;
+
+    /**
+     * Vrai si le flux peut s'arrêter ici (aucun élément entamé)
+     */
+    protected abstract boolean isAtBoundary();
+
+    /**
+     * Ajoute des octets à la fin du fichier reconstruit
+     */
+    protected void emit(ByteBuffer data) throws IOException {
+        if (written + data.remaining() > expectedSize) {
+            throw new ProtocolException("Données au-delà de la taille annoncée");
+        }
+        int n = data.remaining();
+        long start = System.nanoTime();
+        digest.update(data.duplicate());
+        metrics.record(ServerMetrics.Phase.HASH, start);
+        start = System.nanoTime();
+        output.write(data, written);
+        metrics.record(ServerMetrics.Phase.WRITE, start);
+        metrics.addFileBytesWritten(n);
+        written += n;
+    }
+}
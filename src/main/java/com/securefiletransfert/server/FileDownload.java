@@ -0,0 +1,193 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.CryptoEngine;
+import com.securefiletransfert.common.FrameEncoder;
+import com.securefiletransfert.common.Log;
+import com.securefiletransfert.common.MappedInputStream;
+import com.securefiletransfert.common.ProtocolConstants;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+
+/**
+ * Fichier stocké envoyé à un client (GET), trame par trame
+ *
+ * FILE_INFO, les trames DATA et DATA_END forment une seule source : un
+ * téléchargement n'est annoncé qu'une fois le précédent terminé sur la
+ * session. Le fichier n'est ouvert qu'à la première trame demandée, sur le
+ * thread qui produit les trames (celui de la session pour le moteur
+ * bloquant, un worker pour le moteur NIO, voir PrefetchingSource). Chaque
+ * trame DATA est produite à la demande : un morceau de STREAM_CHUNK_SIZE
+ * octets est lu (DownloadCache, ou projection en mémoire au-delà de
+ * MappedInputStream.MAP_THRESHOLD) puis chiffré avec la clé de la session
+ * directement derrière l'en-tête de la trame.
+ *
+ * Le fichier est stocké en clair et chaque session a sa propre clé
+ * (KeyExchange) : aucun octet ne peut partir sans être chiffré, ce qui
+ * exclut un envoi sans copie par FileChannel.transferTo.
+ *
+ * Aucun contrôle d'accès n'est fait ici : la session n'ouvre un
+ * téléchargement que pour une entrée obtenue par
+ * ContentStore.lookup(nom, utilisateur), donc publiée par son utilisateur.
+ */
+class FileDownload implements FrameSource {
+
+    // Numéro du fichier en tête de chaque trame DATA
+    private static final int DATA_HEADER_SIZE = ProtocolConstants.FRAME_HEADER_SIZE + 4;
+    // Un chiffrement AES/PKCS5 ajoute au plus un bloc
+    private static final int PADDING = 16;
+
+    private final ServerContext context;
+    private final int fileId;
+    private final String filename;
+    private final String hash;
+    private final SecretKey key;
+    private final ServerMetrics metrics;
+    private final FrameEncoder encoder = new FrameEncoder();
+    private final long started = System.nanoTime();
+    private long size;
+    private byte[] cached;
+    private InputStream in;
+    private byte[] plain;
+    private byte[] frame;
+    private CryptoEngine engine;
+    private Cipher cipher;
+    private long position = 0;
+    private boolean announced = false;
+    private boolean encrypted = false;
+    private boolean ended = false;
+
+    /**
+     * Envoi de la dernière version publiée sous ce nom (rien n'est lu avant
+     * le premier next())
+     */
+    FileDownload(ServerContext context, int fileId, String filename,
+                 ContentStore.StoredFile stored, SecretKey key) {
+        this.context = context;
+        this.fileId = fileId;
+        this.filename = filename;
+        this.hash = stored.hash;
+        this.key = key;
+        this.metrics = context.getMetrics();
+    }
+
+    /**
+     * FILE_INFO, trames DATA puis DATA_END ; TRANSFER_FAIL si l'ouverture ou
+     * la lecture échoue
+     */
+    @Override
+    public ByteBuffer next() throws IOException {
+        if (ended) {
+            return null;
+        }
+        if (!announced) {
+            announced = true;
+            try {
+                open();
+            } catch (IOException | GeneralSecurityException e) {
+                Log.warn("Impossible d'ouvrir " + filename + ": " + e.getMessage());
+                ended = true;
+                metrics.fileFailed();
+                return encoder.begin(ProtocolConstants.TRANSFER_FAIL)
+                    .putInt(fileId).putString("Fichier indisponible").finish();
+            }
+            return encoder.begin(ProtocolConstants.FILE_INFO)
+                .putInt(fileId).putLong(size).putString(hash).finish();
+        }
+        if (!encrypted) {
+            try {
+                return nextData();
+            } catch (IOException | GeneralSecurityException e) {
+                Log.warn("Envoi interrompu pour " + filename + ": " + e.getMessage());
+                ended = true;
+                metrics.fileFailed();
+                return encoder.begin(ProtocolConstants.TRANSFER_FAIL)
+                    .putInt(fileId).putString("Lecture impossible").finish();
+            }
+        }
+        ended = true;
+        metrics.record(ServerMetrics.Phase.SEND, started);
+        metrics.fileSent();
+        return encoder.begin(ProtocolConstants.DATA_END).putInt(fileId).finish();
+    }
+
+    @Override
+    public void close() {
+        if (engine != null) {
+            engine.release();
+            engine = null;
+            cipher = null;
+        }
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // lecture terminée
+            }
+        }
+    }
+
+    /**
+     * Ouvre le contenu à envoyer
+     *
+     * Le contenu est lu dans son blob quand il existe (il ne change pas si
+     * le nom est republié pendant l'envoi) ; un petit blob passe par le cache.
+     */
+    private void open() throws IOException, GeneralSecurityException {
+        ContentStore store = context.getContentStore();
+        DownloadCache cache = context.getDownloadCache();
+        Path blob = store.blobOf(hash);
+        Path path = blob != null ? blob : store.pathOf(filename);
+        cached = blob != null ? cache.get(hash) : null;
+        if (cached != null) {
+            metrics.downloadCacheHit();
+            size = cached.length;
+        } else {
+            size = Files.size(path);
+            if (blob != null && cache.accepts(size)) {
+                cached = Files.readAllBytes(blob);
+                cache.put(hash, cached);
+            } else {
+                in = MappedInputStream.open(path, 0, size);
+            }
+        }
+        int chunk = (int) Math.min(ProtocolConstants.STREAM_CHUNK_SIZE, size);
+        plain = cached == null ? new byte[chunk] : null;
+        frame = new byte[DATA_HEADER_SIZE + chunk + PADDING];
+        engine = CryptoEngine.acquire(key);
+        cipher = engine.encryptor();
+    }
+
+    /**
+     * Chiffre le morceau suivant derrière l'en-tête ; le dernier inclut le padding
+     */
+    private ByteBuffer nextData() throws IOException, GeneralSecurityException {
+        int n = (int) Math.min(ProtocolConstants.STREAM_CHUNK_SIZE, size - position);
+        int length;
+        if (cached != null) {
+            length = cipher.update(cached, (int) position, n, frame, DATA_HEADER_SIZE);
+        } else {
+            if (in.readNBytes(plain, 0, n) != n) {
+                throw new EOFException("Fichier tronqué pendant la lecture");
+            }
+            length = cipher.update(plain, 0, n, frame, DATA_HEADER_SIZE);
+        }
+        position += n;
+        if (position == size) {
+            length += cipher.doFinal(frame, DATA_HEADER_SIZE + length);
+            encrypted = true;
+        }
+        ByteBuffer data = ByteBuffer.wrap(frame, 0, DATA_HEADER_SIZE + length);
+        data.put(0, ProtocolConstants.DATA);
+        data.putInt(1, 4 + length);
+        data.putInt(ProtocolConstants.FRAME_HEADER_SIZE, fileId);
+        return data;
+    }
+}
@@ -0,0 +1,69 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.Log;
+
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+
+/**
+ * Réception d'un fichier entier chiffré d'un seul flux (METADATA)
+ *
+ * Le contenu est déchiffré et haché au fil des trames DATA ; le fichier
+ * est publié quand la taille chiffrée annoncée est atteinte et que son
+ * SHA-256 correspond.
+ */
+class FileReceiver implements Receiver {
+
+    private final PartialFile file;
+    private final long encryptedSize;
+    private final String hash;
+    private final DecryptingWriter writer;
+
+    /**
+     * @param encryptedSize taille chiffrée annoncée par le client
+     * @param hash          SHA-256 annoncé du contenu en clair
+     */
+    FileReceiver(PartialFile file, long encryptedSize, String hash, BufferPool buffers,
+                 SecretKey key, ServerMetrics metrics) throws Exception {
+        this.file = file;
+        this.encryptedSize = encryptedSize;
+        this.hash = hash;
+        this.writer = new DecryptingWriter(file, 0, buffers, key, true, metrics);
+    }
+
+    @Override
+    public long getExpectedBytes() {
+        return encryptedSize;
+    }
+
+    @Override
+    public void write(ByteBuffer data) throws Exception {
+        writer.write(data);
+    }
+
+    @Override
+    public boolean complete(Completion completion) throws Exception {
+        Log.info("Fichier chiffré reçu: " + encryptedSize + " bytes");
+
+        long plainSize = writer.finish();
+        String receivedHash = writer.getHash();
+        if (!receivedHash.equals(hash)) {
+            Log.warn("Hash mismatch! Attendu: " + hash + ", Reçu: " + receivedHash);
+            file.abort();
+            completion.fail("Hash SHA-256 différent");
+            return true;
+        }
+        completion.getStore().publish(file, plainSize, receivedHash, completion.getOwner());
+
+        Log.info("Fichier déchiffré: " + plainSize + " bytes");
+        Log.info("Fichier sauvegardé: " + file.getTarget());
+        completion.succeed();
+        return true;
+    }
+
+    @Override
+    public void abort() {
+        writer.release();
+        file.abort();
+    }
+}
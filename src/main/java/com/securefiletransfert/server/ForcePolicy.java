@@ -0,0 +1,69 @@
+package com.securefiletransfert.server;
+
+/**
+ * Politique d'appel à FileChannel.force() pendant l'écriture d'un fichier reçu
+ *
+ *   never     : jamais (le système écrit sur disque quand il le décide)
+ *   finish    : une fois, avant de publier le fichier
+ *   every:N   : tous les N Mo écrits, puis avant de publier le fichier
+ *
+ * Compromis entre durabilité en cas de panne et débit d'écriture.
+ */
+public class ForcePolicy {
+
+    public static final ForcePolicy NEVER = new ForcePolicy(false, 0);
+    public static final ForcePolicy ON_FINISH = new ForcePolicy(true, 0);
+
+    private static final long MB = 1024 * 1024;
+
+    private final boolean onFinish;
+    private final long intervalBytes;
+
+    private ForcePolicy(boolean onFinish, long intervalBytes) {
+        this.onFinish = onFinish;
+        this.intervalBytes = intervalBytes;
+    }
+
+    public static ForcePolicy everyMegabytes(long megabytes) {
+        return new ForcePolicy(true, megabytes * MB);
+    }
+
+    /**
+     * @throws IllegalArgumentException si la valeur n'est pas reconnue
+     */
+    public static ForcePolicy parse(String value) {
+        String v = value.trim().toLowerCase();
+        if ("never".equals(v)) {
+            return NEVER;
+        }
+        if ("finish".equals(v)) {
+            return ON_FINISH;
+        }
+        if (v.startsWith("every:")) {
+            long megabytes = Long.parseLong(v.substring("every:".length()));
+            if (megabytes > 0) {
+                return everyMegabytes(megabytes);
+            }
+        }
+        throw new IllegalArgumentException("Politique de force() invalide: " + value);
+    }
+
+    /**
+     * @param unforcedBytes octets écrits depuis le dernier force()
+     */
+    boolean shouldForce(long unforcedBytes) {
+        return intervalBytes > 0 && unforcedBytes >= intervalBytes;
+    }
+
+    boolean forceOnFinish() {
+        return onFinish;
+    }
+
+    @Override
+    public String toString() {
+        if (intervalBytes > 0) {
+            return "every:" + (intervalBytes / MB);
+        }
+        return onFinish ? "finish" : "never";
+    }
+}
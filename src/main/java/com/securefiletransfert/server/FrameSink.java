@@ -0,0 +1,34 @@
+package com.securefiletransfert.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Destination des trames envoyées par une session au client
+ * Chaque moteur fournit son implémentation (flux bloquant ou file d'écriture NIO).
+ */
+interface FrameSink {
+
+    /**
+     * Envoie une trame complète
+     * Le buffer n'est lu que pendant l'appel : l'implémentation le copie si
+     * elle doit différer l'écriture.
+     */
+    void send(ByteBuffer frame) throws IOException;
+
+    /**
+     * Envoie toutes les trames d'une source puis la ferme
+     * Par défaut à la suite, dans l'appel (flux bloquant) ; le moteur NIO
+     * les écrit au fil des OP_WRITE, entre les trames envoyées par send().
+     */
+    default void stream(FrameSource source) throws IOException {
+        try {
+            ByteBuffer frame;
+            while ((frame = source.next()) != null) {
+                send(frame);
+            }
+        } finally {
+            source.close();
+        }
+    }
+}
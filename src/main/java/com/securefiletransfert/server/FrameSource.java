@@ -0,0 +1,25 @@
+package com.securefiletransfert.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Suite de trames produites à la demande (téléchargement, voir FileDownload)
+ *
+ * Le moteur ne demande la trame suivante qu'une fois la précédente écrite :
+ * un client lent ne fait pas accumuler le fichier en mémoire.
+ */
+interface FrameSource {
+
+    /**
+     * Trame suivante, valide jusqu'à l'appel suivant
+     *
+     * @return null quand la suite est terminée
+     */
+    ByteBuffer next() throws IOException;
+
+    /**
+     * Libère les ressources, que la suite soit terminée ou abandonnée
+     */
+    void close();
+}
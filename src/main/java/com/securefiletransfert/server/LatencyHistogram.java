@@ -0,0 +1,76 @@
+package com.securefiletransfert.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogramme de durées à seuils fixes, sans verrou
+ *
+ * Chaque enregistrement incrémente un seul compteur (LongAdder : pas de
+ * contention entre sessions). Les seuils suivent ceux d'un histogramme
+ * Prometheus ; les quantiles sont estimés à partir des seuils.
+ */
+class LatencyHistogram {
+
+    // Bornes supérieures des seaux, en nanosecondes (le dernier seau est +Inf)
+    static final long[] BOUNDS = {
+        10_000L, 50_000L, 100_000L, 500_000L,
+        1_000_000L, 5_000_000L, 10_000_000L, 50_000_000L,
+        100_000_000L, 500_000_000L, 1_000_000_000L, 5_000_000_000L, 10_000_000_000L,
+    };
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long nanos) {
+        int i = 0;
+        while (i < BOUNDS.length && nanos > BOUNDS[i]) {
+            i++;
+        }
+        buckets[i].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Nombres d'enregistrements par seau (non cumulés, le dernier est +Inf)
+     */
+    long[] snapshot() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+     * Borne supérieure du seau contenant le quantile q (en nanosecondes),
+     * 0 sans enregistrement, Long.MAX_VALUE au-delà du dernier seuil
+     */
+    static long quantile(long[] counts, double q) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return BOUNDS[i];
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
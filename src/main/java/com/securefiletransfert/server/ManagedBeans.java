@@ -0,0 +1,45 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.Log;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Enregistrement JMX des objets d'administration d'un serveur
+ * (com.securefiletransfert:type=TYPE,port=N)
+ */
+final class ManagedBeans {
+
+    private ManagedBeans() {}
+
+    /**
+     * @return le nom enregistré, ou null si JMX est indisponible ou le nom déjà pris
+     */
+    static ObjectName register(Object bean, String type, int port) {
+        try {
+            ObjectName name = new ObjectName(
+                "com.securefiletransfert:type=" + type + ",port=" + port);
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                return null;
+            }
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, name);
+            return name;
+        } catch (JMException e) {
+            Log.warn("JMX indisponible pour " + type + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    static void unregister(ObjectName name) {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            // déjà retiré
+        }
+    }
+}
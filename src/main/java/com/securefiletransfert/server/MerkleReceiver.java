@@ -0,0 +1,170 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.CryptoUtils;
+import com.securefiletransfert.common.FrameEncoder;
+import com.securefiletransfert.common.Log;
+import com.securefiletransfert.common.MerkleTree;
+import com.securefiletransfert.common.ProtocolConstants;
+
+import javax.crypto.SecretKey;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Réception d'un fichier vérifié feuille par feuille (arbre de Merkle)
+ *
+ * Chaque feuille est chiffrée indépendamment ; elle est déchiffrée, hachée
+ * et écrite à sa position au fil des trames DATA, puis comparée au hash
+ * annoncé dès qu'elle est complète. Une feuille invalide n'interrompt pas
+ * le transfert : elle est notée, et le client ne renvoie à la fin du tour
+ * que les feuilles listées (RETRANSMIT). Le fichier n'est pas relu.
+ */
+class MerkleReceiver implements Receiver {
+
+    private final PartialFile file;
+    private final MerkleTree tree;
+    private final BufferPool buffers;
+    private final SecretKey key;
+    private final ServerMetrics metrics;
+    private final MessageDigest digest;
+    private final ArrayDeque<Integer> expected = new ArrayDeque<>();
+    private final List<Integer> corrupt = new ArrayList<>();
+    private int rounds = 1;
+
+    private DecryptingWriter leaf;
+    private int leafIndex;
+    private long leafRemaining;
+
+    MerkleReceiver(PartialFile file, MerkleTree tree, BufferPool buffers, SecretKey key,
+                   ServerMetrics metrics) throws Exception {
+        this.file = file;
+        this.tree = tree;
+        this.buffers = buffers;
+        this.key = key;
+        this.metrics = metrics;
+        this.digest = CryptoUtils.createDigest();
+        for (int i = 0; i < tree.getLeafCount(); i++) {
+            expected.add(i);
+        }
+    }
+
+    /**
+     * Taille chiffrée des feuilles attendues dans le tour en cours
+     */
+    @Override
+    public long getExpectedBytes() {
+        long size = 0;
+        for (int index : expected) {
+            size += CryptoUtils.getEncryptedSize(tree.getLeafLength(index));
+        }
+        return size;
+    }
+
+    /**
+     * Déchiffre un morceau du flux ; une feuille complète est vérifiée
+     */
+    @Override
+    public void write(ByteBuffer data) throws Exception {
+        while (data.hasRemaining()) {
+            if (leaf == null) {
+                startLeaf();
+            }
+            int n = (int) Math.min(data.remaining(), leafRemaining);
+            ByteBuffer part = data.slice(data.position(), n);
+            data.position(data.position() + n);
+            leaf.write(part);
+            leafRemaining -= n;
+            if (leafRemaining == 0) {
+                endLeaf();
+            }
+        }
+    }
+
+    /**
+     * Fin d'un tour : les feuilles invalides sont redemandées ; chaque
+     * feuille valide a déjà été vérifiée, le fichier est publié sans être relu
+     */
+    @Override
+    public boolean complete(Completion completion) throws Exception {
+        String filename = file.getTarget().getFileName().toString();
+        if (corrupt.isEmpty()) {
+            completion.getStore().publish(file, tree.getFileSize(), tree.getRootHex(),
+                completion.getOwner());
+            Log.info("Fichier vérifié (" + tree.getLeafCount() + " feuilles): " +
+                tree.getFileSize() + " bytes");
+            Log.info("Fichier sauvegardé: " + file.getTarget());
+            completion.succeed();
+            return true;
+        }
+
+        for (int index : corrupt) {
+            Log.warn("Feuille " + index + " invalide: octets [" + tree.getLeafOffset(index) +
+                ", " + (tree.getLeafOffset(index) + tree.getLeafLength(index)) + "[ de " +
+                filename);
+        }
+        if (rounds >= ProtocolConstants.MAX_TREE_ROUNDS) {
+            abort();
+            completion.fail(corrupt.size() + " feuilles toujours invalides");
+            return true;
+        }
+
+        // Nouveau tour : seules les feuilles invalides sont attendues
+        FrameEncoder retransmit = completion.reply(ProtocolConstants.RETRANSMIT)
+            .putInt(corrupt.size());
+        for (int index : corrupt) {
+            retransmit.putInt(index);
+        }
+        ByteBuffer frame = retransmit.finish();
+        expected.addAll(corrupt);
+        corrupt.clear();
+        rounds++;
+        completion.send(frame);
+        return false;
+    }
+
+    /**
+     * Abandon : libère la feuille en cours et supprime le fichier
+     */
+    @Override
+    public void abort() {
+        if (leaf != null) {
+            leaf.release();
+            leaf = null;
+        }
+        file.abort();
+    }
+
+    private void startLeaf() throws Exception {
+        Integer index = expected.poll();
+        if (index == null) {
+            throw new ProtocolException("Données au-delà des feuilles attendues");
+        }
+        leafIndex = index;
+        leafRemaining = CryptoUtils.getEncryptedSize(tree.getLeafLength(index));
+        MerkleTree.beginLeaf(digest);
+        leaf = new DecryptingWriter(file, tree.getLeafOffset(index), buffers, key, digest,
+            metrics);
+        leaf.setLimit(tree.getLeafLength(index));
+    }
+
+    private void endLeaf() throws Exception {
+        DecryptingWriter done = leaf;
+        leaf = null;
+        boolean valid;
+        try {
+            valid = done.finish() == tree.getLeafLength(leafIndex) &&
+                tree.leafMatches(leafIndex, CryptoUtils.fromHex(done.getHash()));
+        } catch (GeneralSecurityException e) {
+            // Padding invalide : le contenu chiffré de la feuille a été altéré
+            valid = false;
+        }
+        if (!valid) {
+            corrupt.add(leafIndex);
+        }
+    }
+}
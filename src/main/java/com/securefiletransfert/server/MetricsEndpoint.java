@@ -0,0 +1,61 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.Log;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Endpoint HTTP local des métriques au format Prometheus (GET /metrics)
+ *
+ * N'écoute que sur l'interface de bouclage : les métriques ne sont pas
+ * publiées sur le réseau. Un seul thread sert les requêtes, à part des
+ * sessions.
+ */
+class MetricsEndpoint {
+
+    static final String PATH = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+
+    MetricsEndpoint(ServerMetrics metrics, int port) throws IOException {
+        this.server = HttpServer.create(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(PATH, exchange -> respond(exchange, metrics));
+    }
+
+    void start() {
+        server.start();
+        Log.info("Métriques Prometheus: http://" +
+            server.getAddress().getHostString() + ":" + server.getAddress().getPort() + PATH);
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private static void respond(HttpExchange exchange, ServerMetrics metrics) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
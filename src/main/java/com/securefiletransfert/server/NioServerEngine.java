@@ -0,0 +1,473 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.FrameDecoder;
+import com.securefiletransfert.common.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moteur non bloquant : ServerSocketChannel + quelques threads réacteurs,
+ * chacun avec son Selector
+ *
+ * Chaque connexion exécute la même machine à états ServerSession que le
+ * moteur bloquant. Un buffer direct n'est emprunté au pool que le temps
+ * de traiter un événement de lecture : un client lent ou inactif ne
+ * mobilise ni thread ni buffer direct. Une connexion ralentie par les
+ * limites de débit cesse d'être lue (OP_READ retiré) jusqu'à son tour,
+ * de même qu'une session suspendue le temps d'un calcul sur un autre
+ * thread : le signal de fin réveille le réacteur, qui reprend la session
+ * puis les octets déjà lus.
+ * Un téléchargement (FrameSource) est lu et chiffré à l'avance par un
+ * worker (PrefetchingSource) ; le réacteur écrit les trames prêtes au fil
+ * des OP_WRITE, par tranches de MAX_FRAMES_PER_EVENT trames pour ne pas
+ * s'attarder sur une connexion.
+ */
+class NioServerEngine implements ServerEngine {
+
+    private static final int MAX_FRAMES_PER_EVENT = 16;
+
+    private final ServerContext context;
+    private final ServerConfig config;
+    private final BufferPool bufferPool;
+    private final Semaphore slots;
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final Reactor[] reactors;
+    private volatile ServerSocketChannel serverChannel;
+    private volatile boolean running = false;
+
+    NioServerEngine(ServerContext context) {
+        this.context = context;
+        this.config = context.getConfig();
+        this.bufferPool = new BufferPool(config.getBufferSize(), config.getIoThreads() * 4);
+        this.slots = new Semaphore(config.getMaxSessions());
+        this.reactors = new Reactor[config.getIoThreads()];
+    }
+
+    @Override
+    public void serve() throws IOException, InterruptedException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(config.getPort()));
+        running = true;
+
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new Reactor(Selector.open());
+            Thread.ofPlatform().name("nio-reactor-" + i).start(reactors[i]);
+        }
+        Log.info("Moteur NIO: " + reactors.length + " threads réacteurs" +
+            " (max " + config.getMaxSessions() + " sessions simultanées)");
+
+        int next = 0;
+        try {
+            while (running) {
+                // Backpressure : pas d'accept() tant que la limite de sessions est atteinte
+                slots.acquire();
+                SocketChannel channel;
+                try {
+                    channel = serverChannel.accept();
+                } catch (IOException e) {
+                    slots.release();
+                    throw e;
+                }
+                activeSessions.incrementAndGet();
+                reactors[next].register(channel);
+                next = (next + 1) % reactors.length;
+            }
+        } finally {
+            for (Reactor reactor : reactors) {
+                if (reactor != null) {
+                    reactor.shutdown();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            if (serverChannel != null && serverChannel.isOpen()) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            Log.error("Erreur lors de l'arrêt du serveur: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    /**
+     * Boucle d'événements d'un thread réacteur
+     */
+    private final class Reactor implements Runnable {
+
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        // Connexions réveillées par un autre thread : session à reprendre
+        // (voir ServerSession.isSuspended) ou trame de téléchargement prête
+        private final ConcurrentLinkedQueue<Connection> woken = new ConcurrentLinkedQueue<>();
+        // Connexions dont la lecture est suspendue, par heure de reprise
+        private final PriorityQueue<Connection> suspended = new PriorityQueue<>(
+            Comparator.comparingLong((Connection c) -> c.resumeAt));
+        private volatile boolean closed = false;
+
+        Reactor(Selector selector) {
+            this.selector = selector;
+        }
+
+        void register(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        void wake(Connection connection) {
+            woken.add(connection);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            closed = true;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    selector.select(selectTimeout());
+                    registerPending();
+                    runWoken();
+                    resumeDue();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                Log.error("Erreur du réacteur: " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((Connection) key.attachment()).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // arrêt en cours
+                }
+            }
+        }
+
+        /**
+         * Attente de select() : jusqu'à la prochaine reprise (0 : sans limite)
+         */
+        private long selectTimeout() {
+            Connection next = suspended.peek();
+            if (next == null) {
+                return 0;
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(next.resumeAt - System.nanoTime());
+            return Math.max(1, millis + 1);
+        }
+
+        void suspend(Connection connection, long nanos) {
+            if (connection.throttled) {
+                // Repoussée : l'heure de reprise change, sa place dans la file aussi
+                suspended.remove(connection);
+            }
+            connection.resumeAt = System.nanoTime() + nanos;
+            connection.throttled = true;
+            suspended.add(connection);
+        }
+
+        private void resumeDue() {
+            long now = System.nanoTime();
+            while (!suspended.isEmpty() && suspended.peek().resumeAt - now <= 0) {
+                Connection connection = suspended.poll();
+                connection.throttled = false;
+                connection.updateReading();
+            }
+        }
+
+        private void runWoken() {
+            Connection connection;
+            while ((connection = woken.poll()) != null) {
+                try {
+                    connection.onWake();
+                } catch (IOException e) {
+                    Log.error("Erreur lors de la gestion du client: " + e.getMessage());
+                    connection.close();
+                }
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    Connection connection = new Connection(channel, this);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (IOException e) {
+                    Log.warn("Impossible d'enregistrer le client: " + e.getMessage());
+                    closeQuietly(channel);
+                    activeSessions.decrementAndGet();
+                    slots.release();
+                }
+            }
+        }
+
+        private void handle(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isValid() && key.isReadable()) {
+                    connection.onReadable();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.onWritable();
+                }
+            } catch (IOException e) {
+                Log.error("Erreur lors de la gestion du client: " + e.getMessage());
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * État NIO d'une connexion : décodage des trames et réponses en attente d'écriture
+     */
+    private final class Connection implements FrameSink {
+
+        private final SocketChannel channel;
+        private final Reactor reactor;
+        private final String remoteAddress;
+        private final ServerSession session;
+        private final FrameDecoder decoder = new FrameDecoder();
+        private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+        private final ArrayDeque<PrefetchingSource> sources = new ArrayDeque<>();
+        // Trame d'une source en cours d'écriture (valide jusqu'à son poll() suivant)
+        private ByteBuffer streaming;
+        // Octets lus après la suspension de la session, hors du pool de buffers
+        private ByteBuffer stash;
+        private SelectionKey key;
+        private boolean closed = false;
+        private boolean throttled = false;
+        private long resumeAt;
+
+        Connection(SocketChannel channel, Reactor reactor) throws IOException {
+            this.channel = channel;
+            this.reactor = reactor;
+            this.remoteAddress = String.valueOf(channel.getRemoteAddress());
+            this.session = new ServerSession(context, this, () -> reactor.wake(this),
+                remoteAddress);
+            Log.info("Nouveau client connecté: " + remoteAddress);
+        }
+
+        void onReadable() throws IOException {
+            ByteBuffer buffer = bufferPool.acquire();
+            try {
+                if (channel.read(buffer) == -1) {
+                    close();
+                    return;
+                }
+                buffer.flip();
+                decode(buffer);
+                if (buffer.hasRemaining()) {
+                    stash = ByteBuffer.allocate(buffer.remaining());
+                    stash.put(buffer).flip();
+                }
+            } finally {
+                bufferPool.release(buffer);
+            }
+            afterFrames();
+        }
+
+        /**
+         * Fin du calcul d'une session suspendue : exécute la suite puis
+         * reprend les trames déjà lues ; une trame de téléchargement devenue
+         * prête attend OP_WRITE
+         */
+        void onWake() throws IOException {
+            session.resume();
+            if (closed) {
+                return;
+            }
+            if (!sources.isEmpty()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+            if (stash != null) {
+                decode(stash);
+                if (!stash.hasRemaining()) {
+                    stash = null;
+                }
+            }
+            afterFrames();
+        }
+
+        /**
+         * Le décodeur doit voir tout le buffer avant qu'il retourne au pool,
+         * sauf si la session se suspend : le reste est alors gardé de côté
+         */
+        private void decode(ByteBuffer buffer) throws IOException {
+            while (decoder.decode(buffer)) {
+                if (!session.isFinished()) {
+                    session.onFrame(decoder);
+                }
+                if (session.isSuspended()) {
+                    decoder.release();
+                    return;
+                }
+            }
+        }
+
+        private void afterFrames() {
+            long throttle = session.takeThrottleNanos();
+            if (throttle > 0 && !session.isFinished()) {
+                reactor.suspend(this, throttle);
+            }
+            updateReading();
+            closeIfDone();
+        }
+
+        /**
+         * OP_READ seulement hors limite de débit, sans session suspendue ni
+         * octets en attente
+         */
+        void updateReading() {
+            if (!key.isValid()) {
+                return;
+            }
+            if (!throttled && stash == null && !session.isSuspended()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            } else {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+
+        void onWritable() throws IOException {
+            if (!flush()) {
+                return;
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            closeIfDone();
+        }
+
+        /**
+         * Écrit les réponses en attente puis les trames des sources ; les
+         * réponses envoyées pendant un téléchargement passent entre deux trames
+         *
+         * @return true si tout est écrit ou si la source attend son worker,
+         *         false si la socket est pleine ou si la tranche de
+         *         l'événement est épuisée
+         */
+        private boolean flush() throws IOException {
+            int frames = 0;
+            while (true) {
+                if (streaming != null) {
+                    channel.write(streaming);
+                    if (streaming.hasRemaining()) {
+                        return false;
+                    }
+                    streaming = null;
+                }
+                while (!pendingWrites.isEmpty()) {
+                    ByteBuffer head = pendingWrites.peek();
+                    channel.write(head);
+                    if (head.hasRemaining()) {
+                        return false;
+                    }
+                    pendingWrites.poll();
+                }
+                PrefetchingSource source = sources.peek();
+                if (source == null) {
+                    return true;
+                }
+                if (frames++ == MAX_FRAMES_PER_EVENT) {
+                    return false;
+                }
+                streaming = source.poll();
+                if (streaming == null) {
+                    if (!source.isDone()) {
+                        // Réveil par onWake() quand la trame suivante est prête
+                        return true;
+                    }
+                    sources.poll().close();
+                }
+            }
+        }
+
+        @Override
+        public void stream(FrameSource source) {
+            sources.add(new PrefetchingSource(source, context.getWorkers(),
+                () -> reactor.wake(this)));
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+
+        @Override
+        public void send(ByteBuffer frame) throws IOException {
+            if (pendingWrites.isEmpty() && streaming == null) {
+                channel.write(frame);
+                if (!frame.hasRemaining()) {
+                    return;
+                }
+            }
+            ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+            copy.put(frame).flip();
+            pendingWrites.add(copy);
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+
+        private void closeIfDone() {
+            if (session.isFinished() && pendingWrites.isEmpty() && sources.isEmpty()) {
+                close();
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (PrefetchingSource source : sources) {
+                source.close();
+            }
+            sources.clear();
+            streaming = null;
+            session.close();
+            if (key != null) {
+                key.cancel();
+            }
+            closeQuietly(channel);
+            activeSessions.decrementAndGet();
+            slots.release();
+            Log.info("Connexion fermée avec: " + remoteAddress);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // connexion déjà perdue
+        }
+    }
+}
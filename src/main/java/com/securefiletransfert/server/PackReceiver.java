@@ -0,0 +1,270 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.CryptoEngine;
+import com.securefiletransfert.common.CryptoUtils;
+import com.securefiletransfert.common.FrameEncoder;
+import com.securefiletransfert.common.Log;
+import com.securefiletransfert.common.ProtocolConstants;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Réception d'un lot de petits fichiers (PACK_METADATA)
+ *
+ * Le flux chiffré est la concaténation des fichiers dans l'ordre de l'index,
+ * terminée par DATA_END. Il est déchiffré et découpé au fil de l'eau :
+ * chaque fichier est écrit dans son propre PartialFile et haché au passage.
+ * À la fin, les fichiers valides sont d'abord tous forcés sur disque (selon
+ * la politique de force()) puis tous publiés, au lieu d'alterner force() et
+ * renommage fichier par fichier.
+ *
+ * Les fichiers de l'index dont le contenu était déjà présent ont été
+ * enregistrés à la négociation et sont absents du flux ; la réponse
+ * finale (PACK_RESULT) donne le statut de chaque fichier de l'index.
+ */
+class PackReceiver implements Receiver {
+
+    // Le déchiffrement retient jusqu'à un bloc entre deux appels à update()
+    private static final int CIPHER_HEADROOM = 32;
+
+    /**
+     * Fichier annoncé dans l'index du lot
+     */
+    static class Entry {
+        final String filename;
+        final long size;
+        final String hash;
+        private PartialFile file;
+        private String receivedHash;
+
+        Entry(String filename, long size, String hash) {
+            this.filename = filename;
+            this.size = size;
+            this.hash = hash;
+        }
+    }
+
+    private final ServerConfig config;
+    private final List<Entry> index;
+    private final List<Integer> present;
+    private final List<Entry> entries = new ArrayList<>();
+    private final ServerMetrics metrics;
+    private final long started = System.nanoTime();
+    private final MessageDigest digest = CryptoUtils.createDigest();
+    private final ByteBuffer plain = ByteBuffer.allocate(
+        ProtocolConstants.STREAM_CHUNK_SIZE + CIPHER_HEADROOM);
+    private final Cipher cipher;
+    private CryptoEngine engine;
+    private int current = 0;
+    private long written = 0;
+
+    /**
+     * @param index   fichiers annoncés, dans l'ordre
+     * @param present positions dans l'index des fichiers déjà enregistrés,
+     *                absents du flux (par ordre croissant)
+     * @param key     clé AES de la session qui envoie le lot
+     */
+    PackReceiver(ServerConfig config, List<Entry> index, List<Integer> present, SecretKey key,
+                 ServerMetrics metrics) throws Exception {
+        this.config = config;
+        this.index = index;
+        this.present = present;
+        for (int i = 0; i < index.size(); i++) {
+            if (!present.contains(i)) {
+                entries.add(index.get(i));
+            }
+        }
+        this.metrics = metrics;
+        this.engine = CryptoEngine.acquire(key);
+        this.cipher = engine.decryptor();
+    }
+
+    @Override
+    public long getExpectedBytes() {
+        return STREAMED;
+    }
+
+    /**
+     * Déchiffre un morceau du flux et le répartit entre les fichiers
+     */
+    @Override
+    public void write(ByteBuffer data) throws Exception {
+        while (data.hasRemaining()) {
+            int n = Math.min(data.remaining(), ProtocolConstants.STREAM_CHUNK_SIZE);
+            ByteBuffer chunk = data.slice(data.position(), n);
+            data.position(data.position() + n);
+            plain.clear();
+            long start = System.nanoTime();
+            cipher.update(chunk, plain);
+            metrics.record(ServerMetrics.Phase.DECRYPT, start);
+            split(plain.flip());
+        }
+    }
+
+    /**
+     * Fin du lot : chaque fichier est vérifié séparément, un fichier
+     * altéré n'empêche pas la publication des autres
+     */
+    @Override
+    public boolean complete(Completion completion) throws Exception {
+        finish();
+        byte[] stored = publish(completion.getStore(), completion.getOwner());
+
+        byte[] status = new byte[index.size()];
+        int next = 0;
+        int received = 0;
+        for (int i = 0; i < status.length; i++) {
+            if (present.contains(i)) {
+                status[i] = ProtocolConstants.PACK_PRESENT;
+                continue;
+            }
+            status[i] = stored[next++];
+            if (status[i] == ProtocolConstants.PACK_STORED) {
+                metrics.fileReceived();
+                received++;
+            } else {
+                metrics.fileFailed();
+            }
+        }
+        metrics.record(ServerMetrics.Phase.RECEIVE, started);
+        Log.info("Lot reçu: " + received + "/" + stored.length + " fichiers sauvegardés");
+        completion.send(result(completion.reply(ProtocolConstants.PACK_RESULT), status));
+        return true;
+    }
+
+    /**
+     * Trame PACK_RESULT : statut de chaque fichier de l'index
+     */
+    static ByteBuffer result(FrameEncoder reply, byte[] status) {
+        return reply.putInt(status.length).putBytes(status, 0, status.length).finish();
+    }
+
+    /**
+     * Termine le déchiffrement et vérifie que tous les fichiers sont complets
+     */
+    private void finish() throws Exception {
+        plain.clear();
+        cipher.doFinal(ByteBuffer.allocate(0), plain);
+        split(plain.flip());
+        // Les fichiers vides en fin de lot n'ont reçu aucun octet
+        advance();
+        if (current < entries.size()) {
+            throw new ProtocolException("Lot tronqué");
+        }
+        release();
+    }
+
+    /**
+     * Publie les fichiers dont le hash correspond à l'index ; en écriture
+     * différée, une seule validation du journal couvre tout le lot
+     *
+     * @return statut de chaque fichier (PACK_STORED ou PACK_FAILED), dans l'ordre
+     */
+    private byte[] publish(ContentStore store, String owner) throws IOException {
+        byte[] status = new byte[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (!entry.hash.equals(entry.receivedHash)) {
+                Log.warn("Hash mismatch pour " + entry.filename + "! Attendu: " +
+                    entry.hash + ", Reçu: " + entry.receivedHash);
+                entry.file.abort();
+                status[i] = ProtocolConstants.PACK_FAILED;
+                continue;
+            }
+            try {
+                entry.file.seal(entry.size);
+            } catch (IOException e) {
+                Log.error("Erreur lors de l'écriture de " + entry.filename + ": " +
+                    e.getMessage());
+                entry.file.abort();
+                status[i] = ProtocolConstants.PACK_FAILED;
+            }
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            if (status[i] != ProtocolConstants.PACK_STORED) {
+                continue;
+            }
+            Entry entry = entries.get(i);
+            try {
+                store.publishDeferred(entry.file, entry.size, entry.receivedHash, owner);
+            } catch (IOException e) {
+                Log.error("Erreur lors de la publication de " + entry.filename + ": " +
+                    e.getMessage());
+                status[i] = ProtocolConstants.PACK_FAILED;
+            }
+        }
+        store.sync();
+        return status;
+    }
+
+    /**
+     * Abandonne le lot : les fichiers temporaires sont supprimés
+     */
+    @Override
+    public void abort() {
+        for (Entry entry : entries) {
+            if (entry.file != null) {
+                entry.file.abort();
+            }
+        }
+        release();
+    }
+
+    private void release() {
+        if (engine != null) {
+            engine.release();
+            engine = null;
+        }
+    }
+
+    /**
+     * Écrit les octets déchiffrés dans le ou les fichiers qu'ils couvrent
+     */
+    private void split(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            advance();
+            if (current == entries.size()) {
+                throw new ProtocolException("Données au-delà de la taille annoncée");
+            }
+            Entry entry = entries.get(current);
+            int n = (int) Math.min(in.remaining(), entry.size - written);
+            ByteBuffer part = in.slice(in.position(), n);
+            in.position(in.position() + n);
+
+            long start = System.nanoTime();
+            digest.update(part.duplicate());
+            metrics.record(ServerMetrics.Phase.HASH, start);
+            start = System.nanoTime();
+            entry.file.write(part, written);
+            metrics.record(ServerMetrics.Phase.WRITE, start);
+            metrics.addFileBytesWritten(n);
+            written += n;
+        }
+    }
+
+    /**
+     * Passe au fichier suivant quand le fichier en cours est complet ;
+     * le fichier en cours est ouvert à son premier octet
+     */
+    private void advance() throws IOException {
+        while (current < entries.size()) {
+            Entry entry = entries.get(current);
+            if (entry.file == null) {
+                entry.file = new PartialFile(config, entry.filename, 0);
+            }
+            if (written < entry.size) {
+                return;
+            }
+            entry.receivedHash = CryptoUtils.toHex(digest.digest());
+            current++;
+            written = 0;
+        }
+    }
+}
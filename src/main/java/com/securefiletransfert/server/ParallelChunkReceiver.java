@@ -0,0 +1,301 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.ChunkCipher;
+import com.securefiletransfert.common.CryptoUtils;
+import com.securefiletransfert.common.Log;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Réception d'un fichier chiffré en morceaux AES-GCM indépendants
+ *
+ * Chaque trame DATA contient exactement un morceau. Le thread de la session
+ * le copie dans un buffer du pool et confie son déchiffrement au
+ * ForkJoinPool du serveur : les morceaux d'un même fichier sont
+ * authentifiés, déchiffrés et écrits à leur position en parallèle.
+ *
+ * Le SHA-256 global doit voir le contenu dans l'ordre : les morceaux
+ * déchiffrés en avance attendent leur tour, et un seul thread à la fois
+ * les hache. Le nombre de morceaux en cours (reçus mais pas encore hachés)
+ * est borné : la fenêtre pleine, la session est suspendue (whenReady) et
+ * le moteur cesse de lire la connexion au lieu d'accumuler des buffers.
+ * De même après le dernier morceau, jusqu'à ce que tous soient hachés :
+ * complete() n'attend alors plus les threads du pool.
+ *
+ * Un morceau qui ne s'authentifie pas fait échouer le transfert à la
+ * trame suivante, sans attendre la fin du fichier. Les durées relevées dans
+ * ServerMetrics sont celles de chaque thread du pool (elles se recouvrent).
+ */
+class ParallelChunkReceiver implements Receiver {
+
+    private final PartialFile file;
+    private final long size;
+    private final String hash;
+    private final int chunkSize;
+    private final long chunkCount;
+    private final ChunkCipher cipher;
+    private final ForkJoinPool pool;
+    private final BufferPool buffers;
+    private final MessageDigest digest;
+    private final ServerMetrics metrics;
+    private final int windowSize;
+
+    // Thread de la session
+    private final ArrayDeque<ForkJoinTask<?>> tasks = new ArrayDeque<>();
+
+    // Partagé avec les threads du pool (sous le verrou de this)
+    private long nextChunk = 0;
+    private final Map<Long, ByteBuffer> unhashed = new HashMap<>();
+    private long nextToHash = 0;
+    private boolean hashing = false;
+    // Morceaux reçus pas encore hachés, et signal attendu par la session
+    private int inFlight = 0;
+    private CompletableFuture<Void> windowOpen;
+    private volatile Exception failure;
+
+    /**
+     * @param hash    SHA-256 annoncé du fichier en clair
+     * @param buffers buffers d'au moins chunkSize + TAG_SIZE octets
+     */
+    ParallelChunkReceiver(PartialFile file, long size, String hash, int chunkSize,
+                          ChunkCipher cipher, ForkJoinPool pool, BufferPool buffers,
+                          ServerMetrics metrics) throws Exception {
+        this.file = file;
+        this.size = size;
+        this.hash = hash;
+        this.chunkSize = chunkSize;
+        this.chunkCount = ChunkCipher.chunkCount(size, chunkSize);
+        this.cipher = cipher;
+        this.pool = pool;
+        this.buffers = buffers;
+        this.digest = CryptoUtils.createDigest();
+        this.metrics = metrics;
+        this.windowSize = 2 * pool.getParallelism() + 2;
+    }
+
+    /**
+     * Taille totale des trames DATA attendues (contenu + un tag par morceau)
+     */
+    static long getEncryptedSize(long size, int chunkSize) {
+        return size + ChunkCipher.chunkCount(size, chunkSize) * ChunkCipher.TAG_SIZE;
+    }
+
+    @Override
+    public long getExpectedBytes() {
+        return getEncryptedSize(size, chunkSize);
+    }
+
+    /**
+     * Confie un morceau au pool
+     *
+     * @throws IOException si un morceau précédent n'a pas pu être authentifié ou écrit
+     */
+    @Override
+    public void write(ByteBuffer data) throws Exception {
+        checkFailure();
+        if (nextChunk >= chunkCount) {
+            throw new ProtocolException("Morceau au-delà de la taille annoncée");
+        }
+        long index = nextChunk;
+        int plainLength = (int) Math.min(chunkSize, size - index * chunkSize);
+        if (data.remaining() != plainLength + ChunkCipher.TAG_SIZE) {
+            throw new ProtocolException("Morceau " + index + " de taille incorrecte: " +
+                data.remaining());
+        }
+
+        // La session ne confie pas de morceau quand la fenêtre est pleine (whenReady)
+        synchronized (this) {
+            nextChunk++;
+            inFlight++;
+        }
+        ByteBuffer encrypted = buffers.acquire();
+        encrypted.put(data).flip();
+        tasks.add(pool.submit(() -> decrypt(index, encrypted)));
+        while (!tasks.isEmpty() && tasks.peek().isDone()) {
+            tasks.poll();
+        }
+    }
+
+    /**
+     * Fenêtre pleine, ou dernier morceau reçu alors que d'autres sont en
+     * cours : signal levé quand un morceau (respectivement le dernier) est haché
+     */
+    @Override
+    public CompletableFuture<Void> whenReady() {
+        synchronized (this) {
+            if (inFlight < windowSize && (nextChunk < chunkCount || inFlight == 0)) {
+                return null;
+            }
+            if (windowOpen == null) {
+                windowOpen = new CompletableFuture<>();
+            }
+            return windowOpen;
+        }
+    }
+
+    /**
+     * Attend les derniers morceaux
+     *
+     * @return SHA-256 du fichier reçu
+     */
+    private String finish() throws Exception {
+        awaitTasks();
+        checkFailure();
+        if (nextToHash != chunkCount) {
+            throw new ProtocolException("Morceaux manquants: " + nextToHash + "/" + chunkCount);
+        }
+        return CryptoUtils.toHex(digest.digest());
+    }
+
+    /**
+     * Fin du transfert : chaque morceau a déjà été authentifié, le hash
+     * global vérifie le fichier annoncé
+     */
+    @Override
+    public boolean complete(Completion completion) throws Exception {
+        String receivedHash = finish();
+        if (!receivedHash.equals(hash)) {
+            Log.warn("Hash mismatch! Attendu: " + hash + ", Reçu: " + receivedHash);
+            file.abort();
+            completion.fail("Hash SHA-256 différent");
+            return true;
+        }
+        completion.getStore().publish(file, size, receivedHash, completion.getOwner());
+
+        Log.info("Fichier déchiffré: " + size + " bytes");
+        Log.info("Fichier sauvegardé: " + file.getTarget());
+        completion.succeed();
+        return true;
+    }
+
+    /**
+     * Abandon : attend les morceaux en cours (ils écrivent encore dans le
+     * fichier) puis supprime le fichier
+     */
+    @Override
+    public void abort() {
+        fail(new IOException("Transfert abandonné"));
+        awaitTasks();
+        file.abort();
+    }
+
+    private void decrypt(long index, ByteBuffer encrypted) {
+        ByteBuffer plain = null;
+        try {
+            if (failure != null) {
+                releaseWindow(1);
+                return;
+            }
+            plain = buffers.acquire();
+            long start = System.nanoTime();
+            cipher.decrypt(index, encrypted, plain);
+            metrics.record(ServerMetrics.Phase.DECRYPT, start);
+            plain.flip();
+            start = System.nanoTime();
+            file.write(plain.duplicate(), index * chunkSize);
+            metrics.record(ServerMetrics.Phase.WRITE, start);
+            metrics.addFileBytesWritten(plain.remaining());
+            hashInOrder(index, plain);
+        } catch (Exception e) {
+            if (plain != null) {
+                buffers.release(plain);
+            }
+            releaseWindow(1);
+            fail(new IOException("Morceau " + index + " rejeté: " + e, e));
+        } finally {
+            buffers.release(encrypted);
+        }
+    }
+
+    /**
+     * Hache les morceaux dans l'ordre ; le thread qui trouve le hash libre
+     * traite aussi les morceaux arrivés entre-temps
+     */
+    private void hashInOrder(long index, ByteBuffer plain) {
+        synchronized (this) {
+            if (failure != null) {
+                buffers.release(plain);
+                releaseWindow(1);
+                return;
+            }
+            unhashed.put(index, plain);
+            if (hashing) {
+                return;
+            }
+            hashing = true;
+        }
+        while (true) {
+            ByteBuffer next;
+            synchronized (this) {
+                next = failure == null ? unhashed.remove(nextToHash) : null;
+                if (next == null) {
+                    hashing = false;
+                    return;
+                }
+            }
+            long start = System.nanoTime();
+            digest.update(next);
+            metrics.record(ServerMetrics.Phase.HASH, start);
+            buffers.release(next);
+            synchronized (this) {
+                nextToHash++;
+            }
+            releaseWindow(1);
+        }
+    }
+
+    private void releaseWindow(int chunks) {
+        CompletableFuture<Void> open;
+        synchronized (this) {
+            inFlight -= chunks;
+            if (inFlight >= windowSize || (nextChunk == chunkCount && inFlight > 0)) {
+                return;
+            }
+            open = windowOpen;
+            windowOpen = null;
+        }
+        if (open != null) {
+            open.complete(null);
+        }
+    }
+
+    private void fail(Exception e) {
+        int dropped;
+        synchronized (this) {
+            if (failure != null) {
+                return;
+            }
+            failure = e;
+            // Les morceaux en attente de hash ne le seront jamais
+            for (ByteBuffer buffer : unhashed.values()) {
+                buffers.release(buffer);
+            }
+            dropped = unhashed.size();
+            unhashed.clear();
+        }
+        releaseWindow(dropped);
+    }
+
+    private void checkFailure() throws IOException {
+        Exception e = failure;
+        if (e != null) {
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    private void awaitTasks() {
+        for (ForkJoinTask<?> task : tasks) {
+            task.quietlyJoin();
+        }
+        tasks.clear();
+    }
+}
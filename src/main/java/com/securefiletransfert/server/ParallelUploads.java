@@ -0,0 +1,211 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.Log;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registre des fichiers reçus en plusieurs plages sur des connexions parallèles
+ *
+ * Chaque connexion envoie une plage du fichier (chiffrée indépendamment) ;
+ * toutes écrivent dans le même PartialFile à leur position. Quand les
+ * plages couvrent tout le fichier, la session qui termine la dernière
+ * vérifie le SHA-256 global et publie le fichier. Les plages d'un même
+ * fichier ne se chevauchent pas ; un assemblage incomplet sans plage en
+ * cours pendant IDLE_TIMEOUT_MILLIS (client arrêté entre deux plages) est
+ * abandonné avec son fichier temporaire.
+ */
+class ParallelUploads {
+
+    static final long IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+    private final ConcurrentHashMap<String, Assembly> assemblies = new ConcurrentHashMap<>();
+    private final ContentStore contentStore;
+    private final long idleTimeoutMillis;
+
+    ParallelUploads(ContentStore contentStore) {
+        this(contentStore, IDLE_TIMEOUT_MILLIS);
+    }
+
+    ParallelUploads(ContentStore contentStore, long idleTimeoutMillis) {
+        this.contentStore = contentStore;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Nombre d'assemblages en cours (fichiers temporaires ouverts)
+     */
+    int size() {
+        return assemblies.size();
+    }
+
+    /**
+     * Rejoint (ou crée) l'assemblage d'un transfert parallèle
+     *
+     * @param key   identifiant unique du transfert (utilisateur + identifiant client)
+     * @param owner utilisateur qui publiera le fichier
+     * @throws IOException si les métadonnées ne correspondent pas à l'assemblage existant
+     */
+    Assembly join(String key, String owner, ServerConfig config, String filename,
+                  long totalSize, String hash) throws IOException {
+        Assembly assembly;
+        try {
+            assembly = assemblies.computeIfAbsent(key, k -> {
+                try {
+                    return new Assembly(k, owner, new PartialFile(config, filename, totalSize),
+                        filename, totalSize, hash);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        } catch (IllegalStateException e) {
+            throw new IOException("Stockage indisponible", e.getCause());
+        }
+        if (!assembly.matches(filename, totalSize, hash)) {
+            throw new IOException("Métadonnées différentes pour le transfert " + key);
+        }
+        return assembly;
+    }
+
+    /**
+     * Un fichier en cours d'assemblage
+     */
+    class Assembly {
+        private final String key;
+        private final String owner;
+        private final PartialFile file;
+        private final String filename;
+        private final long totalSize;
+        private final String hash;
+        private final RangeSet claimed = new RangeSet();
+        private final RangeSet received = new RangeSet();
+        private int activeRanges = 0;
+        // Incrémenté à chaque plage commencée : invalide l'expiration prévue
+        private long generation = 0;
+        private boolean failed = false;
+        private boolean done = false;
+
+        Assembly(String key, String owner, PartialFile file, String filename, long totalSize,
+                 String hash) {
+            this.key = key;
+            this.owner = owner;
+            this.file = file;
+            this.filename = filename;
+            this.totalSize = totalSize;
+            this.hash = hash;
+        }
+
+        PartialFile getFile() { return file; }
+        String getFilename() { return filename; }
+
+        /**
+         * Déclare une plage en cours de réception
+         *
+         * @return false si l'assemblage a déjà échoué ou est terminé, ou si
+         *         la plage sort du fichier ou chevauche une plage déjà
+         *         déclarée (l'assemblage est alors abandonné)
+         */
+        synchronized boolean beginRange(long offset, long length) {
+            if (failed || done) {
+                return false;
+            }
+            if (offset < 0 || length <= 0 || offset + length > totalSize ||
+                    claimed.intersects(offset, offset + length)) {
+                failed = true;
+                release();
+                return false;
+            }
+            claimed.add(offset, offset + length);
+            activeRanges++;
+            generation++;
+            return true;
+        }
+
+        /**
+         * Enregistre une plage reçue ; quand les plages couvrent le fichier,
+         * la dernière session à terminer vérifie le hash global et le publie
+         *
+         * @return true si la plage est acceptée (et le fichier valide s'il est complet)
+         */
+        boolean completeRange(long offset, long length) throws Exception {
+            synchronized (this) {
+                activeRanges--;
+                if (failed) {
+                    release();
+                    return false;
+                }
+                received.add(offset, offset + length);
+                if (activeRanges > 0) {
+                    return true;
+                }
+                if (!received.covers(0, totalSize)) {
+                    scheduleExpiry(generation);
+                    return true;
+                }
+                done = true;
+            }
+
+            // Plus aucune écriture en cours : vérification du fichier assemblé
+            assemblies.remove(key);
+            try {
+                String receivedHash = file.hash(totalSize);
+                if (!receivedHash.equals(hash)) {
+                    Log.warn("Hash mismatch! Attendu: " + hash +
+                        ", Reçu: " + receivedHash);
+                    file.abort();
+                    return false;
+                }
+                contentStore.publish(file, totalSize, hash, owner);
+                return true;
+            } catch (Exception e) {
+                file.abort();
+                throw e;
+            }
+        }
+
+        /**
+         * Une plage a échoué : le fichier entier est abandonné
+         */
+        synchronized void failRange() {
+            if (done) {
+                return;
+            }
+            activeRanges--;
+            failed = true;
+            release();
+        }
+
+        boolean matches(String filename, long totalSize, String hash) {
+            return this.filename.equals(filename) && this.totalSize == totalSize &&
+                this.hash.equals(hash);
+        }
+
+        /**
+         * Abandonne l'assemblage si aucune nouvelle plage ne commence dans
+         * les idleTimeoutMillis qui suivent
+         */
+        private void scheduleExpiry(long idleGeneration) {
+            CompletableFuture.delayedExecutor(idleTimeoutMillis, TimeUnit.MILLISECONDS)
+                .execute(() -> {
+                    synchronized (this) {
+                        if (generation == idleGeneration && activeRanges == 0 && !done) {
+                            Log.warn("Transfert parallèle incomplet abandonné: " + filename);
+                            failed = true;
+                            release();
+                        }
+                    }
+                });
+        }
+
+        private void release() {
+            if (activeRanges == 0 && !done) {
+                done = true;
+                assemblies.remove(key);
+                file.abort();
+            }
+        }
+    }
+}
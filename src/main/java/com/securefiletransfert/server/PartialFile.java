@@ -0,0 +1,217 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.CryptoUtils;
+import com.securefiletransfert.common.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fichier temporaire en cours de réception dans le répertoire de stockage
+ *
+ * Les écritures se font à une position donnée (FileChannel), ce qui permet
+ * à plusieurs connexions d'écrire chacune sa plage du même fichier. Le
+ * fichier final n'apparaît qu'à la publication (renommage atomique).
+ */
+class PartialFile {
+
+    private static final String TEMP_SUFFIX = ".part";
+    private static final int HASH_BUFFER_SIZE = 256 * 1024;
+
+    private final Path target;
+    private final Path tempFile;
+    private final FileChannel channel;
+    private final ForcePolicy forcePolicy;
+    private final AtomicLong unforcedBytes = new AtomicLong();
+    private volatile boolean closed = false;
+    private boolean sealed = false;
+
+    /**
+     * @param sizeHint taille maximale attendue : le fichier est étendu à cette
+     *                 taille dès l'ouverture, sans réserver de blocs (fichier
+     *                 creux) ; la taille exacte est fixée à la publication
+     * @throws IOException si sizeHint dépasse l'espace libre du stockage
+     */
+    PartialFile(ServerConfig config, String filename, long sizeHint) throws IOException {
+        this(config, filename, createTempFile(config));
+        if (sizeHint > 0) {
+            try {
+                // La taille vient du client : pas de fichier creux plus grand que le disque
+                if (sizeHint > Files.getFileStore(tempFile).getUsableSpace()) {
+                    throw new IOException("Espace disque insuffisant pour " + sizeHint +
+                        " octets");
+                }
+                channel.write(ByteBuffer.allocate(1), sizeHint - 1);
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Ouvre (ou crée) un fichier temporaire existant sans modifier son contenu
+     * (reprise d'un transfert interrompu)
+     */
+    PartialFile(ServerConfig config, String filename, Path tempFile) throws IOException {
+        // Seul le nom est conservé : le fichier reste dans le répertoire de stockage
+        this.target = config.getStorageLayout().resolve(Paths.get(config.getStoragePath()),
+            filename);
+        this.tempFile = tempFile;
+        this.forcePolicy = config.getForcePolicy();
+        this.channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static Path createTempFile(ServerConfig config) throws IOException {
+        Path storageDir = Paths.get(config.getStoragePath());
+        try {
+            return Files.createTempFile(storageDir, ".upload-", TEMP_SUFFIX);
+        } catch (NoSuchFileException e) {
+            // Premier fichier reçu : le répertoire n'est vérifié qu'en cas d'échec
+            Files.createDirectories(storageDir);
+            return Files.createTempFile(storageDir, ".upload-", TEMP_SUFFIX);
+        }
+    }
+
+    /**
+     * Écrit tout le contenu du buffer à la position donnée
+     * Peut être appelé simultanément par plusieurs threads sur des plages disjointes.
+     */
+    void write(ByteBuffer data, long position) throws IOException {
+        int length = data.remaining();
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+        if (forcePolicy.shouldForce(unforcedBytes.addAndGet(length))) {
+            unforcedBytes.set(0);
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Relit les size premiers octets et calcule leur SHA-256
+     * (vérification d'un fichier reçu en plusieurs plages)
+     */
+    String hash(long size) throws Exception {
+        return hash(0, size);
+    }
+
+    /**
+     * SHA-256 de la plage [start, end[ relue depuis le fichier
+     */
+    String hash(long start, long end) throws Exception {
+        MessageDigest digest = CryptoUtils.createDigest();
+        digest(start, end, digest);
+        return CryptoUtils.toHex(digest.digest());
+    }
+
+    /**
+     * Relit la plage [start, end[ et la transmet à chacun des digests
+     */
+    void digest(long start, long end, MessageDigest... digests) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+        long position = start;
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Fichier temporaire tronqué");
+            }
+            buffer.flip();
+            for (MessageDigest digest : digests) {
+                digest.update(buffer.duplicate());
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * Force l'écriture sur disque de tout ce qui a été écrit
+     */
+    void force() throws IOException {
+        channel.force(false);
+        unforcedBytes.set(0);
+    }
+
+    /**
+     * Fixe la taille finale et force l'écriture sur disque si la politique
+     * le demande, sans publier : un lot de fichiers est ainsi forcé en une
+     * passe avant les renommages (voir PackReceiver) ; sans effet la seconde fois
+     */
+    void seal(long size) throws IOException {
+        if (sealed) {
+            return;
+        }
+        channel.truncate(size);
+        if (forcePolicy.forceOnFinish()) {
+            channel.force(false);
+        }
+        sealed = true;
+    }
+
+    /**
+     * Fixe la taille finale et publie le fichier sous son nom définitif
+     */
+    void publish(long size) throws IOException {
+        try {
+            seal(size);
+            close();
+            moveIntoPlace();
+        } catch (IOException e) {
+            abort();
+            throw e;
+        }
+    }
+
+    /**
+     * Abandonne la réception et supprime le fichier temporaire
+     */
+    void abort() {
+        try {
+            close();
+        } catch (IOException e) {
+            // le fichier temporaire est supprimé quoi qu'il arrive
+        }
+        try {
+            Files.deleteIfExists(tempFile);
+        } catch (IOException e) {
+            Log.warn("Impossible de supprimer " + tempFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ferme le fichier sans le supprimer (transfert interrompu, reprise possible)
+     */
+    void suspend() {
+        try {
+            close();
+        } catch (IOException e) {
+            Log.error("Erreur lors de la fermeture de " + tempFile + ": " +
+                e.getMessage());
+        }
+    }
+
+    Path getTarget() { return target; }
+
+    Path getTempFile() { return tempFile; }
+
+    private void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    private void moveIntoPlace() throws IOException {
+        ContentStore.moveIntoPlace(tempFile, target);
+    }
+}
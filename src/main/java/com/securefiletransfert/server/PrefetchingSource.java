@@ -0,0 +1,162 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Trames d'une FrameSource produites à l'avance sur un worker (moteur NIO)
+ *
+ * Lire le disque et chiffrer un téléchargement (voir FileDownload) ne se
+ * fait pas sur le thread réacteur : un worker appelle next() et garde une
+ * copie des trames, au plus DEPTH d'avance. Le réacteur ne fait que prendre
+ * les trames prêtes (poll) ; quand aucune ne l'est, le signal onReady le
+ * prévient de la suivante. Les buffers des trames écrites sont réutilisés.
+ *
+ * La source n'est jamais appelée par deux threads à la fois : elle est
+ * fermée par le worker s'il est en train de produire une trame.
+ */
+class PrefetchingSource {
+
+    private static final int DEPTH = 4;
+
+    private final FrameSource source;
+    private final Executor workers;
+    private final Runnable onReady;
+
+    // Sous le verrou de this
+    private final ArrayDeque<ByteBuffer> ready = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private ByteBuffer current;
+    private IOException failure;
+    private boolean filling = false;
+    private boolean exhausted = false;
+    private boolean waiting = false;
+    private boolean closed = false;
+
+    /**
+     * @param onReady appelé depuis un worker quand une trame devient prête
+     *                après un poll() qui n'en a pas trouvé
+     */
+    PrefetchingSource(FrameSource source, Executor workers, Runnable onReady) {
+        this.source = source;
+        this.workers = workers;
+        this.onReady = onReady;
+    }
+
+    /**
+     * Trame prête suivante, valide jusqu'à l'appel suivant
+     *
+     * @return null si aucune trame n'est prête (onReady sera appelé) ou si
+     *         la source est terminée (isDone)
+     * @throws IOException si la source a échoué
+     */
+    synchronized ByteBuffer poll() throws IOException {
+        if (current != null) {
+            free.add(current);
+        }
+        current = ready.poll();
+        if (current == null && failure != null) {
+            throw failure;
+        }
+        waiting = current == null && !exhausted;
+        prefetch();
+        return current;
+    }
+
+    /**
+     * Vrai quand toutes les trames de la source ont été prises
+     */
+    synchronized boolean isDone() {
+        return exhausted && ready.isEmpty() && failure == null;
+    }
+
+    synchronized void close() {
+        closed = true;
+        ready.clear();
+        free.clear();
+        current = null;
+        if (!filling) {
+            source.close();
+        }
+    }
+
+    private void prefetch() {
+        if (filling || exhausted || closed || ready.size() >= DEPTH) {
+            return;
+        }
+        filling = true;
+        try {
+            workers.execute(this::fill);
+        } catch (RejectedExecutionException e) {
+            filling = false;
+            failure = new IOException("Serveur en cours d'arrêt", e);
+        }
+    }
+
+    private void fill() {
+        while (true) {
+            synchronized (this) {
+                if (closed || ready.size() >= DEPTH) {
+                    filling = false;
+                    if (closed) {
+                        source.close();
+                    }
+                    return;
+                }
+            }
+            ByteBuffer frame;
+            IOException error = null;
+            try {
+                frame = source.next();
+            } catch (IOException e) {
+                Log.warn("Préparation d'un envoi interrompue: " + e.getMessage());
+                frame = null;
+                error = e;
+            }
+            boolean notify;
+            synchronized (this) {
+                if (error != null) {
+                    failure = error;
+                    exhausted = true;
+                } else if (frame == null) {
+                    exhausted = true;
+                } else if (!closed) {
+                    ready.add(copy(frame));
+                }
+                notify = waiting;
+                waiting = false;
+                if (exhausted) {
+                    filling = false;
+                    if (closed) {
+                        source.close();
+                    }
+                }
+            }
+            if (notify) {
+                onReady.run();
+            }
+            if (error != null || frame == null) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copie dans un buffer libre (la trame de la source n'est valide que
+     * jusqu'à son prochain next())
+     */
+    private ByteBuffer copy(ByteBuffer frame) {
+        ByteBuffer copy = free.poll();
+        if (copy == null || copy.capacity() < frame.remaining()) {
+            copy = ByteBuffer.allocate(frame.remaining());
+        }
+        copy.clear();
+        copy.put(frame).flip();
+        return copy;
+    }
+}
@@ -0,0 +1,74 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.CryptoUtils;
+import com.securefiletransfert.common.Log;
+
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+
+/**
+ * Réception d'une plage d'un fichier envoyé sur plusieurs connexions
+ * (RANGE_METADATA, voir ParallelUploads)
+ *
+ * La plage est chiffrée indépendamment et écrite à sa position dans le
+ * fichier de l'assemblage ; la dernière plage reçue déclenche la
+ * vérification du fichier entier.
+ */
+class RangeReceiver implements Receiver {
+
+    private final ParallelUploads.Assembly assembly;
+    private final long offset;
+    private final long length;
+    private final DecryptingWriter writer;
+
+    /**
+     * La plage doit avoir été déclarée par assembly.beginRange()
+     *
+     * @param offset position de la plage dans le fichier en clair
+     * @param length longueur de la plage en clair
+     */
+    RangeReceiver(ParallelUploads.Assembly assembly, long offset, long length,
+                  BufferPool buffers, SecretKey key, ServerMetrics metrics) throws Exception {
+        this.assembly = assembly;
+        this.offset = offset;
+        this.length = length;
+        this.writer = new DecryptingWriter(assembly.getFile(), offset, buffers, key, false,
+            metrics);
+    }
+
+    @Override
+    public long getExpectedBytes() {
+        return CryptoUtils.getEncryptedSize(length);
+    }
+
+    @Override
+    public void write(ByteBuffer data) throws Exception {
+        writer.write(data);
+    }
+
+    @Override
+    public boolean complete(Completion completion) throws Exception {
+        if (writer.finish() != length) {
+            assembly.failRange();
+            completion.fail("Taille de plage incorrecte");
+            return true;
+        }
+        if (!assembly.completeRange(offset, length)) {
+            completion.fail("Vérification du fichier assemblé échouée");
+            return true;
+        }
+        Log.info("Plage reçue: [" + offset + ", " + (offset + length) + "[ de " +
+            assembly.getFilename());
+        completion.succeed();
+        return true;
+    }
+
+    /**
+     * Une plage perdue fait abandonner le fichier entier
+     */
+    @Override
+    public void abort() {
+        writer.release();
+        assembly.failRange();
+    }
+}
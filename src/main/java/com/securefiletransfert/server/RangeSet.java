@@ -0,0 +1,51 @@
+package com.securefiletransfert.server;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Ensemble de plages [début, fin[ disjointes, fusionnées à l'ajout
+ * Non synchronisé : l'appelant protège les accès concurrents.
+ */
+class RangeSet {
+
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+    void add(long start, long end) {
+        if (start >= end) {
+            return;
+        }
+        Map.Entry<Long, Long> before = ranges.floorEntry(start);
+        if (before != null && before.getValue() >= start) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+        }
+        Map.Entry<Long, Long> next = ranges.ceilingEntry(start);
+        while (next != null && next.getKey() <= end) {
+            end = Math.max(end, next.getValue());
+            ranges.remove(next.getKey());
+            next = ranges.ceilingEntry(start);
+        }
+        ranges.put(start, end);
+    }
+
+    /**
+     * Vrai si [start, end[ est entièrement couvert
+     */
+    boolean covers(long start, long end) {
+        Map.Entry<Long, Long> entry = ranges.floorEntry(start);
+        return entry != null && entry.getValue() >= end;
+    }
+
+    /**
+     * Vrai si [start, end[ a au moins un octet en commun avec l'ensemble
+     */
+    boolean intersects(long start, long end) {
+        Map.Entry<Long, Long> before = ranges.floorEntry(start);
+        if (before != null && before.getValue() > start) {
+            return true;
+        }
+        Long next = ranges.higherKey(start);
+        return next != null && next < end;
+    }
+}
@@ -0,0 +1,91 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.FrameEncoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Réception d'un fichier négocié sur une session, une implémentation par
+ * mode de transfert (fichier entier, plage, reprise, flux différentiel ou
+ * compressé, morceaux AES-GCM, arbre de Merkle, lot)
+ *
+ * ServerSession lui confie les trames DATA de son numéro de fichier puis
+ * appelle complete() quand toutes les données attendues sont arrivées :
+ * après getExpectedBytes() octets, ou à la trame DATA_END pour un flux de
+ * taille inconnue (STREAMED). Le Receiver vérifie alors le contenu, le
+ * publie et répond au client par la Completion fournie par la session.
+ */
+interface Receiver {
+
+    /**
+     * Taille attendue d'un flux terminé par DATA_END
+     */
+    long STREAMED = Long.MAX_VALUE;
+
+    /**
+     * Octets des trames DATA attendus jusqu'au prochain complete()
+     */
+    long getExpectedBytes();
+
+    /**
+     * Contenu d'une trame DATA (entièrement consommé)
+     */
+    void write(ByteBuffer data) throws Exception;
+
+    /**
+     * Attente avant la prochaine trame DATA ou complete() : null si le
+     * Receiver peut continuer tout de suite, sinon un signal levé quand il
+     * le peut (la session est suspendue d'ici là)
+     */
+    default CompletableFuture<Void> whenReady() {
+        return null;
+    }
+
+    /**
+     * Toutes les données attendues sont reçues : vérification, publication
+     * et réponse au client
+     *
+     * @return false si d'autres données sont attendues (nouveau tour, voir
+     *         getExpectedBytes()), true si le transfert est terminé
+     */
+    boolean complete(Completion completion) throws Exception;
+
+    /**
+     * Transfert interrompu ou en erreur : libère les ressources et le
+     * fichier temporaire (un transfert reprenable est conservé)
+     */
+    void abort();
+
+    /**
+     * Publication et réponses au client, fournies par la session
+     */
+    interface Completion {
+
+        ContentStore getStore();
+
+        /**
+         * Utilisateur authentifié de la session, propriétaire du fichier publié
+         */
+        String getOwner();
+
+        /**
+         * Fichier (ou plage) reçu et vérifié : TRANSFER_SUCCESS
+         */
+        void succeed() throws IOException;
+
+        /**
+         * Fichier refusé : TRANSFER_FAIL avec la raison
+         */
+        void fail(String reason) throws IOException;
+
+        /**
+         * Commence une autre réponse (RETRANSMIT, PACK_RESULT), déjà suivie
+         * du numéro du fichier
+         */
+        FrameEncoder reply(byte type);
+
+        void send(ByteBuffer frame) throws IOException;
+    }
+}
@@ -0,0 +1,75 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.CryptoUtils;
+import com.securefiletransfert.common.Log;
+
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+
+/**
+ * Réception de la suite d'un transfert reprenable (RESUME_METADATA, voir
+ * ResumableUploads)
+ *
+ * Le client envoie le fichier à partir du dernier point de reprise ; les
+ * points de reprise suivants sont journalisés au fil de la réception.
+ */
+class ResumableReceiver implements Receiver {
+
+    private final ResumableUploads.Transfer transfer;
+    private final long offset;
+    private final DecryptingWriter writer;
+
+    ResumableReceiver(ResumableUploads.Transfer transfer, BufferPool buffers, SecretKey key,
+                      ServerMetrics metrics) throws Exception {
+        this.transfer = transfer;
+        this.offset = transfer.getCommittedOffset();
+        this.writer = new DecryptingWriter(transfer.getFile(), offset, buffers, key,
+            transfer.getDigest(), metrics);
+    }
+
+    /**
+     * Position à partir de laquelle le client envoie la suite du fichier
+     */
+    long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public long getExpectedBytes() {
+        return CryptoUtils.getEncryptedSize(transfer.getSize() - offset);
+    }
+
+    @Override
+    public void write(ByteBuffer data) throws Exception {
+        writer.write(data);
+        transfer.progress(offset + writer.getPlainSize());
+    }
+
+    @Override
+    public boolean complete(Completion completion) throws Exception {
+        long plainSize = offset + writer.finish();
+        String receivedHash = writer.getHash();
+        if (plainSize != transfer.getSize() || !receivedHash.equals(transfer.getHash())) {
+            Log.warn("Hash mismatch! Attendu: " + transfer.getHash() +
+                ", Reçu: " + receivedHash);
+            transfer.discard();
+            completion.fail("Hash SHA-256 différent");
+            return true;
+        }
+        transfer.publish(completion.getStore(), completion.getOwner());
+
+        Log.info("Fichier déchiffré: " + plainSize + " bytes");
+        Log.info("Fichier sauvegardé: " + transfer.getFile().getTarget());
+        completion.succeed();
+        return true;
+    }
+
+    /**
+     * Le fichier partiel et son journal sont conservés pour la prochaine connexion
+     */
+    @Override
+    public void abort() {
+        writer.release();
+        transfer.suspend();
+    }
+}
@@ -0,0 +1,236 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.CryptoUtils;
+import com.securefiletransfert.common.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Transferts reprenables après une coupure de connexion
+ *
+ * Chaque transfert (utilisateur + identifiant choisi par le client) garde
+ * dans server_storage/.resume un fichier partiel et un journal :
+ *
+ *   taille hash                 (en-tête : fichier attendu)
+ *   position hash_du_morceau    (un point de reprise par ligne)
+ *
+ * Tous les CHECKPOINT_SIZE octets reçus, le fichier est forcé sur disque,
+ * le morceau est relu et haché, puis la ligne est ajoutée au journal.
+ * À la reprise, les morceaux journalisés sont revérifiés sur disque ; le
+ * client ne renvoie que ce qui suit le dernier point de reprise valide.
+ */
+class ResumableUploads {
+
+    static final String RESUME_DIR = ".resume";
+    private static final long CHECKPOINT_SIZE = 4L * 1024 * 1024;
+
+    private final ConcurrentHashMap<String, Transfer> active = new ConcurrentHashMap<>();
+
+    /**
+     * Ouvre (ou reprend) un transfert et vérifie les morceaux déjà reçus
+     *
+     * @param key identifiant unique du transfert (utilisateur + identifiant client)
+     * @throws IOException si le transfert est déjà en cours sur une autre connexion
+     */
+    Transfer open(String key, ServerConfig config, String filename, long size,
+                  String hash) throws Exception {
+        String id = CryptoUtils.toHex(CryptoUtils.createDigest()
+            .digest(key.getBytes(StandardCharsets.UTF_8)));
+        Transfer transfer = new Transfer(id, size, hash);
+        if (active.putIfAbsent(id, transfer) != null) {
+            throw new IOException("Transfert déjà en cours sur une autre connexion");
+        }
+        try {
+            transfer.load(config, filename);
+            return transfer;
+        } catch (Exception e) {
+            transfer.suspend();
+            throw e;
+        }
+    }
+
+    /**
+     * Un transfert reprenable ouvert par une session
+     */
+    class Transfer {
+        private final String id;
+        private final long size;
+        private final String hash;
+        private MessageDigest digest;
+        private PartialFile file;
+        private Path journalPath;
+        private FileChannel journal;
+        private long committed = 0;
+
+        Transfer(String id, long size, String hash) throws Exception {
+            this.id = id;
+            this.size = size;
+            this.hash = hash;
+            this.digest = CryptoUtils.createDigest();
+        }
+
+        PartialFile getFile() { return file; }
+
+        /**
+         * Position à partir de laquelle le client doit reprendre l'envoi
+         */
+        long getCommittedOffset() { return committed; }
+
+        /**
+         * SHA-256 en cours, alimenté avec le contenu déjà reçu
+         */
+        MessageDigest getDigest() { return digest; }
+
+        long getSize() { return size; }
+
+        String getHash() { return hash; }
+
+        /**
+         * Ajoute un point de reprise si assez de données ont été reçues
+         *
+         * @param position octets en clair écrits depuis le début du fichier
+         */
+        void progress(long position) throws Exception {
+            if (position - committed < CHECKPOINT_SIZE) {
+                return;
+            }
+            file.force();
+            String chunkHash = file.hash(committed, position);
+            appendLine(position + " " + chunkHash);
+            journal.force(false);
+            committed = position;
+        }
+
+        /**
+         * Publie le fichier complet et supprime le journal
+         */
+        void publish(ContentStore store, String owner) throws IOException {
+            try {
+                store.publish(file, size, hash, owner);
+            } finally {
+                discardJournal();
+            }
+        }
+
+        /**
+         * Connexion interrompue : le fichier et le journal sont conservés
+         */
+        void suspend() {
+            if (file != null) {
+                file.suspend();
+            }
+            closeJournal();
+            active.remove(id);
+        }
+
+        /**
+         * Contenu invalide : la reprise est impossible, tout est supprimé
+         */
+        void discard() {
+            file.abort();
+            discardJournal();
+        }
+
+        private void load(ServerConfig config, String filename) throws Exception {
+            Path dir = Paths.get(config.getStoragePath(), RESUME_DIR);
+            Files.createDirectories(dir);
+            journalPath = dir.resolve(id + ".journal");
+            file = new PartialFile(config, filename, dir.resolve(id + ".part"));
+
+            List<String> lines;
+            try {
+                lines = Files.readAllLines(journalPath, StandardCharsets.UTF_8);
+            } catch (NoSuchFileException e) {
+                lines = List.of();
+            }
+
+            // Le journal est réécrit avec les seuls points de reprise valides
+            journal = FileChannel.open(journalPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            appendLine(size + " " + hash);
+            if (!lines.isEmpty() && lines.get(0).equals(size + " " + hash)) {
+                verify(lines.subList(1, lines.size()));
+            }
+            journal.force(false);
+
+            if (committed > 0) {
+                Log.info("Reprise de " + filename + " à l'octet " + committed);
+            }
+        }
+
+        /**
+         * Relit chaque morceau journalisé et s'arrête au premier invalide
+         */
+        private void verify(List<String> entries) throws Exception {
+            for (String entry : entries) {
+                String[] fields = entry.split(" ");
+                if (fields.length != 2) {
+                    return;
+                }
+                long position;
+                try {
+                    position = Long.parseLong(fields[0]);
+                } catch (NumberFormatException e) {
+                    return;
+                }
+                if (position <= committed || position > size) {
+                    return;
+                }
+
+                MessageDigest chunk = CryptoUtils.createDigest();
+                MessageDigest before = (MessageDigest) digest.clone();
+                try {
+                    file.digest(committed, position, chunk, digest);
+                } catch (IOException e) {
+                    digest = before;
+                    return;
+                }
+                if (!CryptoUtils.toHex(chunk.digest()).equals(fields[1])) {
+                    digest = before;
+                    return;
+                }
+                appendLine(entry);
+                committed = position;
+            }
+        }
+
+        private void appendLine(String line) throws IOException {
+            ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                journal.write(bytes);
+            }
+        }
+
+        private void closeJournal() {
+            try {
+                if (journal != null) {
+                    journal.close();
+                }
+            } catch (IOException e) {
+                Log.error("Erreur lors de la fermeture du journal: " + e.getMessage());
+            }
+        }
+
+        private void discardJournal() {
+            closeJournal();
+            active.remove(id);
+            try {
+                Files.deleteIfExists(journalPath);
+            } catch (IOException e) {
+                Log.warn("Impossible de supprimer " + journalPath + ": " +
+                    e.getMessage());
+            }
+        }
+    }
+}
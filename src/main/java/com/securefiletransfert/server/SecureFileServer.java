@@ -1,55 +1,83 @@
 package com.securefiletransfert.server;
 
+import com.securefiletransfert.common.Log;
+
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
 
 /**
  * Serveur principal pour le transfert de fichiers sécurisé
- * Écoute sur un port et délègue chaque client à un thread dédié
+ * Écoute sur un port et délègue les clients au moteur réseau choisi :
+ * bloquant (une session par thread) ou NIO (réacteurs non bloquants)
+ *
+ * Les métriques sont publiées par JMX et, si --metrics-port est donné,
+ * au format Prometheus sur l'interface locale. Les limites de débit et de
+ * sessions sont modifiables par JMX pendant que le serveur tourne.
  */
 public class SecureFileServer {
     
-    private static final int DEFAULT_PORT = 8888;
-    private static final String DEFAULT_STORAGE_PATH = "server_storage";
-    
-    private final int port;
-    private final String storagePath;
-    private ServerSocket serverSocket;
-    private boolean running = false;
+    private final ServerConfig config;
+    private volatile ServerEngine engine;
+    private volatile ServerContext context;
+    private MetricsEndpoint metricsEndpoint;
     
     public SecureFileServer(int port, String storagePath) {
-        this.port = port;
-        this.storagePath = storagePath;
+        this(new ServerConfig(port, storagePath, new ServerConfig().getBufferSize()));
+    }
+    
+    /**
+     * @param bufferSize taille du tampon de réception par connexion
+     *                   (borne la mémoire utilisée par chaque transfert)
+     */
+    public SecureFileServer(int port, String storagePath, int bufferSize) {
+        this(new ServerConfig(port, storagePath, bufferSize));
+    }
+    
+    public SecureFileServer(ServerConfig config) {
+        this.config = config;
     }
     
     /**
      * Démarre le serveur
      */
     public void start() {
+        ServerContext context = new ServerContext(config);
+        this.context = context;
+        engine = config.getEngine() == ServerEngine.Type.NIO
+            ? new NioServerEngine(context)
+            : new BlockingServerEngine(context);
         try {
-            serverSocket = new ServerSocket(port);
-            running = true;
-            System.out.println("Serveur démarré sur le port " + port);
-            System.out.println("Répertoire de stockage: " + storagePath);
-            System.out.println("En attente de connexions...");
-            
-            while (running) {
-                Socket clientSocket = serverSocket.accept();
-                
-                // Déléguer chaque client à un nouveau thread
-                ClientTransferHandler handler = new ClientTransferHandler(
-                    clientSocket, storagePath);
-                handler.start();
-                
-                System.out.println("Nouveau client accepté, thread créé");
+            context.getMetrics().register(config.getPort());
+            context.getTrafficShaper().register(config.getPort());
+            if (config.getMetricsPort() > 0) {
+                metricsEndpoint = new MetricsEndpoint(context.getMetrics(),
+                    config.getMetricsPort());
+                metricsEndpoint.start();
             }
+            Log.info("Serveur démarré sur le port " + config.getPort());
+            Log.info("Répertoire de stockage: " + config.getStoragePath());
+            Log.info("Taille du buffer de réception: " + config.getBufferSize() + " bytes");
+            Log.info("Moteur réseau: " + config.getEngine());
+            Log.info("Politique de force(): " + config.getForcePolicy());
+            Log.info("Organisation du stockage: " + config.getStorageLayout() +
+                (config.isWriteBehind() ? " (publication différée)" : ""));
+            Log.info("En attente de connexions...");
+            
+            engine.serve();
             
         } catch (IOException e) {
-            if (running) {
-                System.err.println("Erreur serveur: " + e.getMessage());
-                e.printStackTrace();
+            if (engine != null) {
+                Log.error("Erreur serveur: " + e.getMessage(), e);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (metricsEndpoint != null) {
+                metricsEndpoint.stop();
+                metricsEndpoint = null;
             }
+            context.getMetrics().unregister();
+            context.getTrafficShaper().unregister();
+            context.close();
         }
     }
     
@@ -57,43 +85,46 @@ public class SecureFileServer {
      * Arrête le serveur
      */
     public void stop() {
-        running = false;
-        try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
-            }
-        } catch (IOException e) {
-            System.err.println("Erreur lors de l'arrêt du serveur: " + e.getMessage());
+        ServerEngine current = engine;
+        engine = null;
+        if (current != null) {
+            current.stop();
         }
     }
     
+    /**
+     * Nombre de sessions en cours (0 si le serveur n'est pas démarré)
+     */
+    public int getActiveSessions() {
+        ServerEngine current = engine;
+        return current == null ? 0 : current.getActiveSessions();
+    }
+    
+    /**
+     * Métriques du serveur (null avant le démarrage)
+     */
+    public ServerMetricsMXBean getMetrics() {
+        ServerContext current = context;
+        return current == null ? null : current.getMetrics();
+    }
+    
+    /**
+     * Limites de débit et de sessions (null avant le démarrage)
+     */
+    public TrafficShaperMXBean getTrafficShaper() {
+        ServerContext current = context;
+        return current == null ? null : current.getTrafficShaper();
+    }
+    
     public static void main(String[] args) {
-        int port = DEFAULT_PORT;
-        String storagePath = DEFAULT_STORAGE_PATH;
-        
-        // Parse des arguments
-        if (args.length > 0) {
-            try {
-                port = Integer.parseInt(args[0]);
-            } catch (NumberFormatException e) {
-                System.err.println("Port invalide, utilisation du port par défaut: " + 
-                    DEFAULT_PORT);
-            }
-        }
-        
-        if (args.length > 1) {
-            storagePath = args[1];
-        }
-        
-        SecureFileServer server = new SecureFileServer(port, storagePath);
+        SecureFileServer server = new SecureFileServer(ServerConfig.fromArgs(args));
         
         // Gestion de l'arrêt propre avec Ctrl+C
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            System.out.println("\nArrêt du serveur...");
+            Log.info("\nArrêt du serveur...");
             server.stop();
         }));
         
         server.start();
     }
 }
-
@@ -0,0 +1,283 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.Log;
+import com.securefiletransfert.common.ProtocolConstants;
+
+/**
+ * Configuration du serveur
+ *
+ * Arguments acceptés : [port] [storage_path] [buffer_size] [--option=valeur ...]
+ *   --engine=blocking|nio     moteur réseau
+ *   --io-threads=N            threads réacteurs du moteur NIO
+ *   --executor=virtual|pool   modèle d'exécution des sessions (moteur bloquant)
+ *   --pool-size=N             nombre de threads en mode pool
+ *   --max-sessions=N          sessions simultanées avant de suspendre accept()
+ *   --force=never|finish|every:N  politique de FileChannel.force() (N en Mo)
+ *   --layout=flat|sharded     organisation des fichiers nommés (voir StorageLayout)
+ *   --write-behind            publication différée des fichiers reçus, journal forcé avant
+ *                             l'acquittement (voir WriteBehind pour --force=never)
+ *   --download-cache=M        cache des petits fichiers téléchargés, en Mo (0 : désactivé)
+ *   --ticket-ttl=S            validité des tickets de reprise de session (0 : pas de reprise)
+ *   --max-tickets=N           tickets de reprise gardés en mémoire
+ *   --users=FICHIER           comptes utilisateurs (voir AuthenticationManager)
+ *   --auth-cache=N            vérifications de mot de passe gardées en cache
+ *   --auth-cache-ttl=S        validité d'une vérification en cache
+ *   --max-logins=N            authentifications en cours avant de refuser les suivantes
+ *   --metrics-port=N          endpoint Prometheus local (0 : désactivé)
+ *   --log-level=NIVEAU        debug|info|warn|error|off
+ *   --max-rate=K              débit total reçu par le serveur, en Ko/s (0 : illimité)
+ *   --user-rate=K             débit reçu par utilisateur, en Ko/s (0 : illimité)
+ *   --disk-rate=K             débit d'écriture des fichiers reçus, en Ko/s (0 : illimité)
+ *   --user-sessions=N         sessions simultanées par utilisateur (0 : illimité)
+ *
+ * Les limites de débit et de sessions restent modifiables par JMX
+ * (voir TrafficShaperMXBean).
+ */
+public class ServerConfig {
+
+    public static final int DEFAULT_PORT = 8888;
+    public static final String DEFAULT_STORAGE_PATH = "server_storage";
+    public static final int DEFAULT_MAX_SESSIONS = 10000;
+    public static final int DEFAULT_TICKET_TTL = 3600;
+    public static final int DEFAULT_MAX_TICKETS = 100000;
+    public static final long DEFAULT_DOWNLOAD_CACHE = 64L * 1024 * 1024;
+    public static final int DEFAULT_MAX_LOGINS = 256;
+
+    private int port = DEFAULT_PORT;
+    private String storagePath = DEFAULT_STORAGE_PATH;
+    private int bufferSize = ProtocolConstants.STREAM_CHUNK_SIZE;
+    private ServerEngine.Type engine = ServerEngine.Type.BLOCKING;
+    private int ioThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private SessionExecutor.Mode executorMode = SessionExecutor.Mode.VIRTUAL;
+    private int poolSize = Runtime.getRuntime().availableProcessors() * 4;
+    private int maxSessions = DEFAULT_MAX_SESSIONS;
+    private ForcePolicy forcePolicy = ForcePolicy.NEVER;
+    private StorageLayout storageLayout = StorageLayout.FLAT;
+    private boolean writeBehind = false;
+    private long downloadCache = DEFAULT_DOWNLOAD_CACHE;
+    private int ticketTtl = DEFAULT_TICKET_TTL;
+    private int maxTickets = DEFAULT_MAX_TICKETS;
+    private String usersFile = null;
+    private int authCacheSize = AuthenticationManager.DEFAULT_CACHE_SIZE;
+    private int authCacheTtl = AuthenticationManager.DEFAULT_CACHE_TTL;
+    private int maxLogins = DEFAULT_MAX_LOGINS;
+    private int metricsPort = 0;
+    private long maxRate = 0;
+    private long userRate = 0;
+    private long diskRate = 0;
+    private int maxSessionsPerUser = 0;
+
+    public ServerConfig() {}
+
+    public ServerConfig(int port, String storagePath, int bufferSize) {
+        this.port = port;
+        this.storagePath = storagePath;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Construit la configuration depuis la ligne de commande
+     * Les valeurs invalides sont signalées et remplacées par la valeur par défaut
+     */
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+        int position = 0;
+
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                config.applyOption(arg.substring(2));
+                continue;
+            }
+            switch (position++) {
+                case 0:
+                    config.port = parsePositive(arg, "Port", DEFAULT_PORT);
+                    break;
+                case 1:
+                    config.storagePath = arg;
+                    break;
+                case 2:
+                    config.bufferSize = parsePositive(arg, "Taille de buffer",
+                        ProtocolConstants.STREAM_CHUNK_SIZE);
+                    break;
+                default:
+                    Log.warn("Argument ignoré: " + arg);
+            }
+        }
+        return config;
+    }
+
+    private void applyOption(String option) {
+        int eq = option.indexOf('=');
+        String key = eq < 0 ? option : option.substring(0, eq);
+        String value = eq < 0 ? "" : option.substring(eq + 1);
+
+        switch (key) {
+            case "engine":
+                try {
+                    engine = ServerEngine.Type.valueOf(value.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    Log.warn("Moteur invalide, utilisation de: " + engine);
+                }
+                break;
+            case "io-threads":
+                ioThreads = parsePositive(value, "Nombre de threads réacteurs", ioThreads);
+                break;
+            case "executor":
+                try {
+                    executorMode = SessionExecutor.Mode.valueOf(value.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    Log.warn("Mode d'exécution invalide, utilisation de: " +
+                        executorMode);
+                }
+                break;
+            case "pool-size":
+                poolSize = parsePositive(value, "Taille du pool", poolSize);
+                break;
+            case "max-sessions":
+                maxSessions = parsePositive(value, "Nombre max de sessions", maxSessions);
+                break;
+            case "force":
+                try {
+                    forcePolicy = ForcePolicy.parse(value);
+                } catch (IllegalArgumentException e) {
+                    Log.warn(e.getMessage() + ", utilisation de: " + forcePolicy);
+                }
+                break;
+            case "layout":
+                try {
+                    storageLayout = StorageLayout.parse(value);
+                } catch (IllegalArgumentException e) {
+                    Log.warn(e.getMessage() + ", utilisation de: " + storageLayout);
+                }
+                break;
+            case "write-behind":
+                writeBehind = value.isEmpty() || Boolean.parseBoolean(value);
+                break;
+            case "download-cache":
+                downloadCache = "0".equals(value) ? 0 : parsePositive(value,
+                    "Taille du cache de téléchargement (Mo)",
+                    (int) (downloadCache / (1024 * 1024))) * 1024L * 1024;
+                break;
+            case "ticket-ttl":
+                ticketTtl = "0".equals(value) ? 0 :
+                    parsePositive(value, "Validité des tickets", ticketTtl);
+                break;
+            case "max-tickets":
+                maxTickets = parsePositive(value, "Nombre max de tickets", maxTickets);
+                break;
+            case "users":
+                usersFile = value.isEmpty() ? null : value;
+                break;
+            case "auth-cache":
+                authCacheSize = parsePositive(value, "Taille du cache d'authentification",
+                    authCacheSize);
+                break;
+            case "auth-cache-ttl":
+                authCacheTtl = parsePositive(value, "Validité du cache d'authentification",
+                    authCacheTtl);
+                break;
+            case "max-logins":
+                maxLogins = parsePositive(value, "Nombre max d'authentifications", maxLogins);
+                break;
+            case "metrics-port":
+                metricsPort = "0".equals(value) ? 0 :
+                    parsePositive(value, "Port des métriques", metricsPort);
+                break;
+            case "max-rate":
+                maxRate = parseRate(value, "Débit global", maxRate);
+                break;
+            case "user-rate":
+                userRate = parseRate(value, "Débit par utilisateur", userRate);
+                break;
+            case "disk-rate":
+                diskRate = parseRate(value, "Débit disque", diskRate);
+                break;
+            case "user-sessions":
+                maxSessionsPerUser = "0".equals(value) ? 0 :
+                    parsePositive(value, "Sessions par utilisateur", maxSessionsPerUser);
+                break;
+            case "log-level":
+                Log.Level level = Log.parseLevel(value, null);
+                if (level == null) {
+                    Log.warn("Niveau de journal invalide, utilisation de: " + Log.getLevel());
+                } else {
+                    Log.setLevel(level);
+                }
+                break;
+            default:
+                Log.warn("Option inconnue ignorée: --" + key);
+        }
+    }
+
+    private static int parsePositive(String value, String name, int defaultValue) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // valeur par défaut ci-dessous
+        }
+        Log.warn(name + " invalide, utilisation de la valeur par défaut: " +
+            defaultValue);
+        return defaultValue;
+    }
+
+    /**
+     * Débit donné en Ko/s, retourné en octets par seconde (0 : illimité)
+     */
+    private static long parseRate(String value, String name, long defaultValue) {
+        if ("0".equals(value)) {
+            return 0;
+        }
+        return parsePositive(value, name + " (Ko/s)", (int) (defaultValue / 1024)) * 1024L;
+    }
+
+    public int getPort() { return port; }
+    public String getStoragePath() { return storagePath; }
+    public int getBufferSize() { return bufferSize; }
+    public ServerEngine.Type getEngine() { return engine; }
+    public int getIoThreads() { return ioThreads; }
+    public SessionExecutor.Mode getExecutorMode() { return executorMode; }
+    public int getPoolSize() { return poolSize; }
+    public int getMaxSessions() { return maxSessions; }
+    public ForcePolicy getForcePolicy() { return forcePolicy; }
+    public StorageLayout getStorageLayout() { return storageLayout; }
+    public boolean isWriteBehind() { return writeBehind; }
+    public long getDownloadCache() { return downloadCache; }
+    public int getTicketTtl() { return ticketTtl; }
+    public int getMaxTickets() { return maxTickets; }
+    public String getUsersFile() { return usersFile; }
+    public int getAuthCacheSize() { return authCacheSize; }
+    public int getAuthCacheTtl() { return authCacheTtl; }
+    public int getMaxLogins() { return maxLogins; }
+    public int getMetricsPort() { return metricsPort; }
+    public long getMaxRate() { return maxRate; }
+    public long getUserRate() { return userRate; }
+    public long getDiskRate() { return diskRate; }
+    public int getMaxSessionsPerUser() { return maxSessionsPerUser; }
+
+    public void setPort(int port) { this.port = port; }
+    public void setStoragePath(String storagePath) { this.storagePath = storagePath; }
+    public void setBufferSize(int bufferSize) { this.bufferSize = bufferSize; }
+    public void setEngine(ServerEngine.Type engine) { this.engine = engine; }
+    public void setIoThreads(int ioThreads) { this.ioThreads = ioThreads; }
+    public void setExecutorMode(SessionExecutor.Mode executorMode) { this.executorMode = executorMode; }
+    public void setPoolSize(int poolSize) { this.poolSize = poolSize; }
+    public void setMaxSessions(int maxSessions) { this.maxSessions = maxSessions; }
+    public void setForcePolicy(ForcePolicy forcePolicy) { this.forcePolicy = forcePolicy; }
+    public void setStorageLayout(StorageLayout storageLayout) { this.storageLayout = storageLayout; }
+    public void setWriteBehind(boolean writeBehind) { this.writeBehind = writeBehind; }
+    public void setDownloadCache(long downloadCache) { this.downloadCache = downloadCache; }
+    public void setTicketTtl(int ticketTtl) { this.ticketTtl = ticketTtl; }
+    public void setMaxTickets(int maxTickets) { this.maxTickets = maxTickets; }
+    public void setUsersFile(String usersFile) { this.usersFile = usersFile; }
+    public void setAuthCacheSize(int authCacheSize) { this.authCacheSize = authCacheSize; }
+    public void setAuthCacheTtl(int authCacheTtl) { this.authCacheTtl = authCacheTtl; }
+    public void setMaxLogins(int maxLogins) { this.maxLogins = maxLogins; }
+    public void setMetricsPort(int metricsPort) { this.metricsPort = metricsPort; }
+    public void setMaxRate(long maxRate) { this.maxRate = maxRate; }
+    public void setUserRate(long userRate) { this.userRate = userRate; }
+    public void setDiskRate(long diskRate) { this.diskRate = diskRate; }
+    public void setMaxSessionsPerUser(int maxSessionsPerUser) { this.maxSessionsPerUser = maxSessionsPerUser; }
+}
@@ -0,0 +1,137 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.ChunkCipher;
+import com.securefiletransfert.common.ProtocolConstants;
+
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * État partagé par toutes les sessions d'un serveur
+ * Créé une fois au démarrage et transmis au moteur réseau ; close() arrête
+ * ses threads à l'arrêt du serveur.
+ */
+class ServerContext {
+
+    private static final int MAX_POOLED_BUFFERS = 64;
+    private static final long SIGNATURE_CACHE_BYTES = 32L * 1024 * 1024;
+
+    private final ServerConfig config;
+    private final BufferPool plainBuffers;
+    private final ContentStore contentStore;
+    private final DownloadCache downloadCache;
+    private final SignatureCache signatureCache = new SignatureCache(SIGNATURE_CACHE_BYTES);
+    private final ParallelUploads parallelUploads;
+    private final ResumableUploads resumableUploads = new ResumableUploads();
+    private final ForkJoinPool cryptoPool = new ForkJoinPool(
+        Runtime.getRuntime().availableProcessors());
+    private final BufferPool chunkBuffers = new BufferPool(
+        ProtocolConstants.GCM_CHUNK_SIZE + ChunkCipher.TAG_SIZE, MAX_POOLED_BUFFERS);
+    private final SessionTickets sessionTickets;
+    private final AuthenticationManager authentication;
+    private final ExecutorService loginPool;
+    private final ExecutorService workers = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(),
+        Thread.ofPlatform().name("sft-worker-", 0).daemon().factory());
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final TrafficShaper trafficShaper;
+
+    ServerContext(ServerConfig config) {
+        this.config = config;
+        this.plainBuffers = DecryptingWriter.createBufferPool(config, MAX_POOLED_BUFFERS);
+        this.contentStore = new ContentStore(config);
+        this.downloadCache = new DownloadCache(config.getDownloadCache());
+        this.parallelUploads = new ParallelUploads(contentStore);
+        this.sessionTickets = new SessionTickets(config.getMaxTickets(), config.getTicketTtl());
+        this.authentication = new AuthenticationManager(
+            config.getUsersFile() == null ? null : Paths.get(config.getUsersFile()),
+            config.getAuthCacheSize(), config.getAuthCacheTtl());
+        this.loginPool = newLoginPool(config.getMaxLogins());
+        this.trafficShaper = new TrafficShaper(config);
+    }
+
+    ServerConfig getConfig() { return config; }
+
+    /**
+     * Arrête les threads du contexte et termine les publications en attente
+     */
+    void close() {
+        cryptoPool.shutdown();
+        loginPool.shutdownNow();
+        workers.shutdownNow();
+        contentStore.close();
+    }
+
+    AuthenticationManager getAuthentication() { return authentication; }
+
+    /**
+     * Threads de vérification des mots de passe (PBKDF2), hors des threads
+     * des sessions ; au-delà de --max-logins authentifications en attente,
+     * execute() lève RejectedExecutionException
+     */
+    ExecutorService getLoginPool() { return loginPool; }
+
+    /**
+     * Buffers directs pour le contenu déchiffré (voir DecryptingWriter)
+     */
+    BufferPool getPlainBuffers() { return plainBuffers; }
+
+    ContentStore getContentStore() { return contentStore; }
+
+    /**
+     * Contenu des petits fichiers téléchargés récemment (voir FileDownload)
+     */
+    DownloadCache getDownloadCache() { return downloadCache; }
+
+    /**
+     * Signatures des blocs des versions stockées (synchronisation différentielle)
+     */
+    SignatureCache getSignatureCache() { return signatureCache; }
+
+    /**
+     * Threads des lectures de fichiers qu'une session ne fait pas sur le
+     * thread du moteur (signatures, téléchargements préparés pour le moteur NIO)
+     */
+    ExecutorService getWorkers() { return workers; }
+
+    ParallelUploads getParallelUploads() { return parallelUploads; }
+
+    ResumableUploads getResumableUploads() { return resumableUploads; }
+
+    /**
+     * Threads de déchiffrement des morceaux AES-GCM (voir ParallelChunkReceiver)
+     */
+    ForkJoinPool getCryptoPool() { return cryptoPool; }
+
+    /**
+     * Buffers directs d'un morceau AES-GCM avec son tag
+     */
+    BufferPool getChunkBuffers() { return chunkBuffers; }
+
+    /**
+     * Tickets de reprise de session, partagés par toutes les connexions
+     */
+    SessionTickets getSessionTickets() { return sessionTickets; }
+
+    /**
+     * Compteurs et durées des sessions, exposés par JMX et Prometheus
+     */
+    ServerMetrics getMetrics() { return metrics; }
+
+    /**
+     * Limites de débit et de sessions par utilisateur, modifiables par JMX
+     */
+    TrafficShaper getTrafficShaper() { return trafficShaper; }
+
+    private static ExecutorService newLoginPool(int maxLogins) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(maxLogins),
+            Thread.ofPlatform().name("sft-login-", 0).daemon().factory());
+    }
+}
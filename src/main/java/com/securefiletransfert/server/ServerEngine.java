@@ -0,0 +1,22 @@
+package com.securefiletransfert.server;
+
+import java.io.IOException;
+
+/**
+ * Moteur réseau du serveur
+ * Les deux implémentations (bloquante et NIO) exécutent la même machine à
+ * états ServerSession et sont sélectionnées au démarrage (--engine=...).
+ */
+public interface ServerEngine {
+
+    enum Type { BLOCKING, NIO }
+
+    /**
+     * Ouvre le port d'écoute et sert les clients jusqu'à l'appel de stop()
+     */
+    void serve() throws IOException, InterruptedException;
+
+    void stop();
+
+    int getActiveSessions();
+}
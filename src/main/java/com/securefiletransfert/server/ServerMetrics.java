@@ -0,0 +1,191 @@
+package com.securefiletransfert.server;
+
+import javax.management.ObjectName;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Métriques d'un serveur : durées par phase, volumes et sessions
+ *
+ * Les sessions et les récepteurs enregistrent directement (compteurs sans
+ * verrou) ; la lecture (JMX, endpoint Prometheus) agrège à la demande.
+ * Les phases decrypt, hash et write sont mesurées par morceau traité,
+ * les autres par opération (une authentification, un fichier reçu ou
+ * envoyé...).
+ */
+class ServerMetrics implements ServerMetricsMXBean {
+
+    enum Phase {
+        AUTH, KEY_EXCHANGE, NEGOTIATION, RECEIVE, SEND, DECRYPT, HASH, WRITE;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final EnumMap<Phase, LatencyHistogram> phases = new EnumMap<>(Phase.class);
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final LongAdder totalSessions = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder fileBytesWritten = new LongAdder();
+    private final LongAdder filesReceived = new LongAdder();
+    private final LongAdder filesFailed = new LongAdder();
+    private final LongAdder filesDeduplicated = new LongAdder();
+    private final LongAdder filesSent = new LongAdder();
+    private final LongAdder downloadCacheHits = new LongAdder();
+    private ObjectName registeredName;
+
+    ServerMetrics() {
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Enregistre la durée d'une phase commencée à start (System.nanoTime())
+     */
+    void record(Phase phase, long start) {
+        phases.get(phase).record(System.nanoTime() - start);
+    }
+
+    void sessionOpened() {
+        activeSessions.incrementAndGet();
+        totalSessions.increment();
+    }
+
+    void sessionClosed() {
+        activeSessions.decrementAndGet();
+    }
+
+    void addBytesReceived(long bytes) { bytesReceived.add(bytes); }
+    void addBytesSent(long bytes) { bytesSent.add(bytes); }
+    void addFileBytesWritten(long bytes) { fileBytesWritten.add(bytes); }
+    void fileReceived() { filesReceived.increment(); }
+    void fileFailed() { filesFailed.increment(); }
+    void fileDeduplicated() { filesDeduplicated.increment(); }
+    void fileSent() { filesSent.increment(); }
+    void downloadCacheHit() { downloadCacheHits.increment(); }
+
+    @Override public int getActiveSessions() { return activeSessions.get(); }
+    @Override public long getTotalSessions() { return totalSessions.sum(); }
+    @Override public long getBytesReceived() { return bytesReceived.sum(); }
+    @Override public long getBytesSent() { return bytesSent.sum(); }
+    @Override public long getFileBytesWritten() { return fileBytesWritten.sum(); }
+    @Override public long getFilesReceived() { return filesReceived.sum(); }
+    @Override public long getFilesFailed() { return filesFailed.sum(); }
+    @Override public long getFilesDeduplicated() { return filesDeduplicated.sum(); }
+    @Override public long getFilesSent() { return filesSent.sum(); }
+    @Override public long getDownloadCacheHits() { return downloadCacheHits.sum(); }
+
+    @Override
+    public Map<String, Long> getPhaseCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Map.Entry<Phase, LatencyHistogram> entry : phases.entrySet()) {
+            long total = 0;
+            for (long count : entry.getValue().snapshot()) {
+                total += count;
+            }
+            counts.put(entry.getKey().label(), total);
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseMeanMillis() {
+        Map<String, Double> means = new LinkedHashMap<>();
+        Map<String, Long> counts = getPhaseCounts();
+        for (Map.Entry<Phase, LatencyHistogram> entry : phases.entrySet()) {
+            long count = counts.get(entry.getKey().label());
+            means.put(entry.getKey().label(), count == 0 ? 0.0 :
+                entry.getValue().getSumNanos() / 1e6 / count);
+        }
+        return means;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseP99Millis() {
+        Map<String, Double> quantiles = new LinkedHashMap<>();
+        for (Map.Entry<Phase, LatencyHistogram> entry : phases.entrySet()) {
+            long bound = LatencyHistogram.quantile(entry.getValue().snapshot(), 0.99);
+            quantiles.put(entry.getKey().label(),
+                bound == Long.MAX_VALUE ? Double.POSITIVE_INFINITY : bound / 1e6);
+        }
+        return quantiles;
+    }
+
+    /**
+     * Format texte Prometheus (version 0.0.4)
+     */
+    String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        gauge(out, "sft_sessions_active", "Sessions ouvertes", activeSessions.get());
+        counter(out, "sft_sessions_total", "Sessions acceptées", totalSessions.sum());
+        counter(out, "sft_bytes_received_total", "Octets reçus du réseau", bytesReceived.sum());
+        counter(out, "sft_bytes_sent_total", "Octets envoyés sur le réseau", bytesSent.sum());
+        counter(out, "sft_file_bytes_written_total", "Octets déchiffrés écrits sur disque",
+            fileBytesWritten.sum());
+
+        out.append("# HELP sft_files_total Fichiers traités par résultat\n");
+        out.append("# TYPE sft_files_total counter\n");
+        out.append("sft_files_total{result=\"success\"} ").append(filesReceived.sum()).append('\n');
+        out.append("sft_files_total{result=\"failed\"} ").append(filesFailed.sum()).append('\n');
+        out.append("sft_files_total{result=\"deduplicated\"} ")
+            .append(filesDeduplicated.sum()).append('\n');
+        out.append("sft_files_total{result=\"sent\"} ").append(filesSent.sum()).append('\n');
+        counter(out, "sft_download_cache_hits_total", "Téléchargements servis depuis le cache",
+            downloadCacheHits.sum());
+
+        out.append("# HELP sft_phase_duration_seconds Durée des phases de traitement\n");
+        out.append("# TYPE sft_phase_duration_seconds histogram\n");
+        for (Map.Entry<Phase, LatencyHistogram> entry : phases.entrySet()) {
+            String phase = entry.getKey().label();
+            long[] counts = entry.getValue().snapshot();
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                String le = i < LatencyHistogram.BOUNDS.length
+                    ? seconds(LatencyHistogram.BOUNDS[i]) : "+Inf";
+                out.append("sft_phase_duration_seconds_bucket{phase=\"").append(phase)
+                    .append("\",le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+            }
+            out.append("sft_phase_duration_seconds_sum{phase=\"").append(phase).append("\"} ")
+                .append(seconds(entry.getValue().getSumNanos())).append('\n');
+            out.append("sft_phase_duration_seconds_count{phase=\"").append(phase).append("\"} ")
+                .append(cumulative).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Expose les métriques par JMX (sans effet si le nom est déjà pris)
+     */
+    void register(int port) {
+        registeredName = ManagedBeans.register(this, "ServerMetrics", port);
+    }
+
+    void unregister() {
+        ManagedBeans.unregister(registeredName);
+        registeredName = null;
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+}
@@ -0,0 +1,39 @@
+package com.securefiletransfert.server;
+
+import java.util.Map;
+
+/**
+ * Métriques du serveur exposées par JMX
+ * (com.securefiletransfert:type=ServerMetrics,port=N)
+ *
+ * Les durées par phase sont indexées par nom de phase (auth, key_exchange,
+ * negotiation, receive, send, decrypt, hash, write).
+ */
+public interface ServerMetricsMXBean {
+
+    int getActiveSessions();
+
+    long getTotalSessions();
+
+    long getBytesReceived();
+
+    long getBytesSent();
+
+    long getFileBytesWritten();
+
+    long getFilesReceived();
+
+    long getFilesFailed();
+
+    long getFilesDeduplicated();
+
+    long getFilesSent();
+
+    long getDownloadCacheHits();
+
+    Map<String, Long> getPhaseCounts();
+
+    Map<String, Double> getPhaseMeanMillis();
+
+    Map<String, Double> getPhaseP99Millis();
+}
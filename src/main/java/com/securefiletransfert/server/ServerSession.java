@@ -0,0 +1,1200 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.BlockSignatures;
+import com.securefiletransfert.common.ChunkCipher;
+import com.securefiletransfert.common.CompressionCodec;
+import com.securefiletransfert.common.CompressionCodecs;
+import com.securefiletransfert.common.CryptoUtils;
+import com.securefiletransfert.common.FrameDecoder;
+import com.securefiletransfert.common.FrameEncoder;
+import com.securefiletransfert.common.KeyExchange;
+import com.securefiletransfert.common.Log;
+import com.securefiletransfert.common.MerkleTree;
+import com.securefiletransfert.common.PossessionProof;
+import com.securefiletransfert.common.ProtocolConstants;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Machine à états du protocole pour une connexion, indépendante du transport
+ *
+ * AUTHENTICATION -> AUTHENTICATED -> FINISHED
+ *
+ * Juste après l'authentification, le client peut établir une clé de session
+ * (KEY_EXCHANGE, voir KeyExchange) ; sinon les données sont chiffrées avec
+ * la clé partagée.
+ *
+ * Une fois authentifié, le client peut envoyer plusieurs fichiers sur la
+ * même connexion, identifiés par un numéro choisi par le client. Chaque
+ * fichier passe par la négociation (METADATA) puis le transfert (DATA) ;
+ * le client n'attend pas les réponses avant d'envoyer le fichier suivant
+ * et les acquittements (TRANSFER_SUCCESS / TRANSFER_FAIL) repartent avec
+ * le numéro du fichier.
+ *
+ * Un fichier stocké est téléchargé par GET : le contenu part en trames
+ * DATA produites à la demande du moteur (voir FileDownload), rechiffrées
+ * avec la clé de la session.
+ *
+ * Le moteur (bloquant ou NIO) décode les trames entrantes et les confie à
+ * onFrame(). Les réponses partent par le FrameSink fourni par le moteur.
+ * Une trame inattendue lève une ProtocolException : le moteur ferme la connexion.
+ *
+ * Un calcul long (vérification du mot de passe, signatures d'une version
+ * stockée) n'occupe pas le thread du moteur : il part sur un pool et la
+ * session est suspendue (isSuspended), comme pendant l'attente d'un
+ * Receiver qui ne peut pas encore recevoir (voir Receiver.whenReady).
+ * Le moteur cesse alors de lui confier des trames ; à la fin du calcul, le
+ * signal wakeup lui demande d'appeler resume() sur son thread, qui exécute
+ * la suite.
+ */
+class ServerSession {
+
+    enum State { AUTHENTICATION, AUTHENTICATED, FINISHED }
+
+    private final ServerContext context;
+    private final ServerMetrics metrics;
+    private final TrafficShaper shaper;
+    private final FrameSink sink;
+    private final Runnable wakeup;
+    private final String remoteAddress;
+    private final FrameEncoder encoder = new FrameEncoder();
+
+    private State state = State.AUTHENTICATION;
+    private String username;
+    private SecretKey sessionKey = CryptoUtils.getSecretKey();
+    private boolean keyExchanged = false;
+    private boolean filesStarted = false;
+    private final Map<Integer, Upload> uploads = new HashMap<>();
+    private boolean closed = false;
+    // Défi des preuves de possession de la session (voir PossessionProof)
+    private byte[] challenge;
+    // Session comptée auprès du TrafficShaper (après authentification)
+    private boolean shaped = false;
+    private long throttleNanos = 0;
+    // Suites des calculs terminés hors du thread de la session (voir offload)
+    private final ConcurrentLinkedQueue<Resumption> resumptions = new ConcurrentLinkedQueue<>();
+    private boolean suspended = false;
+
+    /**
+     * @param wakeup appelé depuis un autre thread quand la session attend
+     *               resume() (voir isSuspended)
+     */
+    ServerSession(ServerContext context, FrameSink sink, Runnable wakeup,
+                  String remoteAddress) {
+        this.context = context;
+        this.metrics = context.getMetrics();
+        this.shaper = context.getTrafficShaper();
+        // Les octets envoyés sont comptés au passage
+        this.sink = new FrameSink() {
+            @Override
+            public void send(ByteBuffer frame) throws IOException {
+                metrics.addBytesSent(frame.remaining());
+                sink.send(frame);
+            }
+
+            @Override
+            public void stream(FrameSource source) throws IOException {
+                sink.stream(counted(source));
+            }
+        };
+        this.wakeup = wakeup;
+        this.remoteAddress = remoteAddress;
+        metrics.sessionOpened();
+    }
+
+    State getState() { return state; }
+
+    boolean isFinished() { return state == State.FINISHED; }
+
+    /**
+     * Vrai pendant un calcul confié à un autre thread : le moteur ne doit
+     * plus appeler onFrame() avant que resume() ait levé la suspension
+     */
+    boolean isSuspended() { return suspended; }
+
+    /**
+     * Exécute les suites des calculs terminés, sur le thread de la session ;
+     * le moteur l'appelle après chaque signal wakeup. Une session fermée
+     * entre-temps ne les exécute pas.
+     */
+    void resume() throws IOException {
+        Resumption resumption;
+        while ((resumption = resumptions.poll()) != null) {
+            suspended = false;
+            resumption.run(closed);
+        }
+    }
+
+    /**
+     * Vrai si des fichiers sont en cours de réception
+     * (une fermeture de connexion est alors prématurée)
+     */
+    boolean hasPendingUploads() { return !uploads.isEmpty(); }
+
+    /**
+     * Temps pendant lequel le moteur doit suspendre la lecture de cette
+     * connexion pour respecter les limites de débit (remis à zéro)
+     */
+    long takeThrottleNanos() {
+        long nanos = throttleNanos;
+        throttleNanos = 0;
+        return nanos;
+    }
+
+    /**
+     * Traite une trame complète reçue du client
+     */
+    void onFrame(FrameDecoder frame) throws IOException {
+        long frameBytes = ProtocolConstants.FRAME_HEADER_SIZE + frame.getPayload().remaining();
+        metrics.addBytesReceived(frameBytes);
+        if (shaped) {
+            // Les réservations successives s'ajoutent : la dernière donne l'attente totale
+            throttleNanos = Math.max(throttleNanos, shaper.reserve(username, frameBytes,
+                frame.getType() == ProtocolConstants.DATA));
+        }
+        switch (state) {
+            case AUTHENTICATION:
+                expect(frame, ProtocolConstants.AUTH);
+                handleAuthentication(frame.readString(), frame.readString());
+                break;
+            case AUTHENTICATED:
+                if (frame.getType() == ProtocolConstants.KEY_EXCHANGE) {
+                    handleKeyExchange(frame);
+                    break;
+                }
+                // La clé de session ne change plus une fois les fichiers commencés
+                filesStarted = true;
+                if (frame.getType() == ProtocolConstants.DATA) {
+                    handleData(frame.readInt(), frame.getPayload());
+                } else if (frame.getType() == ProtocolConstants.DATA_END) {
+                    handleDataEnd(frame.readInt());
+                } else {
+                    long start = System.nanoTime();
+                    handleMetadata(frame);
+                    metrics.record(ServerMetrics.Phase.NEGOTIATION, start);
+                }
+                break;
+            default:
+                throw new ProtocolException("Trame inattendue après la fin de la session");
+        }
+    }
+
+    /**
+     * Trame de négociation d'un fichier, selon le mode de transfert
+     */
+    private void handleMetadata(FrameDecoder frame) throws IOException {
+        if (frame.getType() == ProtocolConstants.METADATA) {
+            handleNegotiation(new FileMetadata(frame.readInt(), frame.readString(),
+                frame.readLong(), frame.readString()), readProof(frame));
+        } else if (frame.getType() == ProtocolConstants.RANGE_METADATA) {
+            handleRangeNegotiation(frame.readInt(), frame.readString(),
+                new FileMetadata(0, frame.readString(), frame.readLong(),
+                    frame.readString()),
+                frame.readLong(), frame.readLong());
+        } else if (frame.getType() == ProtocolConstants.RESUME_METADATA) {
+            handleResumeNegotiation(frame.readInt(), frame.readString(),
+                new FileMetadata(0, frame.readString(), frame.readLong(),
+                    frame.readString()), readProof(frame));
+        } else if (frame.getType() == ProtocolConstants.DELTA_METADATA) {
+            handleDeltaNegotiation(new FileMetadata(frame.readInt(), frame.readString(),
+                frame.readLong(), frame.readString()), readProof(frame));
+        } else if (frame.getType() == ProtocolConstants.COMPRESSED_METADATA) {
+            handleCompressedNegotiation(new FileMetadata(frame.readInt(),
+                frame.readString(), frame.readLong(), frame.readString()),
+                frame.readString(), readProof(frame));
+        } else if (frame.getType() == ProtocolConstants.GCM_METADATA) {
+            FileMetadata whole = new FileMetadata(frame.readInt(), frame.readString(),
+                frame.readLong(), frame.readString());
+            byte[] salt = new byte[ChunkCipher.SALT_SIZE];
+            frame.readBytes(salt);
+            handleChunkedNegotiation(whole, salt, readProof(frame));
+        } else if (frame.getType() == ProtocolConstants.TREE_METADATA) {
+            handleTreeNegotiation(new FileMetadata(frame.readInt(), frame.readString(),
+                frame.readLong(), frame.readString()), frame);
+        } else if (frame.getType() == ProtocolConstants.PACK_METADATA) {
+            handlePackNegotiation(frame.readInt(), frame);
+        } else if (frame.getType() == ProtocolConstants.GET) {
+            handleGet(frame.readInt(), frame.readString());
+        } else {
+            throw new ProtocolException("Trame inattendue: " + frame.getType());
+        }
+    }
+
+    /**
+     * Libère les ressources ; les transferts interrompus sont abandonnés
+     */
+    void close() {
+        for (Upload upload : uploads.values()) {
+            upload.receiver.abort();
+            metrics.fileFailed();
+        }
+        uploads.clear();
+        state = State.FINISHED;
+        if (shaped) {
+            shaped = false;
+            shaper.closeSession(username);
+        }
+        if (!closed) {
+            closed = true;
+            metrics.sessionClosed();
+        }
+    }
+
+    /**
+     * Phase 1 : Authentification
+     *
+     * PBKDF2 est volontairement coûteux : la vérification passe par le pool
+     * d'authentification du contexte, borné. Une demande au-delà de la
+     * limite est refusée comme un mot de passe invalide.
+     */
+    private void handleAuthentication(String username, String password) throws IOException {
+        long start = System.nanoTime();
+        offload(context.getLoginPool(),
+            () -> context.getAuthentication().authenticate(username, password),
+            (authenticated, error) -> {
+                metrics.record(ServerMetrics.Phase.AUTH, start);
+                if (error instanceof RejectedExecutionException) {
+                    Log.warn("Trop d'authentifications en cours, refus pour: " + remoteAddress);
+                } else if (error != null) {
+                    Log.error("Erreur d'authentification pour " + remoteAddress + ": " +
+                        error.getMessage());
+                }
+                finishAuthentication(username, Boolean.TRUE.equals(authenticated));
+            });
+    }
+
+    private void finishAuthentication(String username, boolean authenticated)
+            throws IOException {
+        if (!authenticated) {
+            Log.info("Authentification échouée pour: " + remoteAddress);
+        } else if (!shaper.openSession(username)) {
+            Log.warn("Trop de sessions simultanées pour: " + username);
+        } else {
+            Log.info("Authentification réussie pour: " + username);
+            this.username = username;
+            shaped = true;
+            state = State.AUTHENTICATED;
+            challenge = PossessionProof.newChallenge();
+            sink.send(encoder.begin(ProtocolConstants.AUTH_OK)
+                .putBytes(challenge, 0, challenge.length).finish());
+            return;
+        }
+        state = State.FINISHED;
+        sink.send(encoder.begin(ProtocolConstants.AUTH_FAIL).finish());
+    }
+
+    /**
+     * Exécute work sur executor et suspend la session jusqu'à ce que then
+     * reçoive son résultat (ou son exception), sur le thread de la session.
+     * Si la session est fermée entre-temps, then n'est pas appelé et un
+     * résultat AutoCloseable est fermé.
+     */
+    private <T> void offload(Executor executor, Callable<T> work, Continuation<T> then)
+            throws IOException {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(work.call());
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            then.accept(null, e);
+            return;
+        }
+        await(result, then);
+    }
+
+    /**
+     * Suspend la session jusqu'à ce que then reçoive le résultat de pending,
+     * sur le thread de la session (mêmes règles que offload)
+     */
+    private <T> void await(CompletableFuture<T> pending, Continuation<T> then) {
+        suspended = true;
+        pending.whenComplete((done, error) -> {
+            Exception failure = error == null || error instanceof Exception ?
+                (Exception) error : new Exception(error);
+            resumptions.add(abandoned -> {
+                if (!abandoned) {
+                    then.accept(done, failure);
+                } else if (done instanceof AutoCloseable) {
+                    try {
+                        ((AutoCloseable) done).close();
+                    } catch (Exception e) {
+                        // session déjà fermée
+                    }
+                }
+            });
+            wakeup.run();
+        });
+    }
+
+    private interface Continuation<T> {
+        void accept(T result, Exception error) throws IOException;
+    }
+
+    private interface Resumption {
+        void run(boolean abandoned) throws IOException;
+    }
+
+    /**
+     * Phase 1 bis : Établissement de la clé de session
+     *
+     * Un ticket valide évite l'accord de clés ECDH : la clé est dérivée de
+     * son secret de reprise et des nonces. Dans tous les cas, un nouveau
+     * ticket est émis (le ticket présenté n'est plus valable). Les calculs
+     * (X25519, dérivation, tickets) passent par les workers du contexte.
+     */
+    private void handleKeyExchange(FrameDecoder frame) throws IOException {
+        if (keyExchanged || filesStarted) {
+            throw new ProtocolException("Échange de clés inattendu");
+        }
+        long start = System.nanoTime();
+        byte[] clientNonce = new byte[KeyExchange.NONCE_SIZE];
+        frame.readBytes(clientNonce);
+        byte[] ticket = readKeyField(frame);
+        byte[] clientPublic = readKeyField(frame);
+        keyExchanged = true;
+
+        String username = this.username;
+        offload(context.getWorkers(),
+            () -> establishKeys(username, clientNonce, ticket, clientPublic),
+            (established, error) -> {
+                if (error instanceof GeneralSecurityException) {
+                    throw new ProtocolException("Échange de clés invalide: " +
+                        error.getMessage());
+                } else if (error != null) {
+                    throw new IOException("Échange de clés impossible", error);
+                }
+                sessionKey = established.keys.getKey();
+                metrics.record(ServerMetrics.Phase.KEY_EXCHANGE, start);
+                Log.info("Clé de session établie pour " + username +
+                    (established.resumed ? " (reprise de session)" : " (ECDH)"));
+                sink.send(encoder.begin(ProtocolConstants.KEY_EXCHANGE_REPLY)
+                    .putBytes(established.serverNonce, 0, established.serverNonce.length)
+                    .putInt(established.serverPublic.length)
+                    .putBytes(established.serverPublic, 0, established.serverPublic.length)
+                    .putInt(established.ticket.length)
+                    .putBytes(established.ticket, 0, established.ticket.length)
+                    .putInt(context.getSessionTickets().getTtlSeconds())
+                    .finish());
+            });
+    }
+
+    /**
+     * Dérive les clés de la session et émet son nouveau ticket (hors du
+     * thread de la session, voir offload)
+     */
+    private EstablishedKeys establishKeys(String username, byte[] clientNonce, byte[] ticket,
+                                          byte[] clientPublic) throws GeneralSecurityException {
+        SessionTickets tickets = context.getSessionTickets();
+        byte[] resumption = ticket.length > 0 ? tickets.redeem(ticket, username) : null;
+        byte[] serverNonce = KeyExchange.newNonce();
+        byte[] serverPublic = new byte[0];
+        KeyExchange.SessionKeys keys;
+        if (resumption != null) {
+            keys = KeyExchange.derive(resumption, clientNonce, serverNonce);
+        } else {
+            KeyExchange exchange = new KeyExchange();
+            serverPublic = exchange.getPublicKey();
+            keys = KeyExchange.derive(exchange.agree(clientPublic), clientNonce, serverNonce);
+        }
+        byte[] newTicket = tickets.issue(username, keys.getResumptionSecret());
+        return new EstablishedKeys(keys, serverNonce, serverPublic,
+            newTicket == null ? new byte[0] : newTicket, resumption != null);
+    }
+
+    private static class EstablishedKeys {
+        private final KeyExchange.SessionKeys keys;
+        private final byte[] serverNonce;
+        private final byte[] serverPublic;
+        private final byte[] ticket;
+        private final boolean resumed;
+
+        EstablishedKeys(KeyExchange.SessionKeys keys, byte[] serverNonce, byte[] serverPublic,
+                        byte[] ticket, boolean resumed) {
+            this.keys = keys;
+            this.serverNonce = serverNonce;
+            this.serverPublic = serverPublic;
+            this.ticket = ticket;
+            this.resumed = resumed;
+        }
+    }
+
+    /**
+     * Champ [longueur:4][octets] d'une trame KEY_EXCHANGE
+     */
+    private static byte[] readKeyField(FrameDecoder frame) throws ProtocolException {
+        int length = frame.readInt();
+        if (length < 0 || length > ProtocolConstants.MAX_KEY_FIELD) {
+            throw new ProtocolException("Champ d'échange de clés invalide: " + length);
+        }
+        byte[] field = new byte[length];
+        frame.readBytes(field);
+        return field;
+    }
+
+    /**
+     * Preuve de possession qui termine une trame de négociation
+     */
+    private static byte[] readProof(FrameDecoder frame) throws ProtocolException {
+        byte[] proof = new byte[PossessionProof.SIZE];
+        frame.readBytes(proof);
+        return proof;
+    }
+
+    /**
+     * Phase 2 : Négociation (récupération des métadonnées d'un fichier)
+     *
+     * @param proof preuve de possession du contenu (voir deduplicate())
+     */
+    private void handleNegotiation(FileMetadata metadata, byte[] proof) throws IOException {
+        int fileId = metadata.getFileId();
+        // Le contenu chiffré contient toujours au moins un bloc de padding
+        if (!admit(fileId, metadata.getFileSize() > 0, metadata.getFilename()) ||
+                deduplicate(fileId, metadata.getFilename(), metadata.getHash(),
+                    metadata.getFileSize(), proof)) {
+            return;
+        }
+        receiveWhole(fileId, metadata.getFilename(), metadata.getFileSize(), metadata.getHash());
+    }
+
+    /**
+     * Réception d'un fichier entier chiffré d'un seul flux
+     *
+     * @param encryptedSize taille chiffrée annoncée par le client
+     */
+    private void receiveWhole(int fileId, String filename, long encryptedSize, String hash)
+            throws IOException {
+        if (accept(fileId, () -> withFile(filename, encryptedSize, file ->
+                new FileReceiver(file, encryptedSize, hash, context.getPlainBuffers(),
+                    sessionKey, metrics))) == null) {
+            return;
+        }
+        Log.info("Prêt pour le transfert: " + filename + " (" + encryptedSize + " bytes)");
+        sink.send(encoder.begin(ProtocolConstants.READY_FOR_TRANSFER).putInt(fileId).finish());
+    }
+
+    /**
+     * Phase 2 bis : Négociation d'une plage d'un fichier envoyé sur plusieurs
+     * connexions en parallèle
+     *
+     * @param whole  métadonnées du fichier entier (taille en clair, hash global)
+     * @param offset position de la plage dans le fichier en clair
+     * @param length longueur de la plage en clair
+     */
+    private void handleRangeNegotiation(int fileId, String transferId, FileMetadata whole,
+                                        long offset, long length) throws IOException {
+        if (!admit(fileId, whole.getFileSize() >= 0, whole.getFilename())) {
+            return;
+        }
+
+        ParallelUploads.Assembly assembly;
+        try {
+            assembly = context.getParallelUploads().join(username + "/" + transferId, username,
+                context.getConfig(), whole.getFilename(), whole.getFileSize(), whole.getHash());
+        } catch (IOException e) {
+            Log.warn("Transfert parallèle refusé: " + e.getMessage());
+            fail(fileId, e.getMessage());
+            return;
+        }
+        if (!assembly.beginRange(offset, length)) {
+            fail(fileId, "Plage invalide ou transfert abandonné");
+            return;
+        }
+
+        if (accept(fileId, () -> {
+            try {
+                return new RangeReceiver(assembly, offset, length, context.getPlainBuffers(),
+                    sessionKey, metrics);
+            } catch (Exception e) {
+                assembly.failRange();
+                throw e;
+            }
+        }) == null) {
+            return;
+        }
+
+        Log.info("Prêt pour la plage [" + offset + ", " + (offset + length) +
+            "[ de " + whole.getFilename());
+        sink.send(encoder.begin(ProtocolConstants.READY_FOR_TRANSFER).putInt(fileId).finish());
+    }
+
+    /**
+     * Phase 2 ter : Négociation d'un transfert reprenable
+     * Le serveur indique la position du dernier point de reprise vérifié ;
+     * le client n'envoie que la suite.
+     *
+     * @param whole métadonnées du fichier entier (taille en clair, hash)
+     * @param proof preuve de possession du contenu
+     */
+    private void handleResumeNegotiation(int fileId, String uploadId, FileMetadata whole,
+                                         byte[] proof) throws IOException {
+        if (!admit(fileId, whole.getFileSize() >= 0, whole.getFilename()) ||
+                deduplicate(fileId, whole.getFilename(), whole.getHash(),
+                    CryptoUtils.getEncryptedSize(whole.getFileSize()), proof)) {
+            return;
+        }
+
+        ResumableUploads.Transfer transfer;
+        try {
+            transfer = context.getResumableUploads().open(username + "/" + uploadId,
+                context.getConfig(), whole.getFilename(), whole.getFileSize(), whole.getHash());
+        } catch (Exception e) {
+            Log.warn("Transfert reprenable refusé: " + e.getMessage());
+            fail(fileId, e.getMessage());
+            return;
+        }
+
+        ResumableReceiver receiver = accept(fileId, () -> {
+            try {
+                return new ResumableReceiver(transfer, context.getPlainBuffers(), sessionKey,
+                    metrics);
+            } catch (Exception e) {
+                transfer.suspend();
+                throw e;
+            }
+        });
+        if (receiver == null) {
+            return;
+        }
+
+        Log.info("Prêt pour le transfert: " + whole.getFilename() +
+            " à partir de l'octet " + receiver.getOffset());
+        sink.send(encoder.begin(ProtocolConstants.RESUME_OFFSET)
+            .putInt(fileId).putLong(receiver.getOffset()).finish());
+    }
+
+    /**
+     * Phase 2 quater : Négociation d'une synchronisation différentielle
+     * Si une version de ce fichier est déjà stockée, le serveur envoie les
+     * signatures de ses blocs ; sinon le transfert est un transfert complet.
+     * Les signatures sont calculées (ou trouvées en cache) sur le pool des
+     * workers : la session reste suspendue jusque-là.
+     *
+     * @param whole métadonnées du nouveau fichier (taille en clair, hash)
+     * @param proof preuve de possession du nouveau contenu
+     */
+    private void handleDeltaNegotiation(FileMetadata whole, byte[] proof) throws IOException {
+        int fileId = whole.getFileId();
+        long encryptedSize = CryptoUtils.getEncryptedSize(whole.getFileSize());
+        if (!admit(fileId, whole.getFileSize() >= 0, whole.getFilename()) ||
+                deduplicate(fileId, whole.getFilename(), whole.getHash(), encryptedSize,
+                    proof)) {
+            return;
+        }
+        ContentStore store = context.getContentStore();
+        ContentStore.StoredFile stored = store.lookup(whole.getFilename());
+        Path blob = stored == null ? null : store.blobOf(stored.hash);
+        Path named = store.pathOf(whole.getFilename());
+        if (blob == null && !Files.isRegularFile(named)) {
+            receiveWhole(fileId, whole.getFilename(), encryptedSize, whole.getHash());
+            return;
+        }
+
+        // La base est de préférence le blob de la version indexée : il ne change
+        // jamais, ses signatures peuvent être gardées en cache
+        String cacheKey = blob == null ? null : stored.hash;
+        Path basePath = blob == null ? named : blob;
+        offload(context.getWorkers(), () -> openBase(basePath, cacheKey), (base, error) -> {
+            if (error != null) {
+                Log.warn("Impossible de préparer la synchronisation: " + error.getMessage());
+                fail(fileId, "Stockage indisponible");
+                return;
+            }
+            BlockSignatures signatures = base.signatures;
+            if (accept(fileId, () -> withFile(whole.getFilename(), whole.getFileSize(), file ->
+                    new DeltaReceiver(file, base.channel, signatures.getBlockSize(),
+                        signatures.getFileSize(), whole.getFileSize(), whole.getHash(),
+                        sessionKey, metrics))) == null) {
+                base.close();
+                return;
+            }
+
+            Log.info("Synchronisation différentielle de " + whole.getFilename() + ": " +
+                signatures.getCount() + " blocs de " + signatures.getBlockSize() + " bytes");
+            sendSignatures(fileId, signatures);
+        });
+    }
+
+    /**
+     * Ouvre la version de base et obtient ses signatures (calculées hors du
+     * thread de la session, voir offload)
+     *
+     * La version lue reste ouverte : un remplacement pendant le transfert est
+     * sans effet.
+     *
+     * @param hash contenu de la base si c'est un blob (signatures en cache),
+     *             null pour un fichier nommé
+     */
+    private DeltaBase openBase(Path path, String hash) throws Exception {
+        FileChannel channel = FileChannel.open(path);
+        try {
+            SignatureCache cache = context.getSignatureCache();
+            BlockSignatures signatures = hash == null ? null : cache.get(hash);
+            if (signatures == null) {
+                long size = channel.size();
+                signatures = BlockSignatures.compute(Channels.newInputStream(channel), size,
+                    BlockSignatures.chooseBlockSize(size));
+                if (hash != null) {
+                    cache.put(hash, signatures);
+                }
+            }
+            return new DeltaBase(channel, signatures);
+        } catch (Exception e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Version de base d'une synchronisation différentielle ; fermée avec la
+     * session si celle-ci se termine avant la fin du calcul
+     */
+    private static class DeltaBase implements AutoCloseable {
+        private final FileChannel channel;
+        private final BlockSignatures signatures;
+
+        DeltaBase(FileChannel channel, BlockSignatures signatures) {
+            this.channel = channel;
+            this.signatures = signatures;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Phase 2 quinquies : Négociation d'un transfert compressé
+     * Le serveur répond READY avec l'algorithme retenu ("none" s'il ne
+     * connaît pas celui demandé : le client envoie alors des morceaux bruts).
+     *
+     * @param whole métadonnées du fichier (taille en clair, hash)
+     * @param codecName algorithme demandé par le client
+     * @param proof preuve de possession du contenu
+     */
+    private void handleCompressedNegotiation(FileMetadata whole, String codecName,
+                                             byte[] proof) throws IOException {
+        int fileId = whole.getFileId();
+        if (!admit(fileId, whole.getFileSize() >= 0, whole.getFilename()) ||
+                deduplicate(fileId, whole.getFilename(), whole.getHash(),
+                    CryptoUtils.getEncryptedSize(whole.getFileSize()), proof)) {
+            return;
+        }
+
+        CompressionCodec codec = CompressionCodecs.create(codecName);
+        String chosen = codec != null ? codec.getName() : CompressionCodecs.NONE;
+        if (accept(fileId, () -> withFile(whole.getFilename(), whole.getFileSize(), file ->
+                new CompressedReceiver(file, whole.getFileSize(), whole.getHash(), sessionKey,
+                    codec, metrics))) == null) {
+            return;
+        }
+
+        Log.info("Prêt pour le transfert compressé (" + chosen + "): " +
+            whole.getFilename() + " (" + whole.getFileSize() + " bytes)");
+        sink.send(encoder.begin(ProtocolConstants.READY_FOR_TRANSFER)
+            .putInt(fileId).putString(chosen).finish());
+    }
+
+    /**
+     * Phase 2 sexies : Négociation d'un transfert en morceaux AES-GCM,
+     * déchiffrés en parallèle
+     *
+     * @param whole métadonnées du fichier (taille en clair, hash)
+     * @param salt  sel choisi par le client pour dériver la clé du transfert
+     * @param proof preuve de possession du contenu
+     */
+    private void handleChunkedNegotiation(FileMetadata whole, byte[] salt, byte[] proof)
+            throws IOException {
+        int fileId = whole.getFileId();
+        if (!admit(fileId, whole.getFileSize() >= 0, whole.getFilename()) ||
+                deduplicate(fileId, whole.getFilename(), whole.getHash(),
+                    CryptoUtils.getEncryptedSize(whole.getFileSize()), proof)) {
+            return;
+        }
+
+        if (accept(fileId, () -> withFile(whole.getFilename(), whole.getFileSize(), file ->
+                new ParallelChunkReceiver(file, whole.getFileSize(), whole.getHash(),
+                    ProtocolConstants.GCM_CHUNK_SIZE, new ChunkCipher(sessionKey, salt),
+                    context.getCryptoPool(), context.getChunkBuffers(), metrics))) == null) {
+            return;
+        }
+
+        Log.info("Prêt pour le transfert AES-GCM: " + whole.getFilename() +
+            " (" + whole.getFileSize() + " bytes)");
+        sink.send(encoder.begin(ProtocolConstants.READY_FOR_TRANSFER).putInt(fileId).finish());
+    }
+
+    /**
+     * Phase 2 septies : Négociation d'un transfert vérifié par arbre de Merkle
+     * Les hash des feuilles doivent redonner la racine annoncée.
+     *
+     * @param whole métadonnées du fichier (taille en clair, racine de l'arbre)
+     * @param frame suite de la trame : taille et hash des feuilles, preuve de
+     *              possession
+     */
+    private void handleTreeNegotiation(FileMetadata whole, FrameDecoder frame)
+            throws IOException {
+        int fileId = whole.getFileId();
+        int leafSize = frame.readInt();
+        int leafCount = frame.readInt();
+        if (leafSize < MerkleTree.MIN_LEAF_SIZE || leafCount <= 0 ||
+                leafCount > MerkleTree.MAX_LEAVES || whole.getFileSize() < 0 ||
+                leafCount != MerkleTree.leafCount(whole.getFileSize(), leafSize)) {
+            throw new ProtocolException("Arbre de hachage invalide");
+        }
+        byte[] leaves = new byte[leafCount * MerkleTree.HASH_SIZE];
+        frame.readBytes(leaves);
+        byte[] proof = readProof(frame);
+
+        if (!admit(fileId, true, whole.getFilename())) {
+            return;
+        }
+        MerkleTree tree;
+        try {
+            tree = new MerkleTree(leafSize, whole.getFileSize(), leaves);
+        } catch (Exception e) {
+            throw new ProtocolException("Arbre de hachage invalide");
+        }
+        if (!tree.getRootHex().equals(whole.getHash())) {
+            fail(fileId, "Racine de l'arbre de hachage incohérente");
+            return;
+        }
+        if (deduplicate(fileId, whole.getFilename(), whole.getHash(),
+                CryptoUtils.getEncryptedSize(whole.getFileSize()), proof)) {
+            return;
+        }
+
+        if (accept(fileId, () -> withFile(whole.getFilename(), whole.getFileSize(), file ->
+                new MerkleReceiver(file, tree, context.getPlainBuffers(), sessionKey,
+                    metrics))) == null) {
+            return;
+        }
+
+        Log.info("Prêt pour le transfert vérifié: " + whole.getFilename() +
+            " (" + leafCount + " feuilles de " + leafSize + " bytes)");
+        sink.send(encoder.begin(ProtocolConstants.READY_FOR_TRANSFER).putInt(fileId).finish());
+    }
+
+    /**
+     * Phase 2 octies : Négociation d'un lot de petits fichiers envoyés dans
+     * un seul flux chiffré
+     *
+     * @param frame suite de la trame : index des fichiers du lot, avec la
+     *              preuve de possession de chacun
+     */
+    private void handlePackNegotiation(int fileId, FrameDecoder frame) throws IOException {
+        int count = frame.readInt();
+        if (count <= 0 || count > ProtocolConstants.MAX_PACK_FILES) {
+            throw new ProtocolException("Lot invalide: " + count + " fichiers");
+        }
+        List<PackReceiver.Entry> entries = new ArrayList<>(count);
+        String[] filenames = new String[count];
+        byte[][] proofs = new byte[count][];
+        boolean valid = true;
+        for (int i = 0; i < count; i++) {
+            PackReceiver.Entry entry = new PackReceiver.Entry(frame.readString(),
+                frame.readLong(), frame.readString());
+            proofs[i] = readProof(frame);
+            valid &= entry.size >= 0;
+            filenames[i] = entry.filename;
+            entries.add(entry);
+        }
+        if (!admit(fileId, valid, filenames)) {
+            return;
+        }
+
+        // Fichiers déjà présents : enregistrés tout de suite, absents du flux
+        List<Integer> present = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            PackReceiver.Entry entry = entries.get(i);
+            if (context.getContentStore().linkExisting(entry.filename, entry.hash,
+                    CryptoUtils.getEncryptedSize(entry.size), username, challenge, proofs[i])) {
+                metrics.fileDeduplicated();
+                present.add(i);
+            }
+        }
+        if (present.size() == count) {
+            Log.info("Lot de " + count + " fichiers déjà présent, enregistré sans transfert");
+            byte[] status = new byte[count];
+            Arrays.fill(status, ProtocolConstants.PACK_PRESENT);
+            sink.send(PackReceiver.result(
+                encoder.begin(ProtocolConstants.PACK_RESULT).putInt(fileId), status));
+            return;
+        }
+
+        if (accept(fileId, () -> new PackReceiver(context.getConfig(), entries, present,
+                sessionKey, metrics)) == null) {
+            return;
+        }
+
+        Log.info("Prêt pour le lot de " + count + " fichiers (" + present.size() +
+            " déjà présents)");
+        encoder.begin(ProtocolConstants.PACK_READY).putInt(fileId).putInt(present.size());
+        for (int index : present) {
+            encoder.putInt(index);
+        }
+        sink.send(encoder.finish());
+    }
+
+    /**
+     * Contrôles communs à toutes les négociations : numéro de fichier libre,
+     * métadonnées valides, noms publiables (voir ContentStore.isValidName) et
+     * non attribués à un autre utilisateur, nombre de fichiers en cours sur
+     * la session
+     *
+     * @param validSize taille annoncée acceptable pour le mode de transfert
+     * @return false si le fichier est refusé (TRANSFER_FAIL déjà envoyé)
+     */
+    private boolean admit(int fileId, boolean validSize, String... filenames)
+            throws IOException {
+        if (uploads.containsKey(fileId)) {
+            throw new ProtocolException("Numéro de fichier déjà utilisé: " + fileId);
+        }
+        if (!validSize) {
+            Log.info("Négociation échouée pour: " + remoteAddress);
+            fail(fileId, "Métadonnées invalides");
+            return false;
+        }
+        for (String filename : filenames) {
+            if (!ContentStore.isValidName(filename)) {
+                Log.warn("Nom de fichier refusé pour: " + username);
+                fail(fileId, "Nom de fichier invalide");
+                return false;
+            }
+            // Chaque nom appartient à l'utilisateur qui l'a publié le premier
+            ContentStore.StoredFile stored = context.getContentStore().lookup(filename);
+            if (stored != null && !stored.owner.equals(username)) {
+                Log.warn("Nom appartenant à un autre utilisateur refusé pour: " + username);
+                fail(fileId, "Nom déjà utilisé par un autre utilisateur");
+                return false;
+            }
+        }
+        if (uploads.size() >= ProtocolConstants.MAX_PENDING_FILES) {
+            fail(fileId, "Trop de fichiers en cours sur la session");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Contenu déjà stocké : le fichier est enregistré sans transfert (ALREADY_HAVE)
+     * si la preuve de possession, calculée avec le défi de la session, correspond
+     *
+     * @return true si le client n'a rien à envoyer
+     */
+    private boolean deduplicate(int fileId, String filename, String hash, long encryptedSize,
+                                byte[] proof) throws IOException {
+        if (!context.getContentStore().linkExisting(filename, hash, encryptedSize, username,
+                challenge, proof)) {
+            return false;
+        }
+        alreadyHave(fileId, filename);
+        return true;
+    }
+
+    /**
+     * Prépare la réception d'un fichier accepté
+     *
+     * @return le Receiver enregistré, ou null si la réception n'a pas pu être
+     *         préparée (TRANSFER_FAIL déjà envoyé)
+     */
+    private <R extends Receiver> R accept(int fileId, Opener<R> opener) throws IOException {
+        R receiver;
+        try {
+            receiver = opener.open();
+        } catch (Exception e) {
+            Log.warn("Impossible de préparer la réception: " + e.getMessage());
+            fail(fileId, "Stockage indisponible");
+            return null;
+        }
+        uploads.put(fileId, new Upload(fileId, receiver));
+        return receiver;
+    }
+
+    /**
+     * Receiver écrivant dans un nouveau fichier temporaire, supprimé si le
+     * Receiver ne peut pas être créé
+     */
+    private <R extends Receiver> R withFile(String filename, long sizeHint,
+                                            FileOpener<R> opener) throws Exception {
+        PartialFile file = new PartialFile(context.getConfig(), filename, sizeHint);
+        try {
+            return opener.open(file);
+        } catch (Exception e) {
+            file.abort();
+            throw e;
+        }
+    }
+
+    private interface Opener<R extends Receiver> {
+        R open() throws Exception;
+    }
+
+    private interface FileOpener<R extends Receiver> {
+        R open(PartialFile file) throws Exception;
+    }
+
+    /**
+     * Téléchargement : le fichier part à la suite des réponses déjà envoyées,
+     * au rythme auquel le client le lit
+     *
+     * Seul l'utilisateur qui a publié le nom peut le télécharger ; le nom
+     * d'un autre utilisateur reçoit la même réponse qu'un nom inconnu.
+     */
+    private void handleGet(int fileId, String filename) throws IOException {
+        ContentStore.StoredFile stored = context.getContentStore().lookup(filename, username);
+        if (stored == null) {
+            fail(fileId, "Fichier inconnu");
+            return;
+        }
+        Log.info("Envoi de " + filename + " à " + username + " (" + stored.size + " bytes)");
+        sink.stream(new FileDownload(context, fileId, filename, stored, sessionKey));
+    }
+
+    /**
+     * Source dont les trames sont comptées dans les octets envoyés
+     */
+    private FrameSource counted(FrameSource source) {
+        return new FrameSource() {
+            @Override
+            public ByteBuffer next() throws IOException {
+                ByteBuffer frame = source.next();
+                if (frame != null) {
+                    metrics.addBytesSent(frame.remaining());
+                }
+                return frame;
+            }
+
+            @Override
+            public void close() {
+                source.close();
+            }
+        };
+    }
+
+    /**
+     * Envoie les signatures en trames d'au plus SIGNATURES_PER_FRAME blocs
+     */
+    private void sendSignatures(int fileId, BlockSignatures signatures) throws IOException {
+        // Encodeur dédié : les grosses trames ne gonflent pas celui de la session
+        FrameEncoder frames = new FrameEncoder();
+        byte[] strong = signatures.getStrong();
+        int first = 0;
+        do {
+            int count = Math.min(ProtocolConstants.SIGNATURES_PER_FRAME,
+                signatures.getCount() - first);
+            frames.begin(ProtocolConstants.SIGNATURES)
+                .putInt(fileId)
+                .putInt(signatures.getBlockSize())
+                .putLong(signatures.getFileSize())
+                .putInt(first)
+                .putInt(count);
+            for (int i = first; i < first + count; i++) {
+                frames.putInt(signatures.getWeak(i))
+                    .putBytes(strong, i * BlockSignatures.STRONG_HASH_SIZE,
+                        BlockSignatures.STRONG_HASH_SIZE);
+            }
+            sink.send(frames.finish());
+            first += count;
+        } while (first < signatures.getCount());
+    }
+
+    /**
+     * Phase 3 : Transfert, une trame DATA à la fois
+     * Les données d'un fichier refusé à la négociation sont ignorées : le
+     * client les a envoyées sans attendre la réponse.
+     */
+    private void handleData(int fileId, ByteBuffer data) throws IOException {
+        Upload upload = uploads.get(fileId);
+        if (upload == null) {
+            return;
+        }
+        if (data.remaining() > upload.remaining) {
+            throw new ProtocolException("Données au-delà de la taille annoncée");
+        }
+        try {
+            upload.remaining -= data.remaining();
+            upload.receiver.write(data);
+        } catch (Exception e) {
+            abort(upload, e);
+            return;
+        }
+        CompletableFuture<Void> ready = upload.receiver.whenReady();
+        if (ready != null) {
+            await(ready, (ignored, error) -> afterData(upload));
+        } else {
+            afterData(upload);
+        }
+    }
+
+    private void afterData(Upload upload) throws IOException {
+        if (upload.remaining == 0) {
+            complete(upload);
+        }
+    }
+
+    /**
+     * Fin d'un flux de taille inconnue (différentiel, compressé ou lot)
+     */
+    private void handleDataEnd(int fileId) throws IOException {
+        Upload upload = uploads.get(fileId);
+        if (upload == null) {
+            return;
+        }
+        if (upload.receiver.getExpectedBytes() != Receiver.STREAMED) {
+            throw new ProtocolException("DATA_END inattendu pour le fichier " + fileId);
+        }
+        complete(upload);
+    }
+
+    /**
+     * Phase 3 : toutes les données attendues sont reçues ; le Receiver
+     * vérifie et publie le fichier, ou attend un nouveau tour
+     */
+    private void complete(Upload upload) throws IOException {
+        boolean done;
+        try {
+            done = upload.receiver.complete(upload);
+        } catch (Exception e) {
+            abort(upload, e);
+            return;
+        }
+        if (done) {
+            uploads.remove(upload.fileId);
+        } else {
+            upload.remaining = upload.receiver.getExpectedBytes();
+        }
+    }
+
+    private void abort(Upload upload, Exception e) throws IOException {
+        Log.error("Erreur lors du transfert: " + e.getMessage(), e);
+        uploads.remove(upload.fileId);
+        upload.receiver.abort();
+        fail(upload.fileId, "Erreur lors du transfert");
+    }
+
+    /**
+     * Contenu déjà stocké : le fichier est enregistré sans transfert
+     */
+    private void alreadyHave(int fileId, String filename) throws IOException {
+        Log.info("Contenu déjà présent, fichier enregistré sans transfert: " +
+            filename);
+        metrics.fileDeduplicated();
+        sink.send(encoder.begin(ProtocolConstants.ALREADY_HAVE).putInt(fileId).finish());
+    }
+
+    /**
+     * Fichier (ou plage) reçu et vérifié
+     */
+    private void succeed(Upload upload) throws IOException {
+        metrics.record(ServerMetrics.Phase.RECEIVE, upload.started);
+        metrics.fileReceived();
+        sink.send(encoder.begin(ProtocolConstants.TRANSFER_SUCCESS)
+            .putInt(upload.fileId).finish());
+    }
+
+    private void fail(int fileId, String reason) throws IOException {
+        metrics.fileFailed();
+        sink.send(encoder.begin(ProtocolConstants.TRANSFER_FAIL)
+            .putInt(fileId).putString(reason).finish());
+    }
+
+    private static void expect(FrameDecoder frame, byte type) throws ProtocolException {
+        if (frame.getType() != type) {
+            throw new ProtocolException("Trame inattendue: " + frame.getType() +
+                " (attendu " + type + ")");
+        }
+    }
+
+    /**
+     * Fichier (ou plage de fichier) en cours de réception : octets attendus
+     * jusqu'au prochain complete() et réponses au nom du fichier
+     */
+    private class Upload implements Receiver.Completion {
+        private final int fileId;
+        private final Receiver receiver;
+        private long remaining;
+        private final long started = System.nanoTime();
+
+        Upload(int fileId, Receiver receiver) {
+            this.fileId = fileId;
+            this.receiver = receiver;
+            this.remaining = receiver.getExpectedBytes();
+        }
+
+        @Override
+        public ContentStore getStore() {
+            return context.getContentStore();
+        }
+
+        @Override
+        public String getOwner() {
+            return username;
+        }
+
+        @Override
+        public void succeed() throws IOException {
+            ServerSession.this.succeed(this);
+        }
+
+        @Override
+        public void fail(String reason) throws IOException {
+            ServerSession.this.fail(fileId, reason);
+        }
+
+        @Override
+        public FrameEncoder reply(byte type) {
+            return encoder.begin(type).putInt(fileId);
+        }
+
+        @Override
+        public void send(ByteBuffer frame) throws IOException {
+            sink.send(frame);
+        }
+    }
+
+    /**
+     * Métadonnées d'un fichier annoncées pendant la négociation
+     */
+    static class FileMetadata {
+        private final int fileId;
+        private final String filename;
+        private final long fileSize;
+        private final String hash;
+
+        FileMetadata(int fileId, String filename, long fileSize, String hash) {
+            this.fileId = fileId;
+            this.filename = filename;
+            this.fileSize = fileSize;
+            this.hash = hash;
+        }
+
+        int getFileId() { return fileId; }
+        String getFilename() { return filename; }
+        long getFileSize() { return fileSize; }
+        String getHash() { return hash; }
+    }
+}
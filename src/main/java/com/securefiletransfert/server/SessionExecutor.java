@@ -0,0 +1,100 @@
+package com.securefiletransfert.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exécute les sessions client
+ *
+ * Deux modèles :
+ *   VIRTUAL : un thread virtuel par connexion (pas de limite de threads natifs)
+ *   POOL    : pool borné de threads plateforme, les sessions en excès attendent
+ *
+ * Le nombre de sessions simultanées est limité par un sémaphore : le serveur
+ * réserve une place avant chaque accept(), ce qui laisse les connexions en
+ * excès dans la file d'attente du système (backpressure).
+ */
+public class SessionExecutor {
+
+    public enum Mode { VIRTUAL, POOL }
+
+    private final Mode mode;
+    private final ExecutorService executor;
+    private final Semaphore slots;
+    private final AtomicInteger activeSessions = new AtomicInteger();
+
+    public SessionExecutor(Mode mode, int poolSize, int maxSessions) {
+        this.mode = mode;
+        this.slots = new Semaphore(maxSessions);
+
+        if (mode == Mode.VIRTUAL) {
+            this.executor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("session-", 0).factory());
+        } else {
+            this.executor = new ThreadPoolExecutor(poolSize, poolSize,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                Thread.ofPlatform().name("session-", 0).factory());
+        }
+    }
+
+    public SessionExecutor(ServerConfig config) {
+        this(config.getExecutorMode(), config.getPoolSize(), config.getMaxSessions());
+    }
+
+    /**
+     * Réserve une place pour une nouvelle session
+     * Bloque tant que la limite de sessions simultanées est atteinte
+     */
+    public void acquireSlot() throws InterruptedException {
+        slots.acquire();
+    }
+
+    /**
+     * Libère une place réservée mais non utilisée (échec de accept())
+     */
+    public void releaseSlot() {
+        slots.release();
+    }
+
+    /**
+     * Lance une session sur une place réservée par acquireSlot()
+     * La place est libérée à la fin de la session
+     */
+    public void submit(Runnable session) {
+        activeSessions.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                try {
+                    session.run();
+                } finally {
+                    activeSessions.decrementAndGet();
+                    slots.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            activeSessions.decrementAndGet();
+            slots.release();
+            throw e;
+        }
+    }
+
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Arrête l'exécuteur en laissant les sessions en cours se terminer
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,96 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.CryptoUtils;
+
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Tickets de reprise de session (voir KeyExchange)
+ *
+ * Un ticket est un identifiant aléatoire associé au secret de reprise d'une
+ * session et à son utilisateur. Il ne sert qu'une fois : chaque reprise
+ * consomme le ticket présenté et en émet un nouveau.
+ *
+ * Le cache est borné : au-delà de maxTickets, le plus ancien ticket est
+ * oublié ; un ticket expiré (ttl) est refusé et retiré. Les tickets sont
+ * rangés par ordre d'émission, qui est aussi leur ordre d'expiration.
+ */
+class SessionTickets {
+
+    static final int TICKET_SIZE = 32;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int maxTickets;
+    private final int ttlSeconds;
+    private final LinkedHashMap<String, Ticket> tickets = new LinkedHashMap<>();
+
+    /**
+     * @param ttlSeconds durée de validité d'un ticket, 0 pour désactiver la reprise
+     */
+    SessionTickets(int maxTickets, int ttlSeconds) {
+        this.maxTickets = maxTickets;
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    int getTtlSeconds() { return ttlSeconds; }
+
+    /**
+     * Émet un ticket pour le secret de reprise d'une session
+     *
+     * @return le ticket à transmettre au client, null si la reprise est désactivée
+     */
+    synchronized byte[] issue(String username, byte[] secret) {
+        if (ttlSeconds == 0) {
+            return null;
+        }
+        long now = System.nanoTime();
+        evictExpired(now);
+        if (tickets.size() >= maxTickets) {
+            Iterator<Ticket> eldest = tickets.values().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        byte[] id = new byte[TICKET_SIZE];
+        RANDOM.nextBytes(id);
+        tickets.put(CryptoUtils.toHex(id),
+            new Ticket(username, secret, now + ttlSeconds * 1_000_000_000L));
+        return id;
+    }
+
+    /**
+     * Consomme un ticket présenté par un client authentifié
+     *
+     * @return le secret de reprise, null si le ticket est inconnu, expiré
+     *         ou émis pour un autre utilisateur
+     */
+    synchronized byte[] redeem(byte[] id, String username) {
+        Ticket ticket = tickets.remove(CryptoUtils.toHex(id));
+        if (ticket == null || ticket.expiresAt - System.nanoTime() <= 0 ||
+                !ticket.username.equals(username)) {
+            return null;
+        }
+        return ticket.secret;
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Ticket> it = tickets.values().iterator();
+        while (it.hasNext() && it.next().expiresAt - now <= 0) {
+            it.remove();
+        }
+    }
+
+    private static class Ticket {
+        private final String username;
+        private final byte[] secret;
+        private final long expiresAt;
+
+        Ticket(String username, byte[] secret, long expiresAt) {
+            this.username = username;
+            this.secret = secret;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
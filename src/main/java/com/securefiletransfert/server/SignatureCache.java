@@ -0,0 +1,63 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.BlockSignatures;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Signatures des blocs des versions stockées, par hash du contenu (LRU)
+ *
+ * Un blob n'est jamais modifié : ses signatures restent valables tant
+ * qu'il existe, et le même contenu synchronisé par plusieurs clients n'est
+ * lu qu'une fois. La taille retenue pour une entrée est celle des
+ * signatures (somme faible et hash fort de chaque bloc), dans la limite de
+ * maxBytes au total.
+ */
+class SignatureCache {
+
+    private static final int BYTES_PER_BLOCK = Integer.BYTES + BlockSignatures.STRONG_HASH_SIZE;
+
+    private final long maxBytes;
+    // Ordre d'accès : le premier élément est le moins récemment utilisé
+    private final LinkedHashMap<String, BlockSignatures> entries =
+        new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+
+    /**
+     * @param maxBytes taille totale des signatures gardées, 0 pour désactiver le cache
+     */
+    SignatureCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return les signatures de ce contenu, null si elles ne sont pas en cache
+     */
+    synchronized BlockSignatures get(String hash) {
+        return entries.get(hash);
+    }
+
+    /**
+     * Garde les signatures qui viennent d'être calculées, en retirant les
+     * moins récemment utilisées
+     */
+    synchronized void put(String hash, BlockSignatures signatures) {
+        long size = sizeOf(signatures);
+        if (size > maxBytes) {
+            return;
+        }
+        BlockSignatures previous = entries.put(hash, signatures);
+        bytes += size - (previous == null ? 0 : sizeOf(previous));
+        Iterator<Map.Entry<String, BlockSignatures>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= sizeOf(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    private static long sizeOf(BlockSignatures signatures) {
+        return (long) signatures.getCount() * BYTES_PER_BLOCK;
+    }
+}
@@ -0,0 +1,65 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.CryptoUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Emplacement des fichiers nommés dans le répertoire de stockage
+ *
+ *   flat     : server_storage/nom
+ *   sharded  : server_storage/ab/cd/nom, où abcd sont les premiers chiffres
+ *              du SHA-256 du nom (65 536 répertoires : chacun reste petit
+ *              même avec des millions de fichiers)
+ *
+ * Seul le nom est conservé dans les deux cas ; les répertoires d'un
+ * emplacement sont créés à la première publication qui les utilise.
+ */
+public enum StorageLayout {
+    FLAT,
+    SHARDED;
+
+    /**
+     * @throws IllegalArgumentException si la valeur n'est pas reconnue
+     */
+    public static StorageLayout parse(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Organisation du stockage invalide: " + value);
+        }
+    }
+
+    /**
+     * Chemin du fichier publié sous ce nom
+     *
+     * @throws IllegalArgumentException si le nom n'est pas un nom publiable
+     *         (voir ContentStore.isValidName)
+     */
+    Path resolve(Path storageDir, String name) {
+        if (!ContentStore.isValidName(name)) {
+            throw new IllegalArgumentException("Nom de fichier invalide: " + name);
+        }
+        if (this == FLAT) {
+            return storageDir.resolve(name);
+        }
+        String hash;
+        try {
+            hash = CryptoUtils.toHex(MessageDigest.getInstance("SHA-256")
+                .digest(name.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 fait partie des algorithmes que toute JVM doit fournir
+            throw new IllegalStateException(e);
+        }
+        return storageDir.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4))
+            .resolve(name);
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,63 @@
+package com.securefiletransfert.server;
+
+/**
+ * Limiteur de débit à seau à jetons (algorithme GCRA)
+ *
+ * reserve() ne bloque jamais : il réserve des octets et retourne le temps
+ * à attendre avant de les consommer. Les réservations sont servies dans
+ * l'ordre d'arrivée ; un appelant qui attend son tour avant de réserver à
+ * nouveau laisse passer les autres (partage équitable entre sessions).
+ */
+class TokenBucket {
+
+    // Rafale tolérée : ce volume de temps de transfert passe sans attente
+    static final long BURST_NANOS = 200_000_000L;
+
+    private volatile long rate;
+    private long theoreticalArrival = System.nanoTime();
+
+    /**
+     * @param rate octets par seconde, 0 pour illimité
+     */
+    TokenBucket(long rate) {
+        this.rate = rate;
+    }
+
+    /**
+     * @return nanosecondes à attendre avant de consommer bytes octets (0 : tout de suite)
+     */
+    long reserve(long bytes) {
+        long current = rate;
+        // Sans limite, aucun verrou partagé entre les sessions
+        if (current <= 0) {
+            return 0;
+        }
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (theoreticalArrival - now < 0) {
+                theoreticalArrival = now;
+            }
+            theoreticalArrival += bytes * 1_000_000_000L / current;
+            return Math.max(0, theoreticalArrival - now - BURST_NANOS);
+        }
+    }
+
+    /**
+     * Vrai si toutes les réservations sont écoulées : le seau a retrouvé sa
+     * rafale entière et un seau neuf s'y substituerait sans rien changer
+     */
+    synchronized boolean isFull() {
+        return theoreticalArrival - System.nanoTime() <= 0;
+    }
+
+    long getRate() {
+        return rate;
+    }
+
+    /**
+     * Les réservations déjà accordées restent valables
+     */
+    void setRate(long rate) {
+        this.rate = rate;
+    }
+}
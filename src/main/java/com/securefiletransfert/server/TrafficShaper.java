@@ -0,0 +1,209 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.Log;
+
+import javax.management.ObjectName;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Qualité de service : débit global, débit par utilisateur, débit
+ * d'écriture disque et sessions simultanées par utilisateur
+ *
+ * Une session réserve le volume de chaque trame reçue auprès des seaux
+ * concernés et suspend sa lecture du temps retourné ; le client est ainsi
+ * ralenti par le contrôle de flux TCP. Comme une session attend son tour
+ * avant de réserver à nouveau, les réservations sont servies à tour de rôle
+ * entre sessions, morceau par morceau. Le seau d'un utilisateur survit à
+ * sa dernière session jusqu'à ce qu'il soit de nouveau plein : se
+ * reconnecter ne rend pas la rafale.
+ */
+class TrafficShaper implements TrafficShaperMXBean {
+
+    private static class UserState {
+        volatile int sessions;
+        final TokenBucket bucket;
+
+        UserState(long rate) {
+            this.bucket = new TokenBucket(rate);
+        }
+    }
+
+    private final TokenBucket global;
+    private final TokenBucket disk;
+    private volatile long userRate;
+    private volatile int maxSessionsPerUser;
+    private final Map<String, Long> overrides = new ConcurrentHashMap<>();
+    private final Map<String, UserState> users = new ConcurrentHashMap<>();
+    private final LongAdder rejectedSessions = new LongAdder();
+    private final LongAdder throttledNanos = new LongAdder();
+    private ObjectName registeredName;
+
+    TrafficShaper(ServerConfig config) {
+        this.global = new TokenBucket(config.getMaxRate());
+        this.disk = new TokenBucket(config.getDiskRate());
+        this.userRate = config.getUserRate();
+        this.maxSessionsPerUser = config.getMaxSessionsPerUser();
+    }
+
+    /**
+     * Compte une session authentifiée de username
+     *
+     * @return false si l'utilisateur a déjà atteint sa limite de sessions
+     */
+    boolean openSession(String username) {
+        boolean[] accepted = {false};
+        users.compute(username, (name, state) -> {
+            int max = maxSessionsPerUser;
+            if (state != null && max > 0 && state.sessions >= max) {
+                return state;
+            }
+            if (state == null) {
+                state = new UserState(rateOf(name));
+            }
+            state.sessions++;
+            accepted[0] = true;
+            return state;
+        });
+        if (!accepted[0]) {
+            rejectedSessions.increment();
+        }
+        return accepted[0];
+    }
+
+    void closeSession(String username) {
+        users.computeIfPresent(username, (name, state) -> {
+            state.sessions--;
+            return state;
+        });
+        evictIdleUsers();
+    }
+
+    /**
+     * Oublie les utilisateurs sans session dont le seau est plein
+     */
+    private void evictIdleUsers() {
+        for (String name : users.keySet()) {
+            users.computeIfPresent(name, (n, state) ->
+                state.sessions == 0 && state.bucket.isFull() ? null : state);
+        }
+    }
+
+    /**
+     * Réserve bytes octets reçus par une session de username
+     *
+     * @param diskWrite la trame porte des données de fichier à écrire
+     * @return nanosecondes pendant lesquelles la session doit suspendre sa lecture
+     */
+    long reserve(String username, long bytes, boolean diskWrite) {
+        long wait = global.reserve(bytes);
+        UserState state = users.get(username);
+        if (state != null) {
+            wait = Math.max(wait, state.bucket.reserve(bytes));
+        }
+        if (diskWrite) {
+            wait = Math.max(wait, disk.reserve(bytes));
+        }
+        if (wait > 0) {
+            throttledNanos.add(wait);
+        }
+        return wait;
+    }
+
+    private long rateOf(String username) {
+        return overrides.getOrDefault(username, userRate);
+    }
+
+    @Override public long getGlobalRate() { return global.getRate(); }
+    @Override public long getUserRate() { return userRate; }
+    @Override public long getDiskRate() { return disk.getRate(); }
+    @Override public int getMaxSessionsPerUser() { return maxSessionsPerUser; }
+
+    @Override
+    public void setGlobalRate(long bytesPerSecond) {
+        global.setRate(Math.max(0, bytesPerSecond));
+        Log.info("Débit global: " + describe(bytesPerSecond));
+    }
+
+    @Override
+    public void setUserRate(long bytesPerSecond) {
+        userRate = Math.max(0, bytesPerSecond);
+        users.forEach((name, state) -> state.bucket.setRate(rateOf(name)));
+        Log.info("Débit par utilisateur: " + describe(bytesPerSecond));
+    }
+
+    @Override
+    public void setDiskRate(long bytesPerSecond) {
+        disk.setRate(Math.max(0, bytesPerSecond));
+        Log.info("Débit d'écriture disque: " + describe(bytesPerSecond));
+    }
+
+    /**
+     * Les sessions déjà ouvertes au-delà de la nouvelle limite ne sont pas fermées
+     */
+    @Override
+    public void setMaxSessionsPerUser(int maxSessions) {
+        maxSessionsPerUser = Math.max(0, maxSessions);
+        Log.info("Sessions par utilisateur: " +
+            (maxSessionsPerUser == 0 ? "illimitées" : maxSessionsPerUser));
+    }
+
+    @Override
+    public void setUserRateOverride(String username, long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            overrides.remove(username);
+        } else {
+            overrides.put(username, bytesPerSecond);
+        }
+        UserState state = users.get(username);
+        if (state != null) {
+            state.bucket.setRate(rateOf(username));
+        }
+        Log.info("Débit de " + username + ": " + describe(rateOf(username)));
+    }
+
+    @Override
+    public Map<String, Long> getUserRateOverrides() {
+        return new TreeMap<>(overrides);
+    }
+
+    @Override
+    public Map<String, Integer> getUserSessions() {
+        Map<String, Integer> sessions = new TreeMap<>();
+        users.forEach((name, state) -> {
+            if (state.sessions > 0) {
+                sessions.put(name, state.sessions);
+            }
+        });
+        return sessions;
+    }
+
+    @Override
+    public long getRejectedSessions() {
+        return rejectedSessions.sum();
+    }
+
+    @Override
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.sum());
+    }
+
+    /**
+     * Expose les limites par JMX (sans effet si le nom est déjà pris)
+     */
+    void register(int port) {
+        registeredName = ManagedBeans.register(this, "TrafficShaper", port);
+    }
+
+    void unregister() {
+        ManagedBeans.unregister(registeredName);
+        registeredName = null;
+    }
+
+    private static String describe(long bytesPerSecond) {
+        return bytesPerSecond <= 0 ? "illimité" : (bytesPerSecond / 1024) + " Ko/s";
+    }
+}
@@ -0,0 +1,57 @@
+package com.securefiletransfert.server;
+
+import java.util.Map;
+
+/**
+ * Limites de débit et de sessions, modifiables par JMX sans redémarrer
+ * (com.securefiletransfert:type=TrafficShaper,port=N)
+ *
+ * Les débits sont en octets par seconde ; 0 signifie illimité.
+ */
+public interface TrafficShaperMXBean {
+
+    long getGlobalRate();
+
+    void setGlobalRate(long bytesPerSecond);
+
+    /**
+     * Débit par défaut de chaque utilisateur
+     */
+    long getUserRate();
+
+    void setUserRate(long bytesPerSecond);
+
+    /**
+     * Débit d'écriture disque partagé par toutes les sessions
+     */
+    long getDiskRate();
+
+    void setDiskRate(long bytesPerSecond);
+
+    int getMaxSessionsPerUser();
+
+    void setMaxSessionsPerUser(int maxSessions);
+
+    /**
+     * Débit propre à un utilisateur (remplace le débit par défaut) ;
+     * une valeur négative rétablit le débit par défaut
+     */
+    void setUserRateOverride(String username, long bytesPerSecond);
+
+    Map<String, Long> getUserRateOverrides();
+
+    /**
+     * Sessions authentifiées en cours, par utilisateur
+     */
+    Map<String, Integer> getUserSessions();
+
+    /**
+     * Sessions refusées car l'utilisateur avait atteint sa limite
+     */
+    long getRejectedSessions();
+
+    /**
+     * Temps total de lecture suspendue par les limites de débit
+     */
+    long getThrottledMillis();
+}
@@ -0,0 +1,328 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Publication différée des fichiers reçus (--write-behind)
+ *
+ * La session qui termine un fichier ne fait que l'inscrire au journal
+ * server_storage/.staging (fichier temporaire, nom, taille, hash,
+ * propriétaire) puis acquitte : le fichier temporaire, déjà forcé selon la
+ * politique de force(), sert de zone de transit. Un thread de fond publie
+ * ensuite les fichiers sous leur nom (renommage, blob, index). Le journal
+ * est vidé quand il n'a plus rien en attente, et réécrit avec les seules
+ * inscriptions en attente quand il dépasse MAX_JOURNAL_BYTES (sous charge
+ * continue, il ne se vide jamais).
+ *
+ * Le journal est toujours forcé avant l'acquittement ; les sessions qui
+ * terminent en même temps partagent le même force() (validation groupée).
+ * Au démarrage, les fichiers encore inscrits au journal sont publiés avant
+ * d'accepter des connexions, après vérification de leur taille et de leur
+ * SHA-256.
+ *
+ * Avec --force=never, le contenu du fichier temporaire n'est pas forcé :
+ * l'acquittement garantit seulement l'inscription au journal. Après un
+ * arrêt brutal du système, un fichier dont le contenu n'a pas atteint le
+ * disque ne correspond plus à son hash et n'est pas publié.
+ */
+class WriteBehind {
+
+    static final String JOURNAL_FILE = ".staging";
+
+    private static final int MAX_BATCH = 256;
+    private static final long POLL_MILLIS = 100;
+    private static final long MAX_JOURNAL_BYTES = 4L * 1024 * 1024;
+
+    private static class Pending {
+        final PartialFile file;
+        final long size;
+        final String hash;
+        final String owner;
+        final byte[] line;
+
+        Pending(PartialFile file, long size, String hash, String owner, byte[] line) {
+            this.file = file;
+            this.size = size;
+            this.hash = hash;
+            this.owner = owner;
+            this.line = line;
+        }
+    }
+
+    private final ContentStore store;
+    private final Path journalPath;
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+
+    // Journal, lignes écrites et lignes forcées, sous appendLock et forceLock
+    // (le journal n'est remplacé qu'avec les deux verrous, voir compact)
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock forceLock = new ReentrantLock();
+    private FileChannel journal;
+    private long appended = 0;
+    private long forced = 0;
+    // Inscriptions pas encore publiées, sous appendLock
+    private final Set<Pending> unpublished = new LinkedHashSet<>();
+    private volatile boolean closing = false;
+
+    WriteBehind(Path storageDir, ContentStore store) {
+        this.store = store;
+        this.journalPath = storageDir.resolve(JOURNAL_FILE);
+        recover(journalPath);
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(storageDir);
+            channel = FileChannel.open(journalPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            Log.error("Journal d'écriture différée indisponible, publication directe: " +
+                e.getMessage());
+        }
+        this.journal = channel;
+        this.flusher = new Thread(this::run, "sft-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Inscrit un fichier vérifié et forcé au journal, puis le met en attente
+     * de publication ; l'inscription est durable après sync()
+     */
+    void stage(PartialFile file, long size, String hash, String owner) throws IOException {
+        String name = file.getTarget().getFileName().toString();
+        if (journal == null || !ContentStore.isRecordable(name)) {
+            store.materialize(file, size, hash, owner);
+            return;
+        }
+        Pending pending = new Pending(file, size, hash, owner, (file.getTempFile() + "\t" +
+            size + "\t" + hash + "\t" + owner + "\t" + name + "\n")
+            .getBytes(StandardCharsets.UTF_8));
+        ByteBuffer line = ByteBuffer.wrap(pending.line);
+        long sequence = 0;
+        appendLock.lock();
+        try {
+            if (!closing) {
+                while (line.hasRemaining()) {
+                    journal.write(line, journal.size());
+                }
+                sequence = ++appended;
+                unpublished.add(pending);
+                queue.add(pending);
+            }
+        } finally {
+            appendLock.unlock();
+        }
+        if (sequence == 0) {
+            // Arrêt en cours : le thread de fond ne reprendra plus la file
+            store.materialize(file, size, hash, owner);
+        }
+    }
+
+    /**
+     * Rend durables toutes les inscriptions faites jusqu'ici
+     */
+    void sync() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        long sequence;
+        appendLock.lock();
+        try {
+            sequence = appended;
+        } finally {
+            appendLock.unlock();
+        }
+        commit(sequence);
+    }
+
+    /**
+     * Publie tout ce qui est en attente et arrête le thread de fond
+     */
+    void close() {
+        appendLock.lock();
+        try {
+            closing = true;
+        } finally {
+            appendLock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drain();
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                Log.warn("Fermeture du journal d'écriture différée: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Validation groupée : un seul force() couvre toutes les lignes écrites
+     * avant lui, les sessions arrivées pendant ce force() attendent le suivant
+     */
+    private void commit(long sequence) throws IOException {
+        forceLock.lock();
+        try {
+            if (forced >= sequence) {
+                return;
+            }
+            long upTo;
+            appendLock.lock();
+            try {
+                upTo = appended;
+            } finally {
+                appendLock.unlock();
+            }
+            journal.force(false);
+            forced = upTo;
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(MAX_BATCH);
+        while (!closing) {
+            try {
+                Pending first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+            } catch (InterruptedException e) {
+                break;
+            }
+            publish(batch);
+            batch.clear();
+        }
+    }
+
+    private void drain() {
+        List<Pending> batch = new ArrayList<>();
+        queue.drainTo(batch);
+        publish(batch);
+    }
+
+    private void publish(List<Pending> batch) {
+        for (Pending pending : batch) {
+            try {
+                store.materialize(pending.file, pending.size, pending.hash, pending.owner);
+            } catch (IOException e) {
+                Log.error("Publication différée impossible pour " +
+                    pending.file.getTarget().getFileName() + ": " + e.getMessage());
+            }
+        }
+        forceLock.lock();
+        appendLock.lock();
+        try {
+            batch.forEach(unpublished::remove);
+            if (journal == null) {
+                return;
+            }
+            // Plus rien en attente : le journal ne décrit plus aucun fichier
+            if (unpublished.isEmpty()) {
+                journal.truncate(0);
+            } else if (journal.size() > MAX_JOURNAL_BYTES) {
+                compact();
+            }
+        } catch (IOException e) {
+            Log.warn("Journal d'écriture différée: " + e.getMessage());
+        } finally {
+            appendLock.unlock();
+            forceLock.unlock();
+        }
+    }
+
+    /**
+     * Remplace le journal par une copie forcée des seules inscriptions en
+     * attente (sous forceLock et appendLock) ; les lignes recopiées sont
+     * durables
+     */
+    private void compact() throws IOException {
+        Path temp = journalPath.resolveSibling(JOURNAL_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Pending pending : unpublished) {
+                ByteBuffer line = ByteBuffer.wrap(pending.line);
+                while (line.hasRemaining()) {
+                    channel.write(line);
+                }
+            }
+            channel.force(false);
+        }
+        Files.move(temp, journalPath, StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory(journalPath.getParent());
+        journal.close();
+        journal = FileChannel.open(journalPath, StandardOpenOption.WRITE);
+        forced = appended;
+    }
+
+    /**
+     * Rend durable un renommage dans ce répertoire (sans effet là où un
+     * répertoire ne peut pas être ouvert)
+     */
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // le renommage sera durable au prochain force() du système
+        }
+    }
+
+    /**
+     * Publie les fichiers inscrits au journal par une exécution précédente
+     */
+    private void recover(Path journalPath) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(journalPath, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            Log.warn("Journal d'écriture différée illisible: " + e.getMessage());
+            return;
+        }
+        int recovered = 0;
+        for (String line : lines) {
+            String[] fields = line.split("\t", 5);
+            if (fields.length != 5) {
+                continue;
+            }
+            try {
+                store.recover(Paths.get(fields[0]), fields[4], Long.parseLong(fields[1]),
+                    fields[2], fields[3]);
+                recovered++;
+            } catch (IOException | NumberFormatException e) {
+                Log.warn("Fichier en attente non publié (" + fields[4] + "): " +
+                    e.getMessage());
+            }
+        }
+        if (recovered > 0) {
+            Log.info("Écriture différée: " + recovered + " fichiers en attente publiés");
+        }
+    }
+}
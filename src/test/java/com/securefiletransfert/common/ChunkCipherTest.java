@@ -0,0 +1,119 @@
+package com.securefiletransfert.common;
+
+import org.junit.Test;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class ChunkCipherTest {
+
+    private static final SecretKey SESSION_KEY = new SecretKeySpec(new byte[16], "AES");
+
+    // Un sel neuf par test : le Cipher d'un thread refuse de rechiffrer
+    // avec la clé et le nonce de son chiffrement précédent
+    private final byte[] salt = ChunkCipher.newSalt();
+    private final byte[] plain = new byte[4096];
+
+    public ChunkCipherTest() {
+        new Random(5).nextBytes(plain);
+    }
+
+    private static byte[] encrypt(ChunkCipher cipher, long index, byte[] plain) throws Exception {
+        byte[] out = new byte[plain.length + ChunkCipher.TAG_SIZE];
+        assertEquals(out.length, cipher.encrypt(index, plain, 0, plain.length, out));
+        return out;
+    }
+
+    private static byte[] decrypt(ChunkCipher cipher, long index, byte[] sealed)
+            throws Exception {
+        ByteBuffer out = ByteBuffer.allocate(sealed.length);
+        cipher.decrypt(index, ByteBuffer.wrap(sealed), out);
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    @Test
+    public void roundTripWithSameSessionKeyAndSalt() throws Exception {
+        byte[] sealed = encrypt(new ChunkCipher(SESSION_KEY, salt), 7, plain);
+        assertArrayEquals(plain, decrypt(new ChunkCipher(SESSION_KEY, salt), 7, sealed));
+    }
+
+    @Test
+    public void nonceDependsOnChunkIndex() throws Exception {
+        ChunkCipher cipher = new ChunkCipher(SESSION_KEY, salt);
+        byte[] first = encrypt(cipher, 1, plain);
+        assertFalse(Arrays.equals(first, encrypt(cipher, 0, plain)));
+        // Au-delà de 32 bits : les 8 octets de poids faible du nonce portent l'index
+        assertFalse(Arrays.equals(first, encrypt(cipher, 1L + (1L << 32), plain)));
+    }
+
+    @Test
+    public void chunkMovedToAnotherIndexIsRejected() throws Exception {
+        ChunkCipher cipher = new ChunkCipher(SESSION_KEY, salt);
+        byte[] sealed = encrypt(cipher, 3, plain);
+        try {
+            decrypt(cipher, 4, sealed);
+            fail("morceau accepté à une autre position");
+        } catch (AEADBadTagException e) {
+            // attendu
+        }
+    }
+
+    @Test
+    public void keyIsDerivedPerTransfer() throws Exception {
+        byte[] otherSalt = salt.clone();
+        otherSalt[0]++;
+        byte[] sealed = encrypt(new ChunkCipher(SESSION_KEY, salt), 0, plain);
+
+        // Même clé de session, autre sel : autre clé de transfert
+        assertFalse(Arrays.equals(sealed, encrypt(new ChunkCipher(SESSION_KEY, otherSalt),
+            0, plain)));
+        try {
+            decrypt(new ChunkCipher(SESSION_KEY, otherSalt), 0, sealed);
+            fail("morceau accepté sous une autre clé de transfert");
+        } catch (AEADBadTagException e) {
+            // attendu
+        }
+        SecretKey otherSession = new SecretKeySpec(new byte[] {1, 0, 0, 0, 0, 0, 0, 0,
+            0, 0, 0, 0, 0, 0, 0, 0}, "AES");
+        try {
+            decrypt(new ChunkCipher(otherSession, salt), 0, sealed);
+            fail("morceau accepté sous une autre clé de session");
+        } catch (AEADBadTagException e) {
+            // attendu
+        }
+    }
+
+    @Test
+    public void alteredChunkIsRejected() throws Exception {
+        ChunkCipher cipher = new ChunkCipher(SESSION_KEY, salt);
+        byte[] sealed = encrypt(cipher, 0, plain);
+        sealed[100] ^= 1;
+        try {
+            decrypt(cipher, 0, sealed);
+            fail("morceau altéré accepté");
+        } catch (AEADBadTagException e) {
+            // attendu
+        }
+    }
+
+    @Test
+    public void emptyFileHasOneAuthenticatedChunk() throws Exception {
+        assertEquals(1, ChunkCipher.chunkCount(0, 4096));
+        assertEquals(1, ChunkCipher.chunkCount(4096, 4096));
+        assertEquals(2, ChunkCipher.chunkCount(4097, 4096));
+
+        ChunkCipher cipher = new ChunkCipher(SESSION_KEY, salt);
+        byte[] sealed = encrypt(cipher, 0, new byte[0]);
+        assertEquals(ChunkCipher.TAG_SIZE, sealed.length);
+        assertEquals(0, decrypt(cipher, 0, sealed).length);
+    }
+}
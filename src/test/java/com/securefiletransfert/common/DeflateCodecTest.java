@@ -0,0 +1,63 @@
+package com.securefiletransfert.common;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeflateCodecTest {
+
+    private final CompressionCodec codec = CompressionCodecs.create(DeflateCodec.NAME);
+
+    @Test
+    public void compressibleChunkRoundTrips() throws Exception {
+        byte[] plain = new byte[ProtocolConstants.STREAM_CHUNK_SIZE];
+        for (int i = 0; i < plain.length; i++) {
+            plain[i] = (byte) ("ligne " + (i / 64) + "\n").charAt(i % 8);
+        }
+        byte[] compressed = new byte[plain.length];
+        int length = codec.compress(plain, 0, plain.length, compressed);
+        assertTrue(length > 0 && length < plain.length / 4);
+
+        byte[] out = new byte[plain.length];
+        codec.decompress(compressed, 0, length, out, plain.length);
+        assertArrayEquals(plain, out);
+    }
+
+    @Test
+    public void incompressibleChunkDoesNotFit() {
+        byte[] plain = new byte[ProtocolConstants.STREAM_CHUNK_SIZE];
+        new Random(5).nextBytes(plain);
+        assertEquals(-1, codec.compress(plain, 0, plain.length,
+            new byte[plain.length - 1]));
+    }
+
+    @Test
+    public void wrongPlainLengthIsRejected() throws Exception {
+        byte[] plain = new byte[10_000];
+        Arrays.fill(plain, (byte) 'a');
+        byte[] compressed = new byte[plain.length];
+        int length = codec.compress(plain, 0, plain.length, compressed);
+        try {
+            codec.decompress(compressed, 0, length, new byte[plain.length + 1],
+                plain.length + 1);
+            fail("taille incohérente acceptée");
+        } catch (IOException e) {
+            // attendu
+        }
+    }
+
+    @Test
+    public void unknownCodecIsNotCreated() {
+        assertTrue(CompressionCodecs.isSupported(DeflateCodec.NAME));
+        assertNull(CompressionCodecs.create(CompressionCodecs.NONE));
+        assertNull(CompressionCodecs.create("lz4"));
+    }
+}
@@ -0,0 +1,149 @@
+package com.securefiletransfert.common;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FrameDecoderTest {
+
+    private final FrameEncoder encoder = new FrameEncoder();
+
+    private byte[] metadata(String name, long size) {
+        ByteBuffer frame = encoder.begin(ProtocolConstants.METADATA)
+            .putString(name).putLong(size).finish();
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] bytes = new byte[first.length + second.length];
+        System.arraycopy(first, 0, bytes, 0, first.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+
+    @Test
+    public void decodesFrameReceivedByteByByte() throws Exception {
+        byte[] frame = metadata("rapport.pdf", 1234);
+        FrameDecoder decoder = new FrameDecoder();
+        for (int i = 0; i < frame.length - 1; i++) {
+            assertFalse(decoder.decode(ByteBuffer.wrap(frame, i, 1)));
+        }
+        assertTrue(decoder.decode(ByteBuffer.wrap(frame, frame.length - 1, 1)));
+        assertEquals(ProtocolConstants.METADATA, decoder.getType());
+        assertEquals("rapport.pdf", decoder.readString());
+        assertEquals(1234, decoder.readLong());
+    }
+
+    @Test
+    public void decodesConsecutiveFramesFromOneBuffer() throws Exception {
+        ByteBuffer in = ByteBuffer.wrap(concat(metadata("a", 1), metadata("b", 2)));
+        FrameDecoder decoder = new FrameDecoder();
+
+        assertTrue(decoder.decode(in));
+        assertEquals("a", decoder.readString());
+        assertTrue(decoder.decode(in));
+        assertEquals("b", decoder.readString());
+        assertEquals(2, decoder.readLong());
+        assertFalse(decoder.decode(in));
+        assertFalse(in.hasRemaining());
+    }
+
+    @Test
+    public void releaseGivesBackBytesAfterTheCurrentFrame() throws Exception {
+        byte[] second = metadata("b", 2);
+        ByteBuffer in = ByteBuffer.wrap(concat(metadata("a", 1), second));
+        FrameDecoder decoder = new FrameDecoder();
+
+        assertTrue(decoder.decode(in));
+        decoder.release();
+        assertEquals(second.length, in.remaining());
+        assertEquals(in.capacity(), in.limit());
+    }
+
+    @Test
+    public void frameSplitAcrossBuffersIsAccumulated() throws Exception {
+        byte[] frame = metadata("rapport-trimestriel.pdf", 42);
+        FrameDecoder decoder = new FrameDecoder();
+        int half = frame.length / 2;
+
+        assertFalse(decoder.decode(ByteBuffer.wrap(frame, 0, half)));
+        assertTrue(decoder.decode(ByteBuffer.wrap(frame, half, frame.length - half)));
+        assertEquals("rapport-trimestriel.pdf", decoder.readString());
+        assertEquals(42, decoder.readLong());
+    }
+
+    @Test
+    public void emptyPayloadIsAFrame() throws Exception {
+        ByteBuffer frame = encoder.begin(ProtocolConstants.AUTH).finish();
+        FrameDecoder decoder = new FrameDecoder();
+
+        assertTrue(decoder.decode(frame));
+        assertEquals(ProtocolConstants.AUTH, decoder.getType());
+        assertEquals(0, decoder.getPayload().remaining());
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void rejectsPayloadAboveLimit() throws Exception {
+        ByteBuffer header = ByteBuffer.allocate(ProtocolConstants.FRAME_HEADER_SIZE)
+            .put(ProtocolConstants.DATA).putInt(1025).flip();
+        new FrameDecoder(1024).decode(header);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void rejectsNegativeLength() throws Exception {
+        ByteBuffer header = ByteBuffer.allocate(ProtocolConstants.FRAME_HEADER_SIZE)
+            .put(ProtocolConstants.DATA).putInt(-1).flip();
+        new FrameDecoder().decode(header);
+    }
+
+    @Test
+    public void truncatedFieldsAreProtocolErrors() throws Exception {
+        ByteBuffer frame = encoder.begin(ProtocolConstants.METADATA).putInt(7).finish();
+        FrameDecoder decoder = new FrameDecoder();
+        assertTrue(decoder.decode(frame));
+        try {
+            decoder.readLong();
+            fail("champ long lu dans 4 octets");
+        } catch (ProtocolException e) {
+            // attendu
+        }
+
+        // Longueur de chaîne annoncée au-delà de la trame
+        frame = encoder.begin(ProtocolConstants.METADATA).putInt(0x00100000).finish();
+        assertTrue(decoder.decode(frame));
+        try {
+            decoder.readString();
+            fail("chaîne plus longue que la trame");
+        } catch (ProtocolException e) {
+            // attendu
+        }
+    }
+
+    @Test
+    public void readFromStopsCleanlyBetweenFrames() throws Exception {
+        ByteArrayInputStream in = new ByteArrayInputStream(metadata("a", 1));
+        FrameDecoder decoder = new FrameDecoder();
+
+        assertTrue(decoder.readFrom(in));
+        assertEquals("a", decoder.readString());
+        assertFalse(decoder.readFrom(in));
+    }
+
+    @Test(expected = EOFException.class)
+    public void readFromFailsOnTruncatedFrame() throws Exception {
+        byte[] frame = metadata("a", 1);
+        byte[] truncated = new byte[frame.length - 3];
+        System.arraycopy(frame, 0, truncated, 0, truncated.length);
+        new FrameDecoder().readFrom(new ByteArrayInputStream(truncated));
+    }
+}
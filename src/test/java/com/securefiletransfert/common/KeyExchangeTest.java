@@ -0,0 +1,49 @@
+package com.securefiletransfert.common;
+
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class KeyExchangeTest {
+
+    private final byte[] clientNonce = KeyExchange.newNonce();
+    private final byte[] serverNonce = KeyExchange.newNonce();
+
+    @Test
+    public void bothSidesDeriveTheSameKeys() throws Exception {
+        KeyExchange client = new KeyExchange();
+        KeyExchange server = new KeyExchange();
+        byte[] secret = client.agree(server.getPublicKey());
+        assertArrayEquals(secret, server.agree(client.getPublicKey()));
+
+        KeyExchange.SessionKeys clientKeys = KeyExchange.derive(secret, clientNonce, serverNonce);
+        KeyExchange.SessionKeys serverKeys = KeyExchange.derive(secret, clientNonce, serverNonce);
+        assertArrayEquals(clientKeys.getKey().getEncoded(), serverKeys.getKey().getEncoded());
+        assertArrayEquals(clientKeys.getResumptionSecret(),
+            serverKeys.getResumptionSecret());
+    }
+
+    @Test
+    public void freshNoncesGiveANewKey() throws Exception {
+        byte[] secret = new KeyExchange().agree(new KeyExchange().getPublicKey());
+        byte[] first = KeyExchange.derive(secret, clientNonce, serverNonce).getKey().getEncoded();
+        byte[] resumed = KeyExchange.derive(secret, KeyExchange.newNonce(), serverNonce)
+            .getKey().getEncoded();
+        assertFalse(Arrays.equals(first, resumed));
+    }
+
+    @Test
+    public void invalidPublicKeyIsRejected() throws Exception {
+        try {
+            new KeyExchange().agree(new byte[] {1, 2, 3});
+            fail("clé publique invalide acceptée");
+        } catch (GeneralSecurityException e) {
+            // attendu
+        }
+    }
+}
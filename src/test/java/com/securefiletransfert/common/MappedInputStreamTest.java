@@ -0,0 +1,83 @@
+package com.securefiletransfert.common;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MappedInputStreamTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] content;
+
+    private Path file(int size) throws Exception {
+        content = new byte[size];
+        new Random(24).nextBytes(content);
+        Path path = folder.newFile().toPath();
+        Files.write(path, content);
+        return path;
+    }
+
+    private static byte[] readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[7000];
+        int n;
+        while ((n = in.read(buffer, 0, buffer.length)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void smallFileSubRangeStopsAtItsEnd() throws Exception {
+        Path path = file(100_000);
+        try (InputStream in = MappedInputStream.open(path, 30_000, 20_000)) {
+            assertFalse(in instanceof MappedInputStream);
+            assertArrayEquals(Arrays.copyOfRange(content, 30_000, 50_000), readAll(in));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void smallFileSubRangeByteByByte() throws Exception {
+        Path path = file(1000);
+        try (InputStream in = MappedInputStream.open(path, 10, 3)) {
+            for (int i = 10; i < 13; i++) {
+                assertEquals(content[i] & 0xff, in.read());
+            }
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void largeFileSubRangeIsMapped() throws Exception {
+        int length = (int) MappedInputStream.MAP_THRESHOLD + 12_345;
+        Path path = file(length + 50_000);
+        try (InputStream in = MappedInputStream.open(path, 25_000, length)) {
+            assertTrue(in instanceof MappedInputStream);
+            assertArrayEquals(Arrays.copyOfRange(content, 25_000, 25_000 + length),
+                readAll(in));
+        }
+    }
+
+    @Test
+    public void rangePastTheEndStopsAtFileSize() throws Exception {
+        Path path = file(1000);
+        try (InputStream in = MappedInputStream.open(path, 900, 500)) {
+            assertArrayEquals(Arrays.copyOfRange(content, 900, 1000), readAll(in));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.securefiletransfert.common;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MerkleTreeTest {
+
+    private static final int LEAF_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MerkleTree compute(byte[] content) throws Exception {
+        Path file = folder.newFile().toPath();
+        Files.write(file, content);
+        return MerkleTree.compute(file, content.length, LEAF_SIZE, ForkJoinPool.commonPool());
+    }
+
+    private static byte[] sha256(byte prefix, byte[]... parts) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(prefix);
+        for (byte[] part : parts) {
+            digest.update(part);
+        }
+        return digest.digest();
+    }
+
+    private static byte[] leaf(byte[] content, int index) throws Exception {
+        int start = index * LEAF_SIZE;
+        int end = Math.min(content.length, start + LEAF_SIZE);
+        byte[] data = new byte[end - start];
+        System.arraycopy(content, start, data, 0, data.length);
+        return sha256((byte) 0, data);
+    }
+
+    @Test
+    public void rootFollowsTheDocumentedConstruction() throws Exception {
+        // 3 feuilles (la dernière partielle) : la troisième remonte seule
+        byte[] content = new byte[2 * LEAF_SIZE + 100];
+        new Random(11).nextBytes(content);
+        MerkleTree tree = compute(content);
+
+        assertEquals(3, tree.getLeafCount());
+        assertEquals(100, tree.getLeafLength(2));
+        assertEquals(2L * LEAF_SIZE, tree.getLeafOffset(2));
+        byte[] left = sha256((byte) 1, leaf(content, 0), leaf(content, 1));
+        byte[] root = sha256((byte) 1, left, leaf(content, 2));
+        assertEquals(CryptoUtils.toHex(root), tree.getRootHex());
+    }
+
+    @Test
+    public void emptyFileHasOneEmptyLeaf() throws Exception {
+        MerkleTree tree = compute(new byte[0]);
+        assertEquals(1, tree.getLeafCount());
+        assertEquals(CryptoUtils.toHex(sha256((byte) 0)), tree.getRootHex());
+    }
+
+    @Test
+    public void receiverDesignatesOnlyTheCorruptedLeaf() throws Exception {
+        byte[] content = new byte[5 * LEAF_SIZE];
+        new Random(12).nextBytes(content);
+        MerkleTree announced = compute(content);
+
+        byte[] received = content.clone();
+        received[3 * LEAF_SIZE + 17] ^= 1;
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (int i = 0; i < announced.getLeafCount(); i++) {
+            MerkleTree.beginLeaf(digest);
+            digest.update(received, (int) announced.getLeafOffset(i), announced.getLeafLength(i));
+            assertEquals("feuille " + i, i != 3, announced.leafMatches(i, digest.digest()));
+        }
+        assertFalse(announced.getRootHex().equals(compute(received).getRootHex()));
+    }
+
+    @Test
+    public void leavesRebuildTheSameTree() throws Exception {
+        byte[] content = new byte[4 * LEAF_SIZE];
+        new Random(13).nextBytes(content);
+        MerkleTree tree = compute(content);
+
+        MerkleTree rebuilt = new MerkleTree(LEAF_SIZE, content.length, tree.getLeaves());
+        assertEquals(tree.getRootHex(), rebuilt.getRootHex());
+        assertArrayEquals(tree.getLeaves(), rebuilt.getLeaves());
+    }
+
+    @Test
+    public void leafCountMustMatchFileSize() throws Exception {
+        try {
+            new MerkleTree(LEAF_SIZE, 3L * LEAF_SIZE, new byte[2 * MerkleTree.HASH_SIZE]);
+            fail("arbre accepté avec une feuille manquante");
+        } catch (IllegalArgumentException e) {
+            // attendu
+        }
+    }
+
+    @Test
+    public void leafSizeKeepsLeafCountBounded() {
+        assertEquals(MerkleTree.MIN_LEAF_SIZE, MerkleTree.chooseLeafSize(0));
+        assertEquals(MerkleTree.MIN_LEAF_SIZE, MerkleTree.chooseLeafSize(
+            (long) MerkleTree.MIN_LEAF_SIZE * MerkleTree.MAX_LEAVES));
+        long huge = 1L << 40;
+        int leafSize = MerkleTree.chooseLeafSize(huge);
+        assertTrue(MerkleTree.leafCount(huge, leafSize) <= MerkleTree.MAX_LEAVES);
+        assertTrue(MerkleTree.leafCount(huge, leafSize / 2) > MerkleTree.MAX_LEAVES);
+    }
+}
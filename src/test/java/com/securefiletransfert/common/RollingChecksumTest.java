@@ -0,0 +1,24 @@
+package com.securefiletransfert.common;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class RollingChecksumTest {
+
+    @Test
+    public void rollingMatchesTheChecksumOfEachWindow() {
+        byte[] data = new byte[5000];
+        new Random(4).nextBytes(data);
+        int length = 700;
+
+        RollingChecksum checksum = new RollingChecksum(length);
+        checksum.reset(data, 0);
+        for (int offset = 0; offset + length < data.length; offset++) {
+            assertEquals(RollingChecksum.of(data, offset, length), checksum.getValue());
+            checksum.roll(data[offset], data[offset + length]);
+        }
+    }
+}
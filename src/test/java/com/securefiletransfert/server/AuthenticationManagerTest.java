@@ -0,0 +1,97 @@
+package com.securefiletransfert.server;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AuthenticationManagerTest {
+
+    // Le fichier est relu au plus toutes les 2 secondes
+    private static final long RELOAD_WAIT_MILLIS = 2100;
+    // Peu d'itérations : les tests ne mesurent pas le coût de PBKDF2
+    private static final int ITERATIONS = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path usersFile;
+
+    @Before
+    public void setUp() throws Exception {
+        usersFile = folder.newFile("users").toPath();
+    }
+
+    private static String account(String username, String password) throws Exception {
+        byte[] salt = Arrays.copyOf(username.getBytes(StandardCharsets.UTF_8), 16);
+        byte[] hash = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(
+            new PBEKeySpec(password.toCharArray(), salt, ITERATIONS, 256)).getEncoded();
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return username + ":pbkdf2-sha256:" + ITERATIONS + ":" + base64.encodeToString(salt) +
+            ":" + base64.encodeToString(hash) + "\n";
+    }
+
+    /**
+     * Réécrit le fichier des comptes avec une date de modification donnée
+     */
+    private void writeUsers(FileTime modified, String... accounts) throws Exception {
+        Files.write(usersFile, String.join("", accounts).getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(usersFile, modified);
+    }
+
+    @Test
+    public void verifiesAccountsFromFile() throws Exception {
+        writeUsers(FileTime.fromMillis(1_000_000), account("alice", "secret1"),
+            "# commentaire\n", "ligne invalide\n", account("bob", "secret2"));
+        AuthenticationManager manager = new AuthenticationManager(usersFile, 10, 300);
+
+        assertEquals(2, manager.getUserCount());
+        assertTrue(manager.authenticate("alice", "secret1"));
+        assertTrue(manager.authenticate("alice", "secret1"));
+        assertFalse(manager.authenticate("alice", "secret2"));
+        assertTrue(manager.authenticate("bob", "secret2"));
+        assertFalse(manager.authenticate("carol", "secret1"));
+    }
+
+    @Test
+    public void changedFileInvalidatesCachedLogin() throws Exception {
+        writeUsers(FileTime.fromMillis(1_000_000), account("alice", "ancien"),
+            account("bob", "secret2"));
+        AuthenticationManager manager = new AuthenticationManager(usersFile, 10, 300);
+        assertTrue(manager.authenticate("alice", "ancien"));
+        assertTrue(manager.authenticate("bob", "secret2"));
+
+        // Mot de passe changé et compte supprimé : la vérification en cache
+        // ne doit plus suffire
+        writeUsers(FileTime.fromMillis(2_000_000), account("alice", "nouveau"));
+        Thread.sleep(RELOAD_WAIT_MILLIS);
+        assertFalse(manager.authenticate("alice", "ancien"));
+        assertTrue(manager.authenticate("alice", "nouveau"));
+        assertFalse(manager.authenticate("bob", "secret2"));
+    }
+
+    @Test
+    public void fileIsReloadedOnlyWhenItsDateChanges() throws Exception {
+        FileTime modified = FileTime.fromMillis(1_000_000);
+        writeUsers(modified, account("alice", "ancien"));
+        AuthenticationManager manager = new AuthenticationManager(usersFile, 10, 300);
+
+        writeUsers(modified, account("alice", "nouveau"));
+        Thread.sleep(RELOAD_WAIT_MILLIS);
+        assertTrue(manager.authenticate("alice", "ancien"));
+        assertFalse(manager.authenticate("alice", "nouveau"));
+    }
+}
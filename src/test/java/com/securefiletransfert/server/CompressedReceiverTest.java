@@ -0,0 +1,109 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.client.CompressionEncoder;
+import com.securefiletransfert.client.FileProcessor;
+import com.securefiletransfert.common.CompressionCodecs;
+import com.securefiletransfert.common.CryptoUtils;
+import com.securefiletransfert.common.DeflateCodec;
+import com.securefiletransfert.common.ProtocolConstants;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompressedReceiverTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerConfig config;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws Exception {
+        config = new ServerConfig(ServerConfig.DEFAULT_PORT,
+            folder.newFolder("storage").toString(), ProtocolConstants.STREAM_CHUNK_SIZE);
+        // Du texte puis des octets aléatoires : des morceaux compressés et des bruts
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 400_000) {
+            text.append("ligne de journal numéro ").append(text.length()).append('\n');
+        }
+        byte[] compressible = text.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] random = new byte[300_000];
+        new Random(6).nextBytes(random);
+        content = new byte[compressible.length + random.length];
+        System.arraycopy(compressible, 0, content, 0, compressible.length);
+        System.arraycopy(random, 0, content, compressible.length, random.length);
+    }
+
+    private byte[] encode(String codec, long[] sentBytes) throws Exception {
+        Path path = folder.newFile().toPath();
+        Files.write(path, content);
+        FileProcessor.StreamedFile file = new FileProcessor.StreamedFile(path,
+            CryptoUtils.calculateFileHash(content), content.length);
+        ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+        sentBytes[0] = CompressionEncoder.encode(file, CompressionCodecs.create(codec),
+            new DataOutputStream(chunks));
+        return CryptoUtils.encrypt(chunks.toByteArray());
+    }
+
+    private static void send(CompressedReceiver receiver, byte[] encrypted) throws Exception {
+        int offset = 0;
+        int step = 1;
+        while (offset < encrypted.length) {
+            int n = Math.min(step, encrypted.length - offset);
+            receiver.write(ByteBuffer.wrap(encrypted, offset, n));
+            offset += n;
+            step = step * 3 + 5;
+        }
+    }
+
+    @Test
+    public void compressedChunksAreRestored() throws Exception {
+        long[] sentBytes = new long[1];
+        byte[] encrypted = encode(DeflateCodec.NAME, sentBytes);
+        assertTrue(sentBytes[0] < content.length * 3 / 4);
+
+        PartialFile output = new PartialFile(config, "f.bin", content.length);
+        CompressedReceiver receiver = new CompressedReceiver(output, content.length,
+            CryptoUtils.calculateFileHash(content), CryptoUtils.getSecretKey(),
+            CompressionCodecs.create(DeflateCodec.NAME), new ServerMetrics());
+        send(receiver, encrypted);
+        RecordingCompletion completion = new RecordingCompletion(new ContentStore(config));
+        assertTrue(receiver.complete(completion));
+        assertTrue(completion.succeeded);
+        assertArrayEquals(content, Files.readAllBytes(output.getTarget()));
+    }
+
+    @Test
+    public void compressedChunkIsRejectedWithoutCodec() throws Exception {
+        byte[] encrypted = encode(DeflateCodec.NAME, new long[1]);
+
+        PartialFile output = new PartialFile(config, "f.bin", content.length);
+        CompressedReceiver receiver = new CompressedReceiver(output, content.length,
+            CryptoUtils.calculateFileHash(content), CryptoUtils.getSecretKey(), null,
+            new ServerMetrics());
+        try {
+            send(receiver, encrypted);
+            fail("morceau compressé accepté sans négociation");
+        } catch (ProtocolException e) {
+            // attendu
+        } finally {
+            receiver.abort();
+        }
+    }
+}
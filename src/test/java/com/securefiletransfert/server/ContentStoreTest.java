@@ -0,0 +1,180 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.CryptoUtils;
+import com.securefiletransfert.common.PossessionProof;
+import com.securefiletransfert.common.ProtocolConstants;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ContentStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerConfig config;
+    private ContentStore store;
+    private byte[] content;
+    private String hash;
+    private Path source;
+
+    @Before
+    public void setUp() throws Exception {
+        config = new ServerConfig(ServerConfig.DEFAULT_PORT,
+            folder.newFolder("storage").toString(), ProtocolConstants.STREAM_CHUNK_SIZE);
+        store = new ContentStore(config);
+        // Plus grand que les plages échantillonnées par la preuve
+        content = new byte[100_000];
+        new Random(3).nextBytes(content);
+        hash = CryptoUtils.calculateFileHash(content);
+        source = folder.newFile("source.bin").toPath();
+        Files.write(source, content);
+
+        PartialFile file = new PartialFile(config, "original.bin", content.length);
+        file.write(ByteBuffer.wrap(content), 0);
+        store.materialize(file, content.length, hash, "admin");
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    private boolean claim(String filename, byte[] challenge, byte[] proof) {
+        return store.linkExisting(filename, hash, CryptoUtils.getEncryptedSize(content.length),
+            "user1", challenge, proof);
+    }
+
+    @Test
+    public void acceptsClientThatHoldsTheContent() throws Exception {
+        byte[] challenge = PossessionProof.newChallenge();
+
+        assertTrue(claim("copie.bin", challenge,
+            PossessionProof.compute(challenge, source, content.length)));
+        ContentStore.StoredFile stored = store.lookup("copie.bin");
+        assertEquals(hash, stored.hash);
+        assertEquals("user1", stored.owner);
+        assertTrue(Files.exists(store.pathOf("copie.bin")));
+    }
+
+    @Test
+    public void rejectsHashWithoutProof() {
+        assertFalse(claim("copie.bin", PossessionProof.newChallenge(),
+            new byte[PossessionProof.SIZE]));
+        assertNull(store.lookup("copie.bin"));
+    }
+
+    @Test
+    public void rejectsProofForAnotherChallenge() throws Exception {
+        byte[] replayed = PossessionProof.compute(PossessionProof.newChallenge(), source,
+            content.length);
+        assertFalse(claim("copie.bin", PossessionProof.newChallenge(), replayed));
+        assertNull(store.lookup("copie.bin"));
+    }
+
+    @Test
+    public void rejectsProofOfDifferentContent() throws Exception {
+        // Même taille et même hash annoncé, mais un autre contenu
+        byte[] challenge = PossessionProof.newChallenge();
+        byte[] other = content.clone();
+        for (int i = 0; i < other.length; i++) {
+            other[i] ^= 1;
+        }
+        Path forged = folder.newFile("forged.bin").toPath();
+        Files.write(forged, other);
+        assertFalse(claim("copie.bin", challenge,
+            PossessionProof.compute(challenge, forged, content.length)));
+    }
+
+    @Test
+    public void rejectsWrongSizeOrUnknownHash() throws Exception {
+        byte[] challenge = PossessionProof.newChallenge();
+        byte[] proof = PossessionProof.compute(challenge, source, content.length);
+
+        assertFalse(store.linkExisting("copie.bin", hash, content.length, "user1",
+            challenge, proof));
+        String unknown = CryptoUtils.calculateFileHash(new byte[] {1, 2, 3});
+        assertFalse(store.linkExisting("copie.bin", unknown,
+            CryptoUtils.getEncryptedSize(content.length), "user1", challenge, proof));
+    }
+
+    @Test
+    public void reservedAndMalformedNamesAreInvalid() {
+        for (String name : new String[] {"", ".", "..", ".index", ".blobs", ".staging",
+                ".resume", ".upload-1.part", "../etc/passwd", "a/b", "a\\b", "a\nb",
+                "a\tb", "a\u007fb", "x".repeat(256)}) {
+            assertFalse(name, ContentStore.isValidName(name));
+            assertNull(store.lookup(name));
+        }
+        for (String name : new String[] {"rapport.pdf", "a.b.c", "données été.txt",
+                "x".repeat(255)}) {
+            assertTrue(name, ContentStore.isValidName(name));
+        }
+    }
+
+    @Test
+    public void sameContentIsStoredOnce() throws Exception {
+        PartialFile file = new PartialFile(config, "double.bin", content.length);
+        file.write(ByteBuffer.wrap(content), 0);
+        store.materialize(file, content.length, hash, "user1");
+
+        assertTrue(Files.isSameFile(store.pathOf("original.bin"), store.pathOf("double.bin")));
+        assertEquals(hash, store.lookup("double.bin").hash);
+    }
+
+    @Test
+    public void indexIsReloadedAfterRestart() throws Exception {
+        store.close();
+        store = new ContentStore(config);
+
+        ContentStore.StoredFile stored = store.lookup("original.bin", "admin");
+        assertEquals(hash, stored.hash);
+        assertEquals(content.length, stored.size);
+        assertNull(store.lookup("original.bin", "user1"));
+    }
+
+    @Test
+    public void malformedIndexLinesAreIgnored() throws Exception {
+        store.close();
+        Path index = folder.getRoot().toPath().resolve("storage").resolve(ContentStore.INDEX_FILE);
+        Files.write(index, List.of(hash + " ancien.bin", hash + "\tx\tuser1\t0\tmauvais.bin"),
+            StandardOpenOption.APPEND);
+        store = new ContentStore(config);
+
+        assertEquals(hash, store.lookup("original.bin").hash);
+        assertNull(store.lookup("ancien.bin"));
+        assertNull(store.lookup("mauvais.bin"));
+    }
+
+    @Test
+    public void indexIsCompactedWhenMostLinesAreStale() throws Exception {
+        store.close();
+        Path index = folder.getRoot().toPath().resolve("storage").resolve(ContentStore.INDEX_FILE);
+        String line = Files.readAllLines(index).get(0);
+        List<String> stale = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            stale.add(line);
+        }
+        Files.write(index, stale, StandardOpenOption.APPEND);
+        store = new ContentStore(config);
+
+        assertEquals(List.of(line), Files.readAllLines(index));
+        assertEquals(hash, store.lookup("original.bin", "admin").hash);
+    }
+}
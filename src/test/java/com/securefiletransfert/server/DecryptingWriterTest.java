@@ -0,0 +1,121 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.CryptoUtils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DecryptingWriterTest {
+
+    private static final int BUFFER_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerConfig config;
+    private BufferPool buffers;
+    private byte[] content;
+    private String hash;
+    private SecretKey key;
+    private final ServerMetrics metrics = new ServerMetrics();
+
+    @Before
+    public void setUp() throws Exception {
+        config = new ServerConfig(ServerConfig.DEFAULT_PORT, folder.getRoot().toString(),
+            BUFFER_SIZE);
+        buffers = DecryptingWriter.createBufferPool(config, 1);
+        // Plusieurs buffers, le dernier incomplet
+        content = new byte[10 * BUFFER_SIZE + 123];
+        new Random(2).nextBytes(content);
+        hash = CryptoUtils.calculateFileHash(content);
+        key = CryptoUtils.getSecretKey();
+    }
+
+    /**
+     * Envoie un flux chiffré par morceaux de taille irrégulière
+     */
+    private static void send(DecryptingWriter writer, byte[] encrypted) throws Exception {
+        int offset = 0;
+        int step = 1;
+        while (offset < encrypted.length) {
+            int n = Math.min(step, encrypted.length - offset);
+            writer.write(ByteBuffer.wrap(encrypted, offset, n));
+            offset += n;
+            step = step * 3 + 7;
+        }
+    }
+
+    private boolean hasTemporaryFile() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder.getRoot().toPath(),
+                ".upload-*")) {
+            return files.iterator().hasNext();
+        }
+    }
+
+    @Test
+    public void streamedFileIsDecryptedAndHashed() throws Exception {
+        byte[] encrypted = CryptoUtils.encrypt(content);
+        PartialFile file = new PartialFile(config, "f.bin", content.length);
+        DecryptingWriter writer = new DecryptingWriter(file, 0, buffers, key,
+            CryptoUtils.createDigest(), metrics);
+
+        send(writer, encrypted);
+        assertEquals(content.length, writer.finish());
+        assertEquals(hash, writer.getHash());
+        assertFalse(Files.exists(file.getTarget()));
+
+        file.publish(content.length);
+        assertArrayEquals(content, Files.readAllBytes(file.getTarget()));
+        assertFalse(hasTemporaryFile());
+    }
+
+    @Test
+    public void rangesAreWrittenAtTheirOffset() throws Exception {
+        int half = 5 * BUFFER_SIZE;
+        PartialFile file = new PartialFile(config, "f.bin", content.length);
+        // Chaque plage est chiffrée indépendamment ; la seconde arrive d'abord
+        DecryptingWriter second = new DecryptingWriter(file, half, buffers, key, null, metrics);
+        send(second, CryptoUtils.encrypt(Arrays.copyOfRange(content, half, content.length)));
+        assertEquals(content.length - half, second.finish());
+        DecryptingWriter first = new DecryptingWriter(file, 0, buffers, key, null, metrics);
+        send(first, CryptoUtils.encrypt(Arrays.copyOf(content, half)));
+        assertEquals(half, first.finish());
+
+        assertEquals(hash, file.hash(content.length));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pathInFileNameIsRejected() throws Exception {
+        new PartialFile(config, "../../autre/f.bin", 0);
+    }
+
+    @Test
+    public void abortRemovesTemporaryFile() throws Exception {
+        PartialFile file = new PartialFile(config, "f.bin", content.length);
+        DecryptingWriter writer = new DecryptingWriter(file, 0, buffers, key,
+            CryptoUtils.createDigest(), metrics);
+        send(writer, Arrays.copyOf(CryptoUtils.encrypt(content), 1000));
+        assertTrue(hasTemporaryFile());
+
+        writer.release();
+        file.abort();
+        assertFalse(hasTemporaryFile());
+        assertFalse(Files.exists(file.getTarget()));
+    }
+}
@@ -0,0 +1,139 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.client.DeltaEncoder;
+import com.securefiletransfert.client.FileProcessor;
+import com.securefiletransfert.common.BlockSignatures;
+import com.securefiletransfert.common.CryptoUtils;
+import com.securefiletransfert.common.ProtocolConstants;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeltaReceiverTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerConfig config;
+    private Path stored;
+    private byte[] base;
+    private BlockSignatures signatures;
+
+    @Before
+    public void setUp() throws Exception {
+        config = new ServerConfig(ServerConfig.DEFAULT_PORT,
+            folder.newFolder("storage").toString(), ProtocolConstants.STREAM_CHUNK_SIZE);
+        // Le dernier bloc est incomplet
+        base = new byte[1_000_000 + 321];
+        new Random(11).nextBytes(base);
+        stored = folder.newFile("stored.bin").toPath();
+        Files.write(stored, base);
+        signatures = BlockSignatures.compute(new ByteArrayInputStream(base), base.length,
+            BlockSignatures.chooseBlockSize(base.length));
+    }
+
+    private byte[] encode(byte[] content, long[] literalBytes) throws Exception {
+        Path path = folder.newFile().toPath();
+        Files.write(path, content);
+        FileProcessor.StreamedFile file = new FileProcessor.StreamedFile(path,
+            CryptoUtils.calculateFileHash(content), content.length);
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        literalBytes[0] = DeltaEncoder.encode(file, signatures, new DataOutputStream(delta));
+        return CryptoUtils.encrypt(delta.toByteArray());
+    }
+
+    /**
+     * Applique le flux chiffré par morceaux de taille irrégulière
+     */
+    private DeltaReceiver apply(byte[] encrypted, PartialFile output, byte[] content)
+            throws Exception {
+        DeltaReceiver receiver = new DeltaReceiver(output, FileChannel.open(stored),
+            signatures.getBlockSize(), base.length, content.length,
+            CryptoUtils.calculateFileHash(content), CryptoUtils.getSecretKey(),
+            new ServerMetrics());
+        int offset = 0;
+        int step = 1;
+        while (offset < encrypted.length) {
+            int n = Math.min(step, encrypted.length - offset);
+            receiver.write(ByteBuffer.wrap(encrypted, offset, n));
+            offset += n;
+            step = step * 3 + 5;
+        }
+        return receiver;
+    }
+
+    private void roundTrip(byte[] content, long maxLiteralBytes) throws Exception {
+        long[] literalBytes = new long[1];
+        byte[] encrypted = encode(content, literalBytes);
+        assertTrue("trop d'octets envoyés: " + literalBytes[0],
+            literalBytes[0] <= maxLiteralBytes);
+
+        PartialFile output = new PartialFile(config, "f.bin", content.length);
+        DeltaReceiver receiver = apply(encrypted, output, content);
+        RecordingCompletion completion = new RecordingCompletion(new ContentStore(config));
+        assertTrue(receiver.complete(completion));
+        assertTrue(completion.succeeded);
+        assertArrayEquals(content, Files.readAllBytes(output.getTarget()));
+    }
+
+    @Test
+    public void unchangedFileIsOnlyCopied() throws Exception {
+        roundTrip(base, 0);
+    }
+
+    @Test
+    public void modifiedBlocksAreSentAsLiterals() throws Exception {
+        byte[] content = base.clone();
+        content[1000] ^= 1;
+        content[500_000] ^= 1;
+        roundTrip(content, 2L * signatures.getBlockSize());
+    }
+
+    @Test
+    public void insertionDoesNotShiftTheFollowingBlocks() throws Exception {
+        byte[] inserted = new byte[777];
+        new Random(12).nextBytes(inserted);
+        byte[] content = new byte[base.length + inserted.length];
+        System.arraycopy(inserted, 0, content, 0, inserted.length);
+        System.arraycopy(base, 0, content, inserted.length, base.length);
+        roundTrip(content, inserted.length);
+    }
+
+    @Test
+    public void truncatedStreamIsRejected() throws Exception {
+        long[] literalBytes = new long[1];
+        byte[] content = base.clone();
+        content[0] ^= 1;
+        byte[] encrypted = encode(content, literalBytes);
+        // Flux coupé au milieu de la première instruction
+        byte[] truncated = CryptoUtils.encrypt(Arrays.copyOf(CryptoUtils.decrypt(encrypted), 10));
+
+        PartialFile output = new PartialFile(config, "f.bin", content.length);
+        DeltaReceiver receiver = apply(truncated, output, content);
+        try {
+            receiver.finish();
+            fail("flux tronqué accepté");
+        } catch (ProtocolException e) {
+            // attendu
+        } finally {
+            receiver.abort();
+        }
+    }
+}
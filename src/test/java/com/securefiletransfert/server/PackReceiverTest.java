@@ -0,0 +1,172 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.CryptoUtils;
+import com.securefiletransfert.common.ProtocolConstants;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PackReceiverTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerConfig config;
+    private Path storage;
+    private final List<byte[]> contents = new ArrayList<>();
+    private final List<PackReceiver.Entry> entries = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        storage = folder.newFolder("storage").toPath();
+        config = new ServerConfig(ServerConfig.DEFAULT_PORT, storage.toString(),
+            ProtocolConstants.STREAM_CHUNK_SIZE);
+        // Tailles variées, dont un fichier vide au milieu et un en fin de lot
+        int[] sizes = {4096, 1, 0, 70_000, 4096, 0};
+        Random random = new Random(22);
+        for (int i = 0; i < sizes.length; i++) {
+            byte[] content = new byte[sizes[i]];
+            random.nextBytes(content);
+            contents.add(content);
+            entries.add(new PackReceiver.Entry("f" + i + ".bin", content.length,
+                CryptoUtils.calculateFileHash(content)));
+        }
+    }
+
+    /**
+     * Flux du lot : les fichiers absents de present, dans l'ordre de l'index
+     */
+    private byte[] pack(List<Integer> present) throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < contents.size(); i++) {
+            if (!present.contains(i)) {
+                stream.write(contents.get(i));
+            }
+        }
+        return CryptoUtils.encrypt(stream.toByteArray());
+    }
+
+    private PackReceiver receive(List<Integer> present) throws Exception {
+        PackReceiver receiver = new PackReceiver(config, entries, present,
+            CryptoUtils.getSecretKey(), new ServerMetrics());
+        byte[] encrypted = pack(present);
+        int offset = 0;
+        int step = 1;
+        while (offset < encrypted.length) {
+            int n = Math.min(step, encrypted.length - offset);
+            receiver.write(ByteBuffer.wrap(encrypted, offset, n));
+            offset += n;
+            step = step * 3 + 5;
+        }
+        return receiver;
+    }
+
+    /**
+     * Statuts de la réponse PACK_RESULT (les derniers octets de la trame)
+     */
+    private byte[] complete(PackReceiver receiver) throws Exception {
+        RecordingCompletion completion = new RecordingCompletion(new ContentStore(config));
+        assertTrue(receiver.complete(completion));
+        assertEquals(1, completion.sent.size());
+        ByteBuffer frame = completion.sent.get(0);
+        byte[] status = new byte[entries.size()];
+        frame.position(frame.limit() - status.length);
+        frame.get(status);
+        return status;
+    }
+
+    private int temporaryFiles() throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(storage, ".upload-*")) {
+            for (Path ignored : files) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void streamIsSplitIntoItsFiles() throws Exception {
+        byte[] status = complete(receive(List.of()));
+
+        byte[] stored = new byte[entries.size()];
+        Arrays.fill(stored, ProtocolConstants.PACK_STORED);
+        assertArrayEquals(stored, status);
+        for (int i = 0; i < entries.size(); i++) {
+            assertArrayEquals(contents.get(i),
+                Files.readAllBytes(storage.resolve(entries.get(i).filename)));
+        }
+        assertEquals(0, temporaryFiles());
+    }
+
+    @Test
+    public void presentFilesAreSkippedInTheStream() throws Exception {
+        byte[] status = complete(receive(List.of(0, 3)));
+
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(i == 0 || i == 3 ? ProtocolConstants.PACK_PRESENT :
+                ProtocolConstants.PACK_STORED, status[i]);
+        }
+        assertFalse(Files.exists(storage.resolve("f3.bin")));
+        assertArrayEquals(contents.get(4), Files.readAllBytes(storage.resolve("f4.bin")));
+    }
+
+    @Test
+    public void corruptedFileFailsAlone() throws Exception {
+        contents.get(3)[1234] ^= 1;
+        byte[] status = complete(receive(List.of()));
+
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(i == 3 ? ProtocolConstants.PACK_FAILED : ProtocolConstants.PACK_STORED,
+                status[i]);
+        }
+        assertFalse(Files.exists(storage.resolve("f3.bin")));
+        assertArrayEquals(contents.get(4), Files.readAllBytes(storage.resolve("f4.bin")));
+        assertEquals(0, temporaryFiles());
+    }
+
+    @Test
+    public void truncatedPackIsRejected() throws Exception {
+        contents.set(3, Arrays.copyOf(contents.get(3), 1000));
+        PackReceiver receiver = receive(List.of());
+        try {
+            complete(receiver);
+            fail("lot tronqué accepté");
+        } catch (ProtocolException e) {
+            // attendu
+        }
+        receiver.abort();
+        assertEquals(0, temporaryFiles());
+    }
+
+    @Test
+    public void dataBeyondTheIndexIsRejected() throws Exception {
+        contents.add(new byte[] {1, 2, 3});
+        try {
+            complete(receive(List.of()));
+            fail("octets en trop acceptés");
+        } catch (ProtocolException e) {
+            // attendu
+        }
+    }
+}
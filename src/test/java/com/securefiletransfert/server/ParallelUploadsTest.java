@@ -0,0 +1,183 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.CryptoUtils;
+import com.securefiletransfert.common.ProtocolConstants;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelUploadsTest {
+
+    private static final long IDLE_TIMEOUT_MILLIS = 200;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerConfig config;
+    private ContentStore store;
+    private ParallelUploads uploads;
+    private byte[] content;
+    private String hash;
+
+    @Before
+    public void setUp() throws Exception {
+        config = new ServerConfig(ServerConfig.DEFAULT_PORT, folder.getRoot().toString(),
+            ProtocolConstants.STREAM_CHUNK_SIZE);
+        store = new ContentStore(config);
+        uploads = new ParallelUploads(store, IDLE_TIMEOUT_MILLIS);
+        content = new byte[300_000];
+        new Random(8).nextBytes(content);
+        hash = CryptoUtils.calculateFileHash(content);
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    private ParallelUploads.Assembly join() throws Exception {
+        return uploads.join("admin/t1", "admin", config, "f.bin", content.length, hash);
+    }
+
+    private void write(ParallelUploads.Assembly assembly, int offset, int length)
+            throws Exception {
+        assembly.getFile().write(ByteBuffer.wrap(content, offset, length), offset);
+    }
+
+    private int temporaryFiles() throws Exception {
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder.getRoot().toPath(),
+                ".upload-*")) {
+            for (Path ignored : files) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void rangesCoveringTheFileArePublished() throws Exception {
+        ParallelUploads.Assembly first = join();
+        ParallelUploads.Assembly second = join();
+        assertTrue(first == second);
+        assertTrue(first.beginRange(0, 100_000));
+        assertTrue(second.beginRange(100_000, 200_000));
+
+        write(second, 100_000, 200_000);
+        assertTrue(second.completeRange(100_000, 200_000));
+        assertNull(store.lookup("f.bin"));
+        write(first, 0, 100_000);
+        assertTrue(first.completeRange(0, 100_000));
+
+        assertNotNull(store.lookup("f.bin"));
+        assertEquals(hash, CryptoUtils.calculateFileHash(Files.readAllBytes(
+            store.pathOf("f.bin"))));
+        assertEquals(0, uploads.size());
+        assertEquals(0, temporaryFiles());
+    }
+
+    @Test
+    public void differentMetadataCannotJoin() throws Exception {
+        join();
+        try {
+            uploads.join("admin/t1", "admin", config, "f.bin", content.length + 1, hash);
+            fail("plage d'un autre fichier acceptée");
+        } catch (IOException e) {
+            // attendu
+        }
+    }
+
+    @Test
+    public void overlappingRangeAbandonsTheFile() throws Exception {
+        ParallelUploads.Assembly assembly = join();
+        assertTrue(assembly.beginRange(0, 200_000));
+        assertFalse(assembly.beginRange(100_000, 200_000));
+
+        // La plage déjà commencée termine sans publier
+        write(assembly, 0, 200_000);
+        assertFalse(assembly.completeRange(0, 200_000));
+        assertNull(store.lookup("f.bin"));
+        assertEquals(0, uploads.size());
+        assertEquals(0, temporaryFiles());
+    }
+
+    @Test
+    public void rangeOutsideTheFileIsRejected() throws Exception {
+        ParallelUploads.Assembly assembly = join();
+        assertFalse(assembly.beginRange(200_000, 200_000));
+        assertEquals(0, uploads.size());
+        assertEquals(0, temporaryFiles());
+    }
+
+    @Test
+    public void corruptedAssemblyIsNotPublished() throws Exception {
+        ParallelUploads.Assembly assembly = join();
+        assertTrue(assembly.beginRange(0, content.length));
+        content[12345] ^= 1;
+        write(assembly, 0, content.length);
+
+        assertFalse(assembly.completeRange(0, content.length));
+        assertNull(store.lookup("f.bin"));
+        assertEquals(0, temporaryFiles());
+    }
+
+    @Test
+    public void incompleteAssemblyExpiresWhenIdle() throws Exception {
+        ParallelUploads.Assembly assembly = join();
+        assertTrue(assembly.beginRange(0, 100_000));
+        write(assembly, 0, 100_000);
+        assertTrue(assembly.completeRange(0, 100_000));
+        assertEquals(1, uploads.size());
+
+        Thread.sleep(IDLE_TIMEOUT_MILLIS * 3);
+        assertEquals(0, uploads.size());
+        assertEquals(0, temporaryFiles());
+        assertFalse(assembly.beginRange(100_000, 200_000));
+    }
+
+    @Test
+    public void newRangeKeepsTheAssemblyAlive() throws Exception {
+        ParallelUploads.Assembly assembly = join();
+        assertTrue(assembly.beginRange(0, 100_000));
+        write(assembly, 0, 100_000);
+        assertTrue(assembly.completeRange(0, 100_000));
+
+        assertTrue(join().beginRange(100_000, 200_000));
+        Thread.sleep(IDLE_TIMEOUT_MILLIS * 3);
+        assertEquals(1, uploads.size());
+        write(assembly, 100_000, 200_000);
+        assertTrue(assembly.completeRange(100_000, 200_000));
+        assertNotNull(store.lookup("f.bin"));
+    }
+
+    @Test
+    public void failedRangeAbandonsTheFile() throws Exception {
+        ParallelUploads.Assembly assembly = join();
+        assertTrue(assembly.beginRange(0, 100_000));
+        assertTrue(assembly.beginRange(100_000, 200_000));
+        assembly.failRange();
+        assertEquals(1, temporaryFiles());
+
+        write(assembly, 0, 100_000);
+        assertFalse(assembly.completeRange(0, 100_000));
+        assertEquals(0, uploads.size());
+        assertEquals(0, temporaryFiles());
+    }
+}
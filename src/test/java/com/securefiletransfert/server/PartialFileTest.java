@@ -0,0 +1,62 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.ProtocolConstants;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class PartialFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerConfig config;
+
+    @Before
+    public void setUp() {
+        config = new ServerConfig(ServerConfig.DEFAULT_PORT, folder.getRoot().toString(),
+            ProtocolConstants.STREAM_CHUNK_SIZE);
+    }
+
+    private boolean hasTemporaryFile() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder.getRoot().toPath(),
+                ".upload-*")) {
+            return files.iterator().hasNext();
+        }
+    }
+
+    @Test
+    public void sizeHintExtendsTheFileUntilPublication() throws Exception {
+        PartialFile file = new PartialFile(config, "f.bin", 100_000);
+        assertEquals(100_000, Files.size(file.getTempFile()));
+
+        file.write(ByteBuffer.wrap(new byte[] {1, 2, 3}), 0);
+        file.publish(3);
+        assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(file.getTarget()));
+        assertFalse(hasTemporaryFile());
+    }
+
+    @Test
+    public void sizeHintBeyondFreeSpaceIsRefused() throws Exception {
+        try {
+            new PartialFile(config, "f.bin", Long.MAX_VALUE / 2);
+            fail("fichier creux plus grand que le disque");
+        } catch (IOException e) {
+            // attendu
+        }
+        assertFalse(hasTemporaryFile());
+    }
+}
@@ -0,0 +1,55 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.FrameEncoder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Completion de test : garde les réponses qu'une session enverrait au client
+ */
+class RecordingCompletion implements Receiver.Completion {
+
+    private final ContentStore store;
+    private final FrameEncoder encoder = new FrameEncoder();
+    final List<ByteBuffer> sent = new ArrayList<>();
+    boolean succeeded = false;
+    String failure;
+
+    RecordingCompletion(ContentStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public ContentStore getStore() {
+        return store;
+    }
+
+    @Override
+    public String getOwner() {
+        return "admin";
+    }
+
+    @Override
+    public void succeed() {
+        succeeded = true;
+    }
+
+    @Override
+    public void fail(String reason) {
+        failure = reason;
+    }
+
+    @Override
+    public FrameEncoder reply(byte type) {
+        return encoder.begin(type).putInt(1);
+    }
+
+    @Override
+    public void send(ByteBuffer frame) {
+        ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+        copy.put(frame).flip();
+        sent.add(copy);
+    }
+}
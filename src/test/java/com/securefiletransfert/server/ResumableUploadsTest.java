@@ -0,0 +1,130 @@
+package com.securefiletransfert.server;
+
+import com.securefiletransfert.common.CryptoUtils;
+import com.securefiletransfert.common.ProtocolConstants;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ResumableUploadsTest {
+
+    private static final int MB = 1024 * 1024;
+    private static final String KEY = "admin/transfert-1";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerConfig config;
+    private ResumableUploads uploads;
+    private byte[] content;
+    private String hash;
+
+    @Before
+    public void setUp() throws Exception {
+        config = new ServerConfig(ServerConfig.DEFAULT_PORT, folder.getRoot().toString(),
+            ProtocolConstants.STREAM_CHUNK_SIZE);
+        uploads = new ResumableUploads();
+        content = new byte[6 * MB];
+        new Random(1).nextBytes(content);
+        hash = CryptoUtils.calculateFileHash(content);
+    }
+
+    /**
+     * Reçoit les length premiers octets puis coupe la connexion
+     */
+    private void receiveAndDisconnect(int length) throws Exception {
+        ResumableUploads.Transfer transfer = uploads.open(KEY, config, "f.bin",
+            content.length, hash);
+        transfer.getFile().write(ByteBuffer.wrap(content, 0, length), 0);
+        transfer.progress(length);
+        transfer.suspend();
+    }
+
+    private Path partialFile() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(
+                folder.getRoot().toPath().resolve(ResumableUploads.RESUME_DIR), "*.part")) {
+            return files.iterator().next();
+        }
+    }
+
+    @Test
+    public void resumesAfterLastCheckpoint() throws Exception {
+        receiveAndDisconnect(5 * MB);
+
+        ResumableUploads.Transfer transfer = uploads.open(KEY, config, "f.bin",
+            content.length, hash);
+        assertEquals(5 * MB, transfer.getCommittedOffset());
+        // Le hash en cours couvre exactement le contenu déjà reçu
+        MessageDigest expected = CryptoUtils.createDigest();
+        expected.update(content, 0, 5 * MB);
+        assertArrayEquals(expected.digest(),
+            ((MessageDigest) transfer.getDigest().clone()).digest());
+        transfer.suspend();
+    }
+
+    @Test
+    public void noCheckpointBelowCheckpointSize() throws Exception {
+        receiveAndDisconnect(MB);
+
+        ResumableUploads.Transfer transfer = uploads.open(KEY, config, "f.bin",
+            content.length, hash);
+        assertEquals(0, transfer.getCommittedOffset());
+        transfer.suspend();
+    }
+
+    @Test
+    public void corruptedChunkIsNotResumed() throws Exception {
+        receiveAndDisconnect(5 * MB);
+        try (FileChannel channel = FileChannel.open(partialFile(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {(byte) ~content[MB]}), MB);
+        }
+
+        ResumableUploads.Transfer transfer = uploads.open(KEY, config, "f.bin",
+            content.length, hash);
+        assertEquals(0, transfer.getCommittedOffset());
+        transfer.suspend();
+    }
+
+    @Test
+    public void otherContentStartsOver() throws Exception {
+        receiveAndDisconnect(5 * MB);
+        byte[] other = Arrays.copyOf(content, content.length);
+        other[0]++;
+
+        ResumableUploads.Transfer transfer = uploads.open(KEY, config, "f.bin",
+            other.length, CryptoUtils.calculateFileHash(other));
+        assertEquals(0, transfer.getCommittedOffset());
+        transfer.suspend();
+    }
+
+    @Test
+    public void sameTransferCannotBeOpenedTwice() throws Exception {
+        ResumableUploads.Transfer transfer = uploads.open(KEY, config, "f.bin",
+            content.length, hash);
+        try {
+            uploads.open(KEY, config, "f.bin", content.length, hash);
+            fail("transfert ouvert sur deux connexions");
+        } catch (IOException e) {
+            // attendu
+        }
+        transfer.suspend();
+        uploads.open(KEY, config, "f.bin", content.length, hash).suspend();
+    }
+}
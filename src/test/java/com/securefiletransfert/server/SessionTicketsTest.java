@@ -0,0 +1,56 @@
+package com.securefiletransfert.server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SessionTicketsTest {
+
+    private final byte[] secret = {1, 2, 3, 4};
+
+    @Test
+    public void ticketIsRedeemedOnlyOnce() {
+        SessionTickets tickets = new SessionTickets(10, 60);
+        byte[] ticket = tickets.issue("user1", secret);
+        assertEquals(SessionTickets.TICKET_SIZE, ticket.length);
+
+        assertArrayEquals(secret, tickets.redeem(ticket, "user1"));
+        assertNull(tickets.redeem(ticket, "user1"));
+    }
+
+    @Test
+    public void ticketIsBoundToItsUser() {
+        SessionTickets tickets = new SessionTickets(10, 60);
+        byte[] ticket = tickets.issue("user1", secret);
+        assertNull(tickets.redeem(ticket, "user2"));
+        // Un essai refusé consomme quand même le ticket
+        assertNull(tickets.redeem(ticket, "user1"));
+    }
+
+    @Test
+    public void oldestTicketIsEvictedAtCapacity() {
+        SessionTickets tickets = new SessionTickets(2, 60);
+        byte[] first = tickets.issue("user1", secret);
+        byte[] second = tickets.issue("user1", secret);
+        byte[] third = tickets.issue("user1", secret);
+
+        assertNull(tickets.redeem(first, "user1"));
+        assertArrayEquals(secret, tickets.redeem(second, "user1"));
+        assertArrayEquals(secret, tickets.redeem(third, "user1"));
+    }
+
+    @Test
+    public void expiredTicketIsRefused() throws Exception {
+        SessionTickets tickets = new SessionTickets(10, 1);
+        byte[] ticket = tickets.issue("user1", secret);
+        Thread.sleep(1100);
+        assertNull(tickets.redeem(ticket, "user1"));
+    }
+
+    @Test
+    public void zeroTtlDisablesResumption() {
+        assertNull(new SessionTickets(10, 0).issue("user1", secret));
+    }
+}
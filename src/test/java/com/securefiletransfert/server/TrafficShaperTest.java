@@ -0,0 +1,69 @@
+package com.securefiletransfert.server;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TrafficShaperTest {
+
+    private static final long USER_RATE = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TrafficShaper shaper(String... options) throws Exception {
+        String[] args = new String[3 + options.length];
+        args[0] = String.valueOf(ServerConfig.DEFAULT_PORT);
+        args[1] = folder.getRoot().toString();
+        args[2] = "65536";
+        System.arraycopy(options, 0, args, 3, options.length);
+        return new TrafficShaper(ServerConfig.fromArgs(args));
+    }
+
+    @Test
+    public void reconnectingDoesNotRefillTheBucket() throws Exception {
+        TrafficShaper shaper = shaper("--user-rate=" + USER_RATE / 1024);
+        assertTrue(shaper.openSession("alice"));
+        // Deux secondes de débit : la rafale est dépassée
+        assertTrue(shaper.reserve("alice", 2 * USER_RATE, false) > 0);
+        shaper.closeSession("alice");
+
+        assertTrue(shaper.openSession("alice"));
+        assertTrue(shaper.reserve("alice", 1024, false) > 0);
+        shaper.closeSession("alice");
+        assertTrue(shaper.getUserSessions().isEmpty());
+    }
+
+    @Test
+    public void refilledBucketIsForgotten() throws Exception {
+        TrafficShaper shaper = shaper("--user-rate=" + USER_RATE / 1024);
+        assertTrue(shaper.openSession("alice"));
+        assertEquals(0, shaper.reserve("alice", USER_RATE / 10, false));
+        shaper.closeSession("alice");
+
+        Thread.sleep(300);
+        assertTrue(shaper.openSession("alice"));
+        assertEquals(0, shaper.reserve("alice", USER_RATE / 10, false));
+        shaper.closeSession("alice");
+    }
+
+    @Test
+    public void sessionLimitCountsOnlyOpenSessions() throws Exception {
+        TrafficShaper shaper = shaper("--user-sessions=2");
+        assertTrue(shaper.openSession("alice"));
+        assertTrue(shaper.openSession("alice"));
+        assertFalse(shaper.openSession("alice"));
+        assertEquals(1, shaper.getRejectedSessions());
+        Map<String, Integer> sessions = shaper.getUserSessions();
+        assertEquals(Integer.valueOf(2), sessions.get("alice"));
+
+        shaper.closeSession("alice");
+        assertTrue(shaper.openSession("alice"));
+    }
+}